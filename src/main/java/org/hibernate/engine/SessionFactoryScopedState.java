@@ -0,0 +1,124 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.engine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logging.Logger;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.SessionFactoryImpl;
+
+/**
+ * Holds a piece of state (caches, indexes, ...) per SessionFactory.  The state for a SessionFactory is created on
+ * first access and released when that SessionFactory is closed, so the state may reference the SessionFactory and
+ * its persisters without keeping them reachable past their lifetime.
+ *
+ * @param <T> The type of the state
+ *
+ * @author Steve Ebersole
+ */
+public abstract class SessionFactoryScopedState<T> {
+	private static final Logger log = Logger.getLogger( SessionFactoryScopedState.class );
+
+	private final ConcurrentMap<SessionFactoryImplementor,T> states
+			= new ConcurrentHashMap<SessionFactoryImplementor, T>();
+
+	/**
+	 * Access the state of the given SessionFactory, creating it if needed.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 *
+	 * @return The state
+	 */
+	public T get(SessionFactoryImplementor sessionFactory) {
+		T state = states.get( sessionFactory );
+		if ( state == null ) {
+			final T created = create( sessionFactory );
+			if ( sessionFactory.isClosed() ) {
+				// nothing would ever release it
+				return created;
+			}
+			state = states.putIfAbsent( sessionFactory, created );
+			if ( state == null ) {
+				state = created;
+				releaseOnClose( sessionFactory );
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Create the state for the given SessionFactory.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 *
+	 * @return The state
+	 */
+	protected abstract T create(SessionFactoryImplementor sessionFactory);
+
+	/**
+	 * Release the state of the given SessionFactory, if any.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 */
+	public void release(SessionFactoryImplementor sessionFactory) {
+		states.remove( sessionFactory );
+	}
+
+	/**
+	 * The number of SessionFactories currently holding state.
+	 *
+	 * @return The number of states
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	private void releaseOnClose(final SessionFactoryImplementor sessionFactory) {
+		if ( SessionFactoryImpl.class.isInstance( sessionFactory ) ) {
+			( (SessionFactoryImpl) sessionFactory ).addObserver(
+					new SessionFactoryObserver() {
+						@Override
+						public void sessionFactoryCreated(SessionFactory factory) {
+						}
+
+						@Override
+						public void sessionFactoryClosed(SessionFactory factory) {
+							release( sessionFactory );
+						}
+					}
+			);
+		}
+		else {
+			log.debugf(
+					"Unable to observe closing of SessionFactory [%s]; its state must be released explicitly",
+					sessionFactory
+			);
+		}
+	}
+}
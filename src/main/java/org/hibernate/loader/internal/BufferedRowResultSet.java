@@ -0,0 +1,355 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Exposes the rows of a {@link RowSource} as a (read-only) {@link ResultSet}, so that row values read ahead of time
+ * (by another thread, from a cache, from a spill file, ...) can be processed by the standard ResultSet processing
+ * code.  The ResultSet is forward-only, unless the source is a {@link ScrollableRowSource}.
+ * <p/>
+ * Only the columns of the {@link RowLayout} are available.  Values are served as buffered, converted to the requested
+ * type where needed ({@code getInt} against a buffered {@code Long}, e.g.).
+ *
+ * @author Steve Ebersole
+ */
+public class BufferedRowResultSet implements InvocationHandler {
+	private static final Class[] PROXY_INTERFACES = new Class[] { ResultSet.class };
+	private static final Set<String> SCROLLING_METHODS = new HashSet<String>(
+			Arrays.asList(
+					"previous", "absolute", "relative", "first", "last", "beforeFirst", "afterLast",
+					"isBeforeFirst", "isAfterLast", "isFirst", "isLast"
+			)
+	);
+
+	/**
+	 * Generate a ResultSet proxy over the given row source.
+	 *
+	 * @param layout The layout of the rows
+	 * @param rowSource The source of the rows
+	 *
+	 * @return The ResultSet proxy
+	 */
+	public static ResultSet generateProxy(RowLayout layout, RowSource rowSource) {
+		return (ResultSet) Proxy.newProxyInstance(
+				BufferedRowResultSet.class.getClassLoader(),
+				PROXY_INTERFACES,
+				new BufferedRowResultSet( layout, rowSource )
+		);
+	}
+
+	private final RowLayout layout;
+	private final RowSource rowSource;
+	private final ScrollableRowSource scrollableRowSource;
+
+	private RowBuffer currentRow;
+	private int rowNumber;
+	private boolean lastWasNull;
+	private boolean closed;
+
+	private BufferedRowResultSet(RowLayout layout, RowSource rowSource) {
+		this.layout = layout;
+		this.rowSource = rowSource;
+		this.scrollableRowSource = rowSource instanceof ScrollableRowSource ? (ScrollableRowSource) rowSource : null;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		final String methodName = method.getName();
+
+		if ( "next".equals( methodName ) ) {
+			checkOpen();
+			if ( scrollableRowSource != null ) {
+				return moveTo( rowNumber + 1 );
+			}
+			currentRow = rowSource.nextRow();
+			if ( currentRow == null ) {
+				return false;
+			}
+			rowNumber++;
+			return true;
+		}
+		if ( scrollableRowSource != null && SCROLLING_METHODS.contains( methodName ) ) {
+			checkOpen();
+			return scroll( methodName, args );
+		}
+		if ( "wasNull".equals( methodName ) ) {
+			return lastWasNull;
+		}
+		if ( "findColumn".equals( methodName ) ) {
+			return resolvePosition( args[0] ) + 1;
+		}
+		if ( methodName.startsWith( "get" ) && args != null && args.length > 0
+				&& ( args[0] instanceof String || args[0] instanceof Integer ) ) {
+			if ( "getObject".equals( methodName ) && args.length == 2 && args[1] instanceof Class ) {
+				// JDBC 4.1 getObject(column, type)
+				return extract( args[0], (Class) args[1] );
+			}
+			final Object value = extract( args[0], method.getReturnType() );
+			if ( "getBigDecimal".equals( methodName ) && args.length == 2 && value != null ) {
+				// deprecated getBigDecimal(column, scale)
+				return ( (BigDecimal) value ).setScale( (Integer) args[1], RoundingMode.HALF_UP );
+			}
+			// NOTE : the Calendar accepting variants are served as-is; the values were already materialized
+			return value;
+		}
+		if ( "close".equals( methodName ) ) {
+			if ( ! closed ) {
+				closed = true;
+				currentRow = null;
+				rowSource.close();
+			}
+			return null;
+		}
+		if ( "isClosed".equals( methodName ) ) {
+			return closed;
+		}
+		if ( "getRow".equals( methodName ) ) {
+			return currentRow == null ? 0 : rowNumber;
+		}
+		if ( "getType".equals( methodName ) ) {
+			return scrollableRowSource == null ? ResultSet.TYPE_FORWARD_ONLY : ResultSet.TYPE_SCROLL_INSENSITIVE;
+		}
+		if ( "getConcurrency".equals( methodName ) ) {
+			return ResultSet.CONCUR_READ_ONLY;
+		}
+		if ( "getFetchSize".equals( methodName ) ) {
+			return layout.getColumnCount() == 0 ? 0 : 1;
+		}
+		if ( "setFetchSize".equals( methodName ) || "clearWarnings".equals( methodName ) ) {
+			return null;
+		}
+		if ( "getWarnings".equals( methodName ) || "getStatement".equals( methodName ) ) {
+			return null;
+		}
+		if ( "isWrapperFor".equals( methodName ) ) {
+			return false;
+		}
+		if ( "toString".equals( methodName ) ) {
+			return "BufferedRowResultSet(" + layout.getColumnCount() + " columns)";
+		}
+		if ( "hashCode".equals( methodName ) ) {
+			return System.identityHashCode( proxy );
+		}
+		if ( "equals".equals( methodName ) ) {
+			return proxy == args[0];
+		}
+
+		throw new SQLFeatureNotSupportedException( "Not supported by buffered ResultSet : " + methodName );
+	}
+
+	private Object scroll(String methodName, Object[] args) throws SQLException {
+		if ( "previous".equals( methodName ) ) {
+			return moveTo( rowNumber - 1 );
+		}
+		if ( "absolute".equals( methodName ) ) {
+			final int row = (Integer) args[0];
+			return row >= 0 ? moveTo( row ) : moveTo( scrollableRowSource.getRowCount() + 1 + row );
+		}
+		if ( "relative".equals( methodName ) ) {
+			return moveTo( rowNumber + (Integer) args[0] );
+		}
+		if ( "first".equals( methodName ) ) {
+			return moveTo( 1 );
+		}
+		if ( "last".equals( methodName ) ) {
+			return moveTo( scrollableRowSource.getRowCount() );
+		}
+		if ( "beforeFirst".equals( methodName ) ) {
+			moveTo( 0 );
+			return null;
+		}
+		if ( "afterLast".equals( methodName ) ) {
+			moveTo( scrollableRowSource.getRowCount() + 1 );
+			return null;
+		}
+
+		final int rowCount = scrollableRowSource.getRowCount();
+		if ( "isBeforeFirst".equals( methodName ) ) {
+			return rowCount > 0 && rowNumber == 0;
+		}
+		if ( "isAfterLast".equals( methodName ) ) {
+			return rowCount > 0 && rowNumber > rowCount;
+		}
+		if ( "isFirst".equals( methodName ) ) {
+			return currentRow != null && rowNumber == 1;
+		}
+		// isLast
+		return currentRow != null && rowNumber == rowCount;
+	}
+
+	private boolean moveTo(int row) throws SQLException {
+		currentRow = row < 1 ? null : scrollableRowSource.getRow( row );
+		if ( currentRow != null ) {
+			rowNumber = row;
+			return true;
+		}
+		// positioned before the first or after the last row
+		rowNumber = row < 1 ? 0 : scrollableRowSource.getRowCount() + 1;
+		return false;
+	}
+
+	private void checkOpen() throws SQLException {
+		if ( closed ) {
+			throw new SQLException( "ResultSet is closed" );
+		}
+	}
+
+	private int resolvePosition(Object column) throws SQLException {
+		final int position;
+		if ( column instanceof Integer ) {
+			position = ( (Integer) column ) - 1;
+			if ( position < 0 || position >= layout.getColumnCount() ) {
+				throw new SQLException( "Column index out of range : " + column );
+			}
+		}
+		else {
+			position = layout.getPosition( (String) column );
+			if ( position < 0 ) {
+				throw new SQLException( "Column not part of the buffered row layout : " + column );
+			}
+		}
+		return position;
+	}
+
+	private Object extract(Object column, Class type) throws SQLException {
+		checkOpen();
+		if ( currentRow == null ) {
+			throw new SQLException( "ResultSet not positioned on a row" );
+		}
+		final Object value = currentRow.getValue( resolvePosition( column ) );
+		lastWasNull = value == null;
+		try {
+			return convert( value, type );
+		}
+		catch (RuntimeException e) {
+			throw new SQLException( "Could not convert buffered value [" + column + "] to " + type.getName(), e );
+		}
+	}
+
+	private static Object convert(Object value, Class type) throws SQLException {
+		if ( value == null ) {
+			return type.isPrimitive() ? primitiveDefault( type ) : null;
+		}
+		if ( type == Object.class || type.isInstance( value ) ) {
+			return value;
+		}
+		if ( type == String.class ) {
+			return value.toString();
+		}
+		if ( type == int.class || type == Integer.class ) {
+			return toNumber( value ).intValue();
+		}
+		if ( type == long.class || type == Long.class ) {
+			return toNumber( value ).longValue();
+		}
+		if ( type == short.class || type == Short.class ) {
+			return toNumber( value ).shortValue();
+		}
+		if ( type == byte.class || type == Byte.class ) {
+			return toNumber( value ).byteValue();
+		}
+		if ( type == double.class || type == Double.class ) {
+			return toNumber( value ).doubleValue();
+		}
+		if ( type == float.class || type == Float.class ) {
+			return toNumber( value ).floatValue();
+		}
+		if ( type == boolean.class || type == Boolean.class ) {
+			if ( value instanceof String ) {
+				return Boolean.valueOf( (String) value ) || "1".equals( value );
+			}
+			return toNumber( value ).intValue() != 0;
+		}
+		if ( type == BigDecimal.class ) {
+			return new BigDecimal( toNumber( value ).toString() );
+		}
+		if ( type == BigInteger.class ) {
+			return new BigDecimal( toNumber( value ).toString() ).toBigInteger();
+		}
+		if ( value instanceof java.util.Date ) {
+			final long time = ( (java.util.Date) value ).getTime();
+			if ( type == java.sql.Timestamp.class ) {
+				return new java.sql.Timestamp( time );
+			}
+			if ( type == java.sql.Date.class ) {
+				return new java.sql.Date( time );
+			}
+			if ( type == java.sql.Time.class ) {
+				return new java.sql.Time( time );
+			}
+		}
+		throw new SQLException( "Cannot convert buffered " + value.getClass().getName() + " to " + type.getName() );
+	}
+
+	private static Number toNumber(Object value) {
+		if ( value instanceof Number ) {
+			return (Number) value;
+		}
+		if ( value instanceof Boolean ) {
+			return ( (Boolean) value ) ? 1 : 0;
+		}
+		if ( value instanceof Character ) {
+			return (int) (Character) value;
+		}
+		return new BigDecimal( value.toString().trim() );
+	}
+
+	private static Object primitiveDefault(Class type) {
+		if ( type == boolean.class ) {
+			return false;
+		}
+		if ( type == char.class ) {
+			return '\u0000';
+		}
+		if ( type == float.class ) {
+			return 0f;
+		}
+		if ( type == double.class ) {
+			return 0d;
+		}
+		if ( type == long.class ) {
+			return 0L;
+		}
+		if ( type == short.class ) {
+			return (short) 0;
+		}
+		if ( type == byte.class ) {
+			return (byte) 0;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.spi.ResultSetProcessor;
+import org.hibernate.transform.ResultTransformer;
+
+/**
+ * A ResultSetProcessor capturing the raw column values read for its LoadPlan into a {@link RowSnapshot} (cached in a
+ * {@link RowSnapshotCache}) while processing, so that later executions of the same plan with the same parameters can
+ * be {@link #replayResults replayed} through the delegate processor without touching the database.
+ *
+ * @author Steve Ebersole
+ */
+public class CapturingResultSetProcessor implements ResultSetProcessor {
+	public static final int DEFAULT_INITIAL_CAPACITY = 8 * 1024;
+	public static final int DEFAULT_MAXIMUM_SNAPSHOT_SIZE = 4 * 1024 * 1024;
+
+	private final ResultSetProcessor delegate;
+	private final LoadPlan loadPlan;
+	private final RowLayout rowLayout;
+	private final RowSnapshotCache snapshotCache;
+	private final int maximumSnapshotSize;
+
+	public CapturingResultSetProcessor(ResultSetProcessor delegate, LoadPlan loadPlan, RowSnapshotCache snapshotCache) {
+		this( delegate, loadPlan, snapshotCache, DEFAULT_MAXIMUM_SNAPSHOT_SIZE );
+	}
+
+	public CapturingResultSetProcessor(
+			ResultSetProcessor delegate,
+			LoadPlan loadPlan,
+			RowSnapshotCache snapshotCache,
+			int maximumSnapshotSize) {
+		this.delegate = delegate;
+		this.loadPlan = loadPlan;
+		this.rowLayout = RowLayout.forLoadPlan( loadPlan );
+		this.snapshotCache = snapshotCache;
+		this.maximumSnapshotSize = maximumSnapshotSize;
+	}
+
+	@Override
+	public List extractResults(
+			ResultSet resultSet,
+			SessionImplementor session,
+			QueryParameters queryParameters,
+			boolean returnProxies,
+			ResultTransformer forcedResultTransformer) throws SQLException {
+		final RowSnapshot.Builder snapshotBuilder = new RowSnapshot.Builder(
+				rowLayout,
+				Math.min( DEFAULT_INITIAL_CAPACITY, maximumSnapshotSize ),
+				maximumSnapshotSize
+		);
+		final CapturingRowSource rowSource = new CapturingRowSource(
+				resultSet,
+				rowLayout.resolveColumnIndexes( resultSet ),
+				snapshotBuilder
+		);
+		final List results = delegate.extractResults(
+				BufferedRowResultSet.generateProxy( rowLayout, rowSource ),
+				session,
+				queryParameters,
+				returnProxies,
+				forcedResultTransformer
+		);
+
+		final RowSnapshot snapshot = snapshotBuilder.build();
+		if ( snapshot != null && rowSource.exhausted ) {
+			snapshotCache.put( new RowSnapshotCache.Key( loadPlan, queryParameters ), snapshot, session );
+		}
+		return results;
+	}
+
+	/**
+	 * Replay a previously captured execution of the plan with the given parameters.
+	 *
+	 * @param session The originating session
+	 * @param queryParameters The "parameters" used to build the query
+	 * @param returnProxies Can proxies be returned (not the same as can they be created!)
+	 * @param forcedResultTransformer My old "friend" ResultTransformer...
+	 *
+	 * @return The extracted results, or {@code null} if no (up to date) snapshot was available (the query needs to be
+	 * executed).
+	 *
+	 * @throws SQLException Indicates a problem processing the replayed rows
+	 */
+	public List replayResults(
+			SessionImplementor session,
+			QueryParameters queryParameters,
+			boolean returnProxies,
+			ResultTransformer forcedResultTransformer) throws SQLException {
+		final RowSnapshot snapshot = snapshotCache.get(
+				new RowSnapshotCache.Key( loadPlan, queryParameters ),
+				session
+		);
+		if ( snapshot == null ) {
+			return null;
+		}
+		return delegate.extractResults(
+				BufferedRowResultSet.generateProxy( rowLayout, snapshot.openRowSource() ),
+				session,
+				queryParameters,
+				returnProxies,
+				forcedResultTransformer
+		);
+	}
+
+	private static class CapturingRowSource implements RowSource {
+		private final ResultSet resultSet;
+		private final int[] columnIndexes;
+		private final RowSnapshot.Builder snapshotBuilder;
+		private final RowBuffer row;
+
+		private boolean exhausted;
+
+		private CapturingRowSource(ResultSet resultSet, int[] columnIndexes, RowSnapshot.Builder snapshotBuilder) {
+			this.resultSet = resultSet;
+			this.columnIndexes = columnIndexes;
+			this.snapshotBuilder = snapshotBuilder;
+			this.row = new RowBuffer( snapshotBuilder.getLayout() );
+		}
+
+		@Override
+		public RowBuffer nextRow() throws SQLException {
+			if ( ! resultSet.next() ) {
+				exhausted = true;
+				return null;
+			}
+			row.read( resultSet, columnIndexes );
+			snapshotBuilder.append( row );
+			return row;
+		}
+
+		@Override
+		public void close() {
+			// the JDBC ResultSet is owned by the caller
+		}
+	}
+}
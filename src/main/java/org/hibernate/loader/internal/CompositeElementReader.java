@@ -0,0 +1,176 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.CollectionKey;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.CollectionAliases;
+import org.hibernate.loader.internal.CompositeKeyReader.FlatKey;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.type.SetType;
+import org.hibernate.type.Type;
+
+/**
+ * Recognizes the rows of a collection of composite elements which repeat an element already read for the collection.
+ * <p/>
+ * When a result join fetches several collections, the rows of each repeat for every element of the others.  Handing
+ * such a row to {@link org.hibernate.collection.spi.PersistentCollection#readFrom} would instantiate the component
+ * once more (and, for a set of components not implementing equals, add a duplicate).  The reader reads the element
+ * columns of each row, along with the index or identifier columns telling distinct elements having equal values
+ * apart, into a {@link FlatKey}; only the first row of each element is read into the collection, which instantiates
+ * a new component for it.
+ * <p/>
+ * Bags can hold equal elements, with no index or identifier to tell them apart from a repeated row, and are therefore
+ * not {@link #isSupported supported}.
+ * <p/>
+ * A reader is meant for the processing of a single result, by a single thread.
+ *
+ * @author Steve Ebersole
+ */
+public class CompositeElementReader {
+	/**
+	 * Can repeated rows of the given collection be recognized?
+	 *
+	 * @param persister The collection persister
+	 * @param collectionAliases The aliases of the collection's columns
+	 *
+	 * @return {@code true} for collections of composite elements which are sets, or have an index or identifier.
+	 */
+	public static boolean isSupported(CollectionPersister persister, CollectionAliases collectionAliases) {
+		return persister.getElementType().isComponentType()
+				&& ( persister.hasIndex()
+						|| collectionAliases.getSuffixedIdentifierAlias() != null
+						|| SetType.class.isInstance( persister.getCollectionType() ) );
+	}
+
+	private final CollectionPersister persister;
+	private final SessionFactoryImplementor factory;
+	// the element leaves first, followed by the index or identifier leaves
+	private final Type[] leafTypes;
+	private final String[][] leafColumnAliases;
+	private final int elementLeafCount;
+
+	private final Map<CollectionKey,Set<FlatKey>> rowsByCollection = new HashMap<CollectionKey, Set<FlatKey>>();
+
+	public CompositeElementReader(CollectionPersister persister, CollectionAliases collectionAliases) {
+		if ( ! isSupported( persister, collectionAliases ) ) {
+			throw new IllegalArgumentException(
+					"Repeated rows of collection [" + persister.getRole() + "] cannot be recognized"
+			);
+		}
+		this.persister = persister;
+		this.factory = persister.getFactory();
+
+		final List<Type> leaves = new ArrayList<Type>();
+		final List<String[]> leafAliases = new ArrayList<String[]>();
+		addLeaves( persister.getElementType(), collectionAliases.getSuffixedElementAliases(), leaves, leafAliases );
+		this.elementLeafCount = leaves.size();
+		if ( persister.hasIndex() ) {
+			addLeaves( persister.getIndexType(), collectionAliases.getSuffixedIndexAliases(), leaves, leafAliases );
+		}
+		if ( collectionAliases.getSuffixedIdentifierAlias() != null ) {
+			addLeaves(
+					persister.getIdentifierType(),
+					new String[] { collectionAliases.getSuffixedIdentifierAlias() },
+					leaves,
+					leafAliases
+			);
+		}
+		this.leafTypes = leaves.toArray( new Type[ leaves.size() ] );
+		this.leafColumnAliases = leafAliases.toArray( new String[ leafAliases.size() ][] );
+	}
+
+	private void addLeaves(Type type, String[] columnAliases, List<Type> leaves, List<String[]> leafAliases) {
+		final List<Type> typeLeaves = new ArrayList<Type>();
+		CompositeKeyReader.collectLeafTypes( type, factory, typeLeaves );
+		final String[][] typeLeafAliases = CompositeKeyReader.splitColumnAliases(
+				typeLeaves.toArray( new Type[ typeLeaves.size() ] ),
+				columnAliases,
+				factory
+		);
+		if ( typeLeafAliases == null ) {
+			throw new HibernateException(
+					"Collection " + persister.getRole() + " does not map to the " + columnAliases.length
+							+ " columns given"
+			);
+		}
+		leaves.addAll( typeLeaves );
+		leafAliases.addAll( Arrays.asList( typeLeafAliases ) );
+	}
+
+	/**
+	 * Does the current row hold an element not read for the collection yet?
+	 *
+	 * @param resultSet The ResultSet, positioned on the row to read
+	 * @param collectionKey The key of the collection the row belongs to
+	 * @param session The originating session
+	 *
+	 * @return {@code false} if the row repeats an element read from a previous row; {@code true} otherwise,
+	 * including when all element columns are null (no element in this row).
+	 *
+	 * @throws SQLException Indicates a problem accessing the ResultSet
+	 */
+	public boolean isDistinctRow(
+			ResultSet resultSet,
+			Serializable collectionKey,
+			SessionImplementor session) throws SQLException {
+		final Object[] values = new Object[ leafTypes.length ];
+		boolean allNull = true;
+		for ( int i = 0; i < leafTypes.length; i++ ) {
+			values[i] = leafTypes[i].nullSafeGet( resultSet, leafColumnAliases[i], session, null );
+			allNull = allNull && ( i >= elementLeafCount || values[i] == null );
+		}
+		if ( allNull ) {
+			return true;
+		}
+
+		final CollectionKey key = new CollectionKey( persister, collectionKey );
+		Set<FlatKey> rows = rowsByCollection.get( key );
+		if ( rows == null ) {
+			rows = new HashSet<FlatKey>();
+			rowsByCollection.put( key, rows );
+		}
+		return rows.add( new FlatKey( leafTypes, values, factory ) );
+	}
+
+	/**
+	 * Forget the rows read so far.
+	 */
+	public void clear() {
+		rowsByCollection.clear();
+	}
+}
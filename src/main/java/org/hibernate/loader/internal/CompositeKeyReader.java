@@ -0,0 +1,258 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.CompositeType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+/**
+ * Reads the (composite) identifier of an {@link org.hibernate.loader.plan.spi.EntityReference} from a ResultSet row.
+ * <p/>
+ * The key columns are first read into a {@link FlatKey}: the raw values of the identifier's basic leaf types (key
+ * many-to-ones contribute the leaves of their target's identifier), with the hash code computed once.  Only the first
+ * time a given flat key is seen is the identifier assembled from those values (which, for composite identifiers,
+ * means instantiating the component and resolving its key many-to-ones) and the {@link EntityKey} generated; later
+ * rows repeating the key, as they do when collections are join fetched, reuse that EntityKey.  Either way, each key
+ * column is read only once per row.
+ * <p/>
+ * A reader is meant for the processing of a single result, by a single thread.
+ *
+ * @author Steve Ebersole
+ */
+public class CompositeKeyReader {
+	private final EntityPersister persister;
+	private final Type[] leafTypes;
+	private final String[][] leafColumnAliases;
+
+	private final Map<FlatKey,EntityKey> entityKeys = new HashMap<FlatKey, EntityKey>();
+
+	public CompositeKeyReader(EntityPersister persister, String[] keyColumnAliases) {
+		this.persister = persister;
+
+		final SessionFactoryImplementor factory = persister.getFactory();
+		final List<Type> leaves = new ArrayList<Type>();
+		collectLeafTypes( persister.getIdentifierType(), factory, leaves );
+
+		this.leafTypes = leaves.toArray( new Type[ leaves.size() ] );
+		this.leafColumnAliases = splitColumnAliases( leafTypes, keyColumnAliases, factory );
+		if ( leafColumnAliases == null ) {
+			throw new HibernateException(
+					"Identifier of " + persister.getEntityName() + " does not map to the "
+							+ keyColumnAliases.length + " key columns given"
+			);
+		}
+	}
+
+	/**
+	 * Split the given column aliases amongst the given leaf types, according to their column spans.
+	 *
+	 * @return The column aliases of each leaf type, or {@code null} if the column spans do not add up
+	 */
+	static String[][] splitColumnAliases(Type[] leafTypes, String[] columnAliases, SessionFactoryImplementor factory) {
+		final String[][] leafColumnAliases = new String[ leafTypes.length ][];
+		int columnPosition = 0;
+		for ( int i = 0; i < leafTypes.length; i++ ) {
+			final int span = leafTypes[i].getColumnSpan( factory );
+			if ( columnPosition + span > columnAliases.length ) {
+				return null;
+			}
+			leafColumnAliases[i] = new String[ span ];
+			System.arraycopy( columnAliases, columnPosition, leafColumnAliases[i], 0, span );
+			columnPosition += span;
+		}
+		return columnPosition == columnAliases.length ? leafColumnAliases : null;
+	}
+
+	static void collectLeafTypes(Type type, SessionFactoryImplementor factory, List<Type> leaves) {
+		if ( type.isComponentType() ) {
+			for ( Type subtype : ( (CompositeType) type ).getSubtypes() ) {
+				collectLeafTypes( subtype, factory, leaves );
+			}
+		}
+		else if ( type.isEntityType() ) {
+			// a key many-to-one : its columns hold the target's identifier
+			collectLeafTypes( ( (EntityType) type ).getIdentifierOrUniqueKeyType( factory ), factory, leaves );
+		}
+		else {
+			leaves.add( type );
+		}
+	}
+
+	/**
+	 * Read the flat key of the current row.
+	 *
+	 * @param resultSet The ResultSet, positioned on the row to read
+	 * @param session The originating session
+	 *
+	 * @return The flat key, or {@code null} if all key columns are null (no entity in this row)
+	 *
+	 * @throws SQLException Indicates a problem accessing the ResultSet
+	 */
+	public FlatKey readFlatKey(ResultSet resultSet, SessionImplementor session) throws SQLException {
+		final Object[] values = new Object[ leafTypes.length ];
+		boolean allNull = true;
+		for ( int i = 0; i < leafTypes.length; i++ ) {
+			values[i] = leafTypes[i].nullSafeGet( resultSet, leafColumnAliases[i], session, null );
+			allNull = allNull && values[i] == null;
+		}
+		return allNull ? null : new FlatKey( leafTypes, values, session.getFactory() );
+	}
+
+	/**
+	 * Read the EntityKey of the current row.
+	 *
+	 * @param resultSet The ResultSet, positioned on the row to read
+	 * @param session The originating session
+	 *
+	 * @return The EntityKey, or {@code null} if all key columns are null (no entity in this row)
+	 *
+	 * @throws SQLException Indicates a problem accessing the ResultSet
+	 */
+	public EntityKey readEntityKey(ResultSet resultSet, SessionImplementor session) throws SQLException {
+		final FlatKey flatKey = readFlatKey( resultSet, session );
+		if ( flatKey == null ) {
+			return null;
+		}
+
+		EntityKey entityKey = entityKeys.get( flatKey );
+		if ( entityKey == null ) {
+			final Object id = assemble( persister.getIdentifierType(), flatKey, new int[1], session );
+			entityKey = session.generateEntityKey( (Serializable) id, persister );
+			entityKeys.put( flatKey, entityKey );
+		}
+		return entityKey;
+	}
+
+	/**
+	 * Assemble the value of the given type from the leaf values of the flat key, starting at the given leaf.  Mirrors
+	 * {@link Type#nullSafeGet} : the type's hydrated state is built from the leaf values, then resolved.
+	 *
+	 * @param type The type whose value to assemble
+	 * @param flatKey The flat key
+	 * @param leaf The position of the type's first leaf; advanced past its last leaf
+	 * @param session The originating session
+	 *
+	 * @return The value
+	 */
+	private static Object assemble(Type type, FlatKey flatKey, int[] leaf, SessionImplementor session) {
+		return type.resolve( hydrate( type, flatKey, leaf, session ), session, null );
+	}
+
+	private static Object hydrate(Type type, FlatKey flatKey, int[] leaf, SessionImplementor session) {
+		if ( type.isComponentType() ) {
+			final Type[] subtypes = ( (CompositeType) type ).getSubtypes();
+			final Object[] values = new Object[ subtypes.length ];
+			boolean allNull = true;
+			for ( int i = 0; i < subtypes.length; i++ ) {
+				values[i] = hydrate( subtypes[i], flatKey, leaf, session );
+				allNull = allNull && values[i] == null;
+			}
+			return allNull ? null : values;
+		}
+		else if ( type.isEntityType() ) {
+			// a key many-to-one is hydrated to the identifier of its target
+			final EntityType entityType = (EntityType) type;
+			return assemble( entityType.getIdentifierOrUniqueKeyType( session.getFactory() ), flatKey, leaf, session );
+		}
+		else {
+			return flatKey.getValue( leaf[0]++ );
+		}
+	}
+
+	/**
+	 * Forget the EntityKeys seen so far.
+	 */
+	public void clear() {
+		entityKeys.clear();
+	}
+
+	/**
+	 * The raw values of an identifier's leaf columns, with their (pre-computed) hash code.
+	 */
+	public static final class FlatKey {
+		private final Type[] types;
+		private final Object[] values;
+		private final SessionFactoryImplementor factory;
+		private final int hashCode;
+
+		FlatKey(Type[] types, Object[] values, SessionFactoryImplementor factory) {
+			this.types = types;
+			this.values = values;
+			this.factory = factory;
+
+			int hashCode = 17;
+			for ( int i = 0; i < values.length; i++ ) {
+				hashCode = 31 * hashCode + ( values[i] == null ? 0 : types[i].getHashCode( values[i], factory ) );
+			}
+			this.hashCode = hashCode;
+		}
+
+		public Object getValue(int leaf) {
+			return values[leaf];
+		}
+
+		public int getLeafCount() {
+			return values.length;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if ( this == o ) {
+				return true;
+			}
+			if ( o == null || getClass() != o.getClass() ) {
+				return false;
+			}
+			final FlatKey that = (FlatKey) o;
+			if ( hashCode != that.hashCode || values.length != that.values.length ) {
+				return false;
+			}
+			for ( int i = 0; i < values.length; i++ ) {
+				if ( ! types[i].isEqual( values[i], that.values[i], factory ) ) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
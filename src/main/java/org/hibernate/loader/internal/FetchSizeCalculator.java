@@ -0,0 +1,197 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.RowSelection;
+import org.hibernate.loader.plan.spi.CollectionReturn;
+import org.hibernate.loader.plan.spi.EntityReturn;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.Return;
+
+/**
+ * Derives the JDBC fetch size for executing a LoadPlan from its shape : the number of columns read per row and the
+ * expected row multiplicity, within a memory budget per statement.
+ * <p/>
+ * The derived fetch size is the number of rows estimated to fit the budget, but never less than the rows making up a
+ * single root result (so that a root result is not spread over several round trips), and bounded by the configured
+ * minimum and maximum.  A fetch size explicitly given for the query, or a per root-role override, always wins.
+ *
+ * @author Steve Ebersole
+ */
+public class FetchSizeCalculator {
+	public static final long DEFAULT_MEMORY_BUDGET = 1024 * 1024;
+	public static final int DEFAULT_BYTES_PER_COLUMN = 32;
+	public static final int DEFAULT_MINIMUM_FETCH_SIZE = 10;
+	public static final int DEFAULT_MAXIMUM_FETCH_SIZE = 10000;
+
+	private final long memoryBudget;
+	private final int bytesPerColumn;
+	private final int minimumFetchSize;
+	private final int maximumFetchSize;
+	private final Map<String,Integer> roleOverrides = new ConcurrentHashMap<String, Integer>();
+
+	public FetchSizeCalculator() {
+		this( DEFAULT_MEMORY_BUDGET, DEFAULT_BYTES_PER_COLUMN, DEFAULT_MINIMUM_FETCH_SIZE, DEFAULT_MAXIMUM_FETCH_SIZE );
+	}
+
+	/**
+	 * Constructs a FetchSizeCalculator.
+	 *
+	 * @param memoryBudget The number of bytes a single statement's fetched rows are allowed to occupy
+	 * @param bytesPerColumn The assumed average size of a fetched column value, in bytes
+	 * @param minimumFetchSize The smallest fetch size to derive
+	 * @param maximumFetchSize The largest fetch size to derive
+	 */
+	public FetchSizeCalculator(long memoryBudget, int bytesPerColumn, int minimumFetchSize, int maximumFetchSize) {
+		if ( memoryBudget <= 0 || bytesPerColumn <= 0 ) {
+			throw new IllegalArgumentException( "Memory budget and bytes per column must be positive" );
+		}
+		if ( minimumFetchSize < 1 || maximumFetchSize < minimumFetchSize ) {
+			throw new IllegalArgumentException(
+					"Invalid fetch size bounds [" + minimumFetchSize + ", " + maximumFetchSize + "]"
+			);
+		}
+		this.memoryBudget = memoryBudget;
+		this.bytesPerColumn = bytesPerColumn;
+		this.minimumFetchSize = minimumFetchSize;
+		this.maximumFetchSize = maximumFetchSize;
+	}
+
+	/**
+	 * Use the given fetch size for plans rooted at the given entity name or collection role.
+	 *
+	 * @param rootRole The entity name or collection role
+	 * @param fetchSize The fetch size to use
+	 *
+	 * @return {@code this}, for method chaining
+	 */
+	public FetchSizeCalculator applyRoleOverride(String rootRole, int fetchSize) {
+		if ( fetchSize < 1 ) {
+			throw new IllegalArgumentException( "Fetch size must be positive : " + fetchSize );
+		}
+		roleOverrides.put( rootRole, fetchSize );
+		return this;
+	}
+
+	/**
+	 * Determine the fetch size to use for the given plan, without regard to any query specific settings.
+	 *
+	 * @param loadPlan The plan being executed
+	 *
+	 * @return The fetch size
+	 */
+	public int determineFetchSize(LoadPlan loadPlan) {
+		final String rootRole = determineRootRole( loadPlan );
+		if ( rootRole != null ) {
+			final Integer override = roleOverrides.get( rootRole );
+			if ( override != null ) {
+				return override;
+			}
+		}
+
+		final long rowBytes = (long) Math.max( 1, loadPlan.getEstimatedColumnWidth() ) * bytesPerColumn;
+		long fetchSize = Math.max( 1, memoryBudget / rowBytes );
+		fetchSize = Math.max( fetchSize, loadPlan.getEstimatedRowMultiplicity() );
+		return clamp( fetchSize );
+	}
+
+	/**
+	 * Determine the fetch size to use for executing the given plan as part of the given query.  A fetch size defined
+	 * by the query is used as-is; otherwise the plan derived fetch size is limited to the rows needed for the query's
+	 * max results.
+	 *
+	 * @param loadPlan The plan being executed
+	 * @param queryParameters The query parameters, may be {@code null}
+	 *
+	 * @return The fetch size
+	 */
+	public int determineFetchSize(LoadPlan loadPlan, QueryParameters queryParameters) {
+		final RowSelection selection = queryParameters == null ? null : queryParameters.getRowSelection();
+		if ( selection != null && selection.getFetchSize() != null ) {
+			return selection.getFetchSize();
+		}
+
+		final int fetchSize = determineFetchSize( loadPlan );
+		if ( selection != null && selection.definesLimits() && selection.getMaxRows() != null ) {
+			final long neededRows = (long) selection.getMaxRows() * loadPlan.getEstimatedRowMultiplicity();
+			if ( neededRows > 0 && neededRows < fetchSize ) {
+				return (int) neededRows;
+			}
+		}
+		return fetchSize;
+	}
+
+	/**
+	 * Apply the determined fetch size to the statement about to be executed.
+	 *
+	 * @param statement The statement
+	 * @param loadPlan The plan being executed
+	 * @param queryParameters The query parameters, may be {@code null}
+	 *
+	 * @throws SQLException Indicates a problem applying the fetch size
+	 */
+	public void applyFetchSize(Statement statement, LoadPlan loadPlan, QueryParameters queryParameters)
+			throws SQLException {
+		statement.setFetchSize( determineFetchSize( loadPlan, queryParameters ) );
+	}
+
+	private int clamp(long fetchSize) {
+		if ( fetchSize < minimumFetchSize ) {
+			return minimumFetchSize;
+		}
+		if ( fetchSize > maximumFetchSize ) {
+			return maximumFetchSize;
+		}
+		return (int) fetchSize;
+	}
+
+	/**
+	 * Determine the entity name or collection role at the root of the given plan.
+	 *
+	 * @param loadPlan The plan
+	 *
+	 * @return The root role, or {@code null} if the plan does not have a single entity or collection return
+	 */
+	public static String determineRootRole(LoadPlan loadPlan) {
+		final List<Return> returns = loadPlan.getReturns();
+		if ( returns.size() != 1 ) {
+			return null;
+		}
+		final Return rootReturn = returns.get( 0 );
+		if ( rootReturn instanceof EntityReturn ) {
+			return ( (EntityReturn) rootReturn ).getEntityPersister().getEntityName();
+		}
+		if ( rootReturn instanceof CollectionReturn ) {
+			return ( (CollectionReturn) rootReturn ).getCollectionPersister().getRole();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.logging.Logger;
+
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.spi.FollowOnLockingPlan;
+import org.hibernate.loader.plan.spi.FollowOnLockingPlan.LockTarget;
+import org.hibernate.persister.entity.Lockable;
+
+/**
+ * Applies the {@link FollowOnLockingPlan} of a LoadPlan for one execution.  While processing results, the keys of
+ * the entities loaded for locked plan nodes are {@link #registerEntity registered}; afterwards
+ * {@link #performLocking} locks them with one {@code SELECT ... FOR UPDATE} per entity hierarchy (split in batches
+ * only as far as the dialect limits the size of IN lists), verifying versions of versioned entities along the way.
+ *
+ * @author Steve Ebersole
+ */
+public class FollowOnLocker {
+	private static final Logger log = Logger.getLogger( FollowOnLocker.class );
+
+	private static final String ID_ALIAS_PREFIX = "lkid";
+	private static final String VERSION_ALIAS = "lkver_";
+
+	private final FollowOnLockingPlan followOnLockingPlan;
+	private final SessionImplementor session;
+
+	private final Map<LockTarget,Set<Serializable>> keysByTarget = new IdentityHashMap<LockTarget, Set<Serializable>>();
+
+	public FollowOnLocker(FollowOnLockingPlan followOnLockingPlan, SessionImplementor session) {
+		this.followOnLockingPlan = followOnLockingPlan;
+		this.session = session;
+	}
+
+	/**
+	 * Register an entity loaded for the given plan node.
+	 *
+	 * @param reference The {@link org.hibernate.loader.plan.spi.EntityReference}, or the
+	 * {@link org.hibernate.loader.plan.spi.CollectionReference} for its elements.
+	 * @param id The identifier of the loaded entity
+	 */
+	public void registerEntity(Object reference, Serializable id) {
+		final LockTarget target = followOnLockingPlan.locateLockTarget( reference );
+		if ( target == null ) {
+			return;
+		}
+		Set<Serializable> keys = keysByTarget.get( target );
+		if ( keys == null ) {
+			keys = new LinkedHashSet<Serializable>();
+			keysByTarget.put( target, keys );
+		}
+		keys.add( id );
+	}
+
+	/**
+	 * Lock all registered entities.
+	 *
+	 * @throws SQLException Indicates a problem executing a lock statement
+	 * @throws StaleObjectStateException If a versioned entity was changed, or any entity was deleted, since it
+	 * was loaded
+	 */
+	public void performLocking() throws SQLException {
+		final Dialect dialect = session.getFactory().getDialect();
+		for ( LockTarget target : followOnLockingPlan.getLockTargets() ) {
+			final Set<Serializable> keys = keysByTarget.get( target );
+			if ( keys == null || keys.isEmpty() ) {
+				continue;
+			}
+
+			final Lockable persister = target.getPersister();
+			final int columnSpan = persister.getRootTableIdentifierColumnNames().length;
+			final int batchSize = dialect.getInExpressionCountLimit() > 0
+					? Math.max( 1, dialect.getInExpressionCountLimit() / columnSpan )
+					: keys.size();
+
+			final List<Serializable> batch = new ArrayList<Serializable>( Math.min( batchSize, keys.size() ) );
+			for ( Serializable key : keys ) {
+				batch.add( key );
+				if ( batch.size() == batchSize ) {
+					lock( target, batch, dialect );
+					batch.clear();
+				}
+			}
+			if ( !batch.isEmpty() ) {
+				lock( target, batch, dialect );
+			}
+		}
+		keysByTarget.clear();
+	}
+
+	private void lock(LockTarget target, List<Serializable> keys, Dialect dialect) throws SQLException {
+		final Lockable persister = target.getPersister();
+		final String sql = renderLockSql( persister, target.getLockMode(), keys.size(), dialect );
+		log.debugf( "Follow-on locking %s entities of %s : %s", keys.size(), persister.getEntityName(), sql );
+
+		final Map<Serializable,Object> lockedVersions = new HashMap<Serializable, Object>();
+		final JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+		final PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement( sql );
+		try {
+			int position = 1;
+			for ( Serializable key : keys ) {
+				persister.getIdentifierType().nullSafeSet( statement, key, position, session );
+				position += persister.getRootTableIdentifierColumnNames().length;
+			}
+
+			// releasing the statement releases the ResultSet as well
+			final ResultSet resultSet = jdbcCoordinator.getResultSetReturn().extract( statement );
+			final String[] idAliases = idAliases( persister );
+			while ( resultSet.next() ) {
+				final Serializable id = (Serializable) persister.getIdentifierType()
+						.nullSafeGet( resultSet, idAliases, session, null );
+				final Object version = persister.isVersioned()
+						? persister.getVersionType().nullSafeGet( resultSet, VERSION_ALIAS, session, null )
+						: null;
+				lockedVersions.put( id, version );
+			}
+		}
+		finally {
+			jdbcCoordinator.release( statement );
+		}
+
+		for ( Serializable key : keys ) {
+			applyLock( persister, target.getLockMode(), key, lockedVersions );
+		}
+	}
+
+	private void applyLock(
+			Lockable persister,
+			LockMode lockMode,
+			Serializable id,
+			Map<Serializable,Object> lockedVersions) {
+		if ( !lockedVersions.containsKey( id ) ) {
+			// the row is gone
+			throw new StaleObjectStateException( persister.getEntityName(), id );
+		}
+
+		final PersistenceContext persistenceContext = session.getPersistenceContext();
+		final Object entity = persistenceContext.getEntity( session.generateEntityKey( id, persister ) );
+		if ( entity == null ) {
+			return;
+		}
+		final EntityEntry entry = persistenceContext.getEntry( entity );
+
+		if ( persister.isVersioned()
+				&& !persister.getVersionType().isEqual( entry.getVersion(), lockedVersions.get( id ) ) ) {
+			throw new StaleObjectStateException( persister.getEntityName(), id );
+		}
+
+		if ( lockMode == LockMode.FORCE || lockMode == LockMode.PESSIMISTIC_FORCE_INCREMENT ) {
+			final Object nextVersion = persister.forceVersionIncrement( id, entry.getVersion(), session );
+			entry.forceLocked( entity, nextVersion );
+		}
+		else if ( lockMode.greaterThan( entry.getLockMode() ) ) {
+			entry.setLockMode( lockMode );
+		}
+	}
+
+	private static String renderLockSql(Lockable persister, LockMode lockMode, int keyCount, Dialect dialect) {
+		final String[] idColumns = persister.getRootTableIdentifierColumnNames();
+		final LockOptions lockOptions = new LockOptions( lockMode );
+
+		final StringBuilder sql = new StringBuilder( "select " );
+		final String[] idAliases = idAliases( persister );
+		for ( int i = 0; i < idColumns.length; i++ ) {
+			if ( i > 0 ) {
+				sql.append( ", " );
+			}
+			sql.append( idColumns[i] ).append( " as " ).append( idAliases[i] );
+		}
+		if ( persister.isVersioned() ) {
+			sql.append( ", " ).append( persister.getVersionColumnName() ).append( " as " ).append( VERSION_ALIAS );
+		}
+		sql.append( " from " ).append( dialect.appendLockHint( lockOptions, persister.getRootTableName() ) );
+		sql.append( " where " );
+
+		if ( idColumns.length == 1 ) {
+			sql.append( idColumns[0] ).append( " in (" );
+			for ( int i = 0; i < keyCount; i++ ) {
+				sql.append( i == 0 ? "?" : ",?" );
+			}
+			sql.append( ')' );
+		}
+		else {
+			for ( int i = 0; i < keyCount; i++ ) {
+				sql.append( i == 0 ? "(" : " or (" );
+				for ( int j = 0; j < idColumns.length; j++ ) {
+					if ( j > 0 ) {
+						sql.append( " and " );
+					}
+					sql.append( idColumns[j] ).append( "=?" );
+				}
+				sql.append( ')' );
+			}
+		}
+
+		sql.append( dialect.getForUpdateString( lockOptions ) );
+		return sql.toString();
+	}
+
+	private static String[] idAliases(Lockable persister) {
+		final String[] idAliases = new String[ persister.getRootTableIdentifierColumnNames().length ];
+		for ( int i = 0; i < idAliases.length; i++ ) {
+			idAliases[i] = ID_ALIAS_PREFIX + i + '_';
+		}
+		return idAliases;
+	}
+}
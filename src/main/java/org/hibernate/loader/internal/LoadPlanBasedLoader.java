@@ -0,0 +1,246 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.jboss.logging.Logger;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.spi.CollectionReturn;
+import org.hibernate.loader.plan.spi.EntityReturn;
+import org.hibernate.loader.plan.spi.KeyParameterBinder;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.MultipleResultSetPlan;
+import org.hibernate.loader.plan.spi.Return;
+import org.hibernate.loader.spi.LoadPlanMonitor;
+import org.hibernate.loader.spi.NoOpLoadPlanMonitor;
+import org.hibernate.loader.spi.ResultSetProcessor;
+import org.hibernate.type.Type;
+
+/**
+ * Executes a {@link LoadPlan} having a single entity return (loading an entity by identifier) or a single collection
+ * return (initializing a collection) : renders its SQL once through {@link LoadQueryBuilder}, binds the key through
+ * the plan's {@link KeyParameterBinder} and hands the result to a {@link ResultSetProcessor}, which by default is a
+ * {@link ResultSetProcessorImpl} reporting to the given {@link LoadPlanMonitor}.  When given a
+ * {@link FetchSizeCalculator}, the JDBC fetch size of the load statement is derived from the plan.  A
+ * {@link MultipleResultSetPlan} is executed through a {@link MultipleResultSetExecutor} instead.
+ * <p/>
+ * The load is performed the way {@link org.hibernate.loader.Loader} performs its loads, within
+ * {@link PersistenceContext#beforeLoad()} / {@link PersistenceContext#afterLoad()}, initializing the non-lazy
+ * collections afterwards.
+ *
+ * @author Steve Ebersole
+ */
+public class LoadPlanBasedLoader {
+	private static final Logger log = Logger.getLogger( LoadPlanBasedLoader.class );
+
+	private final LoadPlan loadPlan;
+	private final SessionFactoryImplementor sessionFactory;
+	private final ResultSetProcessor resultSetProcessor;
+	private final FetchSizeCalculator fetchSizeCalculator;
+	// executes segmented plans; null when executing the plan as a single (joined) result
+	private final MultipleResultSetExecutor multipleResultSetExecutor;
+	private final String sql;
+
+	public LoadPlanBasedLoader(LoadPlan loadPlan, SessionFactoryImplementor sessionFactory) {
+		this( loadPlan, sessionFactory, NoOpLoadPlanMonitor.INSTANCE );
+	}
+
+	public LoadPlanBasedLoader(LoadPlan loadPlan, SessionFactoryImplementor sessionFactory, LoadPlanMonitor monitor) {
+		this( loadPlan, sessionFactory, new ResultSetProcessorImpl( loadPlan, monitor ) );
+	}
+
+	public LoadPlanBasedLoader(
+			LoadPlan loadPlan,
+			SessionFactoryImplementor sessionFactory,
+			ResultSetProcessor resultSetProcessor) {
+		this( loadPlan, sessionFactory, resultSetProcessor, null );
+	}
+
+	/**
+	 * Constructs a LoadPlanBasedLoader.
+	 *
+	 * @param loadPlan The plan to execute
+	 * @param sessionFactory The SessionFactory
+	 * @param resultSetProcessor The processor for the results of the load statement
+	 * @param fetchSizeCalculator Derives the fetch size of the load statement; {@code null} leaves the fetch size as
+	 * prepared (generally the configured {@code hibernate.jdbc.fetch_size})
+	 */
+	public LoadPlanBasedLoader(
+			LoadPlan loadPlan,
+			SessionFactoryImplementor sessionFactory,
+			ResultSetProcessor resultSetProcessor,
+			FetchSizeCalculator fetchSizeCalculator) {
+		this( loadPlan, sessionFactory, resultSetProcessor, fetchSizeCalculator, null );
+	}
+
+	/**
+	 * Constructs a LoadPlanBasedLoader executing the given segmented plan as multiple results, through a
+	 * {@link MultipleResultSetExecutor} handing them to a {@link MultipleResultSetProcessor}.
+	 *
+	 * @param plan The segmented plan to execute
+	 * @param sessionFactory The SessionFactory
+	 * @param monitor The monitor to report processing to
+	 */
+	public LoadPlanBasedLoader(
+			MultipleResultSetPlan plan,
+			SessionFactoryImplementor sessionFactory,
+			LoadPlanMonitor monitor) {
+		this(
+				plan.getLoadPlan(),
+				sessionFactory,
+				new MultipleResultSetProcessor( plan, monitor ),
+				null,
+				new MultipleResultSetExecutor( plan, sessionFactory )
+		);
+	}
+
+	private LoadPlanBasedLoader(
+			LoadPlan loadPlan,
+			SessionFactoryImplementor sessionFactory,
+			ResultSetProcessor resultSetProcessor,
+			FetchSizeCalculator fetchSizeCalculator,
+			MultipleResultSetExecutor multipleResultSetExecutor) {
+		if ( loadPlan.getKeyParameterBinder() == null ) {
+			throw new IllegalArgumentException( "LoadPlan must have a single entity or collection return" );
+		}
+		this.loadPlan = loadPlan;
+		this.sessionFactory = sessionFactory;
+		this.resultSetProcessor = resultSetProcessor;
+		this.fetchSizeCalculator = fetchSizeCalculator;
+		this.multipleResultSetExecutor = multipleResultSetExecutor;
+		this.sql = multipleResultSetExecutor == null
+				? LoadQueryBuilder.generateSql( loadPlan, sessionFactory )
+				: multipleResultSetExecutor.getSqlString();
+	}
+
+	public LoadPlan getLoadPlan() {
+		return loadPlan;
+	}
+
+	public String getSqlString() {
+		return sql;
+	}
+
+	/**
+	 * Load the entity with the given identifier.
+	 *
+	 * @param id The identifier
+	 * @param session The session
+	 *
+	 * @return The entity, or {@code null} if there is none with that identifier
+	 */
+	public Object load(Serializable id, SessionImplementor session) {
+		final EntityReturn entityReturn = (EntityReturn) rootReturn( EntityReturn.class );
+		final Type identifierType = entityReturn.getEntityPersister().getIdentifierType();
+		final List results = executeLoad(
+				session,
+				new QueryParameters( new Type[] { identifierType }, new Object[] { id } ),
+				id
+		);
+		// rows repeat the entity when collections are join fetched
+		return results.isEmpty() ? null : results.get( 0 );
+	}
+
+	/**
+	 * Initialize the collection with the given key, which must already be registered with the persistence context.
+	 *
+	 * @param key The collection key
+	 * @param session The session
+	 */
+	public void initializeCollection(Serializable key, SessionImplementor session) {
+		final CollectionReturn collectionReturn = (CollectionReturn) rootReturn( CollectionReturn.class );
+		final Type keyType = collectionReturn.getCollectionPersister().getKeyType();
+		executeLoad(
+				session,
+				new QueryParameters( new Type[] { keyType }, new Object[] { key }, new Serializable[] { key } ),
+				key
+		);
+	}
+
+	private Return rootReturn(Class<? extends Return> expectedType) {
+		final Return rootReturn = loadPlan.getReturns().get( 0 );
+		if ( ! expectedType.isInstance( rootReturn ) ) {
+			throw new HibernateException(
+					"LoadPlan return is not a " + expectedType.getSimpleName() + " : " + rootReturn
+			);
+		}
+		return rootReturn;
+	}
+
+	private List executeLoad(SessionImplementor session, QueryParameters queryParameters, Serializable key) {
+		final PersistenceContext persistenceContext = session.getPersistenceContext();
+		final List results;
+		persistenceContext.beforeLoad();
+		try {
+			try {
+				results = executeQuery( session, queryParameters, key );
+			}
+			finally {
+				persistenceContext.afterLoad();
+			}
+			persistenceContext.initializeNonLazyCollections();
+		}
+		catch (SQLException e) {
+			throw sessionFactory.getJdbcServices().getSqlExceptionHelper().convert(
+					e,
+					"could not execute LoadPlan : " + loadPlan.getReturns().get( 0 ),
+					sql
+			);
+		}
+		return results;
+	}
+
+	private List executeQuery(SessionImplementor session, QueryParameters queryParameters, Serializable key)
+			throws SQLException {
+		if ( multipleResultSetExecutor != null ) {
+			return multipleResultSetExecutor.execute( resultSetProcessor, key, session, queryParameters );
+		}
+		log.debugf( "Executing LoadPlan query : %s", sql );
+		final JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+		final PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement( sql );
+		try {
+			if ( fetchSizeCalculator != null ) {
+				fetchSizeCalculator.applyFetchSize( statement, loadPlan, queryParameters );
+			}
+			loadPlan.getKeyParameterBinder().bind( statement, key, 1, session );
+			// releasing the statement releases the ResultSet as well
+			final ResultSet resultSet = jdbcCoordinator.getResultSetReturn().extract( statement );
+			return resultSetProcessor.extractResults( resultSet, session, queryParameters, false, null );
+		}
+		finally {
+			jdbcCoordinator.release( statement );
+		}
+	}
+}
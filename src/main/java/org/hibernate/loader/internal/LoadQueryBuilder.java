@@ -0,0 +1,524 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.internal.JoinHelper;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.StringHelper;
+import org.hibernate.loader.EntityAliases;
+import org.hibernate.loader.plan.spi.AbstractFetchOwner;
+import org.hibernate.loader.plan.spi.CollectionFetch;
+import org.hibernate.loader.plan.spi.CollectionReference;
+import org.hibernate.loader.plan.spi.CollectionReturn;
+import org.hibernate.loader.plan.spi.EntityFetch;
+import org.hibernate.loader.plan.spi.EntityReference;
+import org.hibernate.loader.plan.spi.EntityReturn;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.FetchGroup;
+import org.hibernate.loader.plan.spi.FetchOwner;
+import org.hibernate.loader.plan.spi.FollowOnLockingPlan;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanEstimator;
+import org.hibernate.loader.plan.spi.MultipleResultSetPlan;
+import org.hibernate.loader.plan.spi.Return;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.Joinable;
+import org.hibernate.persister.entity.Loadable;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.hibernate.persister.entity.PropertyMapping;
+import org.hibernate.persister.entity.Queryable;
+import org.hibernate.sql.JoinFragment;
+import org.hibernate.sql.JoinType;
+import org.hibernate.sql.Select;
+import org.hibernate.sql.SelectFragment;
+import org.hibernate.type.AssociationType;
+
+/**
+ * Renders the SQL SELECT for executing a {@link LoadPlan} having a single {@link EntityReturn} (restricted by
+ * identifier) or {@link CollectionReturn} (restricted by collection key).  Joined fetches are outer joined; all other
+ * fetches are left to {@link ResultSetProcessorImpl}, or to the persistence context, to perform later.
+ * <p/>
+ * Columns are selected under the aliases defined by the {@link org.hibernate.loader.EntityAliases} and
+ * {@link org.hibernate.loader.CollectionAliases} of the plan nodes, which is what the ResultSet processing reads.
+ * Table aliases, on the other hand, are generated here : the table aliases of the plan nodes are not guaranteed to
+ * be unique.
+ * <p/>
+ * A {@link MultipleResultSetPlan} is rendered as one SELECT per result : the root SELECT leaves out all joined
+ * collections, while the SELECT of each collection segment inner joins the path from the root to the collection and
+ * selects only the collection (along with its elements and their joined non-collection fetches).
+ *
+ * @author Steve Ebersole
+ */
+public class LoadQueryBuilder {
+	/**
+	 * Render the SQL for the given plan.
+	 *
+	 * @param loadPlan The plan
+	 * @param sessionFactory The session factory
+	 *
+	 * @return The SQL
+	 */
+	public static String generateSql(LoadPlan loadPlan, SessionFactoryImplementor sessionFactory) {
+		return new LoadQueryBuilder( loadPlan, sessionFactory, null, null ).render();
+	}
+
+	/**
+	 * Render the SQL for each result of the given segmented plan.
+	 *
+	 * @param plan The segmented plan
+	 * @param sessionFactory The session factory
+	 *
+	 * @return The SQL of each result, in result order (the root result first)
+	 */
+	public static String[] generateSql(MultipleResultSetPlan plan, SessionFactoryImplementor sessionFactory) {
+		final String[] sql = new String[ plan.getResultSetCount() ];
+		sql[0] = new LoadQueryBuilder( plan.getLoadPlan(), sessionFactory, plan, null ).render();
+		for ( MultipleResultSetPlan.CollectionSegment segment : plan.getCollectionSegments() ) {
+			sql[ segment.getPosition() ] = new LoadQueryBuilder(
+					plan.getLoadPlan(),
+					sessionFactory,
+					plan,
+					segment
+			).render();
+		}
+		return sql;
+	}
+
+	private final LoadPlan loadPlan;
+	private final SessionFactoryImplementor sessionFactory;
+	private final Dialect dialect;
+	// when rendering a result of a segmented plan, the joined collections are rendered as results of their own
+	private final MultipleResultSetPlan segmentation;
+	// the collection segment being rendered; null for the root result
+	private final MultipleResultSetPlan.CollectionSegment segment;
+
+	private final StringBuilder selectClause = new StringBuilder();
+	private final JoinFragment joins;
+	private final StringBuilder orderByClause = new StringBuilder();
+	private int tableAliasUniqueness;
+
+	private LoadQueryBuilder(
+			LoadPlan loadPlan,
+			SessionFactoryImplementor sessionFactory,
+			MultipleResultSetPlan segmentation,
+			MultipleResultSetPlan.CollectionSegment segment) {
+		this.loadPlan = loadPlan;
+		this.sessionFactory = sessionFactory;
+		this.segmentation = segmentation;
+		this.segment = segment;
+		this.dialect = sessionFactory.getDialect();
+		this.joins = dialect.createOuterJoinFragment();
+	}
+
+	private String render() {
+		final List<Return> returns = loadPlan.getReturns();
+		if ( returns.size() != 1 ) {
+			throw new HibernateException( "Expecting a LoadPlan with a single return, but found " + returns.size() );
+		}
+
+		final Select select = new Select( dialect );
+		final Return rootReturn = returns.get( 0 );
+		if ( EntityReturn.class.isInstance( rootReturn ) ) {
+			renderRootEntity( (EntityReturn) rootReturn, select );
+		}
+		else if ( CollectionReturn.class.isInstance( rootReturn ) ) {
+			renderRootCollection( (CollectionReturn) rootReturn, select );
+		}
+		else {
+			throw new HibernateException( "Unsupported LoadPlan return : " + rootReturn );
+		}
+
+		select.setSelectClause( selectClause.toString() );
+		if ( orderByClause.length() > 0 ) {
+			select.setOrderByClause( orderByClause.toString() );
+		}
+		// locks are acquired by the root result
+		select.setLockOptions( segment == null ? determineLockOptions() : LockOptions.NONE );
+		return select.toStatementString();
+	}
+
+	private void renderRootEntity(EntityReturn entityReturn, Select select) {
+		final OuterJoinLoadable persister = (OuterJoinLoadable) entityReturn.getEntityPersister();
+		final String alias = nextTableAlias( persister.getEntityName() );
+		if ( segment == null ) {
+			appendSelection( selectFragment( entityReturn, alias ) );
+			renderFetches( entityReturn, alias );
+		}
+		else {
+			renderSegmentPath( alias );
+		}
+
+		select.setFromClause( persister.fromTableFragment( alias ) + persister.fromJoinFragment( alias, true, true ) );
+		select.setWhereClause(
+				renderKeyRestriction( alias, persister.getIdentifierColumnNames() )
+						+ persister.filterFragment( alias, Collections.EMPTY_MAP )
+		);
+		select.setOuterJoins(
+				joins.toFromFragmentString(),
+				joins.toWhereFragmentString() + persister.whereJoinFragment( alias, true, true )
+		);
+	}
+
+	private void renderRootCollection(CollectionReturn collectionReturn, Select select) {
+		final QueryableCollection persister = (QueryableCollection) collectionReturn.getCollectionPersister();
+		final String alias = nextTableAlias( persister.getRole() );
+		final String elementAlias = joinCollectionElements( persister, alias, JoinType.LEFT_OUTER_JOIN );
+		if ( segment == null ) {
+			renderCollectionSelection( collectionReturn, persister, alias, elementAlias );
+			renderFetches( collectionReturn, elementAlias );
+		}
+		else {
+			renderSegmentPath( elementAlias );
+		}
+
+		String fromClause = persister.getTableName() + ' ' + alias;
+		if ( persister.isOneToMany() ) {
+			fromClause += ( (Joinable) persister.getElementPersister() ).fromJoinFragment( alias, true, true );
+		}
+		select.setFromClause( fromClause );
+		select.setWhereClause(
+				renderKeyRestriction( alias, persister.getKeyColumnNames() )
+						+ persister.filterFragment( alias, Collections.EMPTY_MAP )
+		);
+		select.setOuterJoins( joins.toFromFragmentString(), joins.toWhereFragmentString() );
+		appendOrdering( persister, alias, elementAlias );
+	}
+
+	/**
+	 * Join the element table of a many-to-many collection.
+	 *
+	 * @return The table alias of the element entities, or {@code null} if the elements are not entities.
+	 */
+	private String joinCollectionElements(QueryableCollection persister, String alias, JoinType joinType) {
+		if ( ! persister.getElementType().isEntityType() ) {
+			return null;
+		}
+		if ( persister.isOneToMany() ) {
+			return alias;
+		}
+
+		final OuterJoinLoadable elementPersister = (OuterJoinLoadable) persister.getElementPersister();
+		final String elementAlias = nextTableAlias( elementPersister.getEntityName() );
+		joins.addJoin(
+				elementPersister.getTableName(),
+				elementAlias,
+				StringHelper.qualify( alias, persister.getElementColumnNames() ),
+				JoinHelper.getRHSColumnNames( (AssociationType) persister.getElementType(), sessionFactory ),
+				joinType
+		);
+		joins.addJoins(
+				elementPersister.fromJoinFragment( elementAlias, false, true ),
+				elementPersister.whereJoinFragment( elementAlias, false, true )
+		);
+		return elementAlias;
+	}
+
+	/**
+	 * Select the columns of a collection, and of its element entities (if any).
+	 */
+	private void renderCollectionSelection(
+			CollectionReference collectionReference,
+			QueryableCollection persister,
+			String alias,
+			String elementAlias) {
+		appendSelection( persister.selectFragment( alias, collectionReference.getCollectionAliases().getSuffix() ) );
+		if ( elementAlias != null ) {
+			final Loadable elementPersister = (Loadable) persister.getElementPersister();
+			appendSelection(
+					selectFragment(
+							elementPersister,
+							elementAlias,
+							collectionReference.getElementEntityAliases(),
+							FetchGroup.standard( elementPersister )
+					)
+			);
+		}
+	}
+
+	/**
+	 * Render the joined fetches of the given owner.  When rendering a segmented plan, joined collections are left to
+	 * the results of their own segment.
+	 *
+	 * @param fetchOwner The fetch owner
+	 * @param sourceAlias The table alias of the owner's fetch source (the entity, for composites the entity owning
+	 * them and for collections the element entity).
+	 */
+	private void renderFetches(FetchOwner fetchOwner, String sourceAlias) {
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( ! LoadPlanEstimator.isJoined( fetch ) ) {
+				continue;
+			}
+			if ( EntityFetch.class.isInstance( fetch ) ) {
+				renderEntityFetch( (EntityFetch) fetch, sourceAlias );
+			}
+			else if ( CollectionFetch.class.isInstance( fetch ) ) {
+				if ( segmentation == null ) {
+					renderCollectionFetch( (CollectionFetch) fetch, sourceAlias );
+				}
+			}
+			else {
+				// composites are part of their owner's table
+				renderFetches( fetch, sourceAlias );
+			}
+		}
+	}
+
+	private void renderEntityFetch(EntityFetch fetch, String ownerAlias) {
+		final String alias = joinEntity( fetch, ownerAlias, JoinType.LEFT_OUTER_JOIN );
+		appendSelection( selectFragment( fetch, alias ) );
+
+		renderFetches( fetch, alias );
+	}
+
+	private void renderCollectionFetch(CollectionFetch fetch, String ownerAlias) {
+		final QueryableCollection persister = (QueryableCollection) fetch.getCollectionPersister();
+		final String alias = joinCollection( fetch, ownerAlias, JoinType.LEFT_OUTER_JOIN );
+		final String elementAlias = joinCollectionElements( persister, alias, JoinType.LEFT_OUTER_JOIN );
+		renderCollectionSelection( fetch, persister, alias, elementAlias );
+		appendOrdering( persister, alias, elementAlias );
+
+		renderFetches( fetch, elementAlias );
+	}
+
+	/**
+	 * Render the result of the current collection segment : the path from the root to the segment's collection is
+	 * inner joined (without selecting anything), so the result holds the rows of the collections of all owners loaded
+	 * by the preceding results.
+	 *
+	 * @param rootAlias The table alias of the root's fetch source
+	 */
+	private void renderSegmentPath(String rootAlias) {
+		final List<Fetch> path = new ArrayList<Fetch>();
+		FetchOwner owner = segment.getCollectionFetch();
+		while ( Fetch.class.isInstance( owner ) ) {
+			path.add( 0, (Fetch) owner );
+			owner = ( (Fetch) owner ).getOwner();
+		}
+
+		String alias = rootAlias;
+		for ( Fetch fetch : path.subList( 0, path.size() - 1 ) ) {
+			if ( EntityFetch.class.isInstance( fetch ) ) {
+				alias = joinEntity( (EntityFetch) fetch, alias, JoinType.INNER_JOIN );
+			}
+			else if ( CollectionFetch.class.isInstance( fetch ) ) {
+				alias = joinCollectionElements(
+						(QueryableCollection) ( (CollectionFetch) fetch ).getCollectionPersister(),
+						joinCollection( (CollectionFetch) fetch, alias, JoinType.INNER_JOIN ),
+						JoinType.INNER_JOIN
+				);
+			}
+		}
+
+		final CollectionFetch fetch = segment.getCollectionFetch();
+		final QueryableCollection persister = (QueryableCollection) fetch.getCollectionPersister();
+		final String collectionAlias = joinCollection( fetch, alias, JoinType.INNER_JOIN );
+		final String elementAlias = joinCollectionElements( persister, collectionAlias, JoinType.LEFT_OUTER_JOIN );
+		renderCollectionSelection( fetch, persister, collectionAlias, elementAlias );
+		appendOrdering( persister, collectionAlias, elementAlias );
+
+		renderFetches( fetch, elementAlias );
+	}
+
+	/**
+	 * @return The table alias of the joined entity
+	 */
+	private String joinEntity(EntityFetch fetch, String ownerAlias, JoinType joinType) {
+		final OuterJoinLoadable persister = (OuterJoinLoadable) fetch.getEntityPersister();
+		final String alias = nextTableAlias( persister.getEntityName() );
+		final AssociationType type = resolveAssociationType( fetch );
+		joins.addJoin(
+				persister.getTableName(),
+				alias,
+				resolveLhsColumnNames( fetch, type, ownerAlias ),
+				JoinHelper.getRHSColumnNames( type, sessionFactory ),
+				joinType
+		);
+		joins.addJoins(
+				persister.fromJoinFragment( alias, false, true ),
+				persister.whereJoinFragment( alias, false, true )
+		);
+		return alias;
+	}
+
+	/**
+	 * Join the collection table; for one-to-many collections, that is the element entity table.
+	 *
+	 * @return The table alias of the collection
+	 */
+	private String joinCollection(CollectionFetch fetch, String ownerAlias, JoinType joinType) {
+		final QueryableCollection persister = (QueryableCollection) fetch.getCollectionPersister();
+		final String alias = nextTableAlias( persister.getRole() );
+		final AssociationType type = resolveAssociationType( fetch );
+		joins.addJoin(
+				persister.getTableName(),
+				alias,
+				resolveLhsColumnNames( fetch, type, ownerAlias ),
+				JoinHelper.getRHSColumnNames( type, sessionFactory ),
+				joinType,
+				persister.filterFragment( alias, Collections.EMPTY_MAP )
+		);
+		if ( persister.isOneToMany() ) {
+			final Joinable elementPersister = (Joinable) persister.getElementPersister();
+			joins.addJoins(
+					elementPersister.fromJoinFragment( alias, false, true ),
+					elementPersister.whereJoinFragment( alias, false, true )
+			);
+		}
+		return alias;
+	}
+
+	private static AssociationType resolveAssociationType(Fetch fetch) {
+		return (AssociationType) fetch.getOwner().retrieveFetchSourcePersister().getPropertyType(
+				qualifiedPropertyName( fetch )
+		);
+	}
+
+	private static String qualifiedPropertyName(Fetch fetch) {
+		final FetchOwner owner = fetch.getOwner();
+		return AbstractFetchOwner.class.isInstance( owner )
+				? ( (AbstractFetchOwner) owner ).qualifyFetchPropertyName( fetch.getOwnerPropertyName() )
+				: fetch.getOwnerPropertyName();
+	}
+
+	private static String[] resolveLhsColumnNames(Fetch fetch, AssociationType type, String ownerAlias) {
+		final OuterJoinLoadable ownerPersister = (OuterJoinLoadable) fetch.getOwner().retrieveFetchSourcePersister();
+		if ( type.useLHSPrimaryKey() ) {
+			return StringHelper.qualify( ownerAlias, ownerPersister.getIdentifierColumnNames() );
+		}
+		final String lhsPropertyName = type.getLHSPropertyName();
+		return ( (PropertyMapping) ownerPersister ).toColumns(
+				ownerAlias,
+				lhsPropertyName == null ? qualifiedPropertyName( fetch ) : lhsPropertyName
+		);
+	}
+
+	private void appendOrdering(QueryableCollection persister, String alias, String elementAlias) {
+		if ( persister.hasOrdering() ) {
+			appendOrderBy( persister.getSQLOrderByString( alias ) );
+		}
+		if ( persister.hasManyToManyOrdering() && elementAlias != null ) {
+			appendOrderBy( persister.getManyToManyOrderByString( elementAlias ) );
+		}
+	}
+
+	private void appendOrderBy(String fragment) {
+		if ( orderByClause.length() > 0 ) {
+			orderByClause.append( ", " );
+		}
+		orderByClause.append( fragment );
+	}
+
+	private static String selectFragment(EntityReference entityReference, String alias) {
+		return selectFragment(
+				(Loadable) entityReference.getEntityPersister(),
+				alias,
+				entityReference.getEntityAliases(),
+				entityReference.getFetchGroup()
+		);
+	}
+
+	/**
+	 * Select the columns of the given fetch group of an entity (see {@link FetchGroup#resolveColumnAliases}).  Unlike
+	 * {@link OuterJoinLoadable#selectFragment}, which selects the non-lazy attributes of the entity and of all its
+	 * subclasses, this selects the lazy attributes included by the group and leaves out the subclass attributes the
+	 * group excludes.
+	 */
+	private static String selectFragment(
+			Loadable persister,
+			String alias,
+			EntityAliases entityAliases,
+			FetchGroup fetchGroup) {
+		final Queryable queryable = (Queryable) persister;
+		final String suffix = entityAliases.getSuffix();
+		final SelectFragment fragment = queryable.propertySelectFragmentFragment( alias, suffix, true );
+		if ( ! fetchGroup.isAll() ) {
+			final Set<String> excludedAliases = new HashSet<String>(
+					Arrays.asList( FetchGroup.ALL.resolveColumnAliases( persister, entityAliases ) )
+			);
+			excludedAliases.removeAll( Arrays.asList( fetchGroup.resolveColumnAliases( persister, entityAliases ) ) );
+			// the fragment leaves out columns by their alias before suffixing
+			final String[] unsuffixedAliases = new String[ excludedAliases.size() ];
+			int i = 0;
+			for ( String excludedAlias : excludedAliases ) {
+				unsuffixedAliases[i++] = excludedAlias.substring( 0, excludedAlias.length() - suffix.length() );
+			}
+			fragment.setUsedAliases( unsuffixedAliases );
+		}
+		return queryable.identifierSelectFragment( alias, suffix ) + fragment.toFragmentString();
+	}
+
+	private void appendSelection(String fragment) {
+		if ( StringHelper.isEmpty( fragment ) ) {
+			return;
+		}
+		if ( selectClause.length() > 0 ) {
+			selectClause.append( ", " );
+		}
+		selectClause.append( fragment );
+	}
+
+	private static String renderKeyRestriction(String alias, String[] columnNames) {
+		final StringBuilder restriction = new StringBuilder();
+		for ( int i = 0; i < columnNames.length; i++ ) {
+			if ( i > 0 ) {
+				restriction.append( " and " );
+			}
+			restriction.append( alias ).append( '.' ).append( columnNames[i] ).append( "=?" );
+		}
+		return restriction.toString();
+	}
+
+	/**
+	 * Pessimistic locks are acquired by the query itself, unless the dialect needs them to be acquired by follow-on
+	 * locking (see {@link FollowOnLocker}).
+	 */
+	private LockOptions determineLockOptions() {
+		final FollowOnLockingPlan followOnLockingPlan = loadPlan.getFollowOnLockingPlan();
+		if ( followOnLockingPlan == null || followOnLockingPlan.isRequired( dialect ) ) {
+			return LockOptions.NONE;
+		}
+		LockMode lockMode = LockMode.NONE;
+		for ( FollowOnLockingPlan.LockTarget target : followOnLockingPlan.getLockTargets() ) {
+			if ( target.getLockMode().greaterThan( lockMode ) ) {
+				lockMode = target.getLockMode();
+			}
+		}
+		return new LockOptions( lockMode );
+	}
+
+	private String nextTableAlias(String name) {
+		return StringHelper.generateAlias( StringHelper.unqualify( name ), tableAliasUniqueness++ );
+	}
+}
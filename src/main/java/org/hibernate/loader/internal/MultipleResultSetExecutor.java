@@ -0,0 +1,289 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.logging.Logger;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.dialect.SQLServerDialect;
+import org.hibernate.dialect.SybaseDialect;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.spi.KeyParameterBinder;
+import org.hibernate.loader.plan.spi.MultipleResultSetPlan;
+import org.hibernate.loader.spi.ResultSetProcessor;
+
+/**
+ * Executes the SELECTs rendered for a {@link MultipleResultSetPlan} by
+ * {@link LoadQueryBuilder#generateSql(MultipleResultSetPlan, SessionFactoryImplementor)}, restricted by the key of a
+ * single root, exposing the results to a {@link ResultSetProcessor} (generally a {@link MultipleResultSetProcessor})
+ * as the multiple results of the statement of the root ResultSet.
+ * <p/>
+ * When the Dialect is known to return multiple results from a single statement (see
+ * {@link #supportsMultipleResults}), the SELECTs are sent as one statement, binding the key parameters of each
+ * SELECT in turn, so all results are returned in a single round trip.  Otherwise each SELECT is executed as a
+ * statement of its own, once the results preceding it were processed.
+ *
+ * @author Steve Ebersole
+ */
+public class MultipleResultSetExecutor {
+	private static final Logger log = Logger.getLogger( MultipleResultSetExecutor.class );
+
+	private static final String STATEMENT_SEPARATOR = "; ";
+
+	/**
+	 * Does the given Dialect return multiple results from a single statement consisting of multiple SELECTs?  This is
+	 * the case for the Transact-SQL databases (SQL Server, Sybase) and PostgreSQL.
+	 *
+	 * @param dialect The Dialect
+	 *
+	 * @return {@code true} if the SELECTs of a plan can be executed as a single statement
+	 */
+	public static boolean supportsMultipleResults(Dialect dialect) {
+		return SQLServerDialect.class.isInstance( dialect )
+				|| SybaseDialect.class.isInstance( dialect )
+				|| PostgreSQL81Dialect.class.isInstance( dialect );
+	}
+
+	private final KeyParameterBinder keyParameterBinder;
+	private final String[] resultSql;
+	// the SQL of the single statement returning all results; null when executing a statement per result
+	private final String statementSql;
+
+	public MultipleResultSetExecutor(MultipleResultSetPlan plan, SessionFactoryImplementor sessionFactory) {
+		this( plan, sessionFactory, supportsMultipleResults( sessionFactory.getDialect() ) );
+	}
+
+	/**
+	 * Constructs a MultipleResultSetExecutor.
+	 *
+	 * @param plan The plan to execute
+	 * @param sessionFactory The SessionFactory
+	 * @param singleStatement Should all results be returned by a single statement?  Only valid if the database
+	 * returns multiple results from a statement consisting of multiple SELECTs
+	 */
+	public MultipleResultSetExecutor(
+			MultipleResultSetPlan plan,
+			SessionFactoryImplementor sessionFactory,
+			boolean singleStatement) {
+		this.keyParameterBinder = plan.getLoadPlan().getKeyParameterBinder();
+		if ( keyParameterBinder == null ) {
+			throw new IllegalArgumentException( "LoadPlan must have a single entity or collection return" );
+		}
+		this.resultSql = LoadQueryBuilder.generateSql( plan, sessionFactory );
+		this.statementSql = singleStatement ? join( resultSql ) : null;
+	}
+
+	private static String join(String[] resultSql) {
+		final StringBuilder buffer = new StringBuilder();
+		for ( String sql : resultSql ) {
+			if ( buffer.length() > 0 ) {
+				buffer.append( STATEMENT_SEPARATOR );
+			}
+			buffer.append( sql );
+		}
+		return buffer.toString();
+	}
+
+	public boolean isSingleStatement() {
+		return statementSql != null;
+	}
+
+	/**
+	 * The SQL of the statement returning all results or, when executing a statement per result, of the statement
+	 * returning the root result.
+	 *
+	 * @return The SQL
+	 */
+	public String getSqlString() {
+		return statementSql == null ? resultSql[0] : statementSql;
+	}
+
+	/**
+	 * The SQL of each result, in result order (the root result first).
+	 *
+	 * @return The SQL of each result
+	 */
+	public String[] getResultSqlStrings() {
+		return resultSql;
+	}
+
+	/**
+	 * Bind the key parameters of each SELECT of the single statement returning all results.
+	 *
+	 * @param statement The statement prepared from {@link #getSqlString()}
+	 * @param key The key of the root to load
+	 * @param position The (1-based) position of the first parameter to bind
+	 * @param session The originating session
+	 *
+	 * @return The position following the bound parameters
+	 *
+	 * @throws SQLException Indicates a problem binding the parameters
+	 */
+	public int bind(PreparedStatement statement, Object key, int position, SessionImplementor session)
+			throws SQLException {
+		int nextPosition = position;
+		for ( int i = 0; i < resultSql.length; i++ ) {
+			nextPosition = keyParameterBinder.bind( statement, key, nextPosition, session );
+		}
+		return nextPosition;
+	}
+
+	/**
+	 * Execute the SELECTs for the given key, handing their results to the given processor.
+	 *
+	 * @param processor The processor of the results
+	 * @param key The key of the root to load
+	 * @param session The originating session
+	 * @param queryParameters The "parameters" used to build the query
+	 *
+	 * @return The results extracted by the processor
+	 *
+	 * @throws SQLException Indicates a problem executing the statements or processing their results
+	 */
+	public List execute(
+			ResultSetProcessor processor,
+			Serializable key,
+			SessionImplementor session,
+			QueryParameters queryParameters) throws SQLException {
+		final JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+		if ( statementSql != null ) {
+			log.debugf( "Executing multiple result statement : %s", statementSql );
+			final PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement( statementSql );
+			try {
+				bind( statement, key, 1, session );
+				// releasing the statement releases all of its results as well
+				final ResultSet resultSet = jdbcCoordinator.getResultSetReturn().execute( statement );
+				return processor.extractResults( resultSet, session, queryParameters, false, null );
+			}
+			finally {
+				jdbcCoordinator.release( statement );
+			}
+		}
+
+		final List<PreparedStatement> statements = new ArrayList<PreparedStatement>( resultSql.length );
+		try {
+			for ( String sql : resultSql ) {
+				log.debugf( "Preparing statement for result %s : %s", statements.size(), sql );
+				final PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement( sql );
+				statements.add( statement );
+				keyParameterBinder.bind( statement, key, 1, session );
+			}
+			final ResultSet resultSet = new StatementPerResult( statements, jdbcCoordinator ).generateRootResultSet();
+			return processor.extractResults( resultSet, session, queryParameters, false, null );
+		}
+		finally {
+			for ( PreparedStatement statement : statements ) {
+				jdbcCoordinator.release( statement );
+			}
+		}
+	}
+
+	/**
+	 * Exposes the results of a statement per result as the multiple results of the statement of the root result :
+	 * {@link Statement#getMoreResults()} executes the statement of the next result.
+	 */
+	private static class StatementPerResult implements InvocationHandler {
+		private final List<PreparedStatement> statements;
+		private final JdbcCoordinator jdbcCoordinator;
+		private final Statement statement;
+
+		private int position;
+		private ResultSet current;
+
+		private StatementPerResult(List<PreparedStatement> statements, JdbcCoordinator jdbcCoordinator) {
+			this.statements = statements;
+			this.jdbcCoordinator = jdbcCoordinator;
+			this.statement = (Statement) Proxy.newProxyInstance(
+					StatementPerResult.class.getClassLoader(),
+					new Class[] { Statement.class },
+					this
+			);
+		}
+
+		private ResultSet generateRootResultSet() {
+			final ResultSet rootResultSet = jdbcCoordinator.getResultSetReturn().extract( statements.get( 0 ) );
+			current = rootResultSet;
+			return (ResultSet) Proxy.newProxyInstance(
+					StatementPerResult.class.getClassLoader(),
+					new Class[] { ResultSet.class },
+					new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							if ( "getStatement".equals( method.getName() ) ) {
+								return statement;
+							}
+							return delegate( rootResultSet, method, args );
+						}
+					}
+			);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			final String methodName = method.getName();
+			if ( "getMoreResults".equals( methodName ) ) {
+				if ( current != null ) {
+					current.close();
+				}
+				position++;
+				current = position < statements.size()
+						? jdbcCoordinator.getResultSetReturn().extract( statements.get( position ) )
+						: null;
+				return current != null;
+			}
+			if ( "getResultSet".equals( methodName ) ) {
+				return current;
+			}
+			if ( "getUpdateCount".equals( methodName ) ) {
+				return -1;
+			}
+			return delegate( statements.get( 0 ), method, args );
+		}
+
+		private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke( target, args );
+			}
+			catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+}
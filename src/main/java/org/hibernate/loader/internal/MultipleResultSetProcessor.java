@@ -0,0 +1,77 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.spi.MultipleResultSetPlan;
+import org.hibernate.loader.spi.LoadPlanMonitor;
+import org.hibernate.loader.spi.NoOpLoadPlanMonitor;
+import org.hibernate.loader.spi.ResultSetProcessor;
+import org.hibernate.transform.ResultTransformer;
+
+/**
+ * Processes the multiple results of a statement executing a {@link MultipleResultSetPlan} (as rendered by
+ * {@link LoadQueryBuilder#generateSql(MultipleResultSetPlan, org.hibernate.engine.spi.SessionFactoryImplementor)}
+ * and executed by {@link MultipleResultSetExecutor}).
+ * The root result produces the query results; the results of each collection segment are then read, in order, from
+ * the statement of the root result.
+ * <p/>
+ * Each collection row is stitched to its owner by the owner key read from the row
+ * ({@link MultipleResultSetPlan.CollectionSegment#getOwnerKeyColumnAliases()}), the owners being the entities
+ * loaded by the preceding results.  Owners without any row get an empty collection.
+ *
+ * @author Steve Ebersole
+ */
+public class MultipleResultSetProcessor implements ResultSetProcessor {
+	private final MultipleResultSetPlan plan;
+	private final ResultSetProcessorImpl processor;
+
+	public MultipleResultSetProcessor(MultipleResultSetPlan plan) {
+		this( plan, NoOpLoadPlanMonitor.INSTANCE );
+	}
+
+	public MultipleResultSetProcessor(MultipleResultSetPlan plan, LoadPlanMonitor monitor) {
+		this.plan = plan;
+		this.processor = new ResultSetProcessorImpl( plan, monitor );
+	}
+
+	public MultipleResultSetPlan getPlan() {
+		return plan;
+	}
+
+	@Override
+	public List extractResults(
+			ResultSet resultSet,
+			SessionImplementor session,
+			QueryParameters queryParameters,
+			boolean returnProxies,
+			ResultTransformer forcedResultTransformer) throws SQLException {
+		return processor.extractResults( resultSet, session, queryParameters, returnProxies, forcedResultTransformer );
+	}
+}
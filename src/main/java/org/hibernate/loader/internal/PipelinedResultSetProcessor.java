@@ -0,0 +1,312 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jboss.logging.Logger;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.FetchOwner;
+import org.hibernate.loader.plan.spi.FollowOnLockingPlan;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanEstimator;
+import org.hibernate.loader.plan.spi.Return;
+import org.hibernate.loader.spi.ResultSetProcessor;
+import org.hibernate.transform.ResultTransformer;
+
+/**
+ * A ResultSetProcessor splitting processing into 2 stages connected by a bounded ring of reusable
+ * {@link RowBuffer row buffers}:<ol>
+ *     <li>
+ *         a JDBC read stage, run on the given {@link Executor}, which performs the (blocking) {@code next()} and
+ *         value extraction calls against the JDBC ResultSet
+ *     </li>
+ *     <li>
+ *         an assembly stage, run on the calling thread, which performs hydration, resolution and collection
+ *         assembly by handing a {@link BufferedRowResultSet} over the buffered rows to the delegate processor
+ *     </li>
+ * </ol>
+ * The read stage runs at most one ring ahead of assembly.  Assembly stays on the calling thread as it works against
+ * the (non thread-safe) persistence context of the session.
+ * <p/>
+ * The JDBC Connection is not thread-safe either, so the stages only overlap for plans whose assembly never uses it:
+ * plans with subsequent (non-joined) immediate fetches, or needing follow-on locking for the Dialect in effect, are
+ * processed by the delegate reading the JDBC ResultSet directly, as is the case when the executor rejects the read
+ * task.
+ *
+ * @author Steve Ebersole
+ */
+public class PipelinedResultSetProcessor implements ResultSetProcessor {
+	private static final Logger log = Logger.getLogger( PipelinedResultSetProcessor.class );
+
+	public static final int DEFAULT_RING_SIZE = 256;
+
+	private final ResultSetProcessor assembler;
+	private final RowLayout rowLayout;
+	private final Executor executor;
+	private final int ringSize;
+
+	private final boolean hasSubsequentSelects;
+	private final FollowOnLockingPlan followOnLockingPlan;
+
+	public PipelinedResultSetProcessor(ResultSetProcessor assembler, LoadPlan loadPlan, Executor executor) {
+		this( assembler, loadPlan, executor, DEFAULT_RING_SIZE );
+	}
+
+	public PipelinedResultSetProcessor(
+			ResultSetProcessor assembler,
+			LoadPlan loadPlan,
+			Executor executor,
+			int ringSize) {
+		if ( ringSize < 1 ) {
+			throw new IllegalArgumentException( "Ring size must be positive : " + ringSize );
+		}
+		this.assembler = assembler;
+		this.rowLayout = RowLayout.forLoadPlan( loadPlan );
+		this.executor = executor;
+		this.ringSize = ringSize;
+		this.hasSubsequentSelects = hasSubsequentSelects( loadPlan );
+		this.followOnLockingPlan = loadPlan.getFollowOnLockingPlan();
+	}
+
+	private static boolean hasSubsequentSelects(LoadPlan loadPlan) {
+		for ( Return rtn : loadPlan.getReturns() ) {
+			if ( FetchOwner.class.isInstance( rtn ) && hasSubsequentSelects( (FetchOwner) rtn ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasSubsequentSelects(FetchOwner fetchOwner) {
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( fetch.getFetchStrategy().getTiming() == FetchTiming.IMMEDIATE
+					&& ! LoadPlanEstimator.isJoined( fetch ) ) {
+				return true;
+			}
+			if ( hasSubsequentSelects( fetch ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public RowLayout getRowLayout() {
+		return rowLayout;
+	}
+
+	/**
+	 * Can processing by this processor overlap reading the JDBC ResultSet with assembly, given the Dialect in
+	 * effect?  That is, does assembly never issue SQL?
+	 *
+	 * @param dialect The Dialect
+	 *
+	 * @return {@code true} if the read stage runs concurrently with assembly
+	 */
+	public boolean isPipelined(Dialect dialect) {
+		if ( hasSubsequentSelects ) {
+			return false;
+		}
+		return followOnLockingPlan == null || ! followOnLockingPlan.isRequired( dialect );
+	}
+
+	@Override
+	public List extractResults(
+			ResultSet resultSet,
+			SessionImplementor session,
+			QueryParameters queryParameters,
+			boolean returnProxies,
+			ResultTransformer forcedResultTransformer) throws SQLException {
+		if ( ! isPipelined( session.getFactory().getDialect() ) ) {
+			log.debugf( "Assembly of the load plan issues SQL, processing ResultSet without pipelining" );
+			return assembler.extractResults(
+					resultSet,
+					session,
+					queryParameters,
+					returnProxies,
+					forcedResultTransformer
+			);
+		}
+
+		final JdbcReadStage readStage = new JdbcReadStage(
+				resultSet,
+				rowLayout.resolveColumnIndexes( resultSet ),
+				rowLayout,
+				ringSize
+		);
+		try {
+			executor.execute( readStage );
+		}
+		catch (RejectedExecutionException e) {
+			log.debugf( "JDBC read stage rejected by executor, processing ResultSet without pipelining" );
+			return assembler.extractResults(
+					resultSet,
+					session,
+					queryParameters,
+					returnProxies,
+					forcedResultTransformer
+			);
+		}
+
+		final ResultSet bufferedResultSet = BufferedRowResultSet.generateProxy( rowLayout, readStage );
+		try {
+			return assembler.extractResults(
+					bufferedResultSet,
+					session,
+					queryParameters,
+					returnProxies,
+					forcedResultTransformer
+			);
+		}
+		finally {
+			// stops the read stage (if still running) and waits for it to let go of the JDBC ResultSet
+			bufferedResultSet.close();
+		}
+	}
+
+	/**
+	 * The JDBC read stage, which is also the {@link RowSource} for the assembly stage.
+	 */
+	private static class JdbcReadStage implements Runnable, RowSource {
+		private static final Object END = new Object();
+
+		private final ResultSet resultSet;
+		private final int[] columnIndexes;
+
+		private final BlockingQueue<RowBuffer> freeBuffers;
+		private final BlockingQueue<Object> filledBuffers;
+		private final CountDownLatch finished = new CountDownLatch( 1 );
+
+		private volatile boolean cancelled;
+		private volatile Throwable failure;
+
+		private RowBuffer currentBuffer;
+		private boolean exhausted;
+
+		private JdbcReadStage(ResultSet resultSet, int[] columnIndexes, RowLayout rowLayout, int ringSize) {
+			this.resultSet = resultSet;
+			this.columnIndexes = columnIndexes;
+			this.freeBuffers = new ArrayBlockingQueue<RowBuffer>( ringSize );
+			for ( int i = 0; i < ringSize; i++ ) {
+				freeBuffers.add( new RowBuffer( rowLayout ) );
+			}
+			// room for every buffer plus the END marker, so the reader never blocks publishing
+			this.filledBuffers = new ArrayBlockingQueue<Object>( ringSize + 1 );
+		}
+
+		@Override
+		public void run() {
+			try {
+				while ( !cancelled && resultSet.next() ) {
+					final RowBuffer buffer = freeBuffers.take();
+					if ( cancelled ) {
+						break;
+					}
+					buffer.read( resultSet, columnIndexes );
+					filledBuffers.add( buffer );
+				}
+			}
+			catch (InterruptedException e) {
+				failure = e;
+				Thread.currentThread().interrupt();
+			}
+			catch (Throwable t) {
+				failure = t;
+			}
+			finally {
+				filledBuffers.add( END );
+				finished.countDown();
+			}
+		}
+
+		@Override
+		public RowBuffer nextRow() throws SQLException {
+			if ( exhausted ) {
+				return null;
+			}
+			if ( currentBuffer != null ) {
+				freeBuffers.add( currentBuffer );
+				currentBuffer = null;
+			}
+
+			final Object next;
+			try {
+				next = filledBuffers.take();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException( "Interrupted waiting on JDBC read stage", e );
+			}
+
+			if ( next == END ) {
+				exhausted = true;
+				final Throwable readFailure = failure;
+				if ( readFailure instanceof SQLException ) {
+					throw (SQLException) readFailure;
+				}
+				else if ( readFailure != null ) {
+					throw new SQLException( "JDBC read stage failed", readFailure );
+				}
+				return null;
+			}
+
+			currentBuffer = (RowBuffer) next;
+			return currentBuffer;
+		}
+
+		@Override
+		public void close() {
+			cancelled = true;
+			// hand every buffer back to unblock the reader if it is waiting on a free one
+			if ( currentBuffer != null ) {
+				freeBuffers.add( currentBuffer );
+				currentBuffer = null;
+			}
+			Object filled;
+			while ( ( filled = filledBuffers.poll() ) != null ) {
+				if ( filled != END ) {
+					freeBuffers.add( (RowBuffer) filled );
+				}
+			}
+			try {
+				finished.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hibernate.engine.jdbc.spi.ConnectionObserverAdapter;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SessionImplementor;
+
+/**
+ * Session scoped cache of PreparedStatements keyed by their SQL, so that repeatedly executing the same (cached)
+ * LoadPlan within a session re-binds the same statement rather than preparing a new one.  Holds at most the configured
+ * number of statements, releasing the least recently used one when exceeded.
+ * <p/>
+ * Statements are prepared and released through the session's {@link JdbcCoordinator}, which also closes them as it
+ * releases its resources (e.g. after a transaction).  The cache therefore follows the lifecycle of the coordinator's
+ * connection : it is cleared once the physical connection is released (or the logical connection closed), and a
+ * cached statement found closed is dropped and prepared again.
+ *
+ * @author Steve Ebersole
+ */
+public class PreparedStatementCache {
+	public static final int DEFAULT_MAX_STATEMENTS = 32;
+
+	private final SessionImplementor session;
+	private final Map<String,PreparedStatement> statements;
+
+	public PreparedStatementCache(SessionImplementor session) {
+		this( session, DEFAULT_MAX_STATEMENTS );
+	}
+
+	public PreparedStatementCache(SessionImplementor session, final int maxStatements) {
+		this.session = session;
+		jdbcCoordinator().getLogicalConnection().addObserver( new ConnectionReleaseObserver() );
+		this.statements = new LinkedHashMap<String, PreparedStatement>( 16, 0.75f, true ) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if ( size() > maxStatements ) {
+					jdbcCoordinator().release( eldest.getValue() );
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Obtain a statement for the given SQL, preparing one if not already cached (or if the cached one was closed).
+	 * Parameters of a cached statement are cleared.
+	 *
+	 * @param sql The SQL
+	 *
+	 * @return The statement
+	 *
+	 * @throws SQLException Indicates a problem clearing the parameters of a cached statement
+	 */
+	public PreparedStatement acquire(String sql) throws SQLException {
+		PreparedStatement statement = statements.get( sql );
+		if ( statement != null ) {
+			if ( ! statement.isClosed() ) {
+				statement.clearParameters();
+				return statement;
+			}
+			statements.remove( sql );
+		}
+		statement = jdbcCoordinator().getStatementPreparer().prepareStatement( sql );
+		statements.put( sql, statement );
+		return statement;
+	}
+
+	public int size() {
+		return statements.size();
+	}
+
+	/**
+	 * Release all cached statements.
+	 */
+	public void releaseAll() {
+		final Iterator<PreparedStatement> itr = statements.values().iterator();
+		while ( itr.hasNext() ) {
+			jdbcCoordinator().release( itr.next() );
+			itr.remove();
+		}
+	}
+
+	private JdbcCoordinator jdbcCoordinator() {
+		return session.getTransactionCoordinator().getJdbcCoordinator();
+	}
+
+	/**
+	 * Forgets the cached statements once the connection they were prepared on is released; the coordinator has
+	 * closed them by then.
+	 */
+	private class ConnectionReleaseObserver extends ConnectionObserverAdapter {
+		@Override
+		public void physicalConnectionReleased() {
+			statements.clear();
+		}
+
+		@Override
+		public void logicalConnectionClosed() {
+			statements.clear();
+		}
+	}
+}
@@ -0,0 +1,993 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.LockMode;
+import org.hibernate.WrongClassException;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.internal.TwoPhaseLoad;
+import org.hibernate.engine.loading.internal.CollectionLoadContext;
+import org.hibernate.engine.spi.CollectionKey;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PreLoadEvent;
+import org.hibernate.loader.CollectionAliases;
+import org.hibernate.loader.EntityAliases;
+import org.hibernate.loader.plan.spi.AbstractFetchOwner;
+import org.hibernate.loader.plan.spi.CollectionFetch;
+import org.hibernate.loader.plan.spi.CollectionReference;
+import org.hibernate.loader.plan.spi.EntityFetch;
+import org.hibernate.loader.plan.spi.EntityReference;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.FetchGroup;
+import org.hibernate.loader.plan.spi.FetchOwner;
+import org.hibernate.loader.plan.spi.FollowOnLockingPlan;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanEstimator;
+import org.hibernate.loader.plan.spi.MultipleResultSetPlan;
+import org.hibernate.loader.plan.spi.Return;
+import org.hibernate.loader.spi.LoadPlanMonitor;
+import org.hibernate.loader.spi.NoOpLoadPlanMonitor;
+import org.hibernate.loader.spi.ResultSetProcessor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Loadable;
+import org.hibernate.transform.ResultTransformer;
+import org.hibernate.type.Type;
+
+/**
+ * Standard {@link ResultSetProcessor} for a {@link LoadPlan}, processing the (single, joined) result of executing
+ * the plan as rendered by {@link LoadQueryBuilder}.  Processing follows what {@link org.hibernate.loader.Loader}
+ * does for its results : for each row, the entities of the joined plan nodes are resolved from the persistence
+ * context or hydrated (two-phase load), then the collection rows are read.  Once all rows are read, the entities
+ * and collections are initialized, pessimistic locks are acquired by {@link FollowOnLocker} if the dialect needs
+ * that, and the immediate, non-joined collection fetches of the plan are performed.
+ * <p/>
+ * The processing is reported to the {@link LoadPlanMonitor}, if it is enabled : the number of rows, roots and
+ * fetched instances, each collection loaded and each follow-on collection fetch.
+ * <p/>
+ * Given a {@link MultipleResultSetPlan}, the processor reads the results of its segments as well : once the root
+ * result is read, the rows of each collection segment are read from the next result of the statement and stitched to
+ * the owners loaded by the preceding results by their owner key.
+ * <p/>
+ * The processor holds no state of a processing, so a single processor may be shared by all executions of its plan.
+ *
+ * @author Steve Ebersole
+ */
+public class ResultSetProcessorImpl implements ResultSetProcessor {
+	private final LoadPlan loadPlan;
+	private final MultipleResultSetPlan segmentation;
+	private final LoadPlanMonitor monitor;
+
+	private final EntityReferenceReader rootReader;
+	private final EntityReferenceReader[] entityReaders;
+	private final CollectionReferenceReader[] collectionReaders;
+	private final FollowOnCollectionFetch[] followOnCollectionFetches;
+	// the readers of each result, by result position (only the root result unless segmented)
+	private final EntityReferenceReader[][] entityReadersByResult;
+	private final CollectionReferenceReader[][] collectionReadersByResult;
+
+	public ResultSetProcessorImpl(LoadPlan loadPlan) {
+		this( loadPlan, NoOpLoadPlanMonitor.INSTANCE );
+	}
+
+	public ResultSetProcessorImpl(LoadPlan loadPlan, LoadPlanMonitor monitor) {
+		this( loadPlan, null, monitor );
+	}
+
+	public ResultSetProcessorImpl(MultipleResultSetPlan segmentation, LoadPlanMonitor monitor) {
+		this( segmentation.getLoadPlan(), segmentation, monitor );
+	}
+
+	private ResultSetProcessorImpl(LoadPlan loadPlan, MultipleResultSetPlan segmentation, LoadPlanMonitor monitor) {
+		this.loadPlan = loadPlan;
+		this.segmentation = segmentation;
+		this.monitor = monitor;
+
+		final List<EntityReferenceReader> entityReaders = new ArrayList<EntityReferenceReader>();
+		final List<CollectionReferenceReader> collectionReaders = new ArrayList<CollectionReferenceReader>();
+		final List<FollowOnCollectionFetch> followOnCollectionFetches = new ArrayList<FollowOnCollectionFetch>();
+
+		EntityReferenceReader rootReader = null;
+		for ( Return rtn : loadPlan.getReturns() ) {
+			final int sourceReader;
+			if ( EntityReference.class.isInstance( rtn ) ) {
+				rootReader = addEntityReader( (EntityReference) rtn, 0, true, entityReaders );
+				sourceReader = rootReader.position;
+			}
+			else if ( CollectionReference.class.isInstance( rtn ) ) {
+				sourceReader = addCollectionReader(
+						(CollectionReference) rtn,
+						null,
+						-1,
+						entityReaders,
+						collectionReaders
+				);
+			}
+			else {
+				throw new IllegalArgumentException( "Unsupported LoadPlan return : " + rtn );
+			}
+			if ( FetchOwner.class.isInstance( rtn ) ) {
+				collectReaders(
+						(FetchOwner) rtn,
+						0,
+						sourceReader,
+						entityReaders,
+						collectionReaders,
+						followOnCollectionFetches
+				);
+			}
+		}
+
+		this.rootReader = rootReader;
+		this.entityReaders = entityReaders.toArray( new EntityReferenceReader[ entityReaders.size() ] );
+		this.collectionReaders = collectionReaders.toArray( new CollectionReferenceReader[ collectionReaders.size() ] );
+		this.followOnCollectionFetches = followOnCollectionFetches.toArray(
+				new FollowOnCollectionFetch[ followOnCollectionFetches.size() ]
+		);
+
+		final int resultCount = segmentation == null ? 1 : segmentation.getResultSetCount();
+		this.entityReadersByResult = new EntityReferenceReader[ resultCount ][];
+		this.collectionReadersByResult = new CollectionReferenceReader[ resultCount ][];
+		for ( int result = 0; result < resultCount; result++ ) {
+			final List<EntityReferenceReader> resultEntityReaders = new ArrayList<EntityReferenceReader>();
+			for ( EntityReferenceReader reader : entityReaders ) {
+				if ( reader.result == result ) {
+					resultEntityReaders.add( reader );
+				}
+			}
+			final List<CollectionReferenceReader> resultCollectionReaders = new ArrayList<CollectionReferenceReader>();
+			for ( CollectionReferenceReader reader : collectionReaders ) {
+				if ( reader.result == result ) {
+					resultCollectionReaders.add( reader );
+				}
+			}
+			entityReadersByResult[result] = resultEntityReaders.toArray(
+					new EntityReferenceReader[ resultEntityReaders.size() ]
+			);
+			collectionReadersByResult[result] = resultCollectionReaders.toArray(
+					new CollectionReferenceReader[ resultCollectionReaders.size() ]
+			);
+			if ( resultCollectionReaders.size() > 1 ) {
+				// the rows of each collection repeat for every element of the others
+				for ( CollectionReferenceReader reader : resultCollectionReaders ) {
+					reader.skipsRepeatedRows = reader.segment == null
+							&& CompositeElementReader.isSupported( reader.persister, reader.collectionAliases );
+				}
+			}
+		}
+	}
+
+	private static EntityReferenceReader addEntityReader(
+			Object reference,
+			int result,
+			boolean isRoot,
+			List<EntityReferenceReader> entityReaders) {
+		final EntityReferenceReader reader = EntityReference.class.isInstance( reference )
+				? new EntityReferenceReader( entityReaders.size(), result, (EntityReference) reference, isRoot )
+				: new EntityReferenceReader( entityReaders.size(), result, (CollectionReference) reference );
+		entityReaders.add( reader );
+		return reader;
+	}
+
+	/**
+	 * @param segment The segment whose result holds the collection, or {@code null} for the root result
+	 *
+	 * @return The position of the reader for the collection's element entities, or -1 if the elements are not
+	 * entities.
+	 */
+	private static int addCollectionReader(
+			CollectionReference collectionReference,
+			MultipleResultSetPlan.CollectionSegment segment,
+			int ownerReader,
+			List<EntityReferenceReader> entityReaders,
+			List<CollectionReferenceReader> collectionReaders) {
+		final CollectionReferenceReader reader = new CollectionReferenceReader(
+				collectionReaders.size(),
+				collectionReference,
+				segment,
+				ownerReader
+		);
+		collectionReaders.add( reader );
+		if ( collectionReference.getElementEntityAliases() == null ) {
+			return -1;
+		}
+		return addEntityReader( collectionReference, reader.result, false, entityReaders ).position;
+	}
+
+	private void collectReaders(
+			FetchOwner fetchOwner,
+			int result,
+			int sourceReader,
+			List<EntityReferenceReader> entityReaders,
+			List<CollectionReferenceReader> collectionReaders,
+			List<FollowOnCollectionFetch> followOnCollectionFetches) {
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( ! LoadPlanEstimator.isJoined( fetch ) ) {
+				if ( CollectionFetch.class.isInstance( fetch )
+						&& fetch.getFetchStrategy().getTiming() == FetchTiming.IMMEDIATE
+						&& sourceReader >= 0 ) {
+					followOnCollectionFetches.add(
+							new FollowOnCollectionFetch( (CollectionFetch) fetch, entityReaders.get( sourceReader ) )
+					);
+				}
+				continue;
+			}
+
+			final MultipleResultSetPlan.CollectionSegment segment = segmentation == null
+					? null
+					: segmentation.locateSegment( fetch );
+			final int fetchResult = segment == null ? result : segment.getPosition();
+			final int fetchSourceReader;
+			if ( EntityFetch.class.isInstance( fetch ) ) {
+				fetchSourceReader = addEntityReader( fetch, fetchResult, false, entityReaders ).position;
+			}
+			else if ( CollectionFetch.class.isInstance( fetch ) ) {
+				fetchSourceReader = addCollectionReader(
+						(CollectionFetch) fetch,
+						segment,
+						sourceReader,
+						entityReaders,
+						collectionReaders
+				);
+			}
+			else {
+				// composites are read as part of the entity owning them
+				fetchSourceReader = sourceReader;
+			}
+			collectReaders(
+					fetch,
+					fetchResult,
+					fetchSourceReader,
+					entityReaders,
+					collectionReaders,
+					followOnCollectionFetches
+			);
+		}
+	}
+
+	public LoadPlan getLoadPlan() {
+		return loadPlan;
+	}
+
+	@Override
+	public List extractResults(
+			ResultSet resultSet,
+			SessionImplementor session,
+			QueryParameters queryParameters,
+			boolean returnProxies,
+			ResultTransformer forcedResultTransformer) throws SQLException {
+		final boolean monitored = monitor.isEnabled();
+		final long start = monitored ? System.nanoTime() : 0;
+
+		final ProcessingState state = new ProcessingState( resultSet, session, queryParameters, monitored );
+		handleEmptyCollections( queryParameters, state );
+
+		final List<Object> results = new ArrayList<Object>();
+		try {
+			while ( resultSet.next() ) {
+				state.rowCount++;
+				processRow( state );
+				if ( rootReader != null ) {
+					final Object root = resolveRootResult( state, returnProxies );
+					results.add(
+							forcedResultTransformer == null
+									? root
+									: forcedResultTransformer.transformTuple(
+											new Object[] { root },
+											new String[] { ( (EntityReference) rootReader.reference ).getAlias() }
+									)
+					);
+				}
+			}
+			if ( segmentation != null ) {
+				processCollectionSegments( state );
+			}
+
+			state.loadingCompleted = true;
+			initializeEntitiesAndCollections( state );
+			if ( state.followOnLocker != null ) {
+				state.followOnLocker.performLocking();
+			}
+		}
+		finally {
+			// ending the loading collections releases the load context itself; only clean up after a failed read
+			if ( state.collectionLoadContext != null && ! state.loadingCompleted ) {
+				session.getPersistenceContext().getLoadContexts().cleanup( resultSet );
+			}
+		}
+
+		performFollowOnCollectionFetches( state );
+
+		if ( monitored ) {
+			monitor.resultSetProcessed(
+					loadPlan,
+					state.rowCount,
+					state.roots.size(),
+					state.fetchCount,
+					System.nanoTime() - start
+			);
+		}
+
+		return forcedResultTransformer == null ? results : forcedResultTransformer.transformList( results );
+	}
+
+	/**
+	 * Read the result of each collection segment, stitching the collection rows to their owners by key.
+	 */
+	private void processCollectionSegments(ProcessingState state) throws SQLException {
+		final ResultSet rootResultSet = state.resultSet;
+		final Statement statement = rootResultSet.getStatement();
+		try {
+			for ( MultipleResultSetPlan.CollectionSegment segment : segmentation.getCollectionSegments() ) {
+				final int result = segment.getPosition();
+				final ResultSet segmentResultSet = nextResultSet( statement, result );
+				try {
+					state.resultSet = segmentResultSet;
+					// a segment holds a single collection, whose owners were all loaded by the preceding results
+					final CollectionReferenceReader collectionReader = collectionReadersByResult[result][0];
+					state.owners = collectionReader.resolveOwnersByKey( state );
+					while ( segmentResultSet.next() ) {
+						state.rowCount++;
+						for ( EntityReferenceReader reader : entityReadersByResult[result] ) {
+							reader.read( state );
+						}
+						collectionReader.read( state );
+					}
+				}
+				finally {
+					segmentResultSet.close();
+				}
+			}
+		}
+		finally {
+			state.resultSet = rootResultSet;
+			state.owners = null;
+		}
+	}
+
+	private ResultSet nextResultSet(Statement statement, int result) throws SQLException {
+		if ( statement == null ) {
+			throw new SQLException( "Cannot access further results; ResultSet did not expose its Statement" );
+		}
+		// skip any update counts (from statements of the batch not producing results)
+		while ( true ) {
+			if ( statement.getMoreResults() ) {
+				return statement.getResultSet();
+			}
+			if ( statement.getUpdateCount() == -1 ) {
+				throw new SQLException(
+						"Expecting " + segmentation.getResultSetCount() + " results, but statement returned only "
+								+ result
+				);
+			}
+		}
+	}
+
+	private void handleEmptyCollections(QueryParameters queryParameters, ProcessingState state) {
+		final Serializable[] collectionKeys = queryParameters.getCollectionKeys();
+		if ( collectionKeys == null || collectionKeys.length == 0 || collectionReaders.length == 0 ) {
+			return;
+		}
+		// the collections being initialized, in case the result has no rows for them
+		final CollectionReferenceReader rootCollectionReader = collectionReaders[0];
+		for ( Serializable collectionKey : collectionKeys ) {
+			state.collectionLoadContext.getLoadingCollection( rootCollectionReader.persister, collectionKey );
+		}
+		state.collectionPersisters.add( rootCollectionReader.persister );
+	}
+
+	private void processRow(ProcessingState state) throws SQLException {
+		for ( EntityReferenceReader reader : entityReadersByResult[0] ) {
+			reader.read( state );
+		}
+		for ( CollectionReferenceReader reader : collectionReadersByResult[0] ) {
+			reader.read( state );
+		}
+	}
+
+	private Object resolveRootResult(ProcessingState state, boolean returnProxies) {
+		final Object root = state.instances[ rootReader.position ];
+		if ( root == null ) {
+			return null;
+		}
+		state.roots.add( root );
+		return returnProxies
+				? state.persistenceContext.proxyFor( rootReader.persister, state.keys[ rootReader.position ], root )
+				: root;
+	}
+
+	private void initializeEntitiesAndCollections(ProcessingState state) {
+		// arrays need their elements resolved before their owners are initialized
+		for ( CollectionPersister persister : state.collectionPersisters ) {
+			if ( persister.isArray() ) {
+				state.collectionLoadContext.endLoadingCollections( persister );
+			}
+		}
+
+		final PreLoadEvent preLoadEvent = EventSource.class.isInstance( state.session )
+				? new PreLoadEvent( (EventSource) state.session )
+				: null;
+		final boolean readOnly = state.queryParameters.isReadOnly( state.session );
+		for ( Object entity : state.hydratedEntities ) {
+			TwoPhaseLoad.initializeEntity( entity, readOnly, state.session, preLoadEvent );
+		}
+		// initializing marks all lazy attributes unfetched when any is : only those left out of the fetch group are
+		for ( Map.Entry<Object,Set<String>> entry : state.unfetchedLazyAttributes.entrySet() ) {
+			final EntityPersister persister = state.persistenceContext.getEntry( entry.getKey() ).getPersister();
+			persister.getInstrumentationMetadata().injectInterceptor(
+					entry.getKey(),
+					persister.getEntityName(),
+					entry.getValue(),
+					state.session
+			);
+		}
+
+		for ( CollectionPersister persister : state.collectionPersisters ) {
+			if ( ! persister.isArray() ) {
+				state.collectionLoadContext.endLoadingCollections( persister );
+			}
+		}
+
+		final PostLoadEvent postLoadEvent = EventSource.class.isInstance( state.session )
+				? new PostLoadEvent( (EventSource) state.session )
+				: null;
+		for ( Object entity : state.hydratedEntities ) {
+			TwoPhaseLoad.postLoad( entity, state.session, postLoadEvent );
+		}
+
+		if ( state.loadedCollections != null ) {
+			for ( Map.Entry<PersistentCollection,CollectionPersister> entry : state.loadedCollections.entrySet() ) {
+				monitor.collectionLoaded( entry.getValue().getRole(), size( entry.getKey(), entry.getValue() ) );
+			}
+		}
+	}
+
+	private static int size(PersistentCollection collection, CollectionPersister persister) {
+		int size = 0;
+		final Iterator entries = collection.entries( persister );
+		while ( entries.hasNext() ) {
+			entries.next();
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Initialize the collections fetched immediately, but not joined, for the owners loaded by this result.  This
+	 * would otherwise happen as the persistence context initializes its non-lazy collections; doing it here allows
+	 * each fetch to be reported.
+	 */
+	private void performFollowOnCollectionFetches(ProcessingState state) {
+		for ( FollowOnCollectionFetch followOnFetch : followOnCollectionFetches ) {
+			final Set<Object> owners = state.loadedInstances[ followOnFetch.ownerReader.position ];
+			if ( owners == null || owners.isEmpty() ) {
+				continue;
+			}
+
+			final List<PersistentCollection> collections = new ArrayList<PersistentCollection>();
+			for ( Object owner : owners ) {
+				final EntityEntry entry = state.persistenceContext.getEntry( owner );
+				if ( entry == null ) {
+					continue;
+				}
+				final Object value = entry.getPersister().getPropertyValue( owner, followOnFetch.propertyName );
+				if ( PersistentCollection.class.isInstance( value )
+						&& ! ( (PersistentCollection) value ).wasInitialized() ) {
+					collections.add( (PersistentCollection) value );
+				}
+			}
+			if ( collections.isEmpty() ) {
+				continue;
+			}
+
+			final long start = state.monitored ? System.nanoTime() : 0;
+			for ( PersistentCollection collection : collections ) {
+				// batch and subselect fetching may have initialized it along with a previous one
+				if ( ! collection.wasInitialized() ) {
+					state.session.initializeCollection( collection, false );
+				}
+			}
+			if ( state.monitored ) {
+				monitor.followOnFetchPerformed( followOnFetch.role, collections.size(), System.nanoTime() - start );
+			}
+		}
+	}
+
+	/**
+	 * The state of processing one result.
+	 */
+	private class ProcessingState {
+		// the result being read : the root result, or the result of a collection segment
+		private ResultSet resultSet;
+		private final SessionImplementor session;
+		private final QueryParameters queryParameters;
+		private final boolean monitored;
+
+		private final PersistenceContext persistenceContext;
+		private final CollectionLoadContext collectionLoadContext;
+		private final FollowOnLocker followOnLocker;
+
+		// the entities of the current row, per entity reader
+		private final EntityKey[] keys = new EntityKey[ entityReaders.length ];
+		private final Object[] instances = new Object[ entityReaders.length ];
+		// the readers of composite identifiers, per entity reader; created on first use
+		private final CompositeKeyReader[] keyReaders = new CompositeKeyReader[ entityReaders.length ];
+		// the readers recognizing repeated composite element rows, per collection reader; created on first use
+		private final CompositeElementReader[] elementReaders = new CompositeElementReader[ collectionReaders.length ];
+		// the entities loaded per entity reader, only kept for the owners of follow-on fetches
+		private final Set<Object>[] loadedInstances;
+
+		private final List<Object> hydratedEntities = new ArrayList<Object>();
+		// hydrated entities reading some, but not all, of their lazy attributes
+		private final Map<Object,Set<String>> unfetchedLazyAttributes = new IdentityHashMap<Object,Set<String>>();
+		private final Set<CollectionPersister> collectionPersisters = new LinkedHashSet<CollectionPersister>();
+		private final Map<PersistentCollection,CollectionPersister> loadedCollections;
+		private final Set<Object> roots = Collections.newSetFromMap( new IdentityHashMap<Object, Boolean>() );
+		// the owners of the collection of the segment being read, by collection key
+		private Map<CollectionKey,Object> owners;
+
+		private int rowCount;
+		private int fetchCount;
+		private boolean loadingCompleted;
+
+		@SuppressWarnings("unchecked")
+		private ProcessingState(
+				ResultSet resultSet,
+				SessionImplementor session,
+				QueryParameters queryParameters,
+				boolean monitored) {
+			this.resultSet = resultSet;
+			this.session = session;
+			this.queryParameters = queryParameters;
+			this.monitored = monitored;
+
+			this.persistenceContext = session.getPersistenceContext();
+			this.collectionLoadContext = collectionReaders.length == 0
+					? null
+					: persistenceContext.getLoadContexts().getCollectionLoadContext( resultSet );
+
+			final FollowOnLockingPlan followOnLockingPlan = loadPlan.getFollowOnLockingPlan();
+			this.followOnLocker = followOnLockingPlan != null
+					&& followOnLockingPlan.isRequired( session.getFactory().getDialect() )
+					? new FollowOnLocker( followOnLockingPlan, session )
+					: null;
+
+			this.loadedInstances = new Set[ entityReaders.length ];
+			for ( FollowOnCollectionFetch followOnFetch : followOnCollectionFetches ) {
+				loadedInstances[ followOnFetch.ownerReader.position ] = new LinkedHashSet<Object>();
+			}
+			for ( int result = 1; result < collectionReadersByResult.length; result++ ) {
+				loadedInstances[ collectionReadersByResult[result][0].ownerReader ] = new LinkedHashSet<Object>();
+			}
+			this.loadedCollections = monitored
+					? new IdentityHashMap<PersistentCollection, CollectionPersister>()
+					: null;
+		}
+	}
+
+	/**
+	 * Reads the entity of a plan node : an {@link EntityReference}, or the element entities of a
+	 * {@link CollectionReference}.
+	 */
+	private static class EntityReferenceReader {
+		private final int position;
+		private final int result;
+		private final Object reference;
+		private final boolean isRoot;
+		private final Loadable persister;
+		private final EntityAliases entityAliases;
+		private final LockMode lockMode;
+		private final boolean compositeIdentifier;
+		private final FetchGroup fetchGroup;
+
+		private EntityReferenceReader(int position, int result, EntityReference entityReference, boolean isRoot) {
+			this.position = position;
+			this.result = result;
+			this.reference = entityReference;
+			this.isRoot = isRoot;
+			this.persister = (Loadable) entityReference.getEntityPersister();
+			this.entityAliases = entityReference.getEntityAliases();
+			this.lockMode = entityReference.getLockMode();
+			this.compositeIdentifier = persister.getIdentifierType().isComponentType();
+			this.fetchGroup = entityReference.getFetchGroup();
+		}
+
+		private EntityReferenceReader(int position, int result, CollectionReference collectionReference) {
+			this.position = position;
+			this.result = result;
+			this.reference = collectionReference;
+			this.isRoot = false;
+			this.persister = (Loadable) ( (QueryableCollection) collectionReference.getCollectionPersister() )
+					.getElementPersister();
+			this.entityAliases = collectionReference.getElementEntityAliases();
+			this.lockMode = collectionReference.getLockMode();
+			this.compositeIdentifier = persister.getIdentifierType().isComponentType();
+			// see LoadQueryBuilder : element entities are selected through their standard group
+			this.fetchGroup = FetchGroup.standard( persister );
+		}
+
+		private void read(ProcessingState state) throws SQLException {
+			final EntityKey key = readEntityKey( state );
+			if ( key == null ) {
+				state.keys[position] = null;
+				state.instances[position] = null;
+				return;
+			}
+
+			final Serializable id = key.getIdentifier();
+			Object instance = state.session.getEntityUsingInterceptor( key );
+			if ( instance != null ) {
+				checkAlreadyLoaded( instance, key, state );
+			}
+			else {
+				instance = hydrate( key, state );
+			}
+
+			state.keys[position] = key;
+			state.instances[position] = instance;
+			if ( ! isRoot ) {
+				state.fetchCount++;
+			}
+			if ( state.loadedInstances[position] != null ) {
+				state.loadedInstances[position].add( instance );
+			}
+			if ( state.followOnLocker != null ) {
+				state.followOnLocker.registerEntity( reference, id );
+			}
+		}
+
+		private EntityKey readEntityKey(ProcessingState state) throws SQLException {
+			if ( compositeIdentifier ) {
+				// rows repeating a composite key (join fetched collections) reuse the EntityKey assembled for it
+				CompositeKeyReader keyReader = state.keyReaders[position];
+				if ( keyReader == null ) {
+					keyReader = new CompositeKeyReader( persister, entityAliases.getSuffixedKeyAliases() );
+					state.keyReaders[position] = keyReader;
+				}
+				return keyReader.readEntityKey( state.resultSet, state.session );
+			}
+
+			final Serializable id = (Serializable) persister.getIdentifierType().nullSafeGet(
+					state.resultSet,
+					entityAliases.getSuffixedKeyAliases(),
+					state.session,
+					null
+			);
+			return id == null ? null : state.session.generateEntityKey( id, persister );
+		}
+
+		private void checkAlreadyLoaded(Object instance, EntityKey key, ProcessingState state) {
+			if ( ! persister.isInstance( instance ) ) {
+				throw new WrongClassException(
+						"loaded object was of wrong class " + instance.getClass(),
+						key.getIdentifier(),
+						persister.getEntityName()
+				);
+			}
+			if ( state.followOnLocker == null && lockMode != LockMode.NONE ) {
+				// the row was locked by the query
+				final EntityEntry entry = state.persistenceContext.getEntry( instance );
+				if ( entry != null && lockMode.greaterThan( entry.getLockMode() ) ) {
+					entry.setLockMode( lockMode );
+				}
+			}
+		}
+
+		private Object hydrate(EntityKey key, ProcessingState state) throws SQLException {
+			final Serializable id = key.getIdentifier();
+			final Loadable concretePersister = resolveConcretePersister( id, state );
+
+			final Object optionalObject = state.queryParameters.getOptionalObject();
+			final Object instance = isRoot && optionalObject != null
+					&& persister.getIdentifierType().isEqual( id, state.queryParameters.getOptionalId() )
+					? optionalObject
+					: state.session.instantiate( concretePersister.getEntityName(), id );
+
+			// the lazy attributes left out of the fetch group; null if the entity has no lazy attributes
+			final Set<String> unfetchedLazyAttributes = resolveUnfetchedLazyAttributes( concretePersister );
+			final boolean lazyAttributesUnfetched = unfetchedLazyAttributes == null
+					|| ! unfetchedLazyAttributes.isEmpty();
+
+			// locks are only held once acquired by follow-on locking
+			final LockMode acquiredLockMode = lockMode == LockMode.NONE || state.followOnLocker != null
+					? LockMode.READ
+					: lockMode;
+			TwoPhaseLoad.addUninitializedEntity(
+					key,
+					instance,
+					concretePersister,
+					acquiredLockMode,
+					lazyAttributesUnfetched,
+					state.session
+			);
+
+			final String[][] propertyAliases = concretePersister == persister
+					? entityAliases.getSuffixedPropertyAliases()
+					: entityAliases.getSuffixedPropertyAliases( concretePersister );
+			final Object[] values = concretePersister.hydrate(
+					state.resultSet,
+					id,
+					instance,
+					persister,
+					propertyAliases,
+					! lazyAttributesUnfetched,
+					state.session
+			);
+			if ( unfetchedLazyAttributes != null && lazyAttributesUnfetched ) {
+				hydrateFetchedLazyAttributes( concretePersister, propertyAliases, instance, values, state );
+				state.unfetchedLazyAttributes.put( instance, unfetchedLazyAttributes );
+			}
+			final Object rowId = concretePersister.hasRowId()
+					? state.resultSet.getObject( entityAliases.getRowIdAlias() )
+					: null;
+			TwoPhaseLoad.postHydrate(
+					concretePersister,
+					id,
+					values,
+					rowId,
+					instance,
+					acquiredLockMode,
+					lazyAttributesUnfetched,
+					state.session
+			);
+			state.hydratedEntities.add( instance );
+			return instance;
+		}
+
+		private Set<String> resolveUnfetchedLazyAttributes(Loadable concretePersister) {
+			if ( ! concretePersister.hasLazyProperties() ) {
+				return null;
+			}
+			final String[] propertyNames = concretePersister.getPropertyNames();
+			final boolean[] propertyLaziness = concretePersister.getPropertyLaziness();
+			final Set<String> unfetched = new HashSet<String>();
+			for ( int i = 0; i < propertyNames.length; i++ ) {
+				if ( propertyLaziness[i] && ! fetchGroup.includes( i ) ) {
+					unfetched.add( propertyNames[i] );
+				}
+			}
+			return unfetched;
+		}
+
+		/**
+		 * Hydrating without all properties leaves every lazy attribute unfetched; hydrate those the fetch group
+		 * includes.
+		 */
+		private void hydrateFetchedLazyAttributes(
+				Loadable concretePersister,
+				String[][] propertyAliases,
+				Object instance,
+				Object[] values,
+				ProcessingState state) throws SQLException {
+			final boolean[] propertyLaziness = concretePersister.getPropertyLaziness();
+			final Type[] propertyTypes = concretePersister.getPropertyTypes();
+			for ( int i = 0; i < propertyLaziness.length; i++ ) {
+				if ( propertyLaziness[i] && fetchGroup.includes( i ) ) {
+					values[i] = propertyTypes[i].hydrate(
+							state.resultSet,
+							propertyAliases[i],
+							state.session,
+							instance
+					);
+				}
+			}
+		}
+
+		private Loadable resolveConcretePersister(Serializable id, ProcessingState state) throws SQLException {
+			if ( ! persister.hasSubclasses() ) {
+				return persister;
+			}
+			final Object discriminatorValue = persister.getDiscriminatorType().nullSafeGet(
+					state.resultSet,
+					entityAliases.getSuffixedDiscriminatorAlias(),
+					state.session,
+					null
+			);
+			final String entityName = persister.getSubclassForDiscriminatorValue( discriminatorValue );
+			if ( entityName == null ) {
+				throw new WrongClassException( "Discriminator: " + discriminatorValue, id, persister.getEntityName() );
+			}
+			return (Loadable) state.session.getFactory().getEntityPersister( entityName );
+		}
+	}
+
+	/**
+	 * Reads the collection rows of a {@link CollectionReference}.
+	 */
+	private static class CollectionReferenceReader {
+		private final int position;
+		private final CollectionReference reference;
+		private final CollectionPersister persister;
+		private final CollectionAliases collectionAliases;
+		private final MultipleResultSetPlan.CollectionSegment segment;
+		private final int result;
+		private final int ownerReader;
+		// whether rows repeating a composite element are recognized (and skipped); only set while constructing the
+		// processor
+		private boolean skipsRepeatedRows;
+
+		private CollectionReferenceReader(
+				int position,
+				CollectionReference reference,
+				MultipleResultSetPlan.CollectionSegment segment,
+				int ownerReader) {
+			this.position = position;
+			this.reference = reference;
+			this.persister = reference.getCollectionPersister();
+			this.collectionAliases = reference.getCollectionAliases();
+			this.segment = segment;
+			this.result = segment == null ? 0 : segment.getPosition();
+			this.ownerReader = ownerReader;
+		}
+
+		/**
+		 * Resolve the owners loaded by the preceding results by their collection key, registering their collections
+		 * as loading (so owners having no rows in the segment get an empty collection).
+		 */
+		private Map<CollectionKey,Object> resolveOwnersByKey(ProcessingState state) {
+			state.collectionPersisters.add( persister );
+
+			final Map<CollectionKey,Object> owners = new HashMap<CollectionKey, Object>();
+			for ( Object owner : state.loadedInstances[ownerReader] ) {
+				final Serializable ownerKey = persister.getCollectionType().getKeyOfOwner( owner, state.session );
+				if ( ownerKey == null ) {
+					continue;
+				}
+				owners.put( new CollectionKey( persister, ownerKey ), owner );
+				final PersistentCollection collection = state.collectionLoadContext.getLoadingCollection(
+						persister,
+						ownerKey
+				);
+				if ( collection != null && state.loadedCollections != null ) {
+					state.loadedCollections.put( collection, persister );
+				}
+			}
+			return owners;
+		}
+
+		private void read(ProcessingState state) throws SQLException {
+			if ( segment != null ) {
+				readSegmentRow( state );
+				return;
+			}
+			state.collectionPersisters.add( persister );
+
+			Object owner = ownerReader < 0 ? null : state.instances[ownerReader];
+			final Serializable collectionKey = (Serializable) persister.readKey(
+					state.resultSet,
+					collectionAliases.getSuffixedKeyAliases(),
+					state.session
+			);
+			if ( collectionKey != null ) {
+				if ( owner == null ) {
+					owner = state.persistenceContext.getCollectionOwner( collectionKey, persister );
+				}
+				final PersistentCollection collection = state.collectionLoadContext.getLoadingCollection(
+						persister,
+						collectionKey
+				);
+				if ( collection != null ) {
+					if ( ! skipsRepeatedRows || isDistinctRow( collectionKey, state ) ) {
+						collection.readFrom( state.resultSet, persister, collectionAliases, owner );
+					}
+					if ( state.loadedCollections != null ) {
+						state.loadedCollections.put( collection, persister );
+					}
+				}
+				if ( ownerReader >= 0 ) {
+					state.fetchCount++;
+				}
+			}
+			else if ( owner != null ) {
+				// the owner has no elements : register the (empty) collection
+				final Serializable ownerKey = persister.getCollectionType().getKeyOfOwner( owner, state.session );
+				if ( ownerKey != null ) {
+					final PersistentCollection collection = state.collectionLoadContext.getLoadingCollection(
+							persister,
+							ownerKey
+					);
+					if ( collection != null && state.loadedCollections != null ) {
+						state.loadedCollections.put( collection, persister );
+					}
+				}
+			}
+		}
+
+		private boolean isDistinctRow(Serializable collectionKey, ProcessingState state) throws SQLException {
+			CompositeElementReader elementReader = state.elementReaders[position];
+			if ( elementReader == null ) {
+				elementReader = new CompositeElementReader( persister, collectionAliases );
+				state.elementReaders[position] = elementReader;
+			}
+			return elementReader.isDistinctRow( state.resultSet, collectionKey, state.session );
+		}
+
+		/**
+		 * Read a row of the segment's result, stitching it to its owner by the owner key.
+		 */
+		private void readSegmentRow(ProcessingState state) throws SQLException {
+			final Serializable ownerKey = (Serializable) persister.readKey(
+					state.resultSet,
+					segment.getOwnerKeyColumnAliases(),
+					state.session
+			);
+			if ( ownerKey == null ) {
+				return;
+			}
+			final Object owner = state.owners.get( new CollectionKey( persister, ownerKey ) );
+			if ( owner == null ) {
+				// not the collection of an owner loaded by the preceding results
+				return;
+			}
+			final PersistentCollection collection = state.collectionLoadContext.getLoadingCollection(
+					persister,
+					ownerKey
+			);
+			if ( collection != null ) {
+				collection.readFrom( state.resultSet, persister, collectionAliases, owner );
+			}
+			state.fetchCount++;
+		}
+	}
+
+	/**
+	 * A collection fetched immediately, but not joined.
+	 */
+	private static class FollowOnCollectionFetch {
+		private final String role;
+		private final String propertyName;
+		private final EntityReferenceReader ownerReader;
+
+		private FollowOnCollectionFetch(CollectionFetch fetch, EntityReferenceReader ownerReader) {
+			this.role = fetch.getCollectionPersister().getRole();
+			this.propertyName = ( (AbstractFetchOwner) fetch.getOwner() ).qualifyFetchPropertyName(
+					fetch.getOwnerPropertyName()
+			);
+			this.ownerReader = ownerReader;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A reusable buffer holding the raw values of one JDBC row, laid out according to a {@link RowLayout}.
+ *
+ * @author Steve Ebersole
+ */
+public class RowBuffer {
+	private final RowLayout layout;
+	private final Object[] values;
+
+	public RowBuffer(RowLayout layout) {
+		this.layout = layout;
+		this.values = new Object[ layout.getColumnCount() ];
+	}
+
+	public RowLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Read the values of the current row of the given ResultSet into this buffer, replacing any previous values.
+	 *
+	 * @param resultSet The ResultSet, positioned on the row to read
+	 * @param columnIndexes The JDBC column indexes as resolved by {@link RowLayout#resolveColumnIndexes}
+	 *
+	 * @throws SQLException Indicates a problem accessing the ResultSet
+	 */
+	public void read(ResultSet resultSet, int[] columnIndexes) throws SQLException {
+		for ( int i = 0; i < columnIndexes.length; i++ ) {
+			values[i] = resultSet.getObject( columnIndexes[i] );
+		}
+	}
+
+	public Object getValue(int position) {
+		return values[position];
+	}
+
+	public void setValue(int position, Object value) {
+		values[position] = value;
+	}
+
+	public void clear() {
+		for ( int i = 0; i < values.length; i++ ) {
+			values[i] = null;
+		}
+	}
+}
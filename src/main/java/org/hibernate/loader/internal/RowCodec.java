@@ -0,0 +1,250 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+
+/**
+ * The binary encoding of buffered row values : each value is encoded as a 1 byte type tag followed by the value's
+ * fixed or length-prefixed payload.  Only the "simple" JDBC value types are supported (numerics, strings, temporals,
+ * binary).
+ *
+ * @author Steve Ebersole
+ */
+class RowCodec {
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte SHORT = 4;
+	private static final byte BYTE = 5;
+	private static final byte DOUBLE = 6;
+	private static final byte FLOAT = 7;
+	private static final byte BOOLEAN = 8;
+	private static final byte BIG_DECIMAL = 9;
+	private static final byte BIG_INTEGER = 10;
+	private static final byte DATE = 11;
+	private static final byte TIME = 12;
+	private static final byte TIMESTAMP = 13;
+	private static final byte BYTES = 14;
+	private static final byte CHARACTER = 15;
+
+	private RowCodec() {
+	}
+
+	/**
+	 * The number of bytes needed to encode the given value.
+	 *
+	 * @param value The value
+	 *
+	 * @return The encoded size, or {@code -1} if the value's type is not supported
+	 */
+	static int encodedSize(Object value) {
+		if ( value == null ) {
+			return 1;
+		}
+		if ( value instanceof String ) {
+			return 5 + 2 * ( (String) value ).length();
+		}
+		if ( value instanceof Integer || value instanceof Float ) {
+			return 5;
+		}
+		if ( value instanceof Long || value instanceof Double
+				|| value instanceof java.sql.Date || value instanceof java.sql.Time ) {
+			return 9;
+		}
+		if ( value instanceof Short || value instanceof Character ) {
+			return 3;
+		}
+		if ( value instanceof Byte || value instanceof Boolean ) {
+			return 2;
+		}
+		if ( value instanceof BigDecimal ) {
+			return 9 + ( ( (BigDecimal) value ).unscaledValue().bitLength() / 8 + 1 );
+		}
+		if ( value instanceof BigInteger ) {
+			return 5 + ( ( (BigInteger) value ).bitLength() / 8 + 1 );
+		}
+		if ( value instanceof java.sql.Timestamp ) {
+			return 13;
+		}
+		if ( value instanceof byte[] ) {
+			return 5 + ( (byte[]) value ).length;
+		}
+		// LOBs, arrays, vendor specific types, ...
+		return -1;
+	}
+
+	/**
+	 * Encode the given value, which must be of a supported type, into the buffer.
+	 *
+	 * @param buffer The buffer, having at least {@link #encodedSize} bytes remaining
+	 * @param value The value
+	 */
+	static void write(ByteBuffer buffer, Object value) {
+		if ( value == null ) {
+			buffer.put( NULL );
+		}
+		else if ( value instanceof String ) {
+			final String string = (String) value;
+			buffer.put( STRING ).putInt( string.length() );
+			for ( int i = 0; i < string.length(); i++ ) {
+				buffer.putChar( string.charAt( i ) );
+			}
+		}
+		else if ( value instanceof Integer ) {
+			buffer.put( INTEGER ).putInt( (Integer) value );
+		}
+		else if ( value instanceof Long ) {
+			buffer.put( LONG ).putLong( (Long) value );
+		}
+		else if ( value instanceof Short ) {
+			buffer.put( SHORT ).putShort( (Short) value );
+		}
+		else if ( value instanceof Byte ) {
+			buffer.put( BYTE ).put( (Byte) value );
+		}
+		else if ( value instanceof Double ) {
+			buffer.put( DOUBLE ).putDouble( (Double) value );
+		}
+		else if ( value instanceof Float ) {
+			buffer.put( FLOAT ).putFloat( (Float) value );
+		}
+		else if ( value instanceof Boolean ) {
+			buffer.put( BOOLEAN ).put( (byte) ( (Boolean) value ? 1 : 0 ) );
+		}
+		else if ( value instanceof Character ) {
+			buffer.put( CHARACTER ).putChar( (Character) value );
+		}
+		else if ( value instanceof BigDecimal ) {
+			final BigDecimal decimal = (BigDecimal) value;
+			buffer.put( BIG_DECIMAL ).putInt( decimal.scale() );
+			writeBytes( buffer, decimal.unscaledValue().toByteArray() );
+		}
+		else if ( value instanceof BigInteger ) {
+			buffer.put( BIG_INTEGER );
+			writeBytes( buffer, ( (BigInteger) value ).toByteArray() );
+		}
+		else if ( value instanceof java.sql.Timestamp ) {
+			final java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+			buffer.put( TIMESTAMP ).putLong( timestamp.getTime() ).putInt( timestamp.getNanos() );
+		}
+		else if ( value instanceof java.sql.Date ) {
+			buffer.put( DATE ).putLong( ( (java.sql.Date) value ).getTime() );
+		}
+		else if ( value instanceof java.sql.Time ) {
+			buffer.put( TIME ).putLong( ( (java.sql.Time) value ).getTime() );
+		}
+		else {
+			buffer.put( BYTES );
+			writeBytes( buffer, (byte[]) value );
+		}
+	}
+
+	private static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+		buffer.putInt( bytes.length ).put( bytes );
+	}
+
+	/**
+	 * Decode the next value from the buffer.
+	 *
+	 * @param data The buffer
+	 *
+	 * @return The decoded value
+	 *
+	 * @throws SQLException Indicates corrupt data
+	 */
+	static Object read(ByteBuffer data) throws SQLException {
+		final byte tag = data.get();
+		switch ( tag ) {
+			case NULL: {
+				return null;
+			}
+			case STRING: {
+				final char[] chars = new char[ data.getInt() ];
+				for ( int i = 0; i < chars.length; i++ ) {
+					chars[i] = data.getChar();
+				}
+				return new String( chars );
+			}
+			case INTEGER: {
+				return data.getInt();
+			}
+			case LONG: {
+				return data.getLong();
+			}
+			case SHORT: {
+				return data.getShort();
+			}
+			case BYTE: {
+				return data.get();
+			}
+			case DOUBLE: {
+				return data.getDouble();
+			}
+			case FLOAT: {
+				return data.getFloat();
+			}
+			case BOOLEAN: {
+				return data.get() != 0;
+			}
+			case BIG_DECIMAL: {
+				final int scale = data.getInt();
+				return new BigDecimal( new BigInteger( readBytes( data ) ), scale );
+			}
+			case BIG_INTEGER: {
+				return new BigInteger( readBytes( data ) );
+			}
+			case DATE: {
+				return new java.sql.Date( data.getLong() );
+			}
+			case TIME: {
+				return new java.sql.Time( data.getLong() );
+			}
+			case TIMESTAMP: {
+				final java.sql.Timestamp timestamp = new java.sql.Timestamp( data.getLong() );
+				timestamp.setNanos( data.getInt() );
+				return timestamp;
+			}
+			case BYTES: {
+				return readBytes( data );
+			}
+			case CHARACTER: {
+				return data.getChar();
+			}
+			default: {
+				throw new SQLException( "Corrupt row snapshot; unknown value tag : " + tag );
+			}
+		}
+	}
+
+	private static byte[] readBytes(ByteBuffer data) {
+		final byte[] bytes = new byte[ data.getInt() ];
+		data.get( bytes );
+		return bytes;
+	}
+}
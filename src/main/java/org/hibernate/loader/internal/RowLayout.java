@@ -0,0 +1,178 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.loader.CollectionAliases;
+import org.hibernate.loader.plan.spi.CollectionReference;
+import org.hibernate.loader.plan.spi.EntityReference;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.FetchGroup;
+import org.hibernate.loader.plan.spi.FetchOwner;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanEstimator;
+import org.hibernate.loader.plan.spi.Return;
+import org.hibernate.loader.plan.spi.ScalarReturn;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.Loadable;
+
+/**
+ * Describes the layout of the JDBC row values read for a {@link LoadPlan}: the column aliases of all joined plan
+ * nodes, each assigned a position within a {@link RowBuffer}.
+ *
+ * @author Steve Ebersole
+ */
+public class RowLayout {
+	/**
+	 * Build the layout for the given plan.
+	 *
+	 * @param loadPlan The plan
+	 *
+	 * @return The row layout
+	 */
+	public static RowLayout forLoadPlan(LoadPlan loadPlan) {
+		final Set<String> aliases = new LinkedHashSet<String>();
+		for ( Return rtn : loadPlan.getReturns() ) {
+			collectColumnAliases( rtn, aliases );
+			if ( FetchOwner.class.isInstance( rtn ) ) {
+				collectFetchColumnAliases( (FetchOwner) rtn, aliases );
+			}
+		}
+		return new RowLayout( aliases.toArray( new String[ aliases.size() ] ) );
+	}
+
+	private static void collectFetchColumnAliases(FetchOwner fetchOwner, Set<String> aliases) {
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( LoadPlanEstimator.isJoined( fetch ) ) {
+				collectColumnAliases( fetch, aliases );
+				collectFetchColumnAliases( fetch, aliases );
+			}
+		}
+	}
+
+	private static void collectColumnAliases(Object node, Set<String> aliases) {
+		if ( EntityReference.class.isInstance( node ) ) {
+			final EntityReference entityReference = (EntityReference) node;
+			addAll(
+					aliases,
+					entityReference.getFetchGroup().resolveColumnAliases(
+							(Loadable) entityReference.getEntityPersister(),
+							entityReference.getEntityAliases()
+					)
+			);
+		}
+		else if ( CollectionReference.class.isInstance( node ) ) {
+			final CollectionReference collectionReference = (CollectionReference) node;
+			final CollectionAliases collectionAliases = collectionReference.getCollectionAliases();
+			addAll( aliases, collectionAliases.getSuffixedKeyAliases() );
+			addAll( aliases, collectionAliases.getSuffixedIndexAliases() );
+			addAll( aliases, collectionAliases.getSuffixedElementAliases() );
+			if ( collectionAliases.getSuffixedIdentifierAlias() != null ) {
+				aliases.add( collectionAliases.getSuffixedIdentifierAlias() );
+			}
+			if ( collectionReference.getElementEntityAliases() != null ) {
+				// the collection's element entities are read through their standard group
+				final Loadable elementPersister = (Loadable) ( (QueryableCollection) collectionReference
+						.getCollectionPersister() ).getElementPersister();
+				addAll(
+						aliases,
+						FetchGroup.standard( elementPersister ).resolveColumnAliases(
+								elementPersister,
+								collectionReference.getElementEntityAliases()
+						)
+				);
+			}
+		}
+		else if ( ScalarReturn.class.isInstance( node ) ) {
+			aliases.add( ( (ScalarReturn) node ).getColumnAlias() );
+		}
+	}
+
+	private static void addAll(Set<String> aliases, String[] toAdd) {
+		if ( toAdd != null ) {
+			aliases.addAll( Arrays.asList( toAdd ) );
+		}
+	}
+
+	private final String[] columnAliases;
+	private final Map<String,Integer> positions;
+
+	public RowLayout(String[] columnAliases) {
+		this.columnAliases = columnAliases;
+		this.positions = new HashMap<String, Integer>( (int) ( columnAliases.length / .75f ) + 1 );
+		for ( int i = 0; i < columnAliases.length; i++ ) {
+			positions.put( normalize( columnAliases[i] ), i );
+		}
+	}
+
+	public String[] getColumnAliases() {
+		return columnAliases;
+	}
+
+	public int getColumnCount() {
+		return columnAliases.length;
+	}
+
+	/**
+	 * Locate the position of the given column alias within this layout.
+	 *
+	 * @param columnAlias The column alias
+	 *
+	 * @return The (zero-based) position, or -1 if the alias is not part of this layout
+	 */
+	public int getPosition(String columnAlias) {
+		final Integer position = positions.get( normalize( columnAlias ) );
+		return position == null ? -1 : position;
+	}
+
+	/**
+	 * Resolve the JDBC (one-based) column indexes of this layout's columns within the given ResultSet.
+	 *
+	 * @param resultSet The ResultSet
+	 *
+	 * @return The JDBC column indexes, in layout order
+	 *
+	 * @throws SQLException Indicates a problem accessing the ResultSet, generally a missing column
+	 */
+	public int[] resolveColumnIndexes(ResultSet resultSet) throws SQLException {
+		final int[] columnIndexes = new int[ columnAliases.length ];
+		for ( int i = 0; i < columnAliases.length; i++ ) {
+			columnIndexes[i] = resultSet.findColumn( columnAliases[i] );
+		}
+		return columnIndexes;
+	}
+
+	private static String normalize(String columnAlias) {
+		// JDBC column labels are case insensitive
+		return columnAlias.toLowerCase( Locale.ROOT );
+	}
+}
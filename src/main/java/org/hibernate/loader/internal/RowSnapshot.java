@@ -0,0 +1,198 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+
+/**
+ * The raw column values of the rows read for a LoadPlan execution, captured into a compact binary format held
+ * off-heap (in a direct {@link ByteBuffer}), such that the execution can later be replayed through the same
+ * ResultSetProcessor via {@link #openRowSource()}.
+ * <p/>
+ * Values are encoded by {@link RowCodec}; rows holding a value of a type it does not support cannot be captured
+ * (see {@link Builder#append}).  Replay decodes into a single, reused {@link RowBuffer}.
+ *
+ * @author Steve Ebersole
+ */
+public class RowSnapshot {
+	private final RowLayout layout;
+	private final ByteBuffer data;
+	private final int rowCount;
+
+	private RowSnapshot(RowLayout layout, ByteBuffer data, int rowCount) {
+		this.layout = layout;
+		this.data = data;
+		this.rowCount = rowCount;
+	}
+
+	public RowLayout getLayout() {
+		return layout;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * The off-heap size held by this snapshot.
+	 *
+	 * @return The size, in bytes
+	 */
+	public int getSizeInBytes() {
+		return data.capacity();
+	}
+
+	/**
+	 * Open a source replaying the captured rows.  Each call returns an independent source.
+	 *
+	 * @return The row source
+	 */
+	public RowSource openRowSource() {
+		return new ReplayingRowSource( layout, data.duplicate() );
+	}
+
+	private static class ReplayingRowSource implements RowSource {
+		private final ByteBuffer data;
+		private final RowBuffer row;
+
+		private ReplayingRowSource(RowLayout layout, ByteBuffer data) {
+			this.data = data;
+			this.row = new RowBuffer( layout );
+		}
+
+		@Override
+		public RowBuffer nextRow() throws SQLException {
+			if ( ! data.hasRemaining() ) {
+				return null;
+			}
+			final int columnCount = row.getLayout().getColumnCount();
+			for ( int i = 0; i < columnCount; i++ ) {
+				row.setValue( i, RowCodec.read( data ) );
+			}
+			return row;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Captures rows into a RowSnapshot.  The off-heap buffer grows (by doubling) as needed, up to the given maximum
+	 * size; the snapshot is trimmed to the captured bytes when built.
+	 */
+	public static class Builder {
+		private final RowLayout layout;
+		private final int maximumSize;
+
+		private ByteBuffer buffer;
+		private int rowCount;
+		private boolean abandoned;
+
+		public Builder(RowLayout layout, int initialCapacity, int maximumSize) {
+			this.layout = layout;
+			this.maximumSize = maximumSize;
+			this.buffer = ByteBuffer.allocateDirect( Math.min( initialCapacity, maximumSize ) );
+		}
+
+		/**
+		 * Capture a row.
+		 *
+		 * @param row The row
+		 *
+		 * @return {@code false} if the row could not be captured (unsupported value type or maximum size exceeded),
+		 * in which case the builder is abandoned and ignores any further rows.
+		 */
+		public boolean append(RowBuffer row) {
+			if ( abandoned ) {
+				return false;
+			}
+			for ( int i = 0; i < layout.getColumnCount(); i++ ) {
+				if ( ! encode( row.getValue( i ) ) ) {
+					abandon();
+					return false;
+				}
+			}
+			rowCount++;
+			return true;
+		}
+
+		public RowLayout getLayout() {
+			return layout;
+		}
+
+		public boolean isAbandoned() {
+			return abandoned;
+		}
+
+		/**
+		 * Build the snapshot of the captured rows.
+		 *
+		 * @return The snapshot, or {@code null} if this builder was abandoned
+		 */
+		public RowSnapshot build() {
+			if ( abandoned ) {
+				return null;
+			}
+			final ByteBuffer captured = buffer.duplicate();
+			captured.flip();
+			// do not hold on to the unused capacity (up to half of the buffer, given it grows by doubling)
+			final ByteBuffer data = ByteBuffer.allocateDirect( captured.remaining() );
+			data.put( captured );
+			data.flip();
+			return new RowSnapshot( layout, data.asReadOnlyBuffer(), rowCount );
+		}
+
+		private void abandon() {
+			abandoned = true;
+			buffer = null;
+		}
+
+		private boolean encode(Object value) {
+			final int size = RowCodec.encodedSize( value );
+			if ( size < 0 || ! ensureCapacity( size ) ) {
+				return false;
+			}
+			RowCodec.write( buffer, value );
+			return true;
+		}
+
+		private boolean ensureCapacity(int bytes) {
+			if ( buffer.remaining() >= bytes ) {
+				return true;
+			}
+			final long required = (long) buffer.position() + bytes;
+			if ( required > maximumSize ) {
+				return false;
+			}
+			final int newCapacity = (int) Math.min( maximumSize, Math.max( required, 2L * buffer.capacity() ) );
+			final ByteBuffer newBuffer = ByteBuffer.allocateDirect( newCapacity );
+			buffer.flip();
+			newBuffer.put( buffer );
+			buffer = newBuffer;
+			return true;
+		}
+	}
+}
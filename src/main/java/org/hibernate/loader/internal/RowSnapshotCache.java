@@ -0,0 +1,251 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.RowSelection;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.spi.CollectionReference;
+import org.hibernate.loader.plan.spi.EntityReference;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.FetchOwner;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.Return;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.QueryableCollection;
+
+/**
+ * Cache of {@link RowSnapshot row snapshots}, keyed by LoadPlan and parameters, bounded by the total (off-heap) size of
+ * the cached snapshots; least recently used snapshots are evicted first.
+ * <p/>
+ * As with the {@link org.hibernate.cache.internal.StandardQueryCache}, snapshots are validated against the
+ * {@link UpdateTimestampsCache} : a snapshot is only returned if none of the tables read by its plan (the query
+ * spaces of the plan's entities and collections) were updated since the snapshot was captured, and is evicted
+ * otherwise.  The query cache hence needs to be enabled.
+ *
+ * @author Steve Ebersole
+ */
+public class RowSnapshotCache {
+	private final UpdateTimestampsCache updateTimestampsCache;
+	private final long maximumSize;
+	private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<Key, Entry>( 16, 0.75f, true );
+	private long currentSize;
+
+	public RowSnapshotCache(SessionFactoryImplementor sessionFactory, long maximumSize) {
+		this.updateTimestampsCache = sessionFactory.getUpdateTimestampsCache();
+		if ( updateTimestampsCache == null ) {
+			throw new HibernateException(
+					"Row snapshots are validated by the update timestamps of the query cache, which is disabled"
+			);
+		}
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Get the snapshot of the given execution, if it is still up to date.
+	 *
+	 * @param key The execution
+	 * @param session The originating session
+	 *
+	 * @return The snapshot, or {@code null} if none was cached or the cached one is stale
+	 */
+	public synchronized RowSnapshot get(Key key, SessionImplementor session) {
+		final Entry entry = entries.get( key );
+		if ( entry == null ) {
+			return null;
+		}
+		if ( ! updateTimestampsCache.isUpToDate( entry.querySpaces, entry.timestamp, session ) ) {
+			entries.remove( key );
+			currentSize -= entry.snapshot.getSizeInBytes();
+			return null;
+		}
+		return entry.snapshot;
+	}
+
+	/**
+	 * Cache the snapshot of the given execution.
+	 *
+	 * @param key The execution
+	 * @param snapshot The snapshot
+	 * @param session The session which performed the execution; its timestamp (taken when it was opened) is the
+	 * time the snapshot is considered current as of.
+	 */
+	public synchronized void put(Key key, RowSnapshot snapshot, SessionImplementor session) {
+		if ( snapshot.getSizeInBytes() > maximumSize ) {
+			return;
+		}
+		final Entry previous = entries.put(
+				key,
+				new Entry( snapshot, resolveQuerySpaces( key.loadPlan ), session.getTimestamp() )
+		);
+		if ( previous != null ) {
+			currentSize -= previous.snapshot.getSizeInBytes();
+		}
+		currentSize += snapshot.getSizeInBytes();
+
+		final Iterator<Entry> itr = entries.values().iterator();
+		while ( currentSize > maximumSize && itr.hasNext() ) {
+			currentSize -= itr.next().snapshot.getSizeInBytes();
+			itr.remove();
+		}
+	}
+
+	/**
+	 * Evict all snapshots of the given plan.
+	 *
+	 * @param loadPlan The plan
+	 */
+	public synchronized void evict(LoadPlan loadPlan) {
+		final Iterator<Map.Entry<Key,Entry>> itr = entries.entrySet().iterator();
+		while ( itr.hasNext() ) {
+			final Map.Entry<Key,Entry> entry = itr.next();
+			if ( entry.getKey().loadPlan == loadPlan ) {
+				currentSize -= entry.getValue().snapshot.getSizeInBytes();
+				itr.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		currentSize = 0;
+	}
+
+	public synchronized long getCurrentSize() {
+		return currentSize;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Resolve the query spaces read by the given plan : those of all its entity and collection nodes.
+	 */
+	private static Set<Serializable> resolveQuerySpaces(LoadPlan loadPlan) {
+		final Set<Serializable> querySpaces = new HashSet<Serializable>();
+		for ( Return rtn : loadPlan.getReturns() ) {
+			collectQuerySpaces( rtn, querySpaces );
+		}
+		return Collections.unmodifiableSet( querySpaces );
+	}
+
+	private static void collectQuerySpaces(Object node, Set<Serializable> querySpaces) {
+		if ( EntityReference.class.isInstance( node ) ) {
+			querySpaces.addAll(
+					Arrays.asList( ( (EntityReference) node ).getEntityPersister().getQuerySpaces() )
+			);
+		}
+		if ( CollectionReference.class.isInstance( node ) ) {
+			final CollectionPersister persister = ( (CollectionReference) node ).getCollectionPersister();
+			querySpaces.addAll( Arrays.asList( persister.getCollectionSpaces() ) );
+			if ( persister.getElementType().isEntityType() ) {
+				querySpaces.addAll(
+						Arrays.asList( ( (QueryableCollection) persister ).getElementPersister().getQuerySpaces() )
+				);
+			}
+		}
+		if ( FetchOwner.class.isInstance( node ) ) {
+			for ( Fetch fetch : ( (FetchOwner) node ).getFetches() ) {
+				collectQuerySpaces( fetch, querySpaces );
+			}
+		}
+	}
+
+	private static class Entry {
+		private final RowSnapshot snapshot;
+		private final Set<Serializable> querySpaces;
+		private final Long timestamp;
+
+		private Entry(RowSnapshot snapshot, Set<Serializable> querySpaces, long timestamp) {
+			this.snapshot = snapshot;
+			this.querySpaces = querySpaces;
+			this.timestamp = timestamp;
+		}
+	}
+
+	/**
+	 * Identifies an execution of a LoadPlan : the (cached) plan instance plus the parameter values and row selection.
+	 */
+	public static class Key {
+		private final LoadPlan loadPlan;
+		private final Object[] positionalValues;
+		private final Map namedParameters;
+		private final Integer firstRow;
+		private final Integer maxRows;
+		private final int hashCode;
+
+		public Key(LoadPlan loadPlan, QueryParameters queryParameters) {
+			this.loadPlan = loadPlan;
+			this.positionalValues = queryParameters.getPositionalParameterValues();
+			this.namedParameters = queryParameters.getNamedParameters();
+			final RowSelection selection = queryParameters.getRowSelection();
+			this.firstRow = selection == null ? null : selection.getFirstRow();
+			this.maxRows = selection == null ? null : selection.getMaxRows();
+
+			int result = System.identityHashCode( loadPlan );
+			result = 31 * result + Arrays.deepHashCode( positionalValues );
+			result = 31 * result + ( namedParameters == null ? 0 : namedParameters.hashCode() );
+			result = 31 * result + ( firstRow == null ? 0 : firstRow.hashCode() );
+			result = 31 * result + ( maxRows == null ? 0 : maxRows.hashCode() );
+			this.hashCode = result;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if ( this == o ) {
+				return true;
+			}
+			if ( !( o instanceof Key ) ) {
+				return false;
+			}
+			final Key that = (Key) o;
+			return loadPlan == that.loadPlan
+					&& hashCode == that.hashCode
+					&& Arrays.deepEquals( positionalValues, that.positionalValues )
+					&& ( namedParameters == null
+							? that.namedParameters == null
+							: namedParameters.equals( that.namedParameters ) )
+					&& ( firstRow == null ? that.firstRow == null : firstRow.equals( that.firstRow ) )
+					&& ( maxRows == null ? that.maxRows == null : maxRows.equals( that.maxRows ) );
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.SQLException;
+
+/**
+ * A source of buffered rows, consumed through {@link BufferedRowResultSet}.
+ *
+ * @author Steve Ebersole
+ */
+public interface RowSource {
+	/**
+	 * Move to the next row.  The buffer returned by the previous call may be reused by the source once this is
+	 * called.
+	 *
+	 * @return The next row, or {@code null} if there are no more rows.
+	 *
+	 * @throws SQLException Indicates a problem obtaining the row
+	 */
+	public RowBuffer nextRow() throws SQLException;
+
+	/**
+	 * Release any resources held by the source.
+	 */
+	public void close();
+}
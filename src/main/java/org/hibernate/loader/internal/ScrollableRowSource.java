@@ -0,0 +1,54 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.SQLException;
+
+/**
+ * A {@link RowSource} allowing random access to its rows, backing a scrollable {@link BufferedRowResultSet}.
+ *
+ * @author Steve Ebersole
+ */
+public interface ScrollableRowSource extends RowSource {
+	/**
+	 * Access the given row.  The buffer returned by the previous call may be reused by the source once this is
+	 * called.
+	 *
+	 * @param rowNumber The (1-based) row number
+	 *
+	 * @return The row, or {@code null} if there is no such row
+	 *
+	 * @throws SQLException Indicates a problem obtaining the row
+	 */
+	public RowBuffer getRow(int rowNumber) throws SQLException;
+
+	/**
+	 * The total number of rows, reading all remaining rows if needed.
+	 *
+	 * @return The row count
+	 *
+	 * @throws SQLException Indicates a problem reading the rows
+	 */
+	public int getRowCount() throws SQLException;
+}
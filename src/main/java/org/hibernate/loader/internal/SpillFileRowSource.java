@@ -0,0 +1,316 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.jboss.logging.Logger;
+
+import org.hibernate.HibernateException;
+import org.hibernate.loader.plan.spi.LoadPlan;
+
+/**
+ * A {@link ScrollableRowSource} over a forward-only JDBC ResultSet, spilling the rows (encoded by {@link RowCodec})
+ * into a temporary file as they are read.  Rows are located through an index of their file offsets and read back
+ * through a memory-mapped window over the file, so that scrolling backwards over large results (as needed by
+ * {@link org.hibernate.loader.spi.OnDemandResultSetProcessor#extractSequentialRowsReverse}) does not require a
+ * scrollable JDBC ResultSet, which many drivers implement by buffering the entire result in heap.
+ * <p/>
+ * Nothing in the loaders creates one yet: an {@link org.hibernate.loader.spi.OnDemandResultSetProcessor}
+ * implementation (there is none so far) is expected to wrap its forward-only ResultSet through
+ * {@link #generateScrollableResultSet} before scrolling backwards over it.
+ * <p/>
+ * The JDBC ResultSet is read lazily, only as far as needed to serve the requested rows.  LOB values are
+ * materialized when spilled.  Closing the source unmaps the window and deletes the spill file; the JDBC ResultSet
+ * remains owned by the caller.  Windows are unmapped explicitly (as they are replaced, and on close) rather than left
+ * to garbage collection, which would otherwise keep the mapped file regions, and on some platforms the file, around.
+ *
+ * @author Steve Ebersole
+ */
+public class SpillFileRowSource implements ScrollableRowSource {
+	private static final Logger log = Logger.getLogger( SpillFileRowSource.class );
+
+	public static final int DEFAULT_WINDOW_SIZE = 16 * 1024 * 1024;
+	private static final int STAGING_SIZE = 64 * 1024;
+
+	/**
+	 * Generate a scrollable ResultSet over the given forward-only ResultSet, spilling to a file in the given directory.
+	 *
+	 * @param resultSet The forward-only ResultSet
+	 * @param loadPlan The plan being processed, defining the columns to spill
+	 * @param spillDirectory The directory for the spill file; {@code null} indicates the default temporary directory
+	 *
+	 * @return The scrollable ResultSet
+	 *
+	 * @throws SQLException Indicates a problem accessing the ResultSet
+	 */
+	public static ResultSet generateScrollableResultSet(ResultSet resultSet, LoadPlan loadPlan, File spillDirectory)
+			throws SQLException {
+		final RowLayout layout = RowLayout.forLoadPlan( loadPlan );
+		return BufferedRowResultSet.generateProxy(
+				layout,
+				new SpillFileRowSource( resultSet, layout, spillDirectory, DEFAULT_WINDOW_SIZE )
+		);
+	}
+
+	private final ResultSet resultSet;
+	private final int[] columnIndexes;
+	private final RowBuffer spillRow;
+	private final RowBuffer readRow;
+	private final int windowSize;
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel channel;
+
+	private ByteBuffer staging = ByteBuffer.allocateDirect( STAGING_SIZE );
+	private long flushedSize;
+	private long writePosition;
+
+	private long[] rowOffsets = new long[1024];
+	private int rowCount;
+	private boolean exhausted;
+	private int cursor;
+
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	public SpillFileRowSource(ResultSet resultSet, RowLayout layout, File spillDirectory, int windowSize)
+			throws SQLException {
+		this.resultSet = resultSet;
+		this.columnIndexes = layout.resolveColumnIndexes( resultSet );
+		this.spillRow = new RowBuffer( layout );
+		this.readRow = new RowBuffer( layout );
+		this.windowSize = windowSize;
+		try {
+			this.file = File.createTempFile( "hibernate-rows", ".spill", spillDirectory );
+			this.randomAccessFile = new RandomAccessFile( file, "rw" );
+			this.channel = randomAccessFile.getChannel();
+		}
+		catch (IOException e) {
+			throw new HibernateException( "Could not create row spill file", e );
+		}
+	}
+
+	@Override
+	public RowBuffer nextRow() throws SQLException {
+		final RowBuffer row = getRow( cursor + 1 );
+		if ( row != null ) {
+			cursor++;
+		}
+		return row;
+	}
+
+	@Override
+	public RowBuffer getRow(int rowNumber) throws SQLException {
+		if ( rowNumber < 1 ) {
+			return null;
+		}
+		while ( rowCount < rowNumber && ! exhausted ) {
+			spillNextRow();
+		}
+		if ( rowNumber > rowCount ) {
+			return null;
+		}
+		return readRow( rowNumber );
+	}
+
+	@Override
+	public int getRowCount() throws SQLException {
+		while ( ! exhausted ) {
+			spillNextRow();
+		}
+		return rowCount;
+	}
+
+	private void spillNextRow() throws SQLException {
+		if ( ! resultSet.next() ) {
+			exhausted = true;
+			return;
+		}
+		spillRow.read( resultSet, columnIndexes );
+
+		final int columnCount = spillRow.getLayout().getColumnCount();
+		int rowSize = 0;
+		for ( int i = 0; i < columnCount; i++ ) {
+			final Object value = materialize( spillRow.getValue( i ) );
+			final int size = RowCodec.encodedSize( value );
+			if ( size < 0 ) {
+				throw new SQLException(
+						"Cannot spill value of type " + value.getClass().getName()
+								+ " [" + spillRow.getLayout().getColumnAliases()[i] + "]"
+				);
+			}
+			spillRow.setValue( i, value );
+			rowSize += size;
+		}
+
+		if ( staging.remaining() < rowSize ) {
+			flush();
+			if ( staging.capacity() < rowSize ) {
+				staging = ByteBuffer.allocateDirect( rowSize );
+			}
+		}
+		for ( int i = 0; i < columnCount; i++ ) {
+			RowCodec.write( staging, spillRow.getValue( i ) );
+		}
+
+		if ( rowCount == rowOffsets.length ) {
+			final long[] expanded = new long[ rowOffsets.length * 2 ];
+			System.arraycopy( rowOffsets, 0, expanded, 0, rowCount );
+			rowOffsets = expanded;
+		}
+		rowOffsets[rowCount++] = writePosition;
+		writePosition += rowSize;
+	}
+
+	private static Object materialize(Object value) throws SQLException {
+		if ( value instanceof Clob ) {
+			final Clob clob = (Clob) value;
+			return clob.getSubString( 1, (int) clob.length() );
+		}
+		if ( value instanceof Blob ) {
+			final Blob blob = (Blob) value;
+			return blob.getBytes( 1, (int) blob.length() );
+		}
+		return value;
+	}
+
+	private RowBuffer readRow(int rowNumber) throws SQLException {
+		final long offset = rowOffsets[rowNumber - 1];
+		final long end = rowNumber < rowCount ? rowOffsets[rowNumber] : writePosition;
+
+		final ByteBuffer data;
+		if ( offset >= flushedSize ) {
+			// still staged (rows are never split between staging and file)
+			data = staging.duplicate();
+			data.flip();
+			data.position( (int) ( offset - flushedSize ) );
+		}
+		else {
+			if ( window == null || offset < windowStart || end > windowStart + window.capacity() ) {
+				mapWindow( offset, end );
+			}
+			data = window.duplicate();
+			data.position( (int) ( offset - windowStart ) );
+		}
+
+		final int columnCount = readRow.getLayout().getColumnCount();
+		for ( int i = 0; i < columnCount; i++ ) {
+			readRow.setValue( i, RowCodec.read( data ) );
+		}
+		return readRow;
+	}
+
+	private void mapWindow(long offset, long end) throws SQLException {
+		// center the window on the row, serving scrolling in either direction
+		final long start = Math.max( 0, offset - windowSize / 2 );
+		final long size = Math.max( end - start, Math.min( windowSize, flushedSize - start ) );
+		unmapWindow();
+		try {
+			window = channel.map( FileChannel.MapMode.READ_ONLY, start, size );
+			windowStart = start;
+		}
+		catch (IOException e) {
+			throw new SQLException( "Could not map row spill file", e );
+		}
+	}
+
+	private void flush() throws SQLException {
+		staging.flip();
+		try {
+			while ( staging.hasRemaining() ) {
+				flushedSize += channel.write( staging, flushedSize );
+			}
+		}
+		catch (IOException e) {
+			throw new SQLException( "Could not write row spill file", e );
+		}
+		finally {
+			staging.clear();
+		}
+	}
+
+	private void unmapWindow() {
+		if ( window != null ) {
+			unmap( window );
+			window = null;
+		}
+	}
+
+	/**
+	 * Release the mapping of the given buffer right away, through the JDK internal cleaner of the buffer.  The mapping
+	 * is left to garbage collection if that is not accessible.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			try {
+				// Java 9 and later
+				final Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+				final Method invokeCleaner = unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class );
+				final Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+				theUnsafe.setAccessible( true );
+				invokeCleaner.invoke( theUnsafe.get( null ), buffer );
+			}
+			catch (NoSuchMethodException e) {
+				final Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+				cleanerMethod.setAccessible( true );
+				final Object cleaner = cleanerMethod.invoke( buffer );
+				if ( cleaner != null ) {
+					cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+				}
+			}
+		}
+		catch (Exception e) {
+			log.debugf( e, "Unable to unmap row spill file window; leaving it to garbage collection" );
+		}
+	}
+
+	@Override
+	public void close() {
+		unmapWindow();
+		try {
+			channel.close();
+			randomAccessFile.close();
+		}
+		catch (IOException e) {
+			log.debugf( e, "Unable to close row spill file %s", file );
+		}
+		if ( ! file.delete() ) {
+			// a still mapped file cannot be deleted on some platforms
+			file.deleteOnExit();
+		}
+	}
+}
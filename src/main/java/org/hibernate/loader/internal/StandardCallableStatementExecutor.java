@@ -0,0 +1,134 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.sql.CallableStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.spi.CallableStatementExecutor;
+import org.hibernate.loader.spi.ProcedureResult;
+
+/**
+ * Standard {@link CallableStatementExecutor} implementation.  Ref cursors are registered and accessed through the
+ * {@link Dialect}; returned ResultSets are consumed in the order they are returned, skipping update counts.
+ *
+ * @author Steve Ebersole
+ */
+public class StandardCallableStatementExecutor implements CallableStatementExecutor {
+	/**
+	 * Singleton access
+	 */
+	public static final StandardCallableStatementExecutor INSTANCE = new StandardCallableStatementExecutor();
+
+	@Override
+	public CallableStatement prepareCall(String callString, SessionImplementor session) {
+		return (CallableStatement) jdbcCoordinator( session ).getStatementPreparer().prepareStatement( callString, true );
+	}
+
+	@Override
+	public List<List> execute(
+			CallableStatement statement,
+			List<ProcedureResult> results,
+			SessionImplementor session,
+			QueryParameters queryParameters,
+			boolean returnProxies) throws SQLException {
+		final Dialect dialect = session.getFactory().getDialect();
+		for ( ProcedureResult result : results ) {
+			if ( result.isRefCursor() ) {
+				dialect.registerResultSetOutParameter( statement, result.getRefCursorPosition() );
+			}
+		}
+
+		final List[] extracted = new List[ results.size() ];
+		try {
+			boolean isResultSet = statement.execute();
+
+			// returned ResultSets first, as they are only available while positioned on them
+			for ( int i = 0; i < results.size(); i++ ) {
+				final ProcedureResult result = results.get( i );
+				if ( result.isRefCursor() ) {
+					continue;
+				}
+				while ( !isResultSet ) {
+					if ( statement.getUpdateCount() == -1 ) {
+						throw new SQLException( "Call returned fewer ResultSets than described (result #" + i + ")" );
+					}
+					isResultSet = statement.getMoreResults();
+				}
+				extracted[i] = process( statement.getResultSet(), result, session, queryParameters, returnProxies );
+				isResultSet = statement.getMoreResults();
+			}
+
+			for ( int i = 0; i < results.size(); i++ ) {
+				final ProcedureResult result = results.get( i );
+				if ( result.isRefCursor() ) {
+					extracted[i] = process(
+							dialect.getResultSet( statement, result.getRefCursorPosition() ),
+							result,
+							session,
+							queryParameters,
+							returnProxies
+					);
+				}
+			}
+		}
+		finally {
+			jdbcCoordinator( session ).release( statement );
+		}
+
+		return new ArrayList<List>( Arrays.asList( extracted ) );
+	}
+
+	private List process(
+			ResultSet resultSet,
+			ProcedureResult result,
+			SessionImplementor session,
+			QueryParameters queryParameters,
+			boolean returnProxies) throws SQLException {
+		try {
+			return result.getResultSetProcessor().extractResults(
+					resultSet,
+					session,
+					queryParameters,
+					returnProxies,
+					result.getResultTransformer()
+			);
+		}
+		finally {
+			resultSet.close();
+		}
+	}
+
+	private static JdbcCoordinator jdbcCoordinator(SessionImplementor session) {
+		return session.getTransactionCoordinator().getJdbcCoordinator();
+	}
+}
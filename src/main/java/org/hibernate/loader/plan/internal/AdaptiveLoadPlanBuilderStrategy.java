@@ -0,0 +1,122 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import org.hibernate.engine.FetchStrategy;
+import org.hibernate.engine.FetchStyle;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.plan.spi.CardinalityHints;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.FetchOwner;
+import org.hibernate.loader.plan.spi.LoadPlanEstimator;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.walking.spi.AssociationAttributeDefinition;
+
+/**
+ * A LoadPlan building strategy which decides between join fetching and subsequent (subselect/batch) fetching of
+ * collections based on their expected sizes, generally as {@link ObservedCardinalities observed} during result
+ * processing, rather than purely on mapping metadata.
+ * <p/>
+ * Joining a collection duplicates the rows of its owner once per element; a subsequent fetch instead costs an extra
+ * round trip.  The round trip cost is expressed as a number of rows: a join fetched collection whose duplicated
+ * rows are estimated to exceed {@code roundTripCostInRows} is switched to subsequent fetching, while an eager
+ * collection mapped for subselect/batch fetching that is estimated to stay under it is switched to join fetching.
+ *
+ * @author Steve Ebersole
+ */
+public class AdaptiveLoadPlanBuilderStrategy extends SingleRootReturnLoadPlanBuilderStrategy {
+	public static final long DEFAULT_ROUND_TRIP_COST_IN_ROWS = 64;
+
+	private final long roundTripCostInRows;
+
+	public AdaptiveLoadPlanBuilderStrategy(
+			SessionFactoryImplementor sessionFactory,
+			LoadQueryInfluencers loadQueryInfluencers,
+			String rootAlias,
+			int suffixSeed,
+			CardinalityHints cardinalityHints,
+			long roundTripCostInRows) {
+		super( sessionFactory, loadQueryInfluencers, rootAlias, suffixSeed, cardinalityHints, Long.MAX_VALUE );
+		this.roundTripCostInRows = roundTripCostInRows;
+	}
+
+	@Override
+	public boolean isFetchTimingDrivenByMetadata() {
+		// batch and subselect fetched collections may be turned into join fetches
+		return false;
+	}
+
+	@Override
+	protected FetchStrategy determineFetchPlan(AssociationAttributeDefinition attributeDefinition) {
+		final FetchStrategy fetchStrategy = super.determineFetchPlan( attributeDefinition );
+		if ( ! attributeDefinition.isCollection() ) {
+			return fetchStrategy;
+		}
+
+		final CollectionPersister persister = attributeDefinition.toCollectionDefinition().getCollectionPersister();
+		if ( fetchStrategy.getTiming() == FetchTiming.IMMEDIATE && fetchStrategy.getStyle() == FetchStyle.JOIN ) {
+			if ( isJoinTooCostly( persister ) ) {
+				return new FetchStrategy( FetchTiming.IMMEDIATE, determineSubsequentFetchStyle( persister ) );
+			}
+		}
+		else if ( fetchStrategy.getStyle() == FetchStyle.BATCH || fetchStrategy.getStyle() == FetchStyle.SUBSELECT ) {
+			if ( ! persister.isLazy() && isJoinedOwner( currentFetchOwner() ) && ! isJoinTooCostly( persister ) ) {
+				// the standard join fetch restrictions (max fetch depth, etc) still apply
+				return adjustJoinFetchIfNeeded(
+						attributeDefinition,
+						new FetchStrategy( FetchTiming.IMMEDIATE, FetchStyle.JOIN )
+				);
+			}
+		}
+		return fetchStrategy;
+	}
+
+	/**
+	 * Is the number of owner rows duplicated by joining the given collection estimated to cost more than the extra
+	 * round trip of fetching it separately?
+	 *
+	 * @param persister The collection persister
+	 *
+	 * @return {@code true} if the collection should be fetched separately
+	 */
+	protected boolean isJoinTooCostly(CollectionPersister persister) {
+		final long expectedSize = Math.max( 1, cardinalityHints().getExpectedCollectionSize( persister.getRole() ) );
+		final long duplicatedRowsPerOwnerRow = expectedSize - 1;
+		if ( duplicatedRowsPerOwnerRow == 0 ) {
+			return false;
+		}
+		return currentRowMultiplicity() > roundTripCostInRows / duplicatedRowsPerOwnerRow;
+	}
+
+	protected FetchStyle determineSubsequentFetchStyle(CollectionPersister persister) {
+		// prefer batch fetching when a batch size was mapped; subselect fetching is always possible
+		return persister.getBatchSize() > 1 ? FetchStyle.BATCH : FetchStyle.SUBSELECT;
+	}
+
+	private boolean isJoinedOwner(FetchOwner fetchOwner) {
+		return ! Fetch.class.isInstance( fetchOwner ) || LoadPlanEstimator.isJoined( (Fetch) fetchOwner );
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.logging.Logger;
+
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.internal.LoadPlanBasedLoader;
+import org.hibernate.loader.plan.spi.CardinalityHints;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Caches entity and collection LoadPlans built by {@link AdaptiveLoadPlanBuilderStrategy} from
+ * {@link ObservedCardinalities}.  Each cached plan remembers the expected collection sizes it was built from; when
+ * the observations for any of those roles have since moved (to a different power of 2), the plan is rebuilt and
+ * swapped into the cache.
+ * <p/>
+ * The observations are fed by loading through the {@link LoadPlanBasedLoader loaders} this cache hands out, which
+ * report to the {@link ObservedCardinalities} as their monitor.
+ *
+ * @author Steve Ebersole
+ */
+public class AdaptiveLoadPlanCache {
+	private static final Logger log = Logger.getLogger( AdaptiveLoadPlanCache.class );
+
+	private final SessionFactoryImplementor sessionFactory;
+	private final ObservedCardinalities observations;
+	private final String rootAlias;
+	private final long roundTripCostInRows;
+
+	private final ConcurrentHashMap<String,CachedPlan> entityLoadPlans = new ConcurrentHashMap<String, CachedPlan>();
+	private final ConcurrentHashMap<String,CachedPlan> collectionLoadPlans = new ConcurrentHashMap<String, CachedPlan>();
+
+	public AdaptiveLoadPlanCache(
+			SessionFactoryImplementor sessionFactory,
+			ObservedCardinalities observations,
+			String rootAlias) {
+		this( sessionFactory, observations, rootAlias, AdaptiveLoadPlanBuilderStrategy.DEFAULT_ROUND_TRIP_COST_IN_ROWS );
+	}
+
+	public AdaptiveLoadPlanCache(
+			SessionFactoryImplementor sessionFactory,
+			ObservedCardinalities observations,
+			String rootAlias,
+			long roundTripCostInRows) {
+		this.sessionFactory = sessionFactory;
+		this.observations = observations;
+		this.rootAlias = rootAlias;
+		this.roundTripCostInRows = roundTripCostInRows;
+	}
+
+	/**
+	 * Resolve the LoadPlan for loading the given entity, building (or rebuilding) it as needed.
+	 *
+	 * @param persister The entity persister
+	 *
+	 * @return The LoadPlan
+	 */
+	public LoadPlan resolveEntityLoadPlan(EntityPersister persister) {
+		return resolveEntityPlan( persister ).loadPlan;
+	}
+
+	/**
+	 * Resolve the loader for loading the given entity, whose processing is observed.  The loader is built along with
+	 * (and replaced along with) the LoadPlan it executes.
+	 *
+	 * @param persister The entity persister
+	 *
+	 * @return The loader
+	 */
+	public LoadPlanBasedLoader resolveEntityLoader(EntityPersister persister) {
+		return resolveEntityPlan( persister ).getLoader();
+	}
+
+	private CachedPlan resolveEntityPlan(EntityPersister persister) {
+		final String key = persister.getEntityName();
+		final CachedPlan cached = entityLoadPlans.get( key );
+		if ( cached != null && ! cached.isStale( observations ) ) {
+			return cached;
+		}
+
+		final RecordingCardinalityHints hints = new RecordingCardinalityHints( observations );
+		final LoadPlan loadPlan = LoadPlanBuilder.buildRootEntityLoadPlan( buildStrategy( hints ), persister );
+		return swap( entityLoadPlans, key, cached, new CachedPlan( loadPlan, hints.snapshot() ) );
+	}
+
+	/**
+	 * Resolve the LoadPlan for initializing collections of the given role, building (or rebuilding) it as needed.
+	 *
+	 * @param persister The collection persister
+	 *
+	 * @return The LoadPlan
+	 */
+	public LoadPlan resolveCollectionLoadPlan(CollectionPersister persister) {
+		return resolveCollectionPlan( persister ).loadPlan;
+	}
+
+	/**
+	 * Resolve the loader for initializing collections of the given role, whose processing is observed.
+	 *
+	 * @param persister The collection persister
+	 *
+	 * @return The loader
+	 */
+	public LoadPlanBasedLoader resolveCollectionLoader(CollectionPersister persister) {
+		return resolveCollectionPlan( persister ).getLoader();
+	}
+
+	private CachedPlan resolveCollectionPlan(CollectionPersister persister) {
+		final String key = persister.getRole();
+		final CachedPlan cached = collectionLoadPlans.get( key );
+		if ( cached != null && ! cached.isStale( observations ) ) {
+			return cached;
+		}
+
+		final RecordingCardinalityHints hints = new RecordingCardinalityHints( observations );
+		final LoadPlan loadPlan = LoadPlanBuilder.buildRootCollectionLoadPlan( buildStrategy( hints ), persister );
+		return swap( collectionLoadPlans, key, cached, new CachedPlan( loadPlan, hints.snapshot() ) );
+	}
+
+	private AdaptiveLoadPlanBuilderStrategy buildStrategy(CardinalityHints hints) {
+		return new AdaptiveLoadPlanBuilderStrategy(
+				sessionFactory,
+				LoadQueryInfluencers.NONE,
+				rootAlias,
+				0,
+				hints,
+				roundTripCostInRows
+		);
+	}
+
+	private CachedPlan swap(
+			ConcurrentHashMap<String,CachedPlan> plans,
+			String key,
+			CachedPlan existing,
+			CachedPlan replacement) {
+		if ( existing == null ) {
+			final CachedPlan raced = plans.putIfAbsent( key, replacement );
+			return raced == null ? replacement : raced;
+		}
+
+		if ( plans.replace( key, existing, replacement ) ) {
+			log.debugf( "Replaced stale LoadPlan [%s]", key );
+			observations.release( existing.loadPlan );
+			return replacement;
+		}
+
+		// we lost a race against another rebuild; drop what we built and use the winner
+		observations.release( replacement.loadPlan );
+		final CachedPlan winner = plans.get( key );
+		return winner == null ? replacement : winner;
+	}
+
+	private class CachedPlan {
+		private final LoadPlan loadPlan;
+		private final Map<String,Integer> expectedCollectionSizes;
+		private volatile LoadPlanBasedLoader loader;
+
+		private CachedPlan(LoadPlan loadPlan, Map<String, Integer> expectedCollectionSizes) {
+			this.loadPlan = loadPlan;
+			this.expectedCollectionSizes = expectedCollectionSizes;
+		}
+
+		private LoadPlanBasedLoader getLoader() {
+			// racing threads may both build one; they are equivalent
+			if ( loader == null ) {
+				loader = new LoadPlanBasedLoader( loadPlan, sessionFactory, observations );
+			}
+			return loader;
+		}
+
+		private boolean isStale(CardinalityHints currentHints) {
+			for ( Map.Entry<String,Integer> entry : expectedCollectionSizes.entrySet() ) {
+				if ( currentHints.getExpectedCollectionSize( entry.getKey() ) != entry.getValue() ) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Remembers which expected collection sizes were consulted while building a plan.  Note that the built plan keeps
+	 * a reference to these hints (for explaining), hence the concurrent map.
+	 */
+	private static class RecordingCardinalityHints implements CardinalityHints {
+		private final CardinalityHints delegate;
+		private final Map<String,Integer> consulted = new ConcurrentHashMap<String, Integer>();
+
+		private RecordingCardinalityHints(CardinalityHints delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public int getExpectedCollectionSize(String role) {
+			final Integer recorded = consulted.get( role );
+			if ( recorded != null ) {
+				// keep answering consistently for the lifetime of the plan
+				return recorded;
+			}
+			final int size = delegate.getExpectedCollectionSize( role );
+			consulted.put( role, size );
+			return size;
+		}
+
+		private Map<String,Integer> snapshot() {
+			return new HashMap<String, Integer>( consulted );
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.engine.SessionFactoryScopedState;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.collections.BoundedConcurrentHashMap;
+import org.hibernate.loader.CollectionAliases;
+import org.hibernate.loader.DefaultEntityAliases;
+import org.hibernate.loader.EntityAliases;
+import org.hibernate.loader.GeneratedCollectionAliases;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.Loadable;
+
+/**
+ * Caches the (immutable) alias tables, {@link DefaultEntityAliases} and {@link GeneratedCollectionAliases}, per
+ * persister and suffix, so that plan building does not regenerate the suffixed column aliases of every property each
+ * time an entity or collection is part of a plan.  Also provides a table of precomputed suffix strings.
+ * <p/>
+ * One cache exists per SessionFactory (see {@link #forSessionFactory}), released when the SessionFactory is closed.
+ * Each cache is bounded; evicted tables are simply generated again when next needed.
+ *
+ * @author Steve Ebersole
+ */
+public class AliasTableCache {
+	private static final int PRECOMPUTED_SUFFIXES = 256;
+	private static final String[] SUFFIXES = new String[ PRECOMPUTED_SUFFIXES ];
+	static {
+		for ( int i = 0; i < PRECOMPUTED_SUFFIXES; i++ ) {
+			SUFFIXES[i] = Integer.toString( i ) + '_';
+		}
+	}
+
+	/**
+	 * The maximum number of entity alias tables, and of collection alias tables, cached per SessionFactory.
+	 */
+	public static final int DEFAULT_MAXIMUM_SIZE = 2048;
+
+	private static final SessionFactoryScopedState<AliasTableCache> CACHES
+			= new SessionFactoryScopedState<AliasTableCache>() {
+				@Override
+				protected AliasTableCache create(SessionFactoryImplementor sessionFactory) {
+					return new AliasTableCache( DEFAULT_MAXIMUM_SIZE );
+				}
+			};
+
+	/**
+	 * Access the cache for the given SessionFactory.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 *
+	 * @return The cache
+	 */
+	public static AliasTableCache forSessionFactory(SessionFactoryImplementor sessionFactory) {
+		return CACHES.get( sessionFactory );
+	}
+
+	/**
+	 * The column alias suffix for the given suffix number : {@code n + "_"}.
+	 *
+	 * @param suffixNumber The suffix number
+	 *
+	 * @return The suffix
+	 */
+	public static String suffix(int suffixNumber) {
+		if ( suffixNumber >= 0 && suffixNumber < PRECOMPUTED_SUFFIXES ) {
+			return SUFFIXES[suffixNumber];
+		}
+		return Integer.toString( suffixNumber ) + '_';
+	}
+
+	private final ConcurrentMap<Key,EntityAliases> entityAliases;
+	private final ConcurrentMap<Key,CollectionAliases> collectionAliases;
+
+	public AliasTableCache(int maximumSize) {
+		if ( maximumSize < 1 ) {
+			throw new IllegalArgumentException( "Maximum size must be positive" );
+		}
+		final int concurrencyLevel = Math.min( 16, maximumSize );
+		this.entityAliases = new BoundedConcurrentHashMap<Key, EntityAliases>(
+				maximumSize,
+				concurrencyLevel,
+				BoundedConcurrentHashMap.Eviction.LIRS
+		);
+		this.collectionAliases = new BoundedConcurrentHashMap<Key, CollectionAliases>(
+				maximumSize,
+				concurrencyLevel,
+				BoundedConcurrentHashMap.Eviction.LIRS
+		);
+	}
+
+	public EntityAliases getEntityAliases(Loadable persister, String suffix) {
+		final Key key = new Key( persister, suffix );
+		EntityAliases aliases = entityAliases.get( key );
+		if ( aliases == null ) {
+			aliases = new DefaultEntityAliases( persister, suffix );
+			final EntityAliases existing = entityAliases.putIfAbsent( key, aliases );
+			if ( existing != null ) {
+				aliases = existing;
+			}
+		}
+		return aliases;
+	}
+
+	public CollectionAliases getCollectionAliases(CollectionPersister persister, String suffix) {
+		final Key key = new Key( persister, suffix );
+		CollectionAliases aliases = collectionAliases.get( key );
+		if ( aliases == null ) {
+			aliases = new GeneratedCollectionAliases( persister, suffix );
+			final CollectionAliases existing = collectionAliases.putIfAbsent( key, aliases );
+			if ( existing != null ) {
+				aliases = existing;
+			}
+		}
+		return aliases;
+	}
+
+	public int size() {
+		return entityAliases.size() + collectionAliases.size();
+	}
+
+	private static class Key {
+		private final Object persister;
+		private final String suffix;
+		private final int hashCode;
+
+		private Key(Object persister, String suffix) {
+			this.persister = persister;
+			this.suffix = suffix;
+			this.hashCode = 31 * System.identityHashCode( persister ) + suffix.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if ( this == o ) {
+				return true;
+			}
+			if ( !( o instanceof Key ) ) {
+				return false;
+			}
+			final Key that = (Key) o;
+			return persister == that.persister && suffix.equals( that.suffix );
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
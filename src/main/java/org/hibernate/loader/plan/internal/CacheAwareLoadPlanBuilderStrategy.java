@@ -0,0 +1,156 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import org.hibernate.engine.FetchStrategy;
+import org.hibernate.engine.FetchStyle;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.walking.spi.AssociationAttributeDefinition;
+import org.hibernate.persister.walking.spi.EntityDefinition;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.type.EntityType;
+
+/**
+ * A LoadPlan building strategy which does not join entities that are likely to be found in the second level cache.
+ * <p/>
+ * A to-one association that would be join fetched is instead planned as an immediate batch fetch (when its target is
+ * cached and the cache region's observed hit ratio is at least {@code minimumHitRatio}) : the plan reads just the
+ * foreign key columns of the owner, and the entity is resolved from the second level cache by that key, misses
+ * being loaded by a batched select.  The walk does not continue beneath such fetches, as the entity's own
+ * associations are resolved as part of resolving the entity.
+ * <p/>
+ * Region hit ratios are taken from the SessionFactory {@link org.hibernate.stat.Statistics}, so statistics need to
+ * be enabled; until a region has seen {@code minimumRequests} requests its fetches are joined as usual.
+ *
+ * @author Steve Ebersole
+ */
+public class CacheAwareLoadPlanBuilderStrategy extends SingleRootReturnLoadPlanBuilderStrategy {
+	public static final double DEFAULT_MINIMUM_HIT_RATIO = 0.9;
+	public static final long DEFAULT_MINIMUM_REQUESTS = 100;
+
+	private final double minimumHitRatio;
+	private final long minimumRequests;
+
+	private boolean resolvingFromCache;
+
+	public CacheAwareLoadPlanBuilderStrategy(
+			SessionFactoryImplementor sessionFactory,
+			LoadQueryInfluencers loadQueryInfluencers,
+			String rootAlias,
+			int suffixSeed) {
+		this(
+				sessionFactory,
+				loadQueryInfluencers,
+				rootAlias,
+				suffixSeed,
+				DEFAULT_MINIMUM_HIT_RATIO,
+				DEFAULT_MINIMUM_REQUESTS
+		);
+	}
+
+	public CacheAwareLoadPlanBuilderStrategy(
+			SessionFactoryImplementor sessionFactory,
+			LoadQueryInfluencers loadQueryInfluencers,
+			String rootAlias,
+			int suffixSeed,
+			double minimumHitRatio,
+			long minimumRequests) {
+		super( sessionFactory, loadQueryInfluencers, rootAlias, suffixSeed );
+		this.minimumHitRatio = minimumHitRatio;
+		this.minimumRequests = minimumRequests;
+	}
+
+	@Override
+	protected FetchStrategy determineFetchPlan(AssociationAttributeDefinition attributeDefinition) {
+		final FetchStrategy fetchStrategy = super.determineFetchPlan( attributeDefinition );
+		if ( fetchStrategy.getTiming() == FetchTiming.IMMEDIATE
+				&& fetchStrategy.getStyle() == FetchStyle.JOIN
+				&& isResolvableFromCache( attributeDefinition ) ) {
+			resolvingFromCache = true;
+			return new FetchStrategy( FetchTiming.IMMEDIATE, FetchStyle.BATCH );
+		}
+		return fetchStrategy;
+	}
+
+	@Override
+	protected boolean handleAssociationAttribute(AssociationAttributeDefinition attributeDefinition) {
+		resolvingFromCache = false;
+		final boolean continueWalk = super.handleAssociationAttribute( attributeDefinition );
+		return continueWalk && ! resolvingFromCache;
+	}
+
+	/**
+	 * Can the target of the given association be expected to be resolved from the second level cache by the
+	 * foreign key?
+	 *
+	 * @param attributeDefinition The association attribute
+	 *
+	 * @return {@code true} if the association should be resolved from the cache rather than joined
+	 */
+	protected boolean isResolvableFromCache(AssociationAttributeDefinition attributeDefinition) {
+		if ( attributeDefinition.isCollection() ) {
+			return false;
+		}
+		final EntityType entityType = (EntityType) attributeDefinition.getType();
+		if ( entityType.isOneToOne() || ! entityType.isReferenceToPrimaryKey() ) {
+			// no foreign key to the identifier on the owner side to resolve by
+			return false;
+		}
+		final EntityDefinition entityDefinition = attributeDefinition.toEntityDefinition();
+		if ( entityDefinition == null ) {
+			return false;
+		}
+		final EntityPersister persister = entityDefinition.getEntityPersister();
+		if ( ! persister.hasCache() ) {
+			return false;
+		}
+		return determineHitRatio( persister.getCacheAccessStrategy().getRegion().getName() ) >= minimumHitRatio;
+	}
+
+	/**
+	 * Determine the observed hit ratio of the named cache region.
+	 *
+	 * @param regionName The (qualified) region name
+	 *
+	 * @return The hit ratio, or {@code -1} if not enough requests were observed
+	 */
+	protected double determineHitRatio(String regionName) {
+		if ( ! sessionFactory().getStatistics().isStatisticsEnabled() ) {
+			return -1;
+		}
+		final SecondLevelCacheStatistics statistics = sessionFactory().getStatistics()
+				.getSecondLevelCacheStatistics( regionName );
+		if ( statistics == null ) {
+			return -1;
+		}
+		final long requests = statistics.getHitCount() + statistics.getMissCount();
+		if ( requests == 0 || requests < minimumRequests ) {
+			return -1;
+		}
+		return (double) statistics.getHitCount() / requests;
+	}
+}
@@ -53,6 +53,12 @@ public class CascadeLoadPlanBuilderStrategy extends SingleRootReturnLoadPlanBuil
 		this.cascadeActionToMatch = cascadeActionToMatch;
 	}
 
+	@Override
+	public boolean isFetchTimingDrivenByMetadata() {
+		// fetching is driven by cascade styles, not by fetch timing
+		return false;
+	}
+
 	@Override
 	protected FetchStrategy determineFetchPlan(AssociationAttributeDefinition attributeDefinition) {
 		return attributeDefinition.determineCascadeStyle().doCascade( cascadeActionToMatch ) ? EAGER : DELAYED;
@@ -0,0 +1,138 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.util.ArrayDeque;
+
+import org.hibernate.engine.FetchStrategy;
+import org.hibernate.engine.FetchStyle;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.plan.spi.FetchGraph;
+import org.hibernate.loader.plan.spi.FetchGroup;
+import org.hibernate.loader.plan.spi.FetchOwner;
+import org.hibernate.persister.walking.spi.AssociationAttributeDefinition;
+import org.hibernate.persister.walking.spi.AttributeDefinition;
+import org.hibernate.persister.walking.spi.EntityDefinition;
+
+/**
+ * A LoadPlan building strategy driven by a {@link FetchGraph}: associations named by the graph are join fetched,
+ * recursively applying the subgraph defined for them.
+ * <p/>
+ * Associations not named by the graph are handled according to the {@link Semantic} in effect, following the JPA
+ * notion of fetch graphs versus load graphs.  Lazy (non-association) attributes named by the graph are added to the
+ * {@link FetchGroup} of their entity.
+ *
+ * @author Steve Ebersole
+ */
+public class FetchGraphLoadPlanBuilderStrategy extends SingleRootReturnLoadPlanBuilderStrategy {
+	/**
+	 * How associations not named by the graph are treated.
+	 */
+	public static enum Semantic {
+		/**
+		 * Associations not named in the graph are not fetched, regardless of their mapping.
+		 */
+		FETCH,
+		/**
+		 * Associations not named in the graph are fetched according to their mapping.
+		 */
+		LOAD
+	}
+
+	private static final FetchStrategy GRAPH_FETCH = new FetchStrategy( FetchTiming.IMMEDIATE, FetchStyle.JOIN );
+	private static final FetchStrategy NOT_FETCHED = new FetchStrategy( FetchTiming.DELAYED, FetchStyle.SELECT );
+
+	private final Semantic semantic;
+	private final ArrayDeque<FetchGraph> graphStack = new ArrayDeque<FetchGraph>();
+
+	public FetchGraphLoadPlanBuilderStrategy(
+			SessionFactoryImplementor sessionFactory,
+			LoadQueryInfluencers loadQueryInfluencers,
+			String rootAlias,
+			int suffixSeed,
+			FetchGraph fetchGraph,
+			Semantic semantic) {
+		super( sessionFactory, loadQueryInfluencers, rootAlias, suffixSeed );
+		this.semantic = semantic;
+		graphStack.addLast( fetchGraph.lock() );
+	}
+
+	@Override
+	public boolean isFetchTimingDrivenByMetadata() {
+		// fetching is driven by the graph, not by fetch timing
+		return false;
+	}
+
+	@Override
+	public boolean startingAttribute(AttributeDefinition attributeDefinition) {
+		final FetchOwner fetchOwner = currentFetchOwner();
+		final boolean continueWalk = super.startingAttribute( attributeDefinition );
+		if ( currentFetchOwner() != fetchOwner ) {
+			// a fetch was pushed for the attribute (association or composite); descend into its subgraph
+			graphStack.addLast( graphStack.peekLast().getSubgraph( attributeDefinition.getName() ) );
+		}
+		return continueWalk;
+	}
+
+	@Override
+	public void finishingAttribute(AttributeDefinition attributeDefinition) {
+		final FetchOwner fetchOwner = currentFetchOwner();
+		super.finishingAttribute( attributeDefinition );
+		if ( currentFetchOwner() != fetchOwner ) {
+			graphStack.removeLast();
+		}
+	}
+
+	@Override
+	protected FetchStrategy determineFetchPlan(AssociationAttributeDefinition attributeDefinition) {
+		if ( graphStack.peekLast().includes( attributeDefinition.getName() ) ) {
+			// the standard join fetch restrictions (max fetch depth, etc) still apply
+			return adjustJoinFetchIfNeeded( attributeDefinition, GRAPH_FETCH );
+		}
+		return semantic == Semantic.LOAD
+				? super.determineFetchPlan( attributeDefinition )
+				: NOT_FETCHED;
+	}
+
+	@Override
+	protected FetchGroup determineRootFetchGroup(EntityDefinition entityDefinition) {
+		return FetchGroup.forAttributes(
+				entityDefinition.getEntityPersister(),
+				graphStack.peekLast().getAttributeNodes().keySet()
+		);
+	}
+
+	@Override
+	protected FetchGroup determineFetchGroup(
+			AssociationAttributeDefinition attributeDefinition,
+			EntityDefinition entityDefinition) {
+		// the subgraph for the attribute has not been pushed yet at this point
+		return FetchGroup.forAttributes(
+				entityDefinition.getEntityPersister(),
+				graphStack.peekLast().getSubgraph( attributeDefinition.getName() ).getAttributeNodes().keySet()
+		);
+	}
+}
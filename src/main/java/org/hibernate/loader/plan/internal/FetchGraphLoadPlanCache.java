@@ -0,0 +1,127 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.plan.spi.FetchGraph;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Caches the entity LoadPlans built by {@link FetchGraphLoadPlanBuilderStrategy}, per root entity and graph.
+ * Graphs are keyed structurally, so separately built but equal graphs share plans.
+ *
+ * @author Steve Ebersole
+ */
+public class FetchGraphLoadPlanCache {
+	private final SessionFactoryImplementor sessionFactory;
+	private final String rootAlias;
+
+	private final ConcurrentHashMap<PlanKey,LoadPlan> loadPlans = new ConcurrentHashMap<PlanKey, LoadPlan>();
+
+	public FetchGraphLoadPlanCache(SessionFactoryImplementor sessionFactory, String rootAlias) {
+		this.sessionFactory = sessionFactory;
+		this.rootAlias = rootAlias;
+	}
+
+	/**
+	 * Resolve the LoadPlan for loading the given entity according to the given graph, building it if needed.
+	 *
+	 * @param persister The entity persister
+	 * @param fetchGraph The graph describing what to fetch
+	 * @param semantic How associations not named by the graph are treated
+	 *
+	 * @return The LoadPlan
+	 */
+	public LoadPlan resolveEntityLoadPlan(
+			EntityPersister persister,
+			FetchGraph fetchGraph,
+			FetchGraphLoadPlanBuilderStrategy.Semantic semantic) {
+		final PlanKey key = new PlanKey( persister.getEntityName(), fetchGraph.lock(), semantic );
+		LoadPlan loadPlan = loadPlans.get( key );
+		if ( loadPlan == null ) {
+			loadPlan = LoadPlanBuilder.buildRootEntityLoadPlan(
+					new FetchGraphLoadPlanBuilderStrategy(
+							sessionFactory,
+							LoadQueryInfluencers.NONE,
+							rootAlias,
+							0,
+							fetchGraph,
+							semantic
+					),
+					persister
+			);
+			final LoadPlan existing = loadPlans.putIfAbsent( key, loadPlan );
+			if ( existing != null ) {
+				loadPlan = existing;
+			}
+		}
+		return loadPlan;
+	}
+
+	public int size() {
+		return loadPlans.size();
+	}
+
+	private static class PlanKey {
+		private final String entityName;
+		private final FetchGraph fetchGraph;
+		private final FetchGraphLoadPlanBuilderStrategy.Semantic semantic;
+		private final int hashCode;
+
+		private PlanKey(String entityName, FetchGraph fetchGraph, FetchGraphLoadPlanBuilderStrategy.Semantic semantic) {
+			this.entityName = entityName;
+			this.fetchGraph = fetchGraph;
+			this.semantic = semantic;
+
+			int result = entityName.hashCode();
+			result = 31 * result + fetchGraph.hashCode();
+			result = 31 * result + semantic.hashCode();
+			this.hashCode = result;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if ( this == o ) {
+				return true;
+			}
+			if ( o == null || getClass() != o.getClass() ) {
+				return false;
+			}
+			final PlanKey that = (PlanKey) o;
+			return entityName.equals( that.entityName )
+					&& semantic == that.semantic
+					&& fetchGraph.equals( that.fetchGraph );
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
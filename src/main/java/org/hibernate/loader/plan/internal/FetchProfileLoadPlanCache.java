@@ -0,0 +1,294 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.engine.FetchStrategy;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.hibernate.persister.walking.internal.FetchProfileRegistry;
+import org.hibernate.persister.walking.internal.MetamodelGraph;
+
+/**
+ * Caches the LoadPlans built by {@link SingleRootReturnLoadPlanBuilderStrategy} per root and set of enabled fetch
+ * profiles, the latter encoded as a {@link FetchProfileRegistry.Key bit set}.
+ * <p/>
+ * Most profiles only affect a few roots, so the requested profiles are first narrowed down to those which can
+ * actually change the plan of the given root : those join fetching an association of an entity the walk can reach
+ * (with the requested profiles applied) which the mapping does not already join fetch.  Plans are cached by that
+ * effective key, so enabling or disabling profiles which do not affect a root resolves to the same plan (the base,
+ * no-profile, plan if none do) and only combinations which really change a plan ever cause a walk.  The narrowing
+ * itself is remembered per root and requested key, making repeated resolutions a pair of lookups.
+ *
+ * @author Steve Ebersole
+ */
+public class FetchProfileLoadPlanCache {
+	private final SessionFactoryImplementor sessionFactory;
+	private final String rootAlias;
+	private final FetchProfileRegistry profileRegistry;
+	private final MetamodelGraph graph;
+
+	private final ConcurrentHashMap<String,RootVariants> entityVariants
+			= new ConcurrentHashMap<String, RootVariants>();
+	private final ConcurrentHashMap<String,RootVariants> collectionVariants
+			= new ConcurrentHashMap<String, RootVariants>();
+
+	public FetchProfileLoadPlanCache(SessionFactoryImplementor sessionFactory, String rootAlias) {
+		this.sessionFactory = sessionFactory;
+		this.rootAlias = rootAlias;
+		this.profileRegistry = FetchProfileRegistry.forSessionFactory( sessionFactory );
+		this.graph = MetamodelGraph.forSessionFactory( sessionFactory );
+	}
+
+	/**
+	 * Resolve the LoadPlan for loading the given entity with the fetch profiles enabled in the given influencers,
+	 * building it if needed.
+	 *
+	 * @param persister The entity persister
+	 * @param loadQueryInfluencers The influencers defining the enabled fetch profiles
+	 *
+	 * @return The LoadPlan
+	 */
+	public LoadPlan resolveEntityLoadPlan(EntityPersister persister, LoadQueryInfluencers loadQueryInfluencers) {
+		final RootVariants variants = locateVariants( entityVariants, persister.getEntityName() );
+		final FetchProfileRegistry.Key key = variants == null
+				? profileRegistry.keyFor( loadQueryInfluencers )
+				: variants.resolveEffectiveProfiles( profileRegistry.keyFor( loadQueryInfluencers ) );
+
+		LoadPlan loadPlan = variants == null ? null : variants.plans.get( key );
+		if ( loadPlan == null ) {
+			loadPlan = LoadPlanBuilder.buildRootEntityLoadPlan( buildStrategy( key, loadQueryInfluencers ), persister );
+			if ( variants != null ) {
+				final LoadPlan existing = variants.plans.putIfAbsent( key, loadPlan );
+				if ( existing != null ) {
+					loadPlan = existing;
+				}
+			}
+		}
+		return loadPlan;
+	}
+
+	/**
+	 * Resolve the LoadPlan for initializing collections of the given role with the fetch profiles enabled in the
+	 * given influencers, building it if needed.
+	 *
+	 * @param persister The collection persister
+	 * @param loadQueryInfluencers The influencers defining the enabled fetch profiles
+	 *
+	 * @return The LoadPlan
+	 */
+	public LoadPlan resolveCollectionLoadPlan(CollectionPersister persister, LoadQueryInfluencers loadQueryInfluencers) {
+		final RootVariants variants = locateVariants( collectionVariants, persister.getRole() );
+		final FetchProfileRegistry.Key key = variants == null
+				? profileRegistry.keyFor( loadQueryInfluencers )
+				: variants.resolveEffectiveProfiles( profileRegistry.keyFor( loadQueryInfluencers ) );
+
+		LoadPlan loadPlan = variants == null ? null : variants.plans.get( key );
+		if ( loadPlan == null ) {
+			loadPlan = LoadPlanBuilder.buildRootCollectionLoadPlan( buildStrategy( key, loadQueryInfluencers ), persister );
+			if ( variants != null ) {
+				final LoadPlan existing = variants.plans.putIfAbsent( key, loadPlan );
+				if ( existing != null ) {
+					loadPlan = existing;
+				}
+			}
+		}
+		return loadPlan;
+	}
+
+	/**
+	 * Narrow the given fetch profiles down to those which can affect the plan for the named entity or collection
+	 * role.
+	 *
+	 * @param rootName The entity name or collection role
+	 * @param loadQueryInfluencers The influencers defining the enabled fetch profiles
+	 *
+	 * @return The profiles which can affect the plan
+	 */
+	public FetchProfileRegistry.Key determineEffectiveProfiles(
+			String rootName,
+			LoadQueryInfluencers loadQueryInfluencers) {
+		final FetchProfileRegistry.Key requested = profileRegistry.keyFor( loadQueryInfluencers );
+		final int nodeId = graph.getNodeId( rootName );
+		return nodeId == MetamodelGraph.NONE ? requested : narrow( nodeId, requested );
+	}
+
+	/**
+	 * The number of distinct plans cached.
+	 *
+	 * @return The number of cached plans
+	 */
+	public int size() {
+		int size = 0;
+		for ( RootVariants variants : entityVariants.values() ) {
+			size += variants.plans.size();
+		}
+		for ( RootVariants variants : collectionVariants.values() ) {
+			size += variants.plans.size();
+		}
+		return size;
+	}
+
+	private RootVariants locateVariants(ConcurrentHashMap<String,RootVariants> variantsByRoot, String rootName) {
+		RootVariants variants = variantsByRoot.get( rootName );
+		if ( variants == null ) {
+			final int nodeId = graph.getNodeId( rootName );
+			if ( nodeId == MetamodelGraph.NONE ) {
+				// not part of the metamodel (custom persister?); nothing we can safely cache against
+				return null;
+			}
+			variants = new RootVariants( nodeId );
+			final RootVariants existing = variantsByRoot.putIfAbsent( rootName, variants );
+			if ( existing != null ) {
+				variants = existing;
+			}
+		}
+		return variants;
+	}
+
+	private SingleRootReturnLoadPlanBuilderStrategy buildStrategy(
+			FetchProfileRegistry.Key effectiveProfiles,
+			LoadQueryInfluencers loadQueryInfluencers) {
+		// the profiles which do not affect the plan make no difference to the walk, so the requested influencers
+		// can be used as-is; the base plan is built without any, as it is shared by all profile combinations
+		return new SingleRootReturnLoadPlanBuilderStrategy(
+				sessionFactory,
+				effectiveProfiles.isEmpty() ? LoadQueryInfluencers.NONE : loadQueryInfluencers,
+				rootAlias,
+				0
+		);
+	}
+
+	private FetchProfileRegistry.Key narrow(int rootNodeId, FetchProfileRegistry.Key requested) {
+		if ( requested.isEmpty() ) {
+			return requested;
+		}
+
+		final Set<String> requestedRoles = profileRegistry.getJoinFetchedRoles( requested );
+		final BitSet effective = new BitSet();
+
+		final boolean[] reached = new boolean[ graph.getNodeCount() ];
+		final ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+		reached[rootNodeId] = true;
+		pending.add( rootNodeId );
+		while ( !pending.isEmpty() ) {
+			final int nodeId = pending.poll();
+			if ( graph.isCollectionNode( nodeId ) ) {
+				for ( int edge = 0; edge < graph.getEdgeCount( nodeId ); edge++ ) {
+					reach( graph.getEdgeTarget( nodeId, edge ), reached, pending );
+				}
+				continue;
+			}
+
+			final OuterJoinLoadable persister =
+					(OuterJoinLoadable) graph.getEntityDefinition( nodeId ).getEntityPersister();
+			collectAffectingProfiles( nodeId, persister, requested, effective );
+
+			for ( int edge = 0; edge < graph.getEdgeCount( nodeId ); edge++ ) {
+				final FetchStrategy fetchStrategy = graph.getEdgeFetchStrategy( nodeId, edge );
+				final String role = persister.getEntityName() + '.'
+						+ persister.getSubclassPropertyName( graph.getEdgeAttributeNumber( nodeId, edge ) );
+				if ( fetchStrategy == null
+						|| fetchStrategy.getTiming() == FetchTiming.IMMEDIATE
+						|| requestedRoles.contains( role ) ) {
+					reach( graph.getEdgeTarget( nodeId, edge ), reached, pending );
+				}
+			}
+		}
+
+		return FetchProfileRegistry.Key.of( effective );
+	}
+
+	private void reach(int nodeId, boolean[] reached, ArrayDeque<Integer> pending) {
+		if ( nodeId != MetamodelGraph.NONE && !reached[nodeId] ) {
+			reached[nodeId] = true;
+			pending.add( nodeId );
+		}
+	}
+
+	private void collectAffectingProfiles(
+			int nodeId,
+			OuterJoinLoadable persister,
+			FetchProfileRegistry.Key requested,
+			BitSet effective) {
+		final String rolePrefix = persister.getEntityName() + '.';
+		for ( int id = requested.nextProfileId( 0 ); id >= 0; id = requested.nextProfileId( id + 1 ) ) {
+			if ( effective.get( id ) ) {
+				continue;
+			}
+			for ( String role : profileRegistry.getJoinFetchedRoles( id ) ) {
+				if ( role.startsWith( rolePrefix ) && !isJoinFetchedByMetadata( nodeId, persister, role ) ) {
+					effective.set( id );
+					break;
+				}
+			}
+		}
+	}
+
+	private boolean isJoinFetchedByMetadata(int nodeId, OuterJoinLoadable persister, String role) {
+		final String propertyName = role.substring( persister.getEntityName().length() + 1 );
+		for ( int edge = 0; edge < graph.getEdgeCount( nodeId ); edge++ ) {
+			final int attributeNumber = graph.getEdgeAttributeNumber( nodeId, edge );
+			if ( propertyName.equals( persister.getSubclassPropertyName( attributeNumber ) ) ) {
+				return graph.isJoinFetchedByMetadata( nodeId, edge );
+			}
+		}
+		// not a (direct) association of the entity, e.g. one within a composite; assume the profile matters
+		return false;
+	}
+
+	private class RootVariants {
+		private final int nodeId;
+		private final ConcurrentHashMap<FetchProfileRegistry.Key,FetchProfileRegistry.Key> effectiveProfiles
+				= new ConcurrentHashMap<FetchProfileRegistry.Key, FetchProfileRegistry.Key>();
+		private final ConcurrentHashMap<FetchProfileRegistry.Key,LoadPlan> plans
+				= new ConcurrentHashMap<FetchProfileRegistry.Key, LoadPlan>();
+
+		private RootVariants(int nodeId) {
+			this.nodeId = nodeId;
+		}
+
+		private FetchProfileRegistry.Key resolveEffectiveProfiles(FetchProfileRegistry.Key requested) {
+			if ( requested.isEmpty() ) {
+				return requested;
+			}
+			FetchProfileRegistry.Key effective = effectiveProfiles.get( requested );
+			if ( effective == null ) {
+				effective = narrow( nodeId, requested );
+				effectiveProfiles.putIfAbsent( requested, effective );
+			}
+			return effective;
+		}
+	}
+}
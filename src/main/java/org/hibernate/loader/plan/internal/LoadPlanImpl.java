@@ -26,8 +26,14 @@ package org.hibernate.loader.plan.internal;
 import java.util.Collections;
 import java.util.List;
 
+import org.hibernate.loader.plan.spi.CardinalityHints;
+import org.hibernate.loader.plan.spi.FollowOnLockingPlan;
+import org.hibernate.loader.plan.spi.KeyParameterBinder;
 import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanEstimator;
+import org.hibernate.loader.plan.spi.LoadPlanExplainer;
 import org.hibernate.loader.plan.spi.Return;
+import org.hibernate.loader.plan.spi.SubtreeShape;
 
 /**
  * Implementation of LoadPlan.
@@ -38,15 +44,70 @@ public class LoadPlanImpl implements LoadPlan {
 	private final boolean hasScalars;
 	private final List<Return> returns;
 
+	private final CardinalityHints cardinalityHints;
+	private final List<SubtreeShape> returnShapes;
+	private final long estimatedRowMultiplicity;
+	private final int estimatedColumnWidth;
+
+	private volatile KeyParameterBinder keyParameterBinder;
+	private volatile boolean keyParameterBinderResolved;
+
+	private volatile FollowOnLockingPlan followOnLockingPlan;
+	private volatile boolean followOnLockingPlanResolved;
+
 	public LoadPlanImpl(boolean hasScalars, List<Return> returns) {
-		this.hasScalars = hasScalars;
-		this.returns = returns;
+		this( hasScalars, returns, StandardCardinalityHints.DEFAULT );
 	}
 
 	public LoadPlanImpl(boolean hasScalars, Return rootReturn) {
 		this( hasScalars, Collections.singletonList( rootReturn ) );
 	}
 
+	public LoadPlanImpl(boolean hasScalars, Return rootReturn, CardinalityHints cardinalityHints) {
+		this( hasScalars, Collections.singletonList( rootReturn ), cardinalityHints );
+	}
+
+	public LoadPlanImpl(boolean hasScalars, List<Return> returns, CardinalityHints cardinalityHints) {
+		this( hasScalars, returns, cardinalityHints, null );
+	}
+
+	/**
+	 * Creates a plan whose returns are interned in the given table, sharing the estimates of structurally identical
+	 * plans.
+	 *
+	 * @param hasScalars Whether any of the returns are scalar
+	 * @param returns The returns
+	 * @param cardinalityHints The hints the plan was built with
+	 * @param interningTable The table to intern the shapes of the returns in; may be {@code null}
+	 */
+	public LoadPlanImpl(
+			boolean hasScalars,
+			List<Return> returns,
+			CardinalityHints cardinalityHints,
+			SubtreeInterningTable interningTable) {
+		this.hasScalars = hasScalars;
+		this.returns = returns;
+		this.cardinalityHints = cardinalityHints;
+		this.estimatedRowMultiplicity = LoadPlanEstimator.estimateRowMultiplicity( this, cardinalityHints );
+		if ( interningTable == null ) {
+			this.returnShapes = null;
+			this.estimatedColumnWidth = LoadPlanEstimator.estimateColumnWidth( this );
+		}
+		else {
+			this.returnShapes = interningTable.intern( this );
+			this.estimatedColumnWidth = LoadPlanEstimator.estimateColumnWidth( this, returnShapes );
+		}
+	}
+
+	/**
+	 * The interned shapes of the returns.
+	 *
+	 * @return The shapes, in the order of the returns; {@code null} if this plan was not interned
+	 */
+	public List<SubtreeShape> getReturnShapes() {
+		return returnShapes;
+	}
+
 	@Override
 	public boolean hasAnyScalarReturns() {
 		return hasScalars;
@@ -56,4 +117,44 @@ public class LoadPlanImpl implements LoadPlan {
 	public List<Return> getReturns() {
 		return returns;
 	}
+
+	@Override
+	public long getEstimatedRowMultiplicity() {
+		return estimatedRowMultiplicity;
+	}
+
+	@Override
+	public int getEstimatedColumnWidth() {
+		return estimatedColumnWidth;
+	}
+
+	@Override
+	public CardinalityHints getCardinalityHints() {
+		return cardinalityHints;
+	}
+
+	@Override
+	public String explain() {
+		return LoadPlanExplainer.explain( this, cardinalityHints );
+	}
+
+	@Override
+	public KeyParameterBinder getKeyParameterBinder() {
+		if ( ! keyParameterBinderResolved ) {
+			// benign race : compiling twice yields equivalent binders
+			keyParameterBinder = KeyParameterBinder.forLoadPlan( this );
+			keyParameterBinderResolved = true;
+		}
+		return keyParameterBinder;
+	}
+
+	@Override
+	public FollowOnLockingPlan getFollowOnLockingPlan() {
+		if ( ! followOnLockingPlanResolved ) {
+			// benign race, as above
+			followOnLockingPlan = FollowOnLockingPlan.forLoadPlan( this );
+			followOnLockingPlanResolved = true;
+		}
+		return followOnLockingPlan;
+	}
 }
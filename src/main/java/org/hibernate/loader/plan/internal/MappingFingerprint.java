@@ -0,0 +1,182 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.TreeMap;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Settings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Joinable;
+import org.hibernate.persister.entity.Loadable;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.hibernate.type.Type;
+
+/**
+ * Computes a fingerprint of the mapping metadata of a SessionFactory that LoadPlans depend upon : entity and
+ * collection persisters (names, tables, columns, attribute types, laziness, fetch modes and caching) along with the
+ * settings influencing plan building : the Dialect, maximum fetch depth, default batch fetch size and style, default
+ * catalog and schema, and whether second-level caching is enabled.  Two SessionFactories with the same fingerprint
+ * build the same plans.
+ *
+ * @author Steve Ebersole
+ */
+public class MappingFingerprint {
+	private MappingFingerprint() {
+	}
+
+	/**
+	 * Compute the fingerprint of the given SessionFactory.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 *
+	 * @return The fingerprint, as a hex string
+	 */
+	public static String compute(SessionFactoryImplementor sessionFactory) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance( "SHA-1" );
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new HibernateException( "Unable to compute mapping fingerprint", e );
+		}
+
+		final StringBuilder buffer = new StringBuilder();
+		appendSettings( sessionFactory, buffer );
+		update( digest, buffer );
+
+		final TreeMap<String,EntityPersister> entityPersisters = new TreeMap<String, EntityPersister>(
+				sessionFactory.getEntityPersisters()
+		);
+		for ( EntityPersister persister : entityPersisters.values() ) {
+			appendEntity( persister, buffer );
+			update( digest, buffer );
+		}
+
+		final TreeMap<String,CollectionPersister> collectionPersisters = new TreeMap<String, CollectionPersister>(
+				sessionFactory.getCollectionPersisters()
+		);
+		for ( CollectionPersister persister : collectionPersisters.values() ) {
+			appendCollection( persister, buffer );
+			update( digest, buffer );
+		}
+
+		final StringBuilder hex = new StringBuilder();
+		for ( byte b : digest.digest() ) {
+			hex.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+		}
+		return hex.toString();
+	}
+
+	private static void appendSettings(SessionFactoryImplementor sessionFactory, StringBuilder buffer) {
+		final Settings settings = sessionFactory.getSettings();
+		buffer.append( "dialect=" ).append( sessionFactory.getDialect().getClass().getName() ).append( '\n' );
+		buffer.append( "maxFetchDepth=" ).append( settings.getMaximumFetchDepth() ).append( '\n' );
+		buffer.append( "defaultBatchFetchSize=" ).append( settings.getDefaultBatchFetchSize() ).append( '\n' );
+		buffer.append( "batchFetchStyle=" ).append( settings.getBatchFetchStyle() ).append( '\n' );
+		buffer.append( "defaultCatalog=" ).append( settings.getDefaultCatalogName() ).append( '\n' );
+		buffer.append( "defaultSchema=" ).append( settings.getDefaultSchemaName() ).append( '\n' );
+		buffer.append( "secondLevelCache=" ).append( settings.isSecondLevelCacheEnabled() ).append( '\n' );
+	}
+
+	private static void appendEntity(EntityPersister persister, StringBuilder buffer) {
+		buffer.append( "entity:" ).append( persister.getEntityName() );
+		if ( persister instanceof Joinable ) {
+			buffer.append( " table=" ).append( ( (Joinable) persister ).getTableName() );
+		}
+		buffer.append( " id=" ).append( persister.getIdentifierPropertyName() );
+		appendType( persister.getIdentifierType(), buffer );
+		if ( persister instanceof Loadable ) {
+			appendColumns( ( (Loadable) persister ).getIdentifierColumnNames(), buffer );
+			buffer.append( " discriminator=" ).append( ( (Loadable) persister ).getDiscriminatorColumnName() );
+		}
+		buffer.append( " instrumented=" ).append( persister.isInstrumented() );
+		buffer.append( " cached=" ).append( persister.hasCache() ).append( '\n' );
+
+		final String[] propertyNames = persister.getPropertyNames();
+		final Type[] propertyTypes = persister.getPropertyTypes();
+		final boolean[] propertyLaziness = persister.getPropertyLaziness();
+		for ( int i = 0; i < propertyNames.length; i++ ) {
+			buffer.append( "  " ).append( propertyNames[i] );
+			appendType( propertyTypes[i], buffer );
+			buffer.append( " lazy=" ).append( propertyLaziness[i] );
+			if ( persister instanceof OuterJoinLoadable ) {
+				final OuterJoinLoadable loadable = (OuterJoinLoadable) persister;
+				buffer.append( " fetch=" ).append( loadable.getFetchMode( i ) );
+				appendColumns( loadable.getPropertyColumnNames( i ), buffer );
+			}
+			buffer.append( '\n' );
+		}
+	}
+
+	private static void appendCollection(CollectionPersister persister, StringBuilder buffer) {
+		buffer.append( "collection:" ).append( persister.getRole() );
+		buffer.append( " lazy=" ).append( persister.isLazy() );
+		buffer.append( " batch=" ).append( persister.getBatchSize() );
+		buffer.append( " cached=" ).append( persister.hasCache() );
+		appendType( persister.getKeyType(), buffer );
+		appendType( persister.getElementType(), buffer );
+		if ( persister.hasIndex() ) {
+			appendType( persister.getIndexType(), buffer );
+		}
+		if ( persister instanceof QueryableCollection ) {
+			final QueryableCollection queryableCollection = (QueryableCollection) persister;
+			buffer.append( " table=" ).append( queryableCollection.getTableName() );
+			buffer.append( " fetch=" ).append( queryableCollection.getFetchMode() );
+			appendColumns( queryableCollection.getKeyColumnNames(), buffer );
+			appendColumns( queryableCollection.getElementColumnNames(), buffer );
+			appendColumns( queryableCollection.getIndexColumnNames(), buffer );
+		}
+		buffer.append( '\n' );
+	}
+
+	private static void appendType(Type type, StringBuilder buffer) {
+		buffer.append( " type=" ).append( type.getName() );
+	}
+
+	private static void appendColumns(String[] columns, StringBuilder buffer) {
+		buffer.append( " columns=" );
+		if ( columns != null ) {
+			for ( String column : columns ) {
+				buffer.append( column ).append( ',' );
+			}
+		}
+	}
+
+	private static void update(MessageDigest digest, StringBuilder buffer) {
+		try {
+			digest.update( buffer.toString().getBytes( "UTF-8" ) );
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new HibernateException( "UTF-8 not supported", e );
+		}
+		buffer.setLength( 0 );
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.loader.plan.spi.CardinalityHints;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilderStrategy;
+import org.hibernate.loader.spi.LoadPlanMonitor;
+
+/**
+ * {@link CardinalityHints} derived from what result processing actually observes.  Registered as the
+ * {@link LoadPlanMonitor} for processing, this records the size of every loaded collection (per role) and the row
+ * fan-out of every processed LoadPlan into {@link SlidingWindowHistogram sliding windows}.
+ * <p/>
+ * The expected size reported for a role is the configured percentile of its recent observations rounded up to a power
+ * of 2.  The rounding keeps plans built from these hints from flip-flopping on small changes in the observations.
+ * Roles with no observations yet fall back to the given default hints.
+ *
+ * @author Steve Ebersole
+ */
+public class ObservedCardinalities implements CardinalityHints, LoadPlanMonitor {
+	public static final int DEFAULT_WINDOW_SIZE = 256;
+	public static final double DEFAULT_PERCENTILE = 90;
+
+	private final CardinalityHints fallback;
+	private final int windowSize;
+	private final double percentile;
+
+	private final ConcurrentHashMap<String,SlidingWindowHistogram> collectionSizes
+			= new ConcurrentHashMap<String, SlidingWindowHistogram>();
+	private final ConcurrentHashMap<LoadPlan,SlidingWindowHistogram> rowFanOuts
+			= new ConcurrentHashMap<LoadPlan, SlidingWindowHistogram>();
+
+	public ObservedCardinalities() {
+		this( StandardCardinalityHints.DEFAULT, DEFAULT_WINDOW_SIZE, DEFAULT_PERCENTILE );
+	}
+
+	public ObservedCardinalities(CardinalityHints fallback, int windowSize, double percentile) {
+		this.fallback = fallback;
+		this.windowSize = windowSize;
+		this.percentile = percentile;
+	}
+
+	@Override
+	public int getExpectedCollectionSize(String role) {
+		final SlidingWindowHistogram histogram = collectionSizes.get( role );
+		final long observed = histogram == null ? -1 : histogram.percentile( percentile );
+		if ( observed < 0 ) {
+			return fallback.getExpectedCollectionSize( role );
+		}
+		return roundUpToPowerOfTwo( observed );
+	}
+
+	/**
+	 * Get the observed number of JDBC rows per root result for the given plan.
+	 *
+	 * @param loadPlan The plan
+	 *
+	 * @return The observed row fan-out at the configured percentile, or -1 if the plan has not been observed
+	 */
+	public long getObservedRowFanOut(LoadPlan loadPlan) {
+		final SlidingWindowHistogram histogram = rowFanOuts.get( loadPlan );
+		return histogram == null ? -1 : histogram.percentile( percentile );
+	}
+
+	/**
+	 * Stop tracking the given plan, generally because it has been replaced.
+	 *
+	 * @param loadPlan The plan
+	 */
+	public void release(LoadPlan loadPlan) {
+		rowFanOuts.remove( loadPlan );
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	@Override
+	public void loadPlanBuilt(
+			LoadPlan loadPlan,
+			String rootRole,
+			LoadPlanBuilderStrategy strategy,
+			int nodeCount,
+			long durationNanos) {
+	}
+
+	@Override
+	public void resultSetProcessed(
+			LoadPlan loadPlan,
+			int rowCount,
+			int rootCount,
+			int fetchCount,
+			long durationNanos) {
+		if ( rootCount > 0 ) {
+			locateHistogram( rowFanOuts, loadPlan ).record( rowCount / rootCount );
+		}
+	}
+
+	@Override
+	public void followOnFetchPerformed(String role, int keyCount, long durationNanos) {
+	}
+
+	@Override
+	public void collectionLoaded(String role, int size) {
+		locateHistogram( collectionSizes, role ).record( size );
+	}
+
+	private <K> SlidingWindowHistogram locateHistogram(ConcurrentHashMap<K,SlidingWindowHistogram> histograms, K key) {
+		SlidingWindowHistogram histogram = histograms.get( key );
+		if ( histogram == null ) {
+			histogram = new SlidingWindowHistogram( windowSize );
+			final SlidingWindowHistogram existing = histograms.putIfAbsent( key, histogram );
+			if ( existing != null ) {
+				histogram = existing;
+			}
+		}
+		return histogram;
+	}
+
+	private static int roundUpToPowerOfTwo(long value) {
+		if ( value <= 1 ) {
+			return 1;
+		}
+		if ( value >= ( 1 << 30 ) ) {
+			return 1 << 30;
+		}
+		return Integer.highestOneBit( (int) value - 1 ) << 1;
+	}
+}
@@ -0,0 +1,546 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.logging.Logger;
+
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.engine.FetchStrategy;
+import org.hibernate.engine.FetchStyle;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.EntityAliases;
+import org.hibernate.loader.plan.spi.AbstractFetchOwner;
+import org.hibernate.loader.plan.spi.CardinalityHints;
+import org.hibernate.loader.plan.spi.CollectionFetch;
+import org.hibernate.loader.plan.spi.CollectionReference;
+import org.hibernate.loader.plan.spi.CollectionReturn;
+import org.hibernate.loader.plan.spi.CompositeFetch;
+import org.hibernate.loader.plan.spi.EntityFetch;
+import org.hibernate.loader.plan.spi.EntityReference;
+import org.hibernate.loader.plan.spi.EntityReturn;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.FetchGroup;
+import org.hibernate.loader.plan.spi.FetchOwner;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.Return;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Loadable;
+import org.hibernate.type.EntityType;
+
+/**
+ * A LoadPlan cache which can be persisted to a local file and loaded again by a later SessionFactory, so that plans
+ * need not be rebuilt (walked) after a restart.  The file is guarded by the {@link MappingFingerprint} of the
+ * SessionFactory that wrote it; a file written for different mappings (or in an unknown format) is ignored.
+ * <p/>
+ * Plans are persisted as descriptors of their nodes (names, aliases, alias suffixes, fetch strategies, lock modes and
+ * fetch groups) along with the expected sizes of the collections they reference, from which the plan is recreated
+ * against the current persisters on first access; alias tables are resolved from the persisted suffixes through the
+ * {@link AliasTableCache}.  Plans with scalar returns are not persisted.
+ * <p/>
+ * The file is replaced by renaming a fully written temporary file over it.  Where the platform cannot rename over an
+ * existing file, the previous file is first moved aside to a backup, which {@link #load()} falls back to should the
+ * replacement not complete.
+ *
+ * @author Steve Ebersole
+ */
+public class PersistentLoadPlanCache {
+	private static final Logger log = Logger.getLogger( PersistentLoadPlanCache.class );
+
+	private static final int MAGIC = 0x4C504C43;
+	private static final int FORMAT_VERSION = 3;
+
+	private static final byte ENTITY_RETURN = 1;
+	private static final byte COLLECTION_RETURN = 2;
+	private static final byte ENTITY_FETCH = 3;
+	private static final byte COLLECTION_FETCH = 4;
+	private static final byte COMPOSITE_FETCH = 5;
+
+	private final SessionFactoryImplementor sessionFactory;
+	private final File file;
+	private final String fingerprint;
+	private final AliasTableCache aliasTables;
+
+	private final Map<String,LoadPlan> plans = new ConcurrentHashMap<String, LoadPlan>();
+	private final Map<String,byte[]> persistedPlans = new ConcurrentHashMap<String, byte[]>();
+
+	public PersistentLoadPlanCache(SessionFactoryImplementor sessionFactory, File file) {
+		this.sessionFactory = sessionFactory;
+		this.file = file;
+		this.fingerprint = MappingFingerprint.compute( sessionFactory );
+		this.aliasTables = AliasTableCache.forSessionFactory( sessionFactory );
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Load the plans persisted in the file, if it exists and was written for the same mapping fingerprint.
+	 *
+	 * @return The number of plans loaded
+	 */
+	public int load() {
+		final File source = file.exists() ? file : backupFile();
+		if ( ! source.exists() ) {
+			return 0;
+		}
+		try {
+			final DataInputStream input = new DataInputStream(
+					new BufferedInputStream( new FileInputStream( source ) )
+			);
+			try {
+				if ( input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION ) {
+					log.debugf( "Ignoring LoadPlan cache file %s; unknown format", file );
+					return 0;
+				}
+				final String persistedFingerprint = input.readUTF();
+				if ( ! fingerprint.equals( persistedFingerprint ) ) {
+					log.debugf( "Ignoring LoadPlan cache file %s; mappings changed", file );
+					return 0;
+				}
+				final int count = input.readInt();
+				for ( int i = 0; i < count; i++ ) {
+					final String key = input.readUTF();
+					final byte[] descriptor = new byte[ input.readInt() ];
+					input.readFully( descriptor );
+					persistedPlans.put( key, descriptor );
+				}
+				return count;
+			}
+			finally {
+				input.close();
+			}
+		}
+		catch (IOException e) {
+			log.debugf( e, "Ignoring unreadable LoadPlan cache file %s", file );
+			persistedPlans.clear();
+			return 0;
+		}
+	}
+
+	/**
+	 * Write all plans (those loaded as well as those put since) to the file.
+	 */
+	public void save() {
+		final File tempFile = new File( file.getPath() + ".tmp" );
+		try {
+			final DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream( new FileOutputStream( tempFile ) )
+			);
+			try {
+				output.writeInt( MAGIC );
+				output.writeInt( FORMAT_VERSION );
+				output.writeUTF( fingerprint );
+				output.writeInt( persistedPlans.size() );
+				for ( Map.Entry<String,byte[]> entry : persistedPlans.entrySet() ) {
+					output.writeUTF( entry.getKey() );
+					output.writeInt( entry.getValue().length );
+					output.write( entry.getValue() );
+				}
+			}
+			finally {
+				output.close();
+			}
+		}
+		catch (IOException e) {
+			throw new HibernateException( "Unable to write LoadPlan cache file " + file, e );
+		}
+		replace( tempFile );
+	}
+
+	private void replace(File tempFile) {
+		// atomic where the platform allows renaming over an existing file
+		if ( tempFile.renameTo( file ) ) {
+			return;
+		}
+		final File backupFile = backupFile();
+		if ( backupFile.exists() && ! backupFile.delete() ) {
+			tempFile.delete();
+			throw new HibernateException( "Unable to replace LoadPlan cache file " + file );
+		}
+		if ( file.exists() && ! file.renameTo( backupFile ) ) {
+			tempFile.delete();
+			throw new HibernateException( "Unable to replace LoadPlan cache file " + file );
+		}
+		if ( ! tempFile.renameTo( file ) ) {
+			// put the previous file back rather than leaving none
+			backupFile.renameTo( file );
+			tempFile.delete();
+			throw new HibernateException( "Unable to replace LoadPlan cache file " + file );
+		}
+		backupFile.delete();
+	}
+
+	private File backupFile() {
+		return new File( file.getPath() + ".bak" );
+	}
+
+	/**
+	 * Get the plan cached under the given key, recreating it from its persisted form if needed.
+	 *
+	 * @param key The key
+	 *
+	 * @return The plan, or {@code null} if none is cached
+	 */
+	public LoadPlan get(String key) {
+		LoadPlan plan = plans.get( key );
+		if ( plan == null ) {
+			final byte[] descriptor = persistedPlans.get( key );
+			if ( descriptor != null ) {
+				try {
+					plan = readPlan( descriptor );
+					plans.put( key, plan );
+				}
+				catch (Exception e) {
+					log.debugf( e, "Unable to recreate persisted LoadPlan [%s]; discarding", key );
+					persistedPlans.remove( key );
+				}
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Cache the given plan under the given key.
+	 *
+	 * @param key The key
+	 * @param plan The plan
+	 */
+	public void put(String key, LoadPlan plan) {
+		plans.put( key, plan );
+		if ( plan.hasAnyScalarReturns() ) {
+			return;
+		}
+		try {
+			persistedPlans.put( key, writePlan( plan ) );
+		}
+		catch (IOException e) {
+			throw new HibernateException( "Unable to serialize LoadPlan [" + key + "]", e );
+		}
+	}
+
+	public int size() {
+		final Set<String> keys = new HashSet<String>( plans.keySet() );
+		keys.addAll( persistedPlans.keySet() );
+		return keys.size();
+	}
+
+
+	// writing ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private static byte[] writePlan(LoadPlan plan) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream output = new DataOutputStream( bytes );
+		output.writeInt( plan.getReturns().size() );
+		for ( Return rtn : plan.getReturns() ) {
+			if ( EntityReturn.class.isInstance( rtn ) ) {
+				final EntityReturn entityReturn = (EntityReturn) rtn;
+				output.writeByte( ENTITY_RETURN );
+				output.writeUTF( entityReturn.getAlias() );
+				output.writeUTF( entityReturn.getLockMode().name() );
+				output.writeUTF( entityReturn.getEntityPersister().getEntityName() );
+				output.writeUTF( entityReturn.getSqlTableAlias() );
+				output.writeUTF( entityReturn.getEntityAliases().getSuffix() );
+				writeFetchGroup( entityReturn, output );
+				writeFetches( entityReturn, output );
+			}
+			else {
+				final CollectionReturn collectionReturn = (CollectionReturn) rtn;
+				output.writeByte( COLLECTION_RETURN );
+				output.writeUTF( collectionReturn.getAlias() );
+				output.writeUTF( collectionReturn.getLockMode().name() );
+				output.writeUTF( collectionReturn.getOwnerEntityName() );
+				output.writeUTF( collectionReturn.getOwnerProperty() );
+				output.writeUTF( collectionReturn.getCollectionAliases().getSuffix() );
+				writeNullable( suffix( collectionReturn.getElementEntityAliases() ), output );
+				writeFetches( collectionReturn, output );
+			}
+		}
+		writeCardinalityHints( plan, output );
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	private static void writeFetches(FetchOwner fetchOwner, DataOutputStream output) throws IOException {
+		output.writeInt( fetchOwner.getFetches().length );
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( EntityFetch.class.isInstance( fetch ) ) {
+				final EntityFetch entityFetch = (EntityFetch) fetch;
+				output.writeByte( ENTITY_FETCH );
+				writeFetchCommon( entityFetch, entityFetch.getAlias(), entityFetch.getLockMode(), output );
+				output.writeUTF( entityFetch.getSqlTableAlias() );
+				output.writeUTF( entityFetch.getEntityAliases().getSuffix() );
+				writeFetchGroup( entityFetch, output );
+			}
+			else if ( CollectionFetch.class.isInstance( fetch ) ) {
+				final CollectionFetch collectionFetch = (CollectionFetch) fetch;
+				output.writeByte( COLLECTION_FETCH );
+				writeFetchCommon( collectionFetch, collectionFetch.getAlias(), collectionFetch.getLockMode(), output );
+				output.writeUTF( collectionFetch.getCollectionAliases().getSuffix() );
+				writeNullable( suffix( collectionFetch.getElementEntityAliases() ), output );
+			}
+			else {
+				final CompositeFetch compositeFetch = (CompositeFetch) fetch;
+				output.writeByte( COMPOSITE_FETCH );
+				output.writeUTF( compositeFetch.getAlias() );
+				output.writeUTF( compositeFetch.getOwnerPropertyName() );
+			}
+			writeFetches( fetch, output );
+		}
+	}
+
+	private static void writeFetchCommon(Fetch fetch, String alias, LockMode lockMode, DataOutputStream output)
+			throws IOException {
+		output.writeUTF( alias );
+		output.writeUTF( lockMode.name() );
+		output.writeUTF( fetch.getOwnerPropertyName() );
+		output.writeUTF( fetch.getFetchStrategy().getTiming().name() );
+		output.writeUTF( fetch.getFetchStrategy().getStyle().name() );
+	}
+
+	private static void writeFetchGroup(EntityReference entityReference, DataOutputStream output) throws IOException {
+		// persisted as the names of the included lazy attributes, from which FetchGroup#forAttributes recreates it,
+		// plus whether the subclass attributes are left out
+		final EntityPersister persister = entityReference.getEntityPersister();
+		final FetchGroup fetchGroup = entityReference.getFetchGroup();
+		final List<String> includedLazyAttributes = new ArrayList<String>();
+		final String[] propertyNames = persister.getPropertyNames();
+		final boolean[] propertyLaziness = persister.getPropertyLaziness();
+		for ( int i = 0; i < propertyNames.length; i++ ) {
+			if ( propertyLaziness[i] && fetchGroup.includes( i ) ) {
+				includedLazyAttributes.add( propertyNames[i] );
+			}
+		}
+		output.writeInt( includedLazyAttributes.size() );
+		for ( String name : includedLazyAttributes ) {
+			output.writeUTF( name );
+		}
+		output.writeBoolean( fetchGroup.isSubclassAttributesExcluded() );
+	}
+
+	private static void writeCardinalityHints(LoadPlan plan, DataOutputStream output) throws IOException {
+		// only the roles referenced by the plan can influence its estimates
+		final Set<String> roles = new TreeSet<String>();
+		for ( Return rtn : plan.getReturns() ) {
+			if ( CollectionReference.class.isInstance( rtn ) ) {
+				roles.add( ( (CollectionReference) rtn ).getCollectionPersister().getRole() );
+			}
+			collectRoles( (FetchOwner) rtn, roles );
+		}
+		output.writeInt( roles.size() );
+		for ( String role : roles ) {
+			output.writeUTF( role );
+			output.writeInt( plan.getCardinalityHints().getExpectedCollectionSize( role ) );
+		}
+	}
+
+	private static void collectRoles(FetchOwner fetchOwner, Set<String> roles) {
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( CollectionReference.class.isInstance( fetch ) ) {
+				roles.add( ( (CollectionReference) fetch ).getCollectionPersister().getRole() );
+			}
+			collectRoles( fetch, roles );
+		}
+	}
+
+	private static String suffix(EntityAliases entityAliases) {
+		return entityAliases == null ? null : entityAliases.getSuffix();
+	}
+
+	private static void writeNullable(String value, DataOutputStream output) throws IOException {
+		output.writeBoolean( value != null );
+		if ( value != null ) {
+			output.writeUTF( value );
+		}
+	}
+
+
+	// reading ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	private LoadPlan readPlan(byte[] descriptor) throws IOException {
+		final DataInputStream input = new DataInputStream( new ByteArrayInputStream( descriptor ) );
+		final int returnCount = input.readInt();
+		final List<Return> returns = new ArrayList<Return>( returnCount );
+		for ( int i = 0; i < returnCount; i++ ) {
+			final byte kind = input.readByte();
+			final AbstractFetchOwner rootReturn;
+			if ( kind == ENTITY_RETURN ) {
+				final String alias = input.readUTF();
+				final LockMode lockMode = LockMode.valueOf( input.readUTF() );
+				final EntityPersister persister = sessionFactory.getEntityPersister( input.readUTF() );
+				final String sqlTableAlias = input.readUTF();
+				final String suffix = input.readUTF();
+				rootReturn = new EntityReturn(
+						sessionFactory,
+						alias,
+						lockMode,
+						persister.getEntityName(),
+						sqlTableAlias,
+						aliasTables.getEntityAliases( (Loadable) persister, suffix ),
+						readFetchGroup( persister, input )
+				);
+			}
+			else if ( kind == COLLECTION_RETURN ) {
+				final String alias = input.readUTF();
+				final LockMode lockMode = LockMode.valueOf( input.readUTF() );
+				final String ownerEntityName = input.readUTF();
+				final String ownerProperty = input.readUTF();
+				final CollectionPersister persister = sessionFactory.getCollectionPersister(
+						ownerEntityName + '.' + ownerProperty
+				);
+				rootReturn = new CollectionReturn(
+						sessionFactory,
+						alias,
+						lockMode,
+						ownerEntityName,
+						ownerProperty,
+						aliasTables.getCollectionAliases( persister, input.readUTF() ),
+						elementAliases( persister, readNullable( input ) )
+				);
+			}
+			else {
+				throw new IOException( "Unexpected return kind : " + kind );
+			}
+			readFetches( rootReturn, input );
+			returns.add( (Return) rootReturn );
+		}
+		return new LoadPlanImpl(
+				false,
+				returns,
+				readCardinalityHints( input ),
+				SubtreeInterningTable.forSessionFactory( sessionFactory )
+		);
+	}
+
+	private void readFetches(AbstractFetchOwner owner, DataInputStream input) throws IOException {
+		final int fetchCount = input.readInt();
+		for ( int i = 0; i < fetchCount; i++ ) {
+			final byte kind = input.readByte();
+			final AbstractFetchOwner fetch;
+			if ( kind == COMPOSITE_FETCH ) {
+				final String alias = input.readUTF();
+				fetch = new CompositeFetch( sessionFactory, alias, owner, input.readUTF() );
+			}
+			else {
+				final String alias = input.readUTF();
+				final LockMode lockMode = LockMode.valueOf( input.readUTF() );
+				final String ownerProperty = input.readUTF();
+				final FetchStrategy fetchStrategy = new FetchStrategy(
+						FetchTiming.valueOf( input.readUTF() ),
+						FetchStyle.valueOf( input.readUTF() )
+				);
+				if ( kind == ENTITY_FETCH ) {
+					final EntityType type = (EntityType) owner.retrieveFetchSourcePersister()
+							.getPropertyType( owner.qualifyFetchPropertyName( ownerProperty ) );
+					final EntityPersister persister = sessionFactory.getEntityPersister( type.getAssociatedEntityName() );
+					final String sqlTableAlias = input.readUTF();
+					final String suffix = input.readUTF();
+					fetch = new EntityFetch(
+							sessionFactory,
+							alias,
+							lockMode,
+							owner,
+							ownerProperty,
+							fetchStrategy,
+							sqlTableAlias,
+							aliasTables.getEntityAliases( (Loadable) persister, suffix ),
+							readFetchGroup( persister, input )
+					);
+				}
+				else if ( kind == COLLECTION_FETCH ) {
+					final CollectionPersister persister = sessionFactory.getCollectionPersister(
+							owner.retrieveFetchSourcePersister().getEntityName()
+									+ '.' + owner.qualifyFetchPropertyName( ownerProperty )
+					);
+					fetch = new CollectionFetch(
+							sessionFactory,
+							alias,
+							lockMode,
+							owner,
+							fetchStrategy,
+							ownerProperty,
+							aliasTables.getCollectionAliases( persister, input.readUTF() ),
+							elementAliases( persister, readNullable( input ) )
+					);
+				}
+				else {
+					throw new IOException( "Unexpected fetch kind : " + kind );
+				}
+			}
+			readFetches( fetch, input );
+		}
+	}
+
+	private EntityAliases elementAliases(CollectionPersister persister, String suffix) {
+		if ( suffix == null ) {
+			return null;
+		}
+		final EntityType elementType = (EntityType) persister.getElementType();
+		return aliasTables.getEntityAliases( (Loadable) elementType.getAssociatedJoinable( sessionFactory ), suffix );
+	}
+
+	private static FetchGroup readFetchGroup(EntityPersister persister, DataInputStream input) throws IOException {
+		final int count = input.readInt();
+		final Set<String> includedLazyAttributes = new HashSet<String>();
+		for ( int i = 0; i < count; i++ ) {
+			includedLazyAttributes.add( input.readUTF() );
+		}
+		final FetchGroup fetchGroup = FetchGroup.forAttributes( persister, includedLazyAttributes );
+		return input.readBoolean() ? fetchGroup.withoutSubclassAttributes( persister ) : fetchGroup;
+	}
+
+	private static CardinalityHints readCardinalityHints(DataInputStream input) throws IOException {
+		final StandardCardinalityHints cardinalityHints = new StandardCardinalityHints();
+		final int count = input.readInt();
+		for ( int i = 0; i < count; i++ ) {
+			cardinalityHints.applyCollectionSize( input.readUTF(), input.readInt() );
+		}
+		return cardinalityHints;
+	}
+
+	private static String readNullable(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+}
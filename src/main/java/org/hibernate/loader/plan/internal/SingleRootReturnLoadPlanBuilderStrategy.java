@@ -23,26 +23,32 @@
  */
 package org.hibernate.loader.plan.internal;
 
+import java.util.Collections;
+
 import org.hibernate.HibernateException;
 import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
 import org.hibernate.engine.FetchStyle;
 import org.hibernate.engine.FetchTiming;
 import org.hibernate.engine.spi.LoadQueryInfluencers;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.internal.util.StringHelper;
 import org.hibernate.loader.CollectionAliases;
-import org.hibernate.loader.DefaultEntityAliases;
 import org.hibernate.loader.EntityAliases;
 import org.hibernate.engine.FetchStrategy;
-import org.hibernate.loader.GeneratedCollectionAliases;
 import org.hibernate.loader.PropertyPath;
 import org.hibernate.loader.plan.spi.AbstractFetchOwner;
 import org.hibernate.loader.plan.spi.AbstractLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.CardinalityHints;
 import org.hibernate.loader.plan.spi.CollectionFetch;
+import org.hibernate.loader.plan.spi.CollectionReference;
 import org.hibernate.loader.plan.spi.CollectionReturn;
 import org.hibernate.loader.plan.spi.CompositeFetch;
 import org.hibernate.loader.plan.spi.EntityFetch;
+import org.hibernate.loader.plan.spi.EntityReference;
 import org.hibernate.loader.plan.spi.EntityReturn;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.FetchGroup;
 import org.hibernate.loader.plan.spi.FetchOwner;
 import org.hibernate.loader.plan.spi.LoadPlan;
 import org.hibernate.loader.plan.spi.LoadPlanBuilderStrategy;
@@ -50,7 +56,9 @@ import org.hibernate.loader.plan.spi.Return;
 import org.hibernate.persister.walking.spi.AssociationAttributeDefinition;
 import org.hibernate.persister.walking.spi.CollectionDefinition;
 import org.hibernate.persister.walking.spi.CompositeDefinition;
+import org.hibernate.persister.walking.spi.ConcreteEntityDefinition;
 import org.hibernate.persister.walking.spi.EntityDefinition;
+import org.hibernate.persister.walking.spi.MetadataDrivenVisitationStrategy;
 import org.hibernate.persister.collection.CollectionPersister;
 import org.hibernate.persister.entity.Loadable;
 import org.hibernate.type.EntityType;
@@ -69,12 +77,18 @@ import org.hibernate.type.Type;
  */
 public class SingleRootReturnLoadPlanBuilderStrategy
 		extends AbstractLoadPlanBuilderStrategy
-		implements LoadPlanBuilderStrategy {
+		implements LoadPlanBuilderStrategy, MetadataDrivenVisitationStrategy {
 
 	private final LoadQueryInfluencers loadQueryInfluencers;
 
 	private final String rootAlias;
 	private int currentSuffixBase;
+	private final AliasTableCache aliasTables;
+
+	private final CardinalityHints cardinalityHints;
+	private final long maximumRowMultiplicity;
+	private final LockOptions lockOptions;
+	private long currentRowMultiplicity = 1;
 
 	private Return rootReturn;
 
@@ -85,10 +99,113 @@ public class SingleRootReturnLoadPlanBuilderStrategy
 			LoadQueryInfluencers loadQueryInfluencers,
 			String rootAlias,
 			int suffixSeed) {
+		this(
+				sessionFactory,
+				loadQueryInfluencers,
+				rootAlias,
+				suffixSeed,
+				StandardCardinalityHints.DEFAULT,
+				Long.MAX_VALUE
+		);
+	}
+
+	/**
+	 * Constructs a strategy which limits the estimated row multiplicity of the built plans.  Collections which would
+	 * push the estimated number of rows per root beyond {@code maximumRowMultiplicity} are not join fetched.
+	 *
+	 * @param sessionFactory The session factory
+	 * @param loadQueryInfluencers The influencers (fetch profiles, etc) in effect
+	 * @param rootAlias The alias for the root return
+	 * @param suffixSeed The seed for generating column alias suffixes
+	 * @param cardinalityHints Hints about expected collection sizes, used for estimating
+	 * @param maximumRowMultiplicity The maximum estimated number of rows per root to allow
+	 */
+	public SingleRootReturnLoadPlanBuilderStrategy(
+			SessionFactoryImplementor sessionFactory,
+			LoadQueryInfluencers loadQueryInfluencers,
+			String rootAlias,
+			int suffixSeed,
+			CardinalityHints cardinalityHints,
+			long maximumRowMultiplicity) {
+		this(
+				sessionFactory,
+				loadQueryInfluencers,
+				rootAlias,
+				suffixSeed,
+				cardinalityHints,
+				maximumRowMultiplicity,
+				LockOptions.NONE
+		);
+	}
+
+	/**
+	 * Constructs a strategy which assigns lock modes to the nodes of the built plans according to the given lock
+	 * options : the root is locked in the mode defined for {@code rootAlias} (or the overall lock mode); fetched
+	 * associations in the mode defined for their property path relative to the root (e.g. {@code "poster.messages"}),
+	 * otherwise in the lock mode of their owner if the lock {@link LockOptions#getScope() scope} is extended.
+	 *
+	 * @param sessionFactory The session factory
+	 * @param loadQueryInfluencers The influencers (fetch profiles, etc) in effect
+	 * @param rootAlias The alias for the root return
+	 * @param suffixSeed The seed for generating column alias suffixes
+	 * @param lockOptions The lock options to apply
+	 */
+	public SingleRootReturnLoadPlanBuilderStrategy(
+			SessionFactoryImplementor sessionFactory,
+			LoadQueryInfluencers loadQueryInfluencers,
+			String rootAlias,
+			int suffixSeed,
+			LockOptions lockOptions) {
+		this(
+				sessionFactory,
+				loadQueryInfluencers,
+				rootAlias,
+				suffixSeed,
+				StandardCardinalityHints.DEFAULT,
+				Long.MAX_VALUE,
+				lockOptions
+		);
+	}
+
+	/**
+	 * Constructs a strategy limiting the estimated row multiplicity of the built plans and assigning lock modes to
+	 * their nodes; see the other constructors for the meaning of each.
+	 *
+	 * @param sessionFactory The session factory
+	 * @param loadQueryInfluencers The influencers (fetch profiles, etc) in effect
+	 * @param rootAlias The alias for the root return
+	 * @param suffixSeed The seed for generating column alias suffixes
+	 * @param cardinalityHints Hints about expected collection sizes, used for estimating
+	 * @param maximumRowMultiplicity The maximum estimated number of rows per root to allow
+	 * @param lockOptions The lock options to apply; {@code null} meaning {@link LockOptions#NONE}
+	 */
+	public SingleRootReturnLoadPlanBuilderStrategy(
+			SessionFactoryImplementor sessionFactory,
+			LoadQueryInfluencers loadQueryInfluencers,
+			String rootAlias,
+			int suffixSeed,
+			CardinalityHints cardinalityHints,
+			long maximumRowMultiplicity,
+			LockOptions lockOptions) {
 		super( sessionFactory );
 		this.loadQueryInfluencers = loadQueryInfluencers;
 		this.rootAlias = rootAlias;
 		this.currentSuffixBase = suffixSeed;
+		this.aliasTables = AliasTableCache.forSessionFactory( sessionFactory );
+		this.cardinalityHints = cardinalityHints;
+		this.maximumRowMultiplicity = maximumRowMultiplicity;
+		this.lockOptions = lockOptions == null ? LockOptions.NONE : lockOptions;
+	}
+
+	@Override
+	public boolean isFetchTimingDrivenByMetadata() {
+		// the adjustments made here only ever change the style of immediate fetches
+		return true;
+	}
+
+	@Override
+	public LoadQueryInfluencers getLoadQueryInfluencers() {
+		return loadQueryInfluencers;
 	}
 
 	@Override
@@ -111,7 +228,12 @@ public class SingleRootReturnLoadPlanBuilderStrategy
 
 	@Override
 	public LoadPlan buildLoadPlan() {
-		return new LoadPlanImpl( false, rootReturn );
+		return new LoadPlanImpl(
+				false,
+				Collections.<Return>singletonList( rootReturn ),
+				cardinalityHints,
+				SubtreeInterningTable.forSessionFactory( sessionFactory() )
+		);
 	}
 
 	@Override
@@ -131,14 +253,50 @@ public class SingleRootReturnLoadPlanBuilderStrategy
 			return new FetchStrategy( fetchStrategy.getTiming(), FetchStyle.SELECT );
 		}
 
-		if ( attributeDefinition.getType().isCollectionType() && isTooManyCollections() ) {
-			// todo : have this revert to batch or subselect fetching once "sql gen redesign" is in place
-			return new FetchStrategy( fetchStrategy.getTiming(), FetchStyle.SELECT );
+		if ( attributeDefinition.getType().isCollectionType() ) {
+			if ( isTooManyCollections() || isTooManyRows( attributeDefinition ) ) {
+				// todo : have this revert to batch or subselect fetching once "sql gen redesign" is in place
+				return new FetchStrategy( fetchStrategy.getTiming(), FetchStyle.SELECT );
+			}
 		}
 
 		return fetchStrategy;
 	}
 
+	/**
+	 * Would join fetching the given collection push the estimated row multiplicity of the plan beyond the allowed
+	 * maximum?
+	 *
+	 * @param attributeDefinition The collection attribute
+	 *
+	 * @return {@code true} if the collection should not be join fetched
+	 */
+	protected boolean isTooManyRows(AssociationAttributeDefinition attributeDefinition) {
+		final String role = attributeDefinition.toCollectionDefinition().getCollectionPersister().getRole();
+		final long expectedSize = Math.max( 1, cardinalityHints.getExpectedCollectionSize( role ) );
+		return currentRowMultiplicity > maximumRowMultiplicity / expectedSize;
+	}
+
+	protected CardinalityHints cardinalityHints() {
+		return cardinalityHints;
+	}
+
+	/**
+	 * The estimated number of rows per root produced by the collections join fetched so far.
+	 *
+	 * @return The current estimated row multiplicity
+	 */
+	protected long currentRowMultiplicity() {
+		return currentRowMultiplicity;
+	}
+
+	private void applyRowMultiplicity(CollectionPersister persister) {
+		final long expectedSize = Math.max( 1, cardinalityHints.getExpectedCollectionSize( persister.getRole() ) );
+		currentRowMultiplicity = currentRowMultiplicity > Long.MAX_VALUE / expectedSize
+				? Long.MAX_VALUE
+				: currentRowMultiplicity * expectedSize;
+	}
+
 	@Override
 	protected boolean isTooManyCollections() {
 		return false;
@@ -150,32 +308,120 @@ public class SingleRootReturnLoadPlanBuilderStrategy
 		return new EntityReturn(
 				sessionFactory(),
 				rootAlias,
-				LockMode.NONE, // todo : for now
+				determineRootLockMode(),
 				entityName,
 				StringHelper.generateAlias( StringHelper.unqualifyEntityName( entityName ), currentDepth() ),
-				new DefaultEntityAliases(
+				aliasTables.getEntityAliases(
 						(Loadable) entityDefinition.getEntityPersister(),
-						Integer.toString( currentSuffixBase++ ) + '_'
-				)
+						nextSuffix()
+				),
+				resolveRootFetchGroup( entityDefinition )
 		);
 	}
 
+	private FetchGroup resolveRootFetchGroup(EntityDefinition entityDefinition) {
+		final FetchGroup fetchGroup = determineRootFetchGroup( entityDefinition );
+		// the root is known to be exactly of this entity type : its subclasses' columns can never be populated
+		return ConcreteEntityDefinition.class.isInstance( entityDefinition )
+				? fetchGroup.withoutSubclassAttributes( entityDefinition.getEntityPersister() )
+				: fetchGroup;
+	}
+
+	protected LockOptions lockOptions() {
+		return lockOptions;
+	}
+
+	/**
+	 * Determine the lock mode for the root return.
+	 *
+	 * @return The lock mode
+	 */
+	protected LockMode determineRootLockMode() {
+		return lockOptions.getEffectiveLockMode( rootAlias );
+	}
+
+	/**
+	 * Determine the lock mode for a fetched association.
+	 *
+	 * @param fetchOwner The owner of the fetch
+	 * @param attributeDefinition The association attribute being fetched
+	 *
+	 * @return The lock mode
+	 */
+	protected LockMode determineFetchLockMode(
+			FetchOwner fetchOwner,
+			AssociationAttributeDefinition attributeDefinition) {
+		if ( lockOptions.getLockMode() == LockMode.NONE && ! lockOptions.hasAliasSpecificLockModes() ) {
+			return LockMode.NONE;
+		}
+
+		final String path = fetchOwner.getPropertyPath().append( attributeDefinition.getName() ).getFullPath();
+		final LockMode aliasSpecificLockMode = lockOptions.getAliasSpecificLockMode( path );
+		if ( aliasSpecificLockMode != null ) {
+			return aliasSpecificLockMode;
+		}
+		if ( lockOptions.getScope() ) {
+			return ownerLockMode( fetchOwner );
+		}
+		return LockMode.NONE;
+	}
+
+	private static LockMode ownerLockMode(FetchOwner fetchOwner) {
+		if ( EntityReference.class.isInstance( fetchOwner ) ) {
+			return ( (EntityReference) fetchOwner ).getLockMode();
+		}
+		if ( CollectionReference.class.isInstance( fetchOwner ) ) {
+			return ( (CollectionReference) fetchOwner ).getLockMode();
+		}
+		if ( Fetch.class.isInstance( fetchOwner ) ) {
+			// composites : use the lock mode of the entity owning them
+			return ownerLockMode( ( (Fetch) fetchOwner ).getOwner() );
+		}
+		return LockMode.NONE;
+	}
+
+	/**
+	 * Determine the group of attributes to read for the root entity.  By default all non-lazy attributes.
+	 *
+	 * @param entityDefinition The root entity
+	 *
+	 * @return The fetch group
+	 */
+	protected FetchGroup determineRootFetchGroup(EntityDefinition entityDefinition) {
+		return FetchGroup.standard( entityDefinition.getEntityPersister() );
+	}
+
+	/**
+	 * Determine the group of attributes to read for a fetched entity.  By default all non-lazy attributes.
+	 *
+	 * @param attributeDefinition The association attribute being fetched
+	 * @param entityDefinition The fetched entity
+	 *
+	 * @return The fetch group
+	 */
+	protected FetchGroup determineFetchGroup(
+			AssociationAttributeDefinition attributeDefinition,
+			EntityDefinition entityDefinition) {
+		return FetchGroup.standard( entityDefinition.getEntityPersister() );
+	}
+
 	@Override
 	protected CollectionReturn buildRootCollectionReturn(CollectionDefinition collectionDefinition) {
 		final CollectionPersister persister = collectionDefinition.getCollectionPersister();
 		final String collectionRole = persister.getRole();
+		applyRowMultiplicity( persister );
 
-		final CollectionAliases collectionAliases = new GeneratedCollectionAliases(
+		final CollectionAliases collectionAliases = aliasTables.getCollectionAliases(
 				collectionDefinition.getCollectionPersister(),
-				Integer.toString( currentSuffixBase++ ) + '_'
+				nextSuffix()
 		);
 		final Type elementType = collectionDefinition.getCollectionPersister().getElementType();
 		final EntityAliases elementAliases;
 		if ( elementType.isEntityType() ) {
 			final EntityType entityElementType = (EntityType) elementType;
-			elementAliases = new DefaultEntityAliases(
+			elementAliases = aliasTables.getEntityAliases(
 					(Loadable) entityElementType.getAssociatedJoinable( sessionFactory() ),
-					Integer.toString( currentSuffixBase++ ) + '_'
+					nextSuffix()
 			);
 		}
 		else {
@@ -185,7 +431,7 @@ public class SingleRootReturnLoadPlanBuilderStrategy
 		return new CollectionReturn(
 				sessionFactory(),
 				rootAlias,
-				LockMode.NONE, // todo : for now
+				determineRootLockMode(),
 				persister.getOwnerEntityPersister().getEntityName(),
 				StringHelper.unqualify( collectionRole ),
 				collectionAliases,
@@ -199,17 +445,20 @@ public class SingleRootReturnLoadPlanBuilderStrategy
 			AssociationAttributeDefinition attributeDefinition,
 			FetchStrategy fetchStrategy) {
 		final CollectionDefinition collectionDefinition = attributeDefinition.toCollectionDefinition();
-		final CollectionAliases collectionAliases = new GeneratedCollectionAliases(
+		if ( fetchStrategy.getStyle() == FetchStyle.JOIN ) {
+			applyRowMultiplicity( collectionDefinition.getCollectionPersister() );
+		}
+		final CollectionAliases collectionAliases = aliasTables.getCollectionAliases(
 				collectionDefinition.getCollectionPersister(),
-				Integer.toString( currentSuffixBase++ ) + '_'
+				nextSuffix()
 		);
 		final Type elementType = collectionDefinition.getCollectionPersister().getElementType();
 		final EntityAliases elementAliases;
 		if ( elementType.isEntityType() ) {
 			final EntityType entityElementType = (EntityType) elementType;
-			elementAliases = new DefaultEntityAliases(
+			elementAliases = aliasTables.getEntityAliases(
 					(Loadable) entityElementType.getAssociatedJoinable( sessionFactory() ),
-					Integer.toString( currentSuffixBase++ ) + '_'
+					nextSuffix()
 			);
 		}
 		else {
@@ -219,7 +468,7 @@ public class SingleRootReturnLoadPlanBuilderStrategy
 		return new CollectionFetch(
 				sessionFactory(),
 				createImplicitAlias(),
-				LockMode.NONE, // todo : for now
+				determineFetchLockMode( fetchOwner, attributeDefinition ),
 				(AbstractFetchOwner) fetchOwner,
 				fetchStrategy,
 				attributeDefinition.getName(),
@@ -238,15 +487,16 @@ public class SingleRootReturnLoadPlanBuilderStrategy
 		return new EntityFetch(
 				sessionFactory(),
 				createImplicitAlias(),
-				LockMode.NONE, // todo : for now
+				determineFetchLockMode( fetchOwner, attributeDefinition ),
 				(AbstractFetchOwner) fetchOwner,
 				attributeDefinition.getName(),
 				fetchStrategy,
 				StringHelper.generateAlias( entityDefinition.getEntityPersister().getEntityName(), currentDepth() ),
-				new DefaultEntityAliases(
+				aliasTables.getEntityAliases(
 						(Loadable) entityDefinition.getEntityPersister(),
-						Integer.toString( currentSuffixBase++ ) + '_'
-				)
+						nextSuffix()
+				),
+				determineFetchGroup( attributeDefinition, entityDefinition )
 		);
 	}
 
@@ -260,6 +510,10 @@ public class SingleRootReturnLoadPlanBuilderStrategy
 		);
 	}
 
+	private String nextSuffix() {
+		return AliasTableCache.suffix( currentSuffixBase++ );
+	}
+
 	private int implicitAliasUniqueness = 0;
 
 	private String createImplicitAlias() {
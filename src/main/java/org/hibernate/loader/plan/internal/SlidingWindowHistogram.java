@@ -0,0 +1,99 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent {@code windowSize} observations of some (non-negative) quantity, such as the size of
+ * collections of a particular role, and answers percentile questions over them.
+ * <p/>
+ * Recording is cheap (constant time); percentiles sort a copy of the window and so are meant to be asked only
+ * occasionally, e.g. when (re)building a LoadPlan.
+ *
+ * @author Steve Ebersole
+ */
+public class SlidingWindowHistogram {
+	private final long[] window;
+	private int position;
+	private int count;
+	private long totalObservations;
+
+	public SlidingWindowHistogram(int windowSize) {
+		if ( windowSize < 1 ) {
+			throw new IllegalArgumentException( "Window size must be positive" );
+		}
+		this.window = new long[windowSize];
+	}
+
+	public synchronized void record(long value) {
+		window[position] = value;
+		position = ( position + 1 ) % window.length;
+		if ( count < window.length ) {
+			count++;
+		}
+		totalObservations++;
+	}
+
+	/**
+	 * The number of observations currently in the window.
+	 *
+	 * @return The number of observations in the window
+	 */
+	public synchronized int getWindowCount() {
+		return count;
+	}
+
+	/**
+	 * The total number of observations ever recorded.
+	 *
+	 * @return The total number of observations
+	 */
+	public synchronized long getTotalObservations() {
+		return totalObservations;
+	}
+
+	/**
+	 * Get the value at the given percentile of the observations in the window.
+	 *
+	 * @param percentile The percentile, between 0 and 100
+	 *
+	 * @return The value at that percentile, or -1 if nothing has been observed
+	 */
+	public long percentile(double percentile) {
+		if ( percentile < 0 || percentile > 100 ) {
+			throw new IllegalArgumentException( "Percentile must be between 0 and 100 : " + percentile );
+		}
+		final long[] values;
+		synchronized ( this ) {
+			if ( count == 0 ) {
+				return -1;
+			}
+			values = Arrays.copyOf( window, count );
+		}
+		Arrays.sort( values );
+		final int index = (int) Math.ceil( ( percentile / 100 ) * values.length ) - 1;
+		return values[ Math.max( 0, index ) ];
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.loader.plan.spi.CardinalityHints;
+
+/**
+ * Standard implementation of {@link CardinalityHints} with per-role overrides of a default collection size.
+ *
+ * @author Steve Ebersole
+ */
+public class StandardCardinalityHints implements CardinalityHints {
+	/**
+	 * Hints using {@link #DEFAULT_COLLECTION_SIZE} for every role.
+	 */
+	public static final CardinalityHints DEFAULT = new StandardCardinalityHints();
+
+	private final int defaultCollectionSize;
+	private final ConcurrentHashMap<String,Integer> collectionSizes = new ConcurrentHashMap<String, Integer>();
+
+	public StandardCardinalityHints() {
+		this( DEFAULT_COLLECTION_SIZE );
+	}
+
+	public StandardCardinalityHints(int defaultCollectionSize) {
+		if ( defaultCollectionSize < 1 ) {
+			throw new IllegalArgumentException( "Default collection size must be positive" );
+		}
+		this.defaultCollectionSize = defaultCollectionSize;
+	}
+
+	/**
+	 * Specify the expected size of collections of the given role.
+	 *
+	 * @param role The collection role
+	 * @param expectedSize The expected size
+	 *
+	 * @return {@code this}, for method chaining
+	 */
+	public StandardCardinalityHints applyCollectionSize(String role, int expectedSize) {
+		if ( expectedSize < 1 ) {
+			throw new IllegalArgumentException( "Expected collection size must be positive [" + role + "]" );
+		}
+		collectionSizes.put( role, expectedSize );
+		return this;
+	}
+
+	@Override
+	public int getExpectedCollectionSize(String role) {
+		final Integer size = collectionSizes.get( role );
+		return size == null ? defaultCollectionSize : size;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.engine.SessionFactoryScopedState;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.collections.BoundedConcurrentHashMap;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.FetchOwner;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.Return;
+import org.hibernate.loader.plan.spi.SubtreeShape;
+
+/**
+ * Interns {@link SubtreeShape subtree shapes}, generally per SessionFactory (see {@link #forSessionFactory}), so that
+ * structurally identical subtrees of different plans (e.g. {@code Poster -> messages -> Poster} in many aggregates)
+ * share a single shape instance, along with whatever artifacts were compiled for it.  Plans built through
+ * {@link SingleRootReturnLoadPlanBuilderStrategy} share their column width estimates this way.
+ * <p/>
+ * Shapes are interned bottom-up, so the fetch shapes of an interned shape are themselves interned.  The table is
+ * bounded; an evicted shape is simply interned anew (with no compiled artifacts) the next time it is seen.
+ *
+ * @author Steve Ebersole
+ */
+public class SubtreeInterningTable {
+	/**
+	 * The maximum number of shapes interned per SessionFactory.
+	 */
+	public static final int DEFAULT_MAXIMUM_SIZE = 2048;
+
+	private static final SessionFactoryScopedState<SubtreeInterningTable> TABLES
+			= new SessionFactoryScopedState<SubtreeInterningTable>() {
+				@Override
+				protected SubtreeInterningTable create(SessionFactoryImplementor sessionFactory) {
+					return new SubtreeInterningTable( DEFAULT_MAXIMUM_SIZE );
+				}
+			};
+
+	/**
+	 * Access the table for the given SessionFactory.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 *
+	 * @return The table
+	 */
+	public static SubtreeInterningTable forSessionFactory(SessionFactoryImplementor sessionFactory) {
+		return TABLES.get( sessionFactory );
+	}
+
+	private final ConcurrentMap<SubtreeShape,SubtreeShape> shapes;
+
+	public SubtreeInterningTable(int maximumSize) {
+		if ( maximumSize < 1 ) {
+			throw new IllegalArgumentException( "Maximum size must be positive" );
+		}
+		this.shapes = new BoundedConcurrentHashMap<SubtreeShape, SubtreeShape>(
+				maximumSize,
+				Math.min( 16, maximumSize ),
+				BoundedConcurrentHashMap.Eviction.LIRS
+		);
+	}
+
+	/**
+	 * Intern the shape of the given subtree.
+	 *
+	 * @param fetchOwner The root of the subtree
+	 *
+	 * @return The canonical shape
+	 */
+	public SubtreeShape intern(FetchOwner fetchOwner) {
+		final Fetch[] fetches = fetchOwner.getFetches();
+		final SubtreeShape[] fetchShapes = new SubtreeShape[ fetches.length ];
+		for ( int i = 0; i < fetches.length; i++ ) {
+			fetchShapes[i] = intern( fetches[i] );
+		}
+		return intern( SubtreeShape.of( fetchOwner, fetchShapes ) );
+	}
+
+	/**
+	 * Intern the given shape.  Its fetch shapes are expected to be interned already.
+	 *
+	 * @param shape The shape
+	 *
+	 * @return The canonical shape
+	 */
+	public SubtreeShape intern(SubtreeShape shape) {
+		final SubtreeShape existing = shapes.putIfAbsent( shape, shape );
+		return existing == null ? shape : existing;
+	}
+
+	/**
+	 * Intern the shapes of all (fetch owning) returns of the given plan.
+	 *
+	 * @param loadPlan The plan
+	 *
+	 * @return The canonical shapes of the returns, in order; {@code null} entries for scalar returns
+	 */
+	public List<SubtreeShape> intern(LoadPlan loadPlan) {
+		final List<SubtreeShape> returnShapes = new ArrayList<SubtreeShape>();
+		for ( Return rtn : loadPlan.getReturns() ) {
+			returnShapes.add( FetchOwner.class.isInstance( rtn ) ? intern( (FetchOwner) rtn ) : null );
+		}
+		return returnShapes;
+	}
+
+	public int size() {
+		return shapes.size();
+	}
+
+	public void clear() {
+		shapes.clear();
+	}
+}
@@ -56,6 +56,18 @@ public abstract class AbstractFetchOwner extends AbstractPlanNode implements Fet
 		return lockMode;
 	}
 
+	/**
+	 * Qualify the name of a property fetched from this owner into a property path relative to
+	 * {@link #retrieveFetchSourcePersister()}.
+	 *
+	 * @param propertyName The name of the fetched property, relative to this owner
+	 *
+	 * @return The property path, relative to the fetch source persister
+	 */
+	public String qualifyFetchPropertyName(String propertyName) {
+		return propertyName;
+	}
+
 	void addFetch(Fetch fetch) {
 		if ( fetch.getOwner() != this ) {
 			throw new IllegalArgumentException( "Fetch and owner did not match" );
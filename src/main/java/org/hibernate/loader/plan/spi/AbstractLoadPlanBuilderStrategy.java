@@ -43,6 +43,10 @@ public abstract class AbstractLoadPlanBuilderStrategy implements LoadPlanBuilder
 	private final SessionFactoryImplementor sessionFactory;
 
 	private ArrayDeque<FetchOwner> fetchOwnerStack = new ArrayDeque<FetchOwner>();
+	private ArrayDeque<AttributeDefinition> fetchedAttributeStack = new ArrayDeque<AttributeDefinition>();
+
+	// the number of enclosing composite collection elements/indexes; those are walked without a CompositeFetch
+	private int collectionCompositeDepth;
 
 	protected AbstractLoadPlanBuilderStrategy(SessionFactoryImplementor sessionFactory) {
 		this.sessionFactory = sessionFactory;
@@ -118,11 +122,21 @@ public abstract class AbstractLoadPlanBuilderStrategy implements LoadPlanBuilder
 		if ( fetchOwnerStack.isEmpty() ) {
 			throw new HibernateException( "A component cannot be the root of a walk nor a graph" );
 		}
+		if ( isCollectionComposite( compositeDefinition ) ) {
+			collectionCompositeDepth++;
+		}
+	}
+
+	private boolean isCollectionComposite(CompositeDefinition compositeDefinition) {
+		// composite attributes are started (and a CompositeFetch pushed for them) as attributes first
+		return fetchedAttributeStack.peekLast() != compositeDefinition;
 	}
 
 	@Override
 	public void finishingComposite(CompositeDefinition compositeDefinition) {
-		// nothing to do
+		if ( isCollectionComposite( compositeDefinition ) ) {
+			collectionCompositeDepth--;
+		}
 	}
 
 	@Override
@@ -135,12 +149,20 @@ public abstract class AbstractLoadPlanBuilderStrategy implements LoadPlanBuilder
 		if ( isBasicType ) {
 			return true;
 		}
-		else if ( isComponentType ) {
-			return handleCompositeAttribute( (CompositeDefinition) attributeDefinition );
+
+		final int depth = fetchOwnerStack.size();
+		final boolean continueWalk;
+		if ( isComponentType ) {
+			continueWalk = handleCompositeAttribute( (CompositeDefinition) attributeDefinition );
 		}
 		else {
-			return handleAssociationAttribute( (AssociationAttributeDefinition) attributeDefinition );
+			continueWalk = handleAssociationAttribute( (AssociationAttributeDefinition) attributeDefinition );
+		}
+		if ( fetchOwnerStack.size() > depth ) {
+			// a fetch was pushed for this attribute; remember that so we pop it (and only it) when finishing
+			fetchedAttributeStack.addLast( attributeDefinition );
 		}
+		return continueWalk;
 	}
 
 
@@ -151,7 +173,9 @@ public abstract class AbstractLoadPlanBuilderStrategy implements LoadPlanBuilder
 		final boolean isComponentType = attributeType.isComponentType();
 		final boolean isBasicType = ! ( isComponentType || attributeType.isAssociationType() );
 
-		if ( ! isBasicType ) {
+		// NOTE : we get here even if #startingAttribute did not push a fetch (non-immediate associations e.g.)
+		if ( ! isBasicType && fetchedAttributeStack.peekLast() == attributeDefinition ) {
+			fetchedAttributeStack.removeLast();
 			fetchOwnerStack.removeLast();
 		}
 	}
@@ -164,6 +188,10 @@ public abstract class AbstractLoadPlanBuilderStrategy implements LoadPlanBuilder
 	}
 
 	protected boolean handleAssociationAttribute(AssociationAttributeDefinition attributeDefinition) {
+		if ( collectionCompositeDepth > 0 ) {
+			return handleCollectionCompositeAssociation( attributeDefinition );
+		}
+
 		final FetchStrategy fetchStrategy = determineFetchPlan( attributeDefinition );
 		if ( fetchStrategy.getTiming() != FetchTiming.IMMEDIATE ) {
 			return false;
@@ -184,6 +212,26 @@ public abstract class AbstractLoadPlanBuilderStrategy implements LoadPlanBuilder
 		return true;
 	}
 
+	/**
+	 * Handle an association within a composite collection element or index.  The rows of the collection are read
+	 * into its {@link CollectionReference} as a whole, with no plan node per element to own a fetch; an entity
+	 * referenced from an element is instead resolved as the element is read (from the persistence context, or by a
+	 * subsequent select if its fetch timing is immediate).  Collections are not supported within composite elements.
+	 *
+	 * @param attributeDefinition The association attribute
+	 *
+	 * @return {@code false}, the association's target is not walked.
+	 */
+	protected boolean handleCollectionCompositeAssociation(AssociationAttributeDefinition attributeDefinition) {
+		if ( attributeDefinition.isCollection() ) {
+			throw new HibernateException(
+					"Collection [" + attributeDefinition.getName() + "] within a composite collection element or "
+							+ "index cannot be loaded"
+			);
+		}
+		return false;
+	}
+
 	protected abstract FetchStrategy determineFetchPlan(AssociationAttributeDefinition attributeDefinition);
 
 	protected int currentDepth() {
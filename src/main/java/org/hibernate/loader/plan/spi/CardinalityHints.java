@@ -0,0 +1,46 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+/**
+ * Hints about the expected cardinality of associations, used to estimate the number of rows a
+ * {@link LoadPlan} produces.
+ *
+ * @author Steve Ebersole
+ */
+public interface CardinalityHints {
+	/**
+	 * The collection size assumed for roles with no explicit hint.
+	 */
+	public static final int DEFAULT_COLLECTION_SIZE = 10;
+
+	/**
+	 * Get the expected number of elements in a collection of the given role.
+	 *
+	 * @param role The collection role
+	 *
+	 * @return The expected collection size
+	 */
+	public int getExpectedCollectionSize(String role);
+}
@@ -54,7 +54,8 @@ public class CollectionFetch extends AbstractFetch implements CollectionReferenc
 		this.collectionAliases = collectionAliases;
 		this.elementEntityAliases = elementEntityAliases;
 
-		final String role = owner.retrieveFetchSourcePersister().getEntityName() + '.' + getOwnerPropertyName();
+		final String role = owner.retrieveFetchSourcePersister().getEntityName()
+				+ '.' + owner.qualifyFetchPropertyName( getOwnerPropertyName() );
 		this.persister = sessionFactory.getCollectionPersister( role );
 	}
 
@@ -48,4 +48,10 @@ public class CompositeFetch extends AbstractFetch implements Fetch {
 	public EntityPersister retrieveFetchSourcePersister() {
 		return getOwner().retrieveFetchSourcePersister();
 	}
+
+	@Override
+	public String qualifyFetchPropertyName(String propertyName) {
+		// the fetch source persister knows the properties of its composites by their dotted path
+		return ( (AbstractFetchOwner) getOwner() ).qualifyFetchPropertyName( getOwnerPropertyName() + '.' + propertyName );
+	}
 }
@@ -36,6 +36,7 @@ import org.hibernate.type.EntityType;
 public class EntityFetch extends AbstractFetch implements EntityReference {
 	private final String sqlTableAlias;
 	private final EntityAliases entityAliases;
+	private final FetchGroup fetchGroup;
 
 	private final EntityPersister persister;
 
@@ -47,12 +48,15 @@ public class EntityFetch extends AbstractFetch implements EntityReference {
 			String ownerProperty,
 			FetchStrategy fetchStrategy,
 			String sqlTableAlias,
-			EntityAliases entityAliases) {
+			EntityAliases entityAliases,
+			FetchGroup fetchGroup) {
 		super( sessionFactory, alias, lockMode, owner, ownerProperty, fetchStrategy );
 		this.sqlTableAlias = sqlTableAlias;
 		this.entityAliases = entityAliases;
+		this.fetchGroup = fetchGroup;
 
-		final EntityType type = (EntityType) owner.retrieveFetchSourcePersister().getPropertyType( ownerProperty );
+		final EntityType type = (EntityType) owner.retrieveFetchSourcePersister()
+				.getPropertyType( owner.qualifyFetchPropertyName( ownerProperty ) );
 		this.persister = sessionFactory.getEntityPersister( type.getAssociatedEntityName() );
 	}
 
@@ -66,6 +70,11 @@ public class EntityFetch extends AbstractFetch implements EntityReference {
 		return entityAliases;
 	}
 
+	@Override
+	public FetchGroup getFetchGroup() {
+		return fetchGroup;
+	}
+
 	@Override
 	public String getSqlTableAlias() {
 		return sqlTableAlias;
@@ -61,6 +61,14 @@ public interface EntityReference {
 	 */
 	public EntityAliases getEntityAliases();
 
+	/**
+	 * Obtain the group of attributes read for this entity.  The columns of attributes outside the group are neither
+	 * selected nor read, and those attributes are left lazily loadable.
+	 *
+	 * @return The fetch group
+	 */
+	public FetchGroup getFetchGroup();
+
 	/**
 	 * Obtain the SQL table alias associated with this entity.
 	 *
@@ -35,6 +35,7 @@ import org.hibernate.persister.entity.EntityPersister;
  */
 public class EntityReturn extends AbstractFetchOwner implements Return, FetchOwner, EntityReference {
 	private final EntityAliases entityAliases;
+	private final FetchGroup fetchGroup;
 	private final String sqlTableAlias;
 
 	private final EntityPersister persister;
@@ -47,10 +48,12 @@ public class EntityReturn extends AbstractFetchOwner implements Return, FetchOwn
 			LockMode lockMode,
 			String entityName,
 			String sqlTableAlias,
-			EntityAliases entityAliases) {
+			EntityAliases entityAliases,
+			FetchGroup fetchGroup) {
 		super( sessionFactory, alias, lockMode );
 		this.entityAliases = entityAliases;
 		this.sqlTableAlias = sqlTableAlias;
+		this.fetchGroup = fetchGroup;
 
 		this.persister = sessionFactory.getEntityPersister( entityName );
 	}
@@ -75,6 +78,11 @@ public class EntityReturn extends AbstractFetchOwner implements Return, FetchOwn
 		return entityAliases;
 	}
 
+	@Override
+	public FetchGroup getFetchGroup() {
+		return fetchGroup;
+	}
+
 	@Override
 	public String getSqlTableAlias() {
 		return sqlTableAlias;
@@ -0,0 +1,151 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Describes the attributes to be fetched when loading an entity, in the spirit of JPA entity graphs: a set of
+ * attribute nodes, each of which may define a subgraph describing what to fetch from the associated entity
+ * (or the elements, in the case of collections; or the nested attributes, in the case of composites).
+ * <p/>
+ * Graphs are compared structurally.  Once a graph has been used (to build or to look up a LoadPlan) it is locked and
+ * can no longer be changed.
+ *
+ * @author Steve Ebersole
+ */
+public class FetchGraph {
+	/**
+	 * A graph with no attribute nodes
+	 */
+	public static final FetchGraph EMPTY = new FetchGraph().lock();
+
+	private final Map<String,FetchGraph> attributeNodes = new TreeMap<String, FetchGraph>();
+	private boolean locked;
+	private int hashCode;
+
+	/**
+	 * Add an attribute node, without a subgraph.
+	 *
+	 * @param attributeName The name of the attribute
+	 *
+	 * @return {@code this}, for method chaining
+	 */
+	public FetchGraph addAttributeNode(String attributeName) {
+		addSubgraph( attributeName );
+		return this;
+	}
+
+	/**
+	 * Add an attribute node, returning the subgraph for the attribute.  If the node already exists, its existing
+	 * subgraph is returned.
+	 *
+	 * @param attributeName The name of the attribute
+	 *
+	 * @return The subgraph for the attribute
+	 */
+	public FetchGraph addSubgraph(String attributeName) {
+		if ( locked ) {
+			throw new IllegalStateException( "FetchGraph is locked against changes as it is in use" );
+		}
+		FetchGraph subgraph = attributeNodes.get( attributeName );
+		if ( subgraph == null ) {
+			subgraph = new FetchGraph();
+			attributeNodes.put( attributeName, subgraph );
+		}
+		return subgraph;
+	}
+
+	/**
+	 * Does this graph include the named attribute?
+	 *
+	 * @param attributeName The name of the attribute
+	 *
+	 * @return {@code true} if the graph contains a node for the attribute
+	 */
+	public boolean includes(String attributeName) {
+		return attributeNodes.containsKey( attributeName );
+	}
+
+	/**
+	 * Get the subgraph for the named attribute.
+	 *
+	 * @param attributeName The name of the attribute
+	 *
+	 * @return The subgraph; {@link #EMPTY} if the graph does not include the attribute or defines no subgraph for it.
+	 */
+	public FetchGraph getSubgraph(String attributeName) {
+		final FetchGraph subgraph = attributeNodes.get( attributeName );
+		return subgraph == null ? EMPTY : subgraph;
+	}
+
+	public Map<String,FetchGraph> getAttributeNodes() {
+		return Collections.unmodifiableMap( attributeNodes );
+	}
+
+	/**
+	 * Lock this graph (and all of its subgraphs) against further changes.
+	 *
+	 * @return {@code this}, for method chaining
+	 */
+	public FetchGraph lock() {
+		if ( ! locked ) {
+			locked = true;
+			for ( FetchGraph subgraph : attributeNodes.values() ) {
+				subgraph.lock();
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if ( this == o ) {
+			return true;
+		}
+		if ( o == null || getClass() != o.getClass() ) {
+			return false;
+		}
+		return attributeNodes.equals( ( (FetchGraph) o ).attributeNodes );
+	}
+
+	@Override
+	public int hashCode() {
+		if ( ! locked ) {
+			return attributeNodes.hashCode();
+		}
+		// locked graphs are generally used as cache keys; no need to keep re-walking the subgraphs
+		if ( hashCode == 0 ) {
+			hashCode = attributeNodes.hashCode();
+		}
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		return attributeNodes.toString();
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.hibernate.loader.EntityAliases;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Loadable;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+
+/**
+ * Describes which of an entity's attributes (and therefore which columns) a LoadPlan node reads.  Attributes left
+ * out of the group remain lazily loadable.
+ * <p/>
+ * Only attributes which are actually lazy (mapped as lazy in a bytecode-instrumented entity) may be left out; every
+ * other attribute is always part of the group, since the entity could not be properly initialized otherwise.  For
+ * non-instrumented entities the group is therefore always {@link #ALL}.
+ * <p/>
+ * The one exception are nodes known to load instances of exactly the persister's entity type (and never of one of its
+ * subclasses); for those the attributes defined on subclasses can be left out as well, see
+ * {@link #withoutSubclassAttributes}.
+ *
+ * @author Steve Ebersole
+ */
+public class FetchGroup {
+	/**
+	 * Fetch all attributes, including lazy ones.
+	 */
+	public static final FetchGroup ALL = new FetchGroup( null, null, null );
+
+	/**
+	 * Build the standard fetch group for the given entity: all attributes except the lazy ones.
+	 *
+	 * @param persister The entity persister
+	 *
+	 * @return The fetch group
+	 */
+	public static FetchGroup standard(EntityPersister persister) {
+		return forAttributes( persister, Collections.<String>emptySet() );
+	}
+
+	/**
+	 * Build a fetch group for the given entity made up of all its non-lazy attributes plus the named lazy ones.
+	 *
+	 * @param persister The entity persister
+	 * @param lazyAttributeNames The names of the lazy attributes to fetch
+	 *
+	 * @return The fetch group
+	 */
+	public static FetchGroup forAttributes(EntityPersister persister, Collection<String> lazyAttributeNames) {
+		if ( ! persister.isInstrumented() ) {
+			return ALL;
+		}
+
+		final String[] propertyNames = persister.getPropertyNames();
+		final boolean[] propertyLaziness = persister.getPropertyLaziness();
+		final boolean[] included = new boolean[ propertyNames.length ];
+		boolean all = true;
+		for ( int i = 0; i < propertyNames.length; i++ ) {
+			included[i] = ! propertyLaziness[i] || lazyAttributeNames.contains( propertyNames[i] );
+			all = all && included[i];
+		}
+		return all ? ALL : new FetchGroup( persister.getEntityName(), included, null );
+	}
+
+	// the entity the property numbers below refer to; null for ALL
+	private final String entityName;
+	// indexed by property number; null means all of the entity's own attributes
+	private final boolean[] included;
+	// indexed by subclass property number; null means no subclass attribute is excluded
+	private final boolean[] excludedSubclassAttributes;
+
+	private FetchGroup(String entityName, boolean[] included, boolean[] excludedSubclassAttributes) {
+		this.entityName = entityName;
+		this.included = included;
+		this.excludedSubclassAttributes = excludedSubclassAttributes;
+	}
+
+	/**
+	 * Derive a group from this one which additionally leaves out the attributes defined on subclasses of the given
+	 * entity.  Only valid for nodes which are known to load instances of exactly that entity type.
+	 *
+	 * @param persister The entity persister
+	 *
+	 * @return The fetch group
+	 */
+	public FetchGroup withoutSubclassAttributes(EntityPersister persister) {
+		final OuterJoinLoadable outerJoinLoadable = (OuterJoinLoadable) persister;
+		if ( ! outerJoinLoadable.hasSubclasses() ) {
+			return this;
+		}
+
+		final int subclassPropertyCount = outerJoinLoadable.countSubclassProperties();
+		final boolean[] excluded = new boolean[ subclassPropertyCount ];
+		boolean any = false;
+		for ( int i = 0; i < subclassPropertyCount; i++ ) {
+			excluded[i] = outerJoinLoadable.isDefinedOnSubclass( i );
+			any = any || excluded[i];
+		}
+		return any ? new FetchGroup( persister.getEntityName(), included, excluded ) : this;
+	}
+
+	/**
+	 * The name of the entity this group was built for.
+	 *
+	 * @return The entity name, or {@code null} for {@link #ALL}
+	 */
+	public String getEntityName() {
+		return entityName;
+	}
+
+	/**
+	 * Does this group include all attributes?
+	 *
+	 * @return {@code true} if all attributes are included.
+	 */
+	public boolean isAll() {
+		return included == null && excludedSubclassAttributes == null;
+	}
+
+	/**
+	 * Does this group leave out the attributes defined on subclasses?
+	 *
+	 * @return {@code true} if subclass attributes are not read.
+	 *
+	 * @see #withoutSubclassAttributes
+	 */
+	public boolean isSubclassAttributesExcluded() {
+		return excludedSubclassAttributes != null;
+	}
+
+	/**
+	 * Is the attribute with the given (persister) property number included in this group?
+	 * <p/>
+	 * Property numbers past the end of {@link EntityPersister#getPropertyNames()} denote attributes defined on
+	 * subclasses (the persister's subclass property numbering starts with the entity's own attributes).
+	 *
+	 * @param propertyNumber The subclass property number
+	 *
+	 * @return {@code true} if the attribute is read.
+	 */
+	public boolean includes(int propertyNumber) {
+		if ( excludedSubclassAttributes != null && excludedSubclassAttributes[propertyNumber] ) {
+			return false;
+		}
+		return included == null || propertyNumber >= included.length || included[propertyNumber];
+	}
+
+	/**
+	 * Resolve the column aliases to select/read for this group: the key columns, the discriminator (if one) and the
+	 * columns of the included attributes, including those defined on subclasses unless they are
+	 * {@link #isSubclassAttributesExcluded excluded}.
+	 *
+	 * @param persister The persister of the entity the aliases were generated for
+	 * @param entityAliases The aliases of the entity
+	 *
+	 * @return The column aliases
+	 */
+	public String[] resolveColumnAliases(Loadable persister, EntityAliases entityAliases) {
+		final Set<String> aliases = new LinkedHashSet<String>();
+		aliases.addAll( Arrays.asList( entityAliases.getSuffixedKeyAliases() ) );
+		if ( entityAliases.getSuffixedDiscriminatorAlias() != null ) {
+			aliases.add( entityAliases.getSuffixedDiscriminatorAlias() );
+		}
+		final String[][] propertyAliases = entityAliases.getSuffixedPropertyAliases();
+		for ( int i = 0; i < propertyAliases.length; i++ ) {
+			if ( includes( i ) ) {
+				aliases.addAll( Arrays.asList( propertyAliases[i] ) );
+			}
+		}
+
+		if ( excludedSubclassAttributes == null ) {
+			// a subclass numbers the attributes it inherits first, followed by its own
+			final int propertyCount = propertyAliases.length;
+			for ( Object subclassEntityName : persister.getEntityMetamodel().getSubclassEntityNames() ) {
+				final Loadable subclassPersister = (Loadable) persister.getFactory().getEntityPersister(
+						(String) subclassEntityName
+				);
+				if ( subclassPersister == persister ) {
+					continue;
+				}
+				final String[][] subclassPropertyAliases =
+						entityAliases.getSuffixedPropertyAliases( subclassPersister );
+				for ( int i = propertyCount; i < subclassPropertyAliases.length; i++ ) {
+					aliases.addAll( Arrays.asList( subclassPropertyAliases[i] ) );
+				}
+			}
+		}
+		return aliases.toArray( new String[ aliases.size() ] );
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if ( this == o ) {
+			return true;
+		}
+		if ( o == null || getClass() != o.getClass() ) {
+			return false;
+		}
+		final FetchGroup that = (FetchGroup) o;
+		// property numbers only mean the same thing for the same entity
+		return ( entityName == null ? that.entityName == null : entityName.equals( that.entityName ) )
+				&& Arrays.equals( included, that.included )
+				&& Arrays.equals( excludedSubclassAttributes, that.excludedSubclassAttributes );
+	}
+
+	@Override
+	public int hashCode() {
+		int result = entityName == null ? 0 : entityName.hashCode();
+		result = 31 * result + Arrays.hashCode( included );
+		return 31 * result + Arrays.hashCode( excludedSubclassAttributes );
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.LockMode;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Lockable;
+import org.hibernate.type.EntityType;
+
+/**
+ * Describes the follow-on locking needed by a {@link LoadPlan} : the entities the plan locks pessimistically,
+ * grouped per entity hierarchy.  Dialects which cannot lock outer-joined rows (see {@link Dialect#useFollowOnLocking})
+ * cannot apply those locks as part of the load itself; instead, once the results have been processed, the keys of
+ * all entities loaded for a {@link LockTarget} are locked using a single (batched) {@code SELECT ... FOR UPDATE}.
+ *
+ * @author Steve Ebersole
+ */
+public class FollowOnLockingPlan {
+	/**
+	 * Build the follow-on locking plan for the given plan.
+	 *
+	 * @param loadPlan The plan
+	 *
+	 * @return The follow-on locking plan, or {@code null} if the plan does not lock anything pessimistically.
+	 */
+	public static FollowOnLockingPlan forLoadPlan(LoadPlan loadPlan) {
+		final FollowOnLockingPlan followOnLockingPlan = new FollowOnLockingPlan();
+		for ( Return rtn : loadPlan.getReturns() ) {
+			if ( EntityReference.class.isInstance( rtn ) ) {
+				final EntityReference entityReference = (EntityReference) rtn;
+				followOnLockingPlan.apply( rtn, entityReference.getEntityPersister(), entityReference.getLockMode() );
+			}
+			else if ( CollectionReference.class.isInstance( rtn ) ) {
+				followOnLockingPlan.apply( (CollectionReference) rtn );
+			}
+			if ( FetchOwner.class.isInstance( rtn ) ) {
+				followOnLockingPlan.applyFetches( (FetchOwner) rtn );
+			}
+		}
+		return followOnLockingPlan.targets.isEmpty() ? null : followOnLockingPlan;
+	}
+
+	/**
+	 * Does locking in the given mode require a pessimistic lock on the database row?
+	 *
+	 * @param lockMode The lock mode
+	 *
+	 * @return {@code true} if a {@code SELECT ... FOR UPDATE} is needed
+	 */
+	public static boolean isPessimistic(LockMode lockMode) {
+		switch ( lockMode ) {
+			case UPGRADE:
+			case UPGRADE_NOWAIT:
+			case UPGRADE_SKIPLOCKED:
+			case FORCE:
+			case PESSIMISTIC_READ:
+			case PESSIMISTIC_WRITE:
+			case PESSIMISTIC_FORCE_INCREMENT: {
+				return true;
+			}
+			default: {
+				return false;
+			}
+		}
+	}
+
+	private final Map<String,LockTarget> targets = new LinkedHashMap<String, LockTarget>();
+	private final Map<Object,LockTarget> targetsByReference = new IdentityHashMap<Object, LockTarget>();
+
+	private FollowOnLockingPlan() {
+	}
+
+	private void applyFetches(FetchOwner fetchOwner) {
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( EntityReference.class.isInstance( fetch ) ) {
+				final EntityReference entityReference = (EntityReference) fetch;
+				apply( fetch, entityReference.getEntityPersister(), entityReference.getLockMode() );
+			}
+			else if ( CollectionReference.class.isInstance( fetch ) ) {
+				apply( (CollectionReference) fetch );
+			}
+			applyFetches( fetch );
+		}
+	}
+
+	private void apply(CollectionReference collectionReference) {
+		final CollectionPersister collectionPersister = collectionReference.getCollectionPersister();
+		if ( collectionPersister.getElementType().isEntityType() ) {
+			final EntityType elementType = (EntityType) collectionPersister.getElementType();
+			apply(
+					collectionReference,
+					collectionPersister.getFactory().getEntityPersister( elementType.getAssociatedEntityName() ),
+					collectionReference.getLockMode()
+			);
+		}
+	}
+
+	private void apply(Object reference, EntityPersister persister, LockMode lockMode) {
+		if ( ! isPessimistic( lockMode ) ) {
+			return;
+		}
+
+		// rows are locked in the root table, so group per hierarchy
+		final String rootEntityName = persister.getRootEntityName();
+		LockTarget target = targets.get( rootEntityName );
+		if ( target == null ) {
+			target = new LockTarget(
+					(Lockable) persister.getFactory().getEntityPersister( rootEntityName ),
+					lockMode
+			);
+			targets.put( rootEntityName, target );
+		}
+		else if ( lockMode.greaterThan( target.lockMode ) ) {
+			target.lockMode = lockMode;
+		}
+		targetsByReference.put( reference, target );
+	}
+
+	/**
+	 * Is follow-on locking needed when executing against the given dialect?
+	 *
+	 * @param dialect The dialect
+	 *
+	 * @return {@code true} if the locks of this plan need to be applied after processing
+	 */
+	public boolean isRequired(Dialect dialect) {
+		return dialect.useFollowOnLocking();
+	}
+
+	public List<LockTarget> getLockTargets() {
+		return Collections.unmodifiableList( new ArrayList<LockTarget>( targets.values() ) );
+	}
+
+	/**
+	 * Locate the target into which the keys of entities loaded for the given plan node are collected.
+	 *
+	 * @param reference The {@link EntityReference}, or the {@link CollectionReference} for its elements.
+	 *
+	 * @return The target, or {@code null} if entities loaded for the node are not locked.
+	 */
+	public LockTarget locateLockTarget(Object reference) {
+		return targetsByReference.get( reference );
+	}
+
+	/**
+	 * An entity hierarchy to lock, along with the (greatest) lock mode requested for it.
+	 */
+	public static class LockTarget {
+		private final Lockable persister;
+		private LockMode lockMode;
+
+		private LockTarget(Lockable persister, LockMode lockMode) {
+			this.persister = persister;
+			this.lockMode = lockMode;
+		}
+
+		/**
+		 * The persister for the root of the entity hierarchy.
+		 *
+		 * @return The persister
+		 */
+		public Lockable getPersister() {
+			return persister;
+		}
+
+		public LockMode getLockMode() {
+			return lockMode;
+		}
+
+		@Override
+		public String toString() {
+			return "LockTarget(" + persister.getEntityName() + " : " + lockMode + ")";
+		}
+	}
+}
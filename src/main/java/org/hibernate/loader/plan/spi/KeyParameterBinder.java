@@ -0,0 +1,154 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.type.CompositeType;
+import org.hibernate.type.Type;
+
+/**
+ * Binds the key(s) restricting the load of a {@link LoadPlan} : the entity identifier for entity loads, the
+ * collection key for collection initializers.  Compiled once per plan, so that executing the plan only binds values :
+ * column spans are resolved up front and composite keys are expanded directly into their (compiled) sub-binders.
+ *
+ * @author Steve Ebersole
+ */
+public class KeyParameterBinder {
+	private final Type keyType;
+	private final int columnSpan;
+	private final KeyParameterBinder[] componentBinders;
+
+	/**
+	 * Compile the binder for the key of the given plan.
+	 *
+	 * @param loadPlan The plan
+	 *
+	 * @return The binder, or {@code null} if the plan does not have a single entity or collection return.
+	 */
+	public static KeyParameterBinder forLoadPlan(LoadPlan loadPlan) {
+		final List<Return> returns = loadPlan.getReturns();
+		if ( returns.size() != 1 ) {
+			return null;
+		}
+		final Return rootReturn = returns.get( 0 );
+		if ( EntityReturn.class.isInstance( rootReturn ) ) {
+			final EntityReturn entityReturn = (EntityReturn) rootReturn;
+			return new KeyParameterBinder(
+					entityReturn.getEntityPersister().getIdentifierType(),
+					entityReturn.getEntityPersister().getFactory()
+			);
+		}
+		if ( CollectionReturn.class.isInstance( rootReturn ) ) {
+			final CollectionReturn collectionReturn = (CollectionReturn) rootReturn;
+			return new KeyParameterBinder(
+					collectionReturn.getCollectionPersister().getKeyType(),
+					collectionReturn.getCollectionPersister().getFactory()
+			);
+		}
+		return null;
+	}
+
+	public KeyParameterBinder(Type keyType, SessionFactoryImplementor factory) {
+		this.keyType = keyType;
+		this.columnSpan = keyType.getColumnSpan( factory );
+		if ( keyType.isComponentType() ) {
+			final Type[] subtypes = ( (CompositeType) keyType ).getSubtypes();
+			this.componentBinders = new KeyParameterBinder[ subtypes.length ];
+			for ( int i = 0; i < subtypes.length; i++ ) {
+				componentBinders[i] = new KeyParameterBinder( subtypes[i], factory );
+			}
+		}
+		else {
+			this.componentBinders = null;
+		}
+	}
+
+	public Type getKeyType() {
+		return keyType;
+	}
+
+	/**
+	 * The number of JDBC parameters making up a single key.
+	 *
+	 * @return The column span of the key
+	 */
+	public int getColumnSpan() {
+		return columnSpan;
+	}
+
+	/**
+	 * Bind a single key.
+	 *
+	 * @param statement The statement
+	 * @param key The key value
+	 * @param position The (1-based) position of the first parameter to bind
+	 * @param session The originating session
+	 *
+	 * @return The position following the bound parameters
+	 *
+	 * @throws SQLException Indicates a problem binding the parameters
+	 */
+	public int bind(PreparedStatement statement, Object key, int position, SessionImplementor session)
+			throws SQLException {
+		if ( componentBinders == null ) {
+			keyType.nullSafeSet( statement, key, position, session );
+			return position + columnSpan;
+		}
+
+		final Object[] values = key == null
+				? new Object[ componentBinders.length ]
+				: ( (CompositeType) keyType ).getPropertyValues( key, session );
+		int nextPosition = position;
+		for ( int i = 0; i < componentBinders.length; i++ ) {
+			nextPosition = componentBinders[i].bind( statement, values[i], nextPosition, session );
+		}
+		return nextPosition;
+	}
+
+	/**
+	 * Bind a batch of keys, one after the other.
+	 *
+	 * @param statement The statement
+	 * @param keys The key values
+	 * @param position The (1-based) position of the first parameter to bind
+	 * @param session The originating session
+	 *
+	 * @return The position following the bound parameters
+	 *
+	 * @throws SQLException Indicates a problem binding the parameters
+	 */
+	public int bind(PreparedStatement statement, Object[] keys, int position, SessionImplementor session)
+			throws SQLException {
+		int nextPosition = position;
+		for ( Object key : keys ) {
+			nextPosition = bind( statement, key, nextPosition, session );
+		}
+		return nextPosition;
+	}
+}
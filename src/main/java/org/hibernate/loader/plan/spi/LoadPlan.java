@@ -55,7 +55,59 @@ public interface LoadPlan {
 
 	public List<Return> getReturns();
 
+	/**
+	 * The estimated number of JDBC rows produced per root result, accounting for the row multiplication caused by
+	 * joined collection fetches.
+	 *
+	 * @return The estimated row multiplicity; always at least 1
+	 *
+	 * @see LoadPlanEstimator#estimateRowMultiplicity(LoadPlan, CardinalityHints)
+	 */
+	public long getEstimatedRowMultiplicity();
+
+	/**
+	 * The number of JDBC columns read per row.
+	 *
+	 * @return The column width
+	 *
+	 * @see LoadPlanEstimator#estimateColumnWidth(LoadPlan)
+	 */
+	public int getEstimatedColumnWidth();
+
+	/**
+	 * The hints about collection cardinalities this plan was built (and estimated) with.
+	 *
+	 * @return The cardinality hints
+	 */
+	public CardinalityHints getCardinalityHints();
+
+	/**
+	 * Render the tree of returns and fetches making up this plan, along with its estimates.
+	 *
+	 * @return The explain output
+	 *
+	 * @see LoadPlanExplainer
+	 */
+	public String explain();
+
+	/**
+	 * The binder for the key(s) restricting this plan (entity identifier or collection key), compiled once per plan.
+	 *
+	 * @return The key binder, or {@code null} if this plan does not have a single entity or collection return.
+	 *
+	 * @see KeyParameterBinder#forLoadPlan(LoadPlan)
+	 */
+	public KeyParameterBinder getKeyParameterBinder();
+
+	/**
+	 * The follow-on locking needed by this plan, computed once per plan.
+	 *
+	 * @return The follow-on locking plan, or {@code null} if this plan does not lock anything pessimistically.
+	 *
+	 * @see FollowOnLockingPlan#forLoadPlan(LoadPlan)
+	 */
+	public FollowOnLockingPlan getFollowOnLockingPlan();
+
 	// todo : would also like to see "call back" style access for handling "subsequent actions" such as:
-	// 		1) follow-on locking
-	//		2) join fetch conversions to subselect fetches
+	//		1) join fetch conversions to subselect fetches
 }
@@ -23,6 +23,8 @@
  */
 package org.hibernate.loader.plan.spi;
 
+import org.hibernate.loader.spi.LoadPlanMonitor;
+import org.hibernate.loader.spi.NoOpLoadPlanMonitor;
 import org.hibernate.persister.walking.spi.MetadataDrivenAssociationVisitor;
 import org.hibernate.persister.collection.CollectionPersister;
 import org.hibernate.persister.entity.EntityPersister;
@@ -45,8 +47,88 @@ public class LoadPlanBuilder {
 	 * @return The built load plan.
 	 */
 	public static LoadPlan buildRootEntityLoadPlan(LoadPlanBuilderStrategy strategy, EntityPersister persister) {
-		MetadataDrivenAssociationVisitor.visitEntity( strategy, persister );
-		return strategy.buildLoadPlan();
+		return buildRootEntityLoadPlan( strategy, persister, NoOpLoadPlanMonitor.INSTANCE );
+	}
+
+	/**
+	 * Coordinates building a LoadPlan that defines just a single root entity return (may have fetches), reporting
+	 * the build to the given monitor.
+	 *
+	 * @param strategy The strategy defining the load plan shaping
+	 * @param persister The persister for the entity forming the root of the load plan.
+	 * @param monitor The monitor to notify
+	 *
+	 * @return The built load plan.
+	 */
+	public static LoadPlan buildRootEntityLoadPlan(
+			LoadPlanBuilderStrategy strategy,
+			EntityPersister persister,
+			LoadPlanMonitor monitor) {
+		return buildEntityLoadPlan( strategy, persister, false, monitor );
+	}
+
+	/**
+	 * Coordinates building a LoadPlan that defines just a single root entity return (may have fetches), where the
+	 * loaded instances are known to be exactly of the persister's entity type.  The attributes defined on subclasses
+	 * of that entity are then neither walked nor (depending on the strategy) read.
+	 *
+	 * @param strategy The strategy defining the load plan shaping
+	 * @param persister The persister for the exact type of the entity forming the root of the load plan.
+	 *
+	 * @return The built load plan.
+	 */
+	public static LoadPlan buildConcreteEntityLoadPlan(LoadPlanBuilderStrategy strategy, EntityPersister persister) {
+		return buildConcreteEntityLoadPlan( strategy, persister, NoOpLoadPlanMonitor.INSTANCE );
+	}
+
+	/**
+	 * Coordinates building a LoadPlan that defines just a single root entity return (may have fetches), where the
+	 * loaded instances are known to be exactly of the persister's entity type, reporting the build to the given
+	 * monitor.
+	 *
+	 * @param strategy The strategy defining the load plan shaping
+	 * @param persister The persister for the exact type of the entity forming the root of the load plan.
+	 * @param monitor The monitor to notify
+	 *
+	 * @return The built load plan.
+	 */
+	public static LoadPlan buildConcreteEntityLoadPlan(
+			LoadPlanBuilderStrategy strategy,
+			EntityPersister persister,
+			LoadPlanMonitor monitor) {
+		return buildEntityLoadPlan( strategy, persister, true, monitor );
+	}
+
+	private static LoadPlan buildEntityLoadPlan(
+			LoadPlanBuilderStrategy strategy,
+			EntityPersister persister,
+			boolean concrete,
+			LoadPlanMonitor monitor) {
+		if ( ! monitor.isEnabled() ) {
+			visitEntity( strategy, persister, concrete );
+			return strategy.buildLoadPlan();
+		}
+
+		final long start = System.nanoTime();
+		visitEntity( strategy, persister, concrete );
+		final LoadPlan loadPlan = strategy.buildLoadPlan();
+		monitor.loadPlanBuilt(
+				loadPlan,
+				persister.getEntityName(),
+				strategy,
+				countNodes( loadPlan ),
+				System.nanoTime() - start
+		);
+		return loadPlan;
+	}
+
+	private static void visitEntity(LoadPlanBuilderStrategy strategy, EntityPersister persister, boolean concrete) {
+		if ( concrete ) {
+			MetadataDrivenAssociationVisitor.visitConcreteEntity( strategy, persister );
+		}
+		else {
+			MetadataDrivenAssociationVisitor.visitEntity( strategy, persister );
+		}
 	}
 
 	/**
@@ -58,7 +140,64 @@ public class LoadPlanBuilder {
 	 * @return The built load plan.
 	 */
 	public static LoadPlan buildRootCollectionLoadPlan(LoadPlanBuilderStrategy strategy, CollectionPersister persister) {
+		return buildRootCollectionLoadPlan( strategy, persister, NoOpLoadPlanMonitor.INSTANCE );
+	}
+
+	/**
+	 * Coordinates building a LoadPlan that defines just a single root collection return (may have fetches),
+	 * reporting the build to the given monitor.
+	 *
+	 * @param strategy The strategy defining the load plan shaping
+	 * @param persister The persister for the collection forming the root of the load plan.
+	 * @param monitor The monitor to notify
+	 *
+	 * @return The built load plan.
+	 */
+	public static LoadPlan buildRootCollectionLoadPlan(
+			LoadPlanBuilderStrategy strategy,
+			CollectionPersister persister,
+			LoadPlanMonitor monitor) {
+		if ( ! monitor.isEnabled() ) {
+			MetadataDrivenAssociationVisitor.visitCollection( strategy, persister );
+			return strategy.buildLoadPlan();
+		}
+
+		final long start = System.nanoTime();
 		MetadataDrivenAssociationVisitor.visitCollection( strategy, persister );
-		return strategy.buildLoadPlan();
+		final LoadPlan loadPlan = strategy.buildLoadPlan();
+		monitor.loadPlanBuilt(
+				loadPlan,
+				persister.getRole(),
+				strategy,
+				countNodes( loadPlan ),
+				System.nanoTime() - start
+		);
+		return loadPlan;
+	}
+
+	/**
+	 * Count the number of nodes (returns plus fetches) making up the given LoadPlan.
+	 *
+	 * @param loadPlan The plan
+	 *
+	 * @return The node count
+	 */
+	public static int countNodes(LoadPlan loadPlan) {
+		int count = 0;
+		for ( Return rtn : loadPlan.getReturns() ) {
+			count++;
+			if ( FetchOwner.class.isInstance( rtn ) ) {
+				count += countFetches( (FetchOwner) rtn );
+			}
+		}
+		return count;
+	}
+
+	private static int countFetches(FetchOwner fetchOwner) {
+		int count = 0;
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			count += 1 + countFetches( fetch );
+		}
+		return count;
 	}
 }
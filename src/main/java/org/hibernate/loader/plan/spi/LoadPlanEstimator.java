@@ -0,0 +1,268 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+import java.util.List;
+
+import org.hibernate.engine.FetchStyle;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.loader.CollectionAliases;
+import org.hibernate.loader.EntityAliases;
+import org.hibernate.persister.entity.Loadable;
+
+/**
+ * Computes estimates about the JDBC results a {@link LoadPlan} will produce, based solely on the shape of the plan:<ul>
+ *     <li>
+ *         <b>row multiplicity</b> - the number of JDBC rows expected per root result.  Every collection joined into
+ *         the SQL multiplies the number of rows (siblings as well as nested collections), using the expected
+ *         collection sizes given by the {@link CardinalityHints}
+ *     </li>
+ *     <li>
+ *         <b>column width</b> - the number of JDBC columns read per row, as described by the
+ *         {@link EntityAliases}/{@link CollectionAliases} of the joined nodes (limited to the {@link FetchGroup} of
+ *         entities)
+ *     </li>
+ * </ul>
+ *
+ * @author Steve Ebersole
+ */
+public class LoadPlanEstimator {
+	// the key of the column width compiled for an interned SubtreeShape
+	private static final Object COLUMN_WIDTH = new Object();
+
+	private LoadPlanEstimator() {
+	}
+
+	/**
+	 * Is the given fetch joined into the SQL of its owner (as opposed to fetched by a subsequent select)?
+	 *
+	 * @param fetch The fetch
+	 *
+	 * @return {@code true} if the fetch is joined.
+	 */
+	public static boolean isJoined(Fetch fetch) {
+		return fetch.getFetchStrategy().getTiming() == FetchTiming.IMMEDIATE
+				&& fetch.getFetchStrategy().getStyle() == FetchStyle.JOIN;
+	}
+
+	/**
+	 * Estimate the number of JDBC rows produced per root result of the given plan.
+	 *
+	 * @param loadPlan The plan
+	 * @param hints The cardinality hints
+	 *
+	 * @return The estimated row multiplicity; always at least 1
+	 */
+	public static long estimateRowMultiplicity(LoadPlan loadPlan, CardinalityHints hints) {
+		long multiplicity = 1;
+		for ( Return rtn : loadPlan.getReturns() ) {
+			multiplicity = multiply( multiplicity, estimateRowMultiplicity( rtn, hints ) );
+		}
+		return multiplicity;
+	}
+
+	/**
+	 * Estimate the number of JDBC rows produced per instance of the given return.
+	 *
+	 * @param rtn The return
+	 * @param hints The cardinality hints
+	 *
+	 * @return The estimated row multiplicity; always at least 1
+	 */
+	public static long estimateRowMultiplicity(Return rtn, CardinalityHints hints) {
+		long multiplicity = 1;
+		if ( CollectionReturn.class.isInstance( rtn ) ) {
+			multiplicity = multiplier( (CollectionReturn) rtn, hints );
+		}
+		if ( FetchOwner.class.isInstance( rtn ) ) {
+			multiplicity = multiply( multiplicity, estimateFetchMultiplicity( (FetchOwner) rtn, hints ) );
+		}
+		return multiplicity;
+	}
+
+	private static long estimateFetchMultiplicity(FetchOwner fetchOwner, CardinalityHints hints) {
+		long multiplicity = 1;
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( ! isJoined( fetch ) ) {
+				continue;
+			}
+			if ( CollectionFetch.class.isInstance( fetch ) ) {
+				multiplicity = multiply( multiplicity, multiplier( (CollectionFetch) fetch, hints ) );
+			}
+			multiplicity = multiply( multiplicity, estimateFetchMultiplicity( fetch, hints ) );
+		}
+		return multiplicity;
+	}
+
+	/**
+	 * The factor by which the given collection (when joined) multiplies the rows of its owner.
+	 *
+	 * @param collectionReference The collection reference
+	 * @param hints The cardinality hints
+	 *
+	 * @return The multiplier
+	 */
+	public static long multiplier(CollectionReference collectionReference, CardinalityHints hints) {
+		return Math.max( 1, hints.getExpectedCollectionSize( collectionReference.getCollectionPersister().getRole() ) );
+	}
+
+	/**
+	 * Estimate the number of JDBC columns read per row of the given plan.
+	 *
+	 * @param loadPlan The plan
+	 *
+	 * @return The column width
+	 */
+	public static int estimateColumnWidth(LoadPlan loadPlan) {
+		int width = 0;
+		for ( Return rtn : loadPlan.getReturns() ) {
+			width += countColumns( rtn );
+			if ( FetchOwner.class.isInstance( rtn ) ) {
+				width += countFetchColumns( (FetchOwner) rtn );
+			}
+		}
+		return width;
+	}
+
+	/**
+	 * Estimate the column width of the given plan, sharing the width of each return's subtree through the given
+	 * interned shapes of the returns.
+	 *
+	 * @param loadPlan The plan
+	 * @param returnShapes The interned shapes of the plan's returns, in order; {@code null} for scalar returns
+	 *
+	 * @return The number of columns read per row
+	 */
+	public static int estimateColumnWidth(LoadPlan loadPlan, List<SubtreeShape> returnShapes) {
+		int width = 0;
+		for ( int i = 0; i < returnShapes.size(); i++ ) {
+			final Return rtn = loadPlan.getReturns().get( i );
+			final SubtreeShape shape = returnShapes.get( i );
+			if ( shape == null ) {
+				width += countColumns( rtn );
+				continue;
+			}
+			Integer subtreeWidth = (Integer) shape.getCompiledArtifact( COLUMN_WIDTH );
+			if ( subtreeWidth == null ) {
+				subtreeWidth = (Integer) shape.registerCompiledArtifact(
+						COLUMN_WIDTH,
+						countColumns( rtn ) + countFetchColumns( (FetchOwner) rtn )
+				);
+			}
+			width += subtreeWidth;
+		}
+		return width;
+	}
+
+	private static int countFetchColumns(FetchOwner fetchOwner) {
+		int width = 0;
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( isJoined( fetch ) ) {
+				width += countColumns( fetch ) + countFetchColumns( fetch );
+			}
+		}
+		return width;
+	}
+
+	/**
+	 * Count the JDBC columns read for the given plan node alone (not including its fetches).
+	 *
+	 * @param node The plan node (a {@link Return} or {@link Fetch})
+	 *
+	 * @return The number of columns
+	 */
+	public static int countColumns(Object node) {
+		if ( EntityReference.class.isInstance( node ) ) {
+			final EntityReference entityReference = (EntityReference) node;
+			return entityReference.getFetchGroup().resolveColumnAliases(
+					(Loadable) entityReference.getEntityPersister(),
+					entityReference.getEntityAliases()
+			).length;
+		}
+		else if ( CollectionReference.class.isInstance( node ) ) {
+			final CollectionReference collectionReference = (CollectionReference) node;
+			return countColumns( collectionReference.getCollectionAliases() )
+					+ countColumns( collectionReference.getElementEntityAliases() );
+		}
+		else if ( ScalarReturn.class.isInstance( node ) ) {
+			return 1;
+		}
+		// composites are read as part of their owner's columns
+		return 0;
+	}
+
+	/**
+	 * Count the JDBC columns described by the given entity aliases.
+	 *
+	 * @param entityAliases The entity aliases; may be {@code null}
+	 *
+	 * @return The number of columns
+	 */
+	public static int countColumns(EntityAliases entityAliases) {
+		if ( entityAliases == null ) {
+			return 0;
+		}
+		int count = entityAliases.getSuffixedKeyAliases().length;
+		if ( entityAliases.getSuffixedDiscriminatorAlias() != null ) {
+			count++;
+		}
+		for ( String[] propertyAliases : entityAliases.getSuffixedPropertyAliases() ) {
+			count += propertyAliases.length;
+		}
+		return count;
+	}
+
+	/**
+	 * Count the JDBC columns described by the given collection aliases.
+	 *
+	 * @param collectionAliases The collection aliases; may be {@code null}
+	 *
+	 * @return The number of columns
+	 */
+	public static int countColumns(CollectionAliases collectionAliases) {
+		if ( collectionAliases == null ) {
+			return 0;
+		}
+		int count = length( collectionAliases.getSuffixedKeyAliases() )
+				+ length( collectionAliases.getSuffixedIndexAliases() )
+				+ length( collectionAliases.getSuffixedElementAliases() );
+		if ( collectionAliases.getSuffixedIdentifierAlias() != null ) {
+			count++;
+		}
+		return count;
+	}
+
+	private static int length(String[] aliases) {
+		// the index aliases, for example, are null for non-indexed collections
+		return aliases == null ? 0 : aliases.length;
+	}
+
+	private static long multiply(long x, long y) {
+		// saturate rather than overflow; a plan estimated anywhere near Long.MAX_VALUE rows is "huge" either way
+		if ( x != 0 && y > Long.MAX_VALUE / x ) {
+			return Long.MAX_VALUE;
+		}
+		return x * y;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+import org.hibernate.internal.util.StringHelper;
+
+/**
+ * Renders a textual "explain" of a {@link LoadPlan}: the tree of returns and fetches annotated with the estimates
+ * computed by {@link LoadPlanEstimator}.  For example:<pre>
+ * LoadPlan [rows per root ~ 10, columns per row = 12]
+ *     EntityReturn(org.acme.Poster) alias=abc, columns=3
+ *         CollectionFetch(messages) JOIN, columns=7, rows x10
+ *             EntityFetch(poster) SELECT
+ * </pre>
+ *
+ * @author Steve Ebersole
+ */
+public class LoadPlanExplainer implements ReturnVisitationStrategy {
+	private static final String INDENT = "    ";
+
+	/**
+	 * Render the explain output for the given plan.
+	 *
+	 * @param loadPlan The plan to explain
+	 * @param hints The cardinality hints to use in estimating
+	 *
+	 * @return The rendered explain output
+	 */
+	public static String explain(LoadPlan loadPlan, CardinalityHints hints) {
+		final LoadPlanExplainer explainer = new LoadPlanExplainer( hints );
+		explainer.buffer.append( "LoadPlan [rows per root ~ " )
+				.append( LoadPlanEstimator.estimateRowMultiplicity( loadPlan, hints ) )
+				.append( ", columns per row = " )
+				.append( LoadPlanEstimator.estimateColumnWidth( loadPlan ) )
+				.append( ']' );
+		ReturnVisitor.visit( loadPlan.getReturns().toArray( new Return[ loadPlan.getReturns().size() ] ), explainer );
+		return explainer.buffer.toString();
+	}
+
+	private final CardinalityHints hints;
+	private final StringBuilder buffer = new StringBuilder();
+	private int depth = 1;
+
+	private LoadPlanExplainer(CardinalityHints hints) {
+		this.hints = hints;
+	}
+
+	@Override
+	public void start() {
+	}
+
+	@Override
+	public void finish() {
+	}
+
+	@Override
+	public void startingRootReturn(Return rootReturn) {
+	}
+
+	@Override
+	public void finishingRootReturn(Return rootReturn) {
+	}
+
+	@Override
+	public void handleScalarReturn(ScalarReturn scalarReturn) {
+		newLine().append( "ScalarReturn(" ).append( scalarReturn.getColumnAlias() ).append( ')' );
+	}
+
+	@Override
+	public void handleEntityReturn(EntityReturn rootEntityReturn) {
+		newLine().append( "EntityReturn(" )
+				.append( rootEntityReturn.getEntityPersister().getEntityName() )
+				.append( ") alias=" ).append( rootEntityReturn.getAlias() );
+		appendColumns( rootEntityReturn );
+	}
+
+	@Override
+	public void handleCollectionReturn(CollectionReturn rootCollectionReturn) {
+		newLine().append( "CollectionReturn(" )
+				.append( rootCollectionReturn.getCollectionPersister().getRole() )
+				.append( ") alias=" ).append( rootCollectionReturn.getAlias() );
+		appendColumns( rootCollectionReturn );
+		appendMultiplier( rootCollectionReturn );
+	}
+
+	@Override
+	public void startingFetches(FetchOwner fetchOwner) {
+		depth++;
+	}
+
+	@Override
+	public void finishingFetches(FetchOwner fetchOwner) {
+		depth--;
+	}
+
+	@Override
+	public void startingEntityFetch(EntityFetch entityFetch) {
+		appendFetch( entityFetch );
+	}
+
+	@Override
+	public void finishingEntityFetch(EntityFetch entityFetch) {
+	}
+
+	@Override
+	public void startingCollectionFetch(CollectionFetch collectionFetch) {
+		appendFetch( collectionFetch );
+		if ( LoadPlanEstimator.isJoined( collectionFetch ) ) {
+			appendMultiplier( collectionFetch );
+		}
+	}
+
+	@Override
+	public void finishingCollectionFetch(CollectionFetch collectionFetch) {
+	}
+
+	@Override
+	public void startingCompositeFetch(CompositeFetch fetch) {
+		newLine().append( "CompositeFetch(" ).append( fetch.getOwnerPropertyName() ).append( ')' );
+	}
+
+	@Override
+	public void finishingCompositeFetch(CompositeFetch fetch) {
+	}
+
+	private StringBuilder newLine() {
+		return buffer.append( '\n' ).append( StringHelper.repeat( INDENT, depth ) );
+	}
+
+	private void appendFetch(Fetch fetch) {
+		newLine().append( StringHelper.unqualify( fetch.getClass().getName() ) )
+				.append( '(' ).append( fetch.getOwnerPropertyName() ).append( ") " )
+				.append( fetch.getFetchStrategy().getStyle() );
+		if ( LoadPlanEstimator.isJoined( fetch ) ) {
+			appendColumns( fetch );
+		}
+	}
+
+	private void appendColumns(Object node) {
+		buffer.append( ", columns=" ).append( LoadPlanEstimator.countColumns( node ) );
+	}
+
+	private void appendMultiplier(CollectionReference collectionReference) {
+		buffer.append( ", rows x" ).append( LoadPlanEstimator.multiplier( collectionReference, hints ) );
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2012, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes executing a {@link LoadPlan} as multiple JDBC result sets returned by a single statement (or statement
+ * batch), instead of joining all collections into a single result.  The first result holds the root rows (along
+ * with all joined non-collection fetches); then each joined {@link CollectionFetch} gets a result of its own, holding
+ * the collection rows keyed by their owner's key (plus the joined fetches of its elements).
+ * <p/>
+ * Collection segments are ordered such that the results holding the owners of a collection always precede the
+ * collection's own result, so collections can be stitched to their (already resolved) owners by key.  The total
+ * number of rows is then the sum, rather than the product, of the collection sizes.
+ *
+ * @author Steve Ebersole
+ */
+public class MultipleResultSetPlan {
+	private final LoadPlan loadPlan;
+	private final List<CollectionSegment> collectionSegments;
+	private final Map<Fetch,CollectionSegment> segmentByFetch;
+
+	private MultipleResultSetPlan(
+			LoadPlan loadPlan,
+			List<CollectionSegment> collectionSegments,
+			Map<Fetch,CollectionSegment> segmentByFetch) {
+		this.loadPlan = loadPlan;
+		this.collectionSegments = Collections.unmodifiableList( collectionSegments );
+		this.segmentByFetch = segmentByFetch;
+	}
+
+	/**
+	 * Segment the given plan, giving each joined collection fetch its own result.
+	 *
+	 * @param loadPlan The plan to segment
+	 *
+	 * @return The segmented plan
+	 */
+	public static MultipleResultSetPlan forLoadPlan(LoadPlan loadPlan) {
+		final List<CollectionSegment> collectionSegments = new ArrayList<CollectionSegment>();
+		final Map<Fetch,CollectionSegment> segmentByFetch = new IdentityHashMap<Fetch, CollectionSegment>();
+		for ( Return rtn : loadPlan.getReturns() ) {
+			if ( FetchOwner.class.isInstance( rtn ) ) {
+				segment( (FetchOwner) rtn, null, collectionSegments, segmentByFetch );
+			}
+		}
+		return new MultipleResultSetPlan( loadPlan, collectionSegments, segmentByFetch );
+	}
+
+	private static void segment(
+			FetchOwner fetchOwner,
+			CollectionSegment currentSegment,
+			List<CollectionSegment> collectionSegments,
+			Map<Fetch,CollectionSegment> segmentByFetch) {
+		for ( Fetch fetch : fetchOwner.getFetches() ) {
+			if ( ! LoadPlanEstimator.isJoined( fetch ) ) {
+				continue;
+			}
+			CollectionSegment fetchSegment = currentSegment;
+			if ( CollectionFetch.class.isInstance( fetch ) ) {
+				fetchSegment = new CollectionSegment(
+						collectionSegments.size() + 1,
+						(CollectionFetch) fetch,
+						currentSegment
+				);
+				collectionSegments.add( fetchSegment );
+			}
+			if ( fetchSegment != null ) {
+				segmentByFetch.put( fetch, fetchSegment );
+			}
+			segment( fetch, fetchSegment, collectionSegments, segmentByFetch );
+		}
+	}
+
+	/**
+	 * Should the given plan be executed as multiple results, rather than as a single joined result?  This is the
+	 * case when the plan joins multiple collections and the segmented execution is estimated to read fewer rows.
+	 *
+	 * @param loadPlan The plan
+	 * @param hints The cardinality hints
+	 *
+	 * @return {@code true} if multiple results are estimated to be cheaper
+	 */
+	public static boolean isBeneficial(LoadPlan loadPlan, CardinalityHints hints) {
+		final MultipleResultSetPlan segmented = forLoadPlan( loadPlan );
+		return segmented.getCollectionSegments().size() > 1
+				&& segmented.estimateRowCount( hints ) < LoadPlanEstimator.estimateRowMultiplicity( loadPlan, hints );
+	}
+
+	public LoadPlan getLoadPlan() {
+		return loadPlan;
+	}
+
+	/**
+	 * The collection segments, in the order their results are expected.
+	 *
+	 * @return The collection segments
+	 */
+	public List<CollectionSegment> getCollectionSegments() {
+		return collectionSegments;
+	}
+
+	/**
+	 * The total number of results, including the root result.
+	 *
+	 * @return The number of results
+	 */
+	public int getResultSetCount() {
+		return collectionSegments.size() + 1;
+	}
+
+	/**
+	 * Locate the segment whose result holds the columns of the given (joined) fetch.
+	 *
+	 * @param fetch The fetch
+	 *
+	 * @return The collection segment, or {@code null} if the fetch is part of the root result
+	 */
+	public CollectionSegment locateSegment(Fetch fetch) {
+		return segmentByFetch.get( fetch );
+	}
+
+	/**
+	 * Estimate the number of JDBC rows read, across all results, per root result.
+	 *
+	 * @param hints The cardinality hints
+	 *
+	 * @return The estimated row count
+	 */
+	public long estimateRowCount(CardinalityHints hints) {
+		long rowCount = 1;
+		for ( CollectionSegment segment : collectionSegments ) {
+			rowCount += segment.estimateRowCount( hints );
+			if ( rowCount < 0 ) {
+				return Long.MAX_VALUE;
+			}
+		}
+		return rowCount;
+	}
+
+	/**
+	 * A result holding the rows of a single joined collection.
+	 */
+	public static class CollectionSegment {
+		private final int position;
+		private final CollectionFetch collectionFetch;
+		private final CollectionSegment ownerSegment;
+
+		private CollectionSegment(int position, CollectionFetch collectionFetch, CollectionSegment ownerSegment) {
+			this.position = position;
+			this.collectionFetch = collectionFetch;
+			this.ownerSegment = ownerSegment;
+		}
+
+		/**
+		 * The (zero-based) position of this segment's result among all results; the root result being 0.
+		 *
+		 * @return The result position
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		public CollectionFetch getCollectionFetch() {
+			return collectionFetch;
+		}
+
+		/**
+		 * The segment holding the owners of this segment's collection.
+		 *
+		 * @return The owner segment, or {@code null} if the owners are part of the root result
+		 */
+		public CollectionSegment getOwnerSegment() {
+			return ownerSegment;
+		}
+
+		/**
+		 * The aliases of the owner key columns, by which rows of this segment are stitched to their owner.
+		 *
+		 * @return The owner key column aliases
+		 */
+		public String[] getOwnerKeyColumnAliases() {
+			return collectionFetch.getCollectionAliases().getSuffixedKeyAliases();
+		}
+
+		/**
+		 * Estimate the rows of this segment's result per root result.
+		 *
+		 * @param hints The cardinality hints
+		 *
+		 * @return The estimated row count
+		 */
+		public long estimateRowCount(CardinalityHints hints) {
+			long rowCount = LoadPlanEstimator.multiplier( collectionFetch, hints );
+			CollectionSegment owner = ownerSegment;
+			while ( owner != null ) {
+				final long multiplier = LoadPlanEstimator.multiplier( owner.collectionFetch, hints );
+				rowCount = rowCount > Long.MAX_VALUE / multiplier ? Long.MAX_VALUE : rowCount * multiplier;
+				owner = owner.ownerSegment;
+			}
+			return rowCount;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2012, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.engine.FetchStrategy;
+
+/**
+ * The structure of a {@link FetchOwner} subtree, independent of the plan it occurs in : the persister (entity name or
+ * collection role), the owner property, the fetch strategy, the fetch group and, recursively, the shapes of its
+ * fetches.  Aliases and alias suffixes are not part of the shape.
+ * <p/>
+ * Shapes are immutable and carry a precomputed 64-bit structural {@link #getFingerprint() fingerprint}.  Interned
+ * shapes (see {@link org.hibernate.loader.plan.internal.SubtreeInterningTable}) are shared between all plans
+ * containing structurally identical subtrees, and can hold artifacts compiled for the subtree (such as its column
+ * width) so those are shared as well.  Since plans sharing a shape differ in aliases, alias suffixes and lock modes,
+ * only artifacts independent of those may be registered; readers or SQL fragments rendering aliases may not.
+ *
+ * @author Steve Ebersole
+ */
+public class SubtreeShape {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final String kind;
+	private final String role;
+	private final String ownerProperty;
+	private final FetchStrategy fetchStrategy;
+	private final FetchGroup fetchGroup;
+	private final SubtreeShape[] fetchShapes;
+	private final long fingerprint;
+
+	private final ConcurrentMap<Object,Object> compiledArtifacts = new ConcurrentHashMap<Object, Object>();
+
+	public SubtreeShape(
+			String kind,
+			String role,
+			String ownerProperty,
+			FetchStrategy fetchStrategy,
+			FetchGroup fetchGroup,
+			SubtreeShape[] fetchShapes) {
+		this.kind = kind;
+		this.role = role;
+		this.ownerProperty = ownerProperty;
+		this.fetchStrategy = fetchStrategy;
+		this.fetchGroup = fetchGroup;
+		this.fetchShapes = fetchShapes;
+		this.fingerprint = computeFingerprint();
+	}
+
+	/**
+	 * Describe the shape of the given subtree.  Note that the shapes of the fetches are not interned.
+	 *
+	 * @param fetchOwner The root of the subtree
+	 *
+	 * @return The shape
+	 */
+	public static SubtreeShape of(FetchOwner fetchOwner) {
+		final Fetch[] fetches = fetchOwner.getFetches();
+		final SubtreeShape[] fetchShapes = new SubtreeShape[ fetches.length ];
+		for ( int i = 0; i < fetches.length; i++ ) {
+			fetchShapes[i] = of( fetches[i] );
+		}
+		return of( fetchOwner, fetchShapes );
+	}
+
+	/**
+	 * Describe the shape of the given subtree node, given the (possibly interned) shapes of its fetches.
+	 *
+	 * @param fetchOwner The root of the subtree
+	 * @param fetchShapes The shapes of its fetches, in order
+	 *
+	 * @return The shape
+	 */
+	public static SubtreeShape of(FetchOwner fetchOwner, SubtreeShape[] fetchShapes) {
+		final String role;
+		FetchGroup fetchGroup = null;
+		if ( EntityReference.class.isInstance( fetchOwner ) ) {
+			role = ( (EntityReference) fetchOwner ).getEntityPersister().getEntityName();
+			fetchGroup = ( (EntityReference) fetchOwner ).getFetchGroup();
+		}
+		else if ( CollectionReference.class.isInstance( fetchOwner ) ) {
+			role = ( (CollectionReference) fetchOwner ).getCollectionPersister().getRole();
+		}
+		else {
+			role = fetchOwner.retrieveFetchSourcePersister().getEntityName();
+		}
+
+		String ownerProperty = null;
+		FetchStrategy fetchStrategy = null;
+		if ( Fetch.class.isInstance( fetchOwner ) ) {
+			ownerProperty = ( (Fetch) fetchOwner ).getOwnerPropertyName();
+			fetchStrategy = ( (Fetch) fetchOwner ).getFetchStrategy();
+		}
+
+		return new SubtreeShape(
+				fetchOwner.getClass().getSimpleName(),
+				role,
+				ownerProperty,
+				fetchStrategy,
+				fetchGroup,
+				fetchShapes
+		);
+	}
+
+	private long computeFingerprint() {
+		long hash = FNV_OFFSET_BASIS;
+		hash = mix( hash, kind );
+		hash = mix( hash, role );
+		hash = mix( hash, ownerProperty );
+		if ( fetchStrategy != null ) {
+			hash = mix( hash, fetchStrategy.getTiming().name() );
+			hash = mix( hash, fetchStrategy.getStyle().name() );
+		}
+		hash = ( hash ^ ( fetchGroup == null ? 0 : fetchGroup.hashCode() ) ) * FNV_PRIME;
+		for ( SubtreeShape fetchShape : fetchShapes ) {
+			hash = ( hash ^ fetchShape.fingerprint ) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static long mix(long hash, String value) {
+		if ( value == null ) {
+			return ( hash ^ 0xff ) * FNV_PRIME;
+		}
+		for ( int i = 0; i < value.length(); i++ ) {
+			hash = ( hash ^ value.charAt( i ) ) * FNV_PRIME;
+		}
+		return ( hash ^ 0xfe ) * FNV_PRIME;
+	}
+
+	/**
+	 * The structural fingerprint of this subtree; equal shapes always have equal fingerprints.
+	 *
+	 * @return The fingerprint
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	public String getRole() {
+		return role;
+	}
+
+	public String getOwnerProperty() {
+		return ownerProperty;
+	}
+
+	public FetchStrategy getFetchStrategy() {
+		return fetchStrategy;
+	}
+
+	public FetchGroup getFetchGroup() {
+		return fetchGroup;
+	}
+
+	public SubtreeShape[] getFetchShapes() {
+		return fetchShapes;
+	}
+
+	/**
+	 * Access an artifact compiled for this subtree.
+	 *
+	 * @param key The artifact key
+	 *
+	 * @return The artifact, or {@code null}
+	 */
+	public Object getCompiledArtifact(Object key) {
+		return compiledArtifacts.get( key );
+	}
+
+	/**
+	 * Register an artifact compiled for this subtree, unless one was already registered under the key.  The artifact
+	 * must depend only on the shape : not on aliases, alias suffixes or lock modes.
+	 *
+	 * @param key The artifact key
+	 * @param artifact The artifact
+	 *
+	 * @return The registered artifact; either the given one or the one previously registered
+	 */
+	public Object registerCompiledArtifact(Object key, Object artifact) {
+		final Object existing = compiledArtifacts.putIfAbsent( key, artifact );
+		return existing == null ? artifact : existing;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if ( this == o ) {
+			return true;
+		}
+		if ( o == null || getClass() != o.getClass() ) {
+			return false;
+		}
+		final SubtreeShape that = (SubtreeShape) o;
+		return fingerprint == that.fingerprint
+				&& kind.equals( that.kind )
+				&& role.equals( that.role )
+				&& equal( ownerProperty, that.ownerProperty )
+				&& equal( fetchGroup, that.fetchGroup )
+				&& sameFetchStrategy( fetchStrategy, that.fetchStrategy )
+				// interned fetch shapes compare by identity first
+				&& Arrays.equals( fetchShapes, that.fetchShapes );
+	}
+
+	private static boolean sameFetchStrategy(FetchStrategy x, FetchStrategy y) {
+		if ( x == null || y == null ) {
+			return x == y;
+		}
+		return x.getTiming() == y.getTiming() && x.getStyle() == y.getStyle();
+	}
+
+	private static boolean equal(Object x, Object y) {
+		return x == null ? y == null : x.equals( y );
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) ( fingerprint ^ ( fingerprint >>> 32 ) );
+	}
+
+	@Override
+	public String toString() {
+		return "SubtreeShape(" + role + ( ownerProperty == null ? "" : "." + ownerProperty ) + ")";
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.spi;
+
+import java.sql.CallableStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionImplementor;
+
+/**
+ * Contract for executing a stored procedure call and feeding each of its results (returned ResultSets and/or ref
+ * cursors) to the LoadPlan based {@link ResultSetProcessor} responsible for it.
+ *
+ * @author Steve Ebersole
+ */
+public interface CallableStatementExecutor {
+	/**
+	 * Prepare the call.  The caller is responsible for binding the IN parameters; ref cursor OUT parameters are
+	 * registered as part of {@link #execute}.
+	 *
+	 * @param callString The call string, e.g. {@code {call load_order_aggregate(?,?)}}
+	 * @param session The originating session
+	 *
+	 * @return The prepared call
+	 */
+	public CallableStatement prepareCall(String callString, SessionImplementor session);
+
+	/**
+	 * Execute the prepared call, processing each result.  The statement is released once done.
+	 *
+	 * @param statement The prepared call, with IN parameters bound
+	 * @param results Descriptors of the call's results
+	 * @param session The originating session
+	 * @param queryParameters The "parameters" used to build the query
+	 * @param returnProxies Can proxies be returned (not the same as can they be created!)
+	 *
+	 * @return The extracted results of each result descriptor, in the order of the descriptors
+	 *
+	 * @throws SQLException Indicates a problem executing the call or accessing its results
+	 */
+	public List<List> execute(
+			CallableStatement statement,
+			List<ProcedureResult> results,
+			SessionImplementor session,
+			QueryParameters queryParameters,
+			boolean returnProxies) throws SQLException;
+}
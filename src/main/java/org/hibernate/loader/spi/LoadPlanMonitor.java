@@ -0,0 +1,97 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.spi;
+
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilderStrategy;
+
+/**
+ * Contract for diagnostic monitoring of the load lifecycle: building of {@link LoadPlan} instances, processing of the
+ * ResultSets produced by executing them and any follow-on fetches they trigger.  Intended as the hook for feeding
+ * flight-recorder style event streams so that slow requests can be correlated to specific plans.
+ * <p/>
+ * Monitoring is disabled by default (see {@link NoOpLoadPlanMonitor}).  Callers are expected to check
+ * {@link #isEnabled()} before collecting any of the information passed to the notification methods (timings, counts,
+ * etc) so that there is no cost when nothing is being recorded.
+ *
+ * @author Steve Ebersole
+ */
+public interface LoadPlanMonitor {
+	/**
+	 * Is this monitor currently recording?  When {@code false}, callers should skip collecting timings and counts
+	 * entirely.
+	 *
+	 * @return {@code true} if notifications should be sent; {@code false} otherwise.
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Notification that a LoadPlan was built.
+	 *
+	 * @param loadPlan The built plan
+	 * @param rootRole The entity name or collection role at the root of the plan
+	 * @param strategy The strategy used to shape the plan
+	 * @param nodeCount The number of nodes (returns and fetches) in the plan
+	 * @param durationNanos The time spent building the plan, in nanoseconds
+	 */
+	public void loadPlanBuilt(
+			LoadPlan loadPlan,
+			String rootRole,
+			LoadPlanBuilderStrategy strategy,
+			int nodeCount,
+			long durationNanos);
+
+	/**
+	 * Notification that a {@link ResultSetProcessor} finished processing the results of executing a LoadPlan.
+	 *
+	 * @param loadPlan The plan whose results were processed
+	 * @param rowCount The number of JDBC rows read
+	 * @param rootCount The number of root results extracted
+	 * @param fetchCount The number of fetched entity/collection instances resolved across all rows (fetch fan-out)
+	 * @param durationNanos The time spent processing, in nanoseconds
+	 */
+	public void resultSetProcessed(
+			LoadPlan loadPlan,
+			int rowCount,
+			int rootCount,
+			int fetchCount,
+			long durationNanos);
+
+	/**
+	 * Notification that a follow-on fetch (subsequent select, batch or subselect) was performed as part of a load.
+	 *
+	 * @param role The entity name or collection role being fetched
+	 * @param keyCount The number of keys fetched
+	 * @param durationNanos The time spent performing the fetch, in nanoseconds
+	 */
+	public void followOnFetchPerformed(String role, int keyCount, long durationNanos);
+
+	/**
+	 * Notification that a collection was loaded (initialized) as part of a load.
+	 *
+	 * @param role The collection role
+	 * @param size The number of elements loaded into the collection
+	 */
+	public void collectionLoaded(String role, int size);
+}
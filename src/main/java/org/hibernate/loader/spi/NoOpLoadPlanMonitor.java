@@ -0,0 +1,70 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.spi;
+
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilderStrategy;
+
+/**
+ * The default {@link LoadPlanMonitor}; never records anything.
+ *
+ * @author Steve Ebersole
+ */
+public class NoOpLoadPlanMonitor implements LoadPlanMonitor {
+	/**
+	 * Singleton access
+	 */
+	public static final NoOpLoadPlanMonitor INSTANCE = new NoOpLoadPlanMonitor();
+
+	@Override
+	public boolean isEnabled() {
+		return false;
+	}
+
+	@Override
+	public void loadPlanBuilt(
+			LoadPlan loadPlan,
+			String rootRole,
+			LoadPlanBuilderStrategy strategy,
+			int nodeCount,
+			long durationNanos) {
+	}
+
+	@Override
+	public void resultSetProcessed(
+			LoadPlan loadPlan,
+			int rowCount,
+			int rootCount,
+			int fetchCount,
+			long durationNanos) {
+	}
+
+	@Override
+	public void followOnFetchPerformed(String role, int keyCount, long durationNanos) {
+	}
+
+	@Override
+	public void collectionLoaded(String role, int size) {
+	}
+}
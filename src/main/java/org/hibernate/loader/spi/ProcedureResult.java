@@ -0,0 +1,99 @@
+/*
+ * Hibernate, Relational Persistence for Idiomatic Java
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.spi;
+
+import org.hibernate.transform.ResultTransformer;
+
+/**
+ * Describes one of the results produced by executing a stored procedure, and the {@link ResultSetProcessor} used to
+ * process it.  A result is either<ul>
+ *     <li>a ResultSet <i>returned</i> by the execution (in the order returned, skipping update counts), or</li>
+ *     <li>a <i>ref cursor</i> OUT parameter at a given position of the call</li>
+ * </ul>
+ *
+ * @author Steve Ebersole
+ */
+public class ProcedureResult {
+	private final int refCursorPosition;
+	private final ResultSetProcessor resultSetProcessor;
+	private final ResultTransformer resultTransformer;
+
+	private ProcedureResult(
+			int refCursorPosition,
+			ResultSetProcessor resultSetProcessor,
+			ResultTransformer resultTransformer) {
+		this.refCursorPosition = refCursorPosition;
+		this.resultSetProcessor = resultSetProcessor;
+		this.resultTransformer = resultTransformer;
+	}
+
+	/**
+	 * Describes the next ResultSet returned by the execution.
+	 *
+	 * @param resultSetProcessor The processor for the ResultSet
+	 * @param resultTransformer The transformer to force on the results; may be {@code null}
+	 *
+	 * @return The result descriptor
+	 */
+	public static ProcedureResult returnedResultSet(
+			ResultSetProcessor resultSetProcessor,
+			ResultTransformer resultTransformer) {
+		return new ProcedureResult( -1, resultSetProcessor, resultTransformer );
+	}
+
+	/**
+	 * Describes a ref cursor OUT parameter.
+	 *
+	 * @param position The (1-based) parameter position of the ref cursor within the call
+	 * @param resultSetProcessor The processor for the ref cursor's ResultSet
+	 * @param resultTransformer The transformer to force on the results; may be {@code null}
+	 *
+	 * @return The result descriptor
+	 */
+	public static ProcedureResult refCursor(
+			int position,
+			ResultSetProcessor resultSetProcessor,
+			ResultTransformer resultTransformer) {
+		if ( position < 1 ) {
+			throw new IllegalArgumentException( "Ref cursor parameter position must be positive : " + position );
+		}
+		return new ProcedureResult( position, resultSetProcessor, resultTransformer );
+	}
+
+	public boolean isRefCursor() {
+		return refCursorPosition > 0;
+	}
+
+	public int getRefCursorPosition() {
+		return refCursorPosition;
+	}
+
+	public ResultSetProcessor getResultSetProcessor() {
+		return resultSetProcessor;
+	}
+
+	public ResultTransformer getResultTransformer() {
+		return resultTransformer;
+	}
+}
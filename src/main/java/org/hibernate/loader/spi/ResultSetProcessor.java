@@ -36,6 +36,8 @@ import org.hibernate.transform.ResultTransformer;
  *
  * NOTE : these methods initially taken directly from {@link org.hibernate.loader.Loader} counterparts in an effort
  * to break Loader into manageable pieces, especially in regards to the processing of result sets.
+ * <p/>
+ * Implementations report their processing to the {@link LoadPlanMonitor} they were given, if it is enabled.
  *
  * @author Steve Ebersole
  */
@@ -47,13 +47,32 @@ import static org.hibernate.engine.internal.JoinHelper.getRHSColumnNames;
  * @author Steve Ebersole
  */
 public abstract class AbstractCompositeDefinition extends AbstractAttributeDefinition implements CompositeDefinition {
+	private final int columnOffset;
+
 	protected AbstractCompositeDefinition(
 			AttributeSource source,
 			SessionFactoryImplementor sessionFactory,
 			int attributeNumber,
 			String attributeName,
 			CompositeType attributeType) {
+		this( source, sessionFactory, attributeNumber, attributeName, attributeType, 0 );
+	}
+
+	/**
+	 * Constructor for composites which do not start at the first column of their source : composites nested in
+	 * other composites, or in an embedded composite identifier.
+	 *
+	 * @param columnOffset The position of the composite's first column amongst the columns of its source
+	 */
+	protected AbstractCompositeDefinition(
+			AttributeSource source,
+			SessionFactoryImplementor sessionFactory,
+			int attributeNumber,
+			String attributeName,
+			CompositeType attributeType,
+			int columnOffset) {
 		super( source, sessionFactory, attributeNumber, attributeName, attributeType );
+		this.columnOffset = columnOffset;
 	}
 
 	@Override
@@ -89,36 +108,15 @@ public abstract class AbstractCompositeDefinition extends AbstractAttributeDefin
 
 						if ( type.isAssociationType() ) {
 							// we build the association-key here because of the "goofiness" with 'currentColumnPosition'
-							final AssociationKey associationKey;
-							final AssociationType aType = (AssociationType) type;
-							final Joinable joinable = aType.getAssociatedJoinable( sessionFactory() );
-							if ( aType.getForeignKeyDirection() == ForeignKeyDirection.FOREIGN_KEY_FROM_PARENT ) {
-								associationKey = new AssociationKey(
-										getLHSTableName(
-												aType,
-												attributeNumber(),
-												(OuterJoinLoadable) joinable
-										),
-										getLHSColumnNames(
-												aType,
-												attributeNumber(),
-												columnPosition,
-												(OuterJoinLoadable) joinable,
-												sessionFactory()
-										)
-								);
-							}
-							else {
-								associationKey = new AssociationKey(
-										joinable.getTableName(),
-										getRHSColumnNames( aType, sessionFactory() )
-								);
-							}
+							final AssociationKey associationKey = determineAssociationKey(
+									(AssociationType) type,
+									columnPosition
+							);
 
 							return new CompositeBasedAssociationAttribute(
 									AbstractCompositeDefinition.this,
 									sessionFactory(),
-									attributeNumber(),
+									attributeNumber,
 									associationKey,
 									name,
 									(AssociationType) type,
@@ -129,16 +127,17 @@ public abstract class AbstractCompositeDefinition extends AbstractAttributeDefin
 							return new CompositeBasedCompositeAttribute(
 									AbstractCompositeDefinition.this,
 									sessionFactory(),
-									attributeNumber(),
+									attributeNumber,
 									name,
-									(CompositeType) type
+									(CompositeType) type,
+									columnPosition
 							);
 						}
 						else {
 							return new CompositeBasedBasicAttribute(
 									AbstractCompositeDefinition.this,
 									sessionFactory(),
-									attributeNumber(),
+									attributeNumber,
 									name,
 									type
 							);
@@ -154,13 +153,74 @@ public abstract class AbstractCompositeDefinition extends AbstractAttributeDefin
 		};
 	}
 
+	/**
+	 * Determine the key of an association which is part of this composite.
+	 * <p/>
+	 * The foreign key of an association from this composite is a slice of the composite's columns.  Nested composites
+	 * defer to their enclosing composite, shifting the position by their own column offset; the outermost composite
+	 * takes the slice from the columns of its entity property (or of the entity identifier).
+	 *
+	 * @param aType The association type
+	 * @param columnPosition The position of the association's first column amongst the columns of this composite
+	 *
+	 * @return The association key
+	 */
+	protected AssociationKey determineAssociationKey(AssociationType aType, int columnPosition) {
+		if ( aType.getForeignKeyDirection() == ForeignKeyDirection.FOREIGN_KEY_FROM_PARENT ) {
+			if ( AbstractCompositeDefinition.class.isInstance( getSource() ) ) {
+				return ( (AbstractCompositeDefinition) getSource() ).determineAssociationKey(
+						aType,
+						columnOffset + columnPosition
+				);
+			}
+			final OuterJoinLoadable owner = (OuterJoinLoadable) locateOwningPersister();
+			return new AssociationKey(
+					getLHSTableName( aType, attributeNumber(), owner ),
+					getLHSColumnNames( aType, attributeNumber(), columnOffset + columnPosition, owner, sessionFactory() )
+			);
+		}
+		else {
+			final Joinable joinable = aType.getAssociatedJoinable( sessionFactory() );
+			return new AssociationKey(
+					joinable.getTableName(),
+					getRHSColumnNames( aType, sessionFactory() )
+			);
+		}
+	}
+
+	/**
+	 * Locate the name of the entity attribute this composite is part of : the name of the outermost composite.
+	 *
+	 * @return The attribute name, or {@code null} for composites which are not owned by an entity
+	 */
+	public String locateOwningAttributeName() {
+		if ( EntityDefinition.class.isInstance( getSource() ) ) {
+			return getName();
+		}
+		else if ( AbstractCompositeDefinition.class.isInstance( getSource() ) ) {
+			return ( (AbstractCompositeDefinition) getSource() ).locateOwningAttributeName();
+		}
+		else {
+			return null;
+		}
+	}
+
+	/**
+	 * Locate the persister of the entity owning this composite (directly or through enclosing composites).
+	 *
+	 * @return The owning entity persister, or {@code null} for composites which are not owned by an entity
+	 * (collection elements and indexes).
+	 */
 	public EntityPersister locateOwningPersister() {
 		if ( EntityDefinition.class.isInstance( getSource() ) ) {
 			return ( (EntityDefinition) getSource() ).getEntityPersister();
 		}
-		else {
+		else if ( AbstractCompositeDefinition.class.isInstance( getSource() ) ) {
 			return ( (AbstractCompositeDefinition) getSource() ).locateOwningPersister();
 		}
+		else {
+			return null;
+		}
 	}
 }
 
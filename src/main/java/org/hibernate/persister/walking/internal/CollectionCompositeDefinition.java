@@ -0,0 +1,98 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.persister.walking.internal;
+
+import org.hibernate.internal.util.collections.ArrayHelper;
+import org.hibernate.persister.collection.CollectionPropertyNames;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.Joinable;
+import org.hibernate.persister.walking.spi.AssociationKey;
+import org.hibernate.persister.walking.spi.CollectionDefinition;
+import org.hibernate.type.AssociationType;
+import org.hibernate.type.CompositeType;
+import org.hibernate.type.ForeignKeyDirection;
+
+import static org.hibernate.engine.internal.JoinHelper.getRHSColumnNames;
+
+/**
+ * The composite elements or the composite index of a collection.  Such a composite has no attribute source; its
+ * columns are the element (or index) columns of the collection table.
+ *
+ * @author Steve Ebersole
+ */
+public class CollectionCompositeDefinition extends AbstractCompositeDefinition {
+	/**
+	 * The attribute number of collection composites, which are no attributes of an entity (let alone persister
+	 * properties); distinct from {@link EntityDefinitionImpl#IDENTIFIER_ATTRIBUTE_NUMBER}.
+	 */
+	public static final int COLLECTION_COMPOSITE_ATTRIBUTE_NUMBER = -2;
+
+	private final CollectionDefinition collectionDefinition;
+	private final boolean index;
+
+	public CollectionCompositeDefinition(CollectionDefinition collectionDefinition, boolean index) {
+		super(
+				null,
+				collectionDefinition.getCollectionPersister().getFactory(),
+				COLLECTION_COMPOSITE_ATTRIBUTE_NUMBER,
+				index ? CollectionPropertyNames.COLLECTION_INDICES : CollectionPropertyNames.COLLECTION_ELEMENTS,
+				(CompositeType) ( index
+						? collectionDefinition.getCollectionPersister().getIndexType()
+						: collectionDefinition.getCollectionPersister().getElementType() )
+		);
+		this.collectionDefinition = collectionDefinition;
+		this.index = index;
+	}
+
+	public CollectionDefinition getCollectionDefinition() {
+		return collectionDefinition;
+	}
+
+	public boolean isIndex() {
+		return index;
+	}
+
+	@Override
+	protected AssociationKey determineAssociationKey(AssociationType aType, int columnPosition) {
+		final QueryableCollection persister = (QueryableCollection) collectionDefinition.getCollectionPersister();
+		if ( aType.getForeignKeyDirection() == ForeignKeyDirection.FOREIGN_KEY_FROM_PARENT ) {
+			// the foreign key is a slice of the collection table's element (index) columns
+			final String[] columns = index ? persister.getIndexColumnNames() : persister.getElementColumnNames();
+			return new AssociationKey(
+					persister.getTableName(),
+					ArrayHelper.slice( columns, columnPosition, aType.getColumnSpan( sessionFactory() ) )
+			);
+		}
+		else {
+			final Joinable joinable = aType.getAssociatedJoinable( sessionFactory() );
+			return new AssociationKey( joinable.getTableName(), getRHSColumnNames( aType, sessionFactory() ) );
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CollectionCompositeDefinition(" + collectionDefinition.getCollectionPersister().getRole() + '.'
+				+ getName() + ")";
+	}
+}
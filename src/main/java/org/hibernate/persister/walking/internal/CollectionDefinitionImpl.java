@@ -41,10 +41,32 @@ import org.hibernate.type.Type;
 public class CollectionDefinitionImpl implements CollectionDefinition {
 	private final QueryableCollection persister;
 
+	// the composite definitions are immutable, so build them once and share them across walks
+	private volatile CompositeDefinition elementCompositeDefinition;
+	private volatile CompositeDefinition indexCompositeDefinition;
+
 	public CollectionDefinitionImpl(CollectionPersister persister) {
 		this.persister = (QueryableCollection) persister;
 	}
 
+	private CompositeDefinition getElementCompositeDefinition() {
+		CompositeDefinition compositeDefinition = elementCompositeDefinition;
+		if ( compositeDefinition == null ) {
+			compositeDefinition = new CollectionCompositeDefinition( this, false );
+			elementCompositeDefinition = compositeDefinition;
+		}
+		return compositeDefinition;
+	}
+
+	private CompositeDefinition getIndexCompositeDefinition() {
+		CompositeDefinition compositeDefinition = indexCompositeDefinition;
+		if ( compositeDefinition == null ) {
+			compositeDefinition = new CollectionCompositeDefinition( this, true );
+			indexCompositeDefinition = compositeDefinition;
+		}
+		return compositeDefinition;
+	}
+
 	@Override
 	public CollectionType getType() {
 		return persister.getCollectionType();
@@ -77,7 +99,7 @@ public class CollectionDefinitionImpl implements CollectionDefinition {
 				if ( getType().isComponentType() ) {
 					throw new IllegalStateException( "Cannot treat composite collection index type as entity" );
 				}
-				return new EntityDefinitionImpl(
+				return MetamodelGraph.forSessionFactory( persister.getFactory() ).getEntityDefinition(
 						(EntityPersister) ( (AssociationType) persister.getIndexType() )
 								.getAssociatedJoinable( persister.getFactory() )
 				);
@@ -88,8 +110,7 @@ public class CollectionDefinitionImpl implements CollectionDefinition {
 				if ( ! getType().isComponentType() ) {
 					throw new IllegalStateException( "Cannot treat entity collection index type as composite" );
 				}
-				// todo : implement
-				return null;
+				return getIndexCompositeDefinition();
 			}
 		};
 	}
@@ -112,7 +133,8 @@ public class CollectionDefinitionImpl implements CollectionDefinition {
 				if ( getType().isComponentType() ) {
 					throw new IllegalStateException( "Cannot treat composite collection element type as entity" );
 				}
-				return new EntityDefinitionImpl( persister.getElementPersister() );
+				return MetamodelGraph.forSessionFactory( persister.getFactory() )
+						.getEntityDefinition( persister.getElementPersister() );
 			}
 
 			@Override
@@ -120,10 +142,8 @@ public class CollectionDefinitionImpl implements CollectionDefinition {
 				if ( ! getType().isComponentType() ) {
 					throw new IllegalStateException( "Cannot treat entity collection element type as composite" );
 				}
-				// todo : implement
-				throw new RuntimeException( "Not yet implemented" );
+				return getElementCompositeDefinition();
 			}
 		};
 	}
-
 }
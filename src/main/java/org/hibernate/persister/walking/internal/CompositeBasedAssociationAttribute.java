@@ -31,6 +31,7 @@ import org.hibernate.engine.spi.LoadQueryInfluencers;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.engine.FetchStrategy;
 import org.hibernate.loader.PropertyPath;
+import org.hibernate.persister.collection.CollectionPersister;
 import org.hibernate.persister.walking.spi.AssociationAttributeDefinition;
 import org.hibernate.persister.walking.spi.AssociationKey;
 import org.hibernate.persister.walking.spi.CollectionDefinition;
@@ -38,7 +39,6 @@ import org.hibernate.persister.walking.spi.EntityDefinition;
 import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.persister.entity.Joinable;
 import org.hibernate.type.AssociationType;
-import org.hibernate.type.CompositeType;
 
 /**
  * @author Steve Ebersole
@@ -89,29 +89,32 @@ public class CompositeBasedAssociationAttribute
 		if ( isCollection() ) {
 			throw new IllegalStateException( "Cannot treat collection attribute as entity type" );
 		}
-		// todo : implement
-		return null;
+		return MetamodelGraph.forSessionFactory( getSessionFactory() )
+				.getEntityDefinition( (EntityPersister) getJoinable() );
 	}
 
 	@Override
 	public CollectionDefinition toCollectionDefinition() {
-		if ( isCollection() ) {
+		if ( !isCollection() ) {
 			throw new IllegalStateException( "Cannot treat entity attribute as collection type" );
 		}
-		// todo : implement
-		return null;
+		return MetamodelGraph.forSessionFactory( getSessionFactory() )
+				.getCollectionDefinition( (CollectionPersister) getJoinable() );
 	}
 
 	@Override
 	public FetchStrategy determineFetchPlan(LoadQueryInfluencers loadQueryInfluencers, PropertyPath propertyPath) {
 		final EntityPersister owningPersister = locateOwningPersister();
 
-		FetchStyle style = determineFetchStyleByProfile(
-				loadQueryInfluencers,
-				owningPersister,
-				propertyPath,
-				getOwnerAttributeNumber()
-		);
+		// fetch profiles name entity attributes; composite collection elements/indexes are not owned by an entity
+		FetchStyle style = owningPersister == null
+				? null
+				: determineFetchStyleByProfile(
+						loadQueryInfluencers,
+						owningPersister,
+						propertyPath,
+						getSource().locateOwningAttributeName()
+				);
 		if ( style == null ) {
 			style = determineFetchStyleByMetadata(
 					getSource().getType().getFetchMode( getAttributeNumber() ),
@@ -126,12 +129,13 @@ public class CompositeBasedAssociationAttribute
 			LoadQueryInfluencers loadQueryInfluencers,
 			EntityPersister owningPersister,
 			PropertyPath propertyPath,
-			int ownerAttributeNumber) {
+			String owningAttributeName) {
+		// the owning attribute (and not the owner attribute number) also covers embedded composite identifiers
 		return Helper.determineFetchStyleByProfile(
 				loadQueryInfluencers,
 				owningPersister,
 				propertyPath,
-				ownerAttributeNumber
+				owningAttributeName
 		);
 	}
 
@@ -149,7 +153,6 @@ public class CompositeBasedAssociationAttribute
 
 	@Override
 	public CascadeStyle determineCascadeStyle() {
-		final CompositeType compositeType = (CompositeType) locateOwningPersister().getPropertyType( getName() );
-		return compositeType.getCascadeStyle( getAttributeNumber() );
+		return getSource().getType().getCascadeStyle( getAttributeNumber() );
 	}
 }
@@ -41,4 +41,14 @@ public class CompositeBasedCompositeAttribute
 			CompositeType attributeType) {
 		super( source, sessionFactory, attributeNumber, attributeName, attributeType );
 	}
+
+	public CompositeBasedCompositeAttribute(
+			CompositeDefinition source,
+			SessionFactoryImplementor sessionFactory,
+			int attributeNumber,
+			String attributeName,
+			CompositeType attributeType,
+			int columnOffset) {
+		super( source, sessionFactory, attributeNumber, attributeName, attributeType, columnOffset );
+	}
 }
@@ -0,0 +1,84 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.persister.walking.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.walking.spi.AttributeDefinition;
+import org.hibernate.persister.walking.spi.ConcreteEntityDefinition;
+import org.hibernate.persister.walking.spi.EntityDefinition;
+
+/**
+ * {@link ConcreteEntityDefinition} implementation, exposing those attributes of the entity's (polymorphic) definition
+ * which the entity itself declares or inherits.  Attributes defined on one of its subclasses are skipped.
+ *
+ * @author Steve Ebersole
+ */
+public class ConcreteEntityDefinitionImpl implements ConcreteEntityDefinition {
+	private final EntityDefinition entityDefinition;
+	private final List<AttributeDefinition> attributeDefinitions;
+
+	public ConcreteEntityDefinitionImpl(EntityDefinition entityDefinition) {
+		this.entityDefinition = entityDefinition;
+
+		// the persister's property names are exactly the attributes of the entity type itself; the (polymorphic)
+		// definition additionally exposes the attributes of all subclasses
+		final Set<String> ownAttributeNames = new HashSet<String>(
+				Arrays.asList( entityDefinition.getEntityPersister().getPropertyNames() )
+		);
+		final List<AttributeDefinition> attributeDefinitions = new ArrayList<AttributeDefinition>();
+		for ( AttributeDefinition attributeDefinition : entityDefinition.getAttributes() ) {
+			if ( ownAttributeNames.contains( attributeDefinition.getName() ) ) {
+				attributeDefinitions.add( attributeDefinition );
+			}
+		}
+		this.attributeDefinitions = Collections.unmodifiableList( attributeDefinitions );
+	}
+
+	@Override
+	public EntityPersister getEntityPersister() {
+		return entityDefinition.getEntityPersister();
+	}
+
+	@Override
+	public Iterable<AttributeDefinition> getAttributes() {
+		return attributeDefinitions;
+	}
+
+	@Override
+	public Iterable<AttributeDefinition> getEmbeddedCompositeIdentifierAttributes() {
+		return entityDefinition.getEmbeddedCompositeIdentifierAttributes();
+	}
+
+	@Override
+	public String toString() {
+		return "ConcreteEntityDefinition(" + getEntityPersister().getEntityName() + ")";
+	}
+}
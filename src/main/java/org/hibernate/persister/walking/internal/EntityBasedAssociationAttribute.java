@@ -28,8 +28,14 @@ public class EntityBasedAssociationAttribute
 		extends AbstractEntityBasedAttribute
 		implements AssociationAttributeDefinition {
 
+	private static final int UNRESOLVED = -2;
+
 	private Joinable joinable;
 
+	private MetamodelGraph graph;
+	private int sourceNodeId = UNRESOLVED;
+	private int edge = UNRESOLVED;
+
 	public EntityBasedAssociationAttribute(
 			EntityDefinition entityDefinition,
 			SessionFactoryImplementor sessionFactory,
@@ -51,8 +57,42 @@ public class EntityBasedAssociationAttribute
 		return joinable;
 	}
 
+	/**
+	 * Locate the edge in the {@link MetamodelGraph} corresponding to this attribute.
+	 *
+	 * @return {@code true} if the edge was found, in which case {@link #graph}, {@link #sourceNodeId} and
+	 * {@link #edge} are available.
+	 */
+	private boolean resolveEdge() {
+		if ( edge == UNRESOLVED ) {
+			final MetamodelGraph graph = MetamodelGraph.forSessionFactory( sessionFactory() );
+			final int nodeId = graph.getNodeId( getSource().getEntityPersister().getEntityName() );
+			if ( nodeId != MetamodelGraph.NONE
+					&& !graph.isCollectionNode( nodeId )
+					&& graph.getEntityDefinition( nodeId ).getEntityPersister() == getSource().getEntityPersister() ) {
+				this.graph = graph;
+				this.sourceNodeId = nodeId;
+				this.edge = graph.getAttributeEdge( nodeId, attributeNumber() );
+			}
+			else {
+				this.edge = MetamodelGraph.NONE;
+			}
+		}
+		return edge != MetamodelGraph.NONE;
+	}
+
 	@Override
 	public AssociationKey getAssociationKey() {
+		if ( resolveEdge() ) {
+			final AssociationKey associationKey = graph.getEdgeAssociationKey( sourceNodeId, edge );
+			if ( associationKey != null ) {
+				return associationKey;
+			}
+		}
+		return resolveAssociationKey();
+	}
+
+	AssociationKey resolveAssociationKey() {
 		final AssociationType type = getType();
 		final Joinable joinable = type.getAssociatedJoinable( sessionFactory() );
 
@@ -66,7 +106,7 @@ public class EntityBasedAssociationAttribute
 				lhsColumnNames = collectionPersister.getElementColumnNames();
 			}
 			else {
-				final OuterJoinLoadable entityPersister = (OuterJoinLoadable) joinable;
+				final OuterJoinLoadable entityPersister = (OuterJoinLoadable) getSource().getEntityPersister();
 				lhsTableName = getLHSTableName( type, attributeNumber(), entityPersister );
 				lhsColumnNames = getLHSColumnNames( type, attributeNumber(), entityPersister, sessionFactory() );
 			}
@@ -79,6 +119,9 @@ public class EntityBasedAssociationAttribute
 
 	@Override
 	public boolean isCollection() {
+		if ( resolveEdge() ) {
+			return graph.getEdgeKind( sourceNodeId, edge ) == MetamodelGraph.COLLECTION_EDGE;
+		}
 		return getJoinable().isCollection();
 	}
 
@@ -87,6 +130,12 @@ public class EntityBasedAssociationAttribute
 		if ( isCollection() ) {
 			throw new IllegalStateException( "Cannot treat collection-valued attribute as entity type" );
 		}
+		if ( resolveEdge() ) {
+			final int target = graph.getEdgeTarget( sourceNodeId, edge );
+			if ( target != MetamodelGraph.NONE ) {
+				return graph.getEntityDefinition( target );
+			}
+		}
 		final EntityPersister joinable = (EntityPersister) getJoinable();
 		return EntityDefinition.class.isInstance( joinable )
 				? (EntityDefinition) joinable
@@ -98,6 +147,12 @@ public class EntityBasedAssociationAttribute
 		if ( ! isCollection() ) {
 			throw new IllegalStateException( "Cannot treat entity-valued attribute as collection type" );
 		}
+		if ( resolveEdge() ) {
+			final int target = graph.getEdgeTarget( sourceNodeId, edge );
+			if ( target != MetamodelGraph.NONE ) {
+				return graph.getCollectionDefinition( target );
+			}
+		}
 		final QueryableCollection joinable = (QueryableCollection) getJoinable();
 		return CollectionDefinition.class.isInstance( joinable )
 				? (CollectionDefinition) joinable
@@ -115,11 +170,13 @@ public class EntityBasedAssociationAttribute
 				attributeNumber()
 		);
 		if ( style == null ) {
-			style = Helper.determineFetchStyleByMetadata(
-					((OuterJoinLoadable) getSource().getEntityPersister()).getFetchMode( attributeNumber() ),
-					getType(),
-					sessionFactory()
-			);
+			if ( resolveEdge() ) {
+				final FetchStrategy fetchStrategy = graph.getEdgeFetchStrategy( sourceNodeId, edge );
+				if ( fetchStrategy != null ) {
+					return fetchStrategy;
+				}
+			}
+			return determineFetchPlanByMetadata();
 		}
 
 		return new FetchStrategy(
@@ -128,6 +185,18 @@ public class EntityBasedAssociationAttribute
 		);
 	}
 
+	FetchStrategy determineFetchPlanByMetadata() {
+		final FetchStyle style = Helper.determineFetchStyleByMetadata(
+				( (OuterJoinLoadable) getSource().getEntityPersister() ).getFetchMode( attributeNumber() ),
+				getType(),
+				sessionFactory()
+		);
+		return new FetchStrategy(
+				Helper.determineFetchTiming( style, getType(), sessionFactory() ),
+				style
+		);
+	}
+
 	@Override
 	public CascadeStyle determineCascadeStyle() {
 		return getSource().getEntityPersister().getPropertyCascadeStyles()[attributeNumber()];
@@ -43,4 +43,14 @@ public class EntityBasedCompositeAttribute
 			CompositeType attributeType) {
 		super( entityDefinition, factory, attributeNumber, attributeName, attributeType );
 	}
+
+	public EntityBasedCompositeAttribute(
+			EntityDefinition entityDefinition,
+			SessionFactoryImplementor factory,
+			int attributeNumber,
+			String attributeName,
+			CompositeType attributeType,
+			int columnOffset) {
+		super( entityDefinition, factory, attributeNumber, attributeName, attributeType, columnOffset );
+	}
 }
@@ -23,8 +23,10 @@
  */
 package org.hibernate.persister.walking.internal;
 
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
 
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.persister.walking.spi.AttributeDefinition;
 import org.hibernate.persister.walking.spi.EntityDefinition;
 import org.hibernate.persister.entity.EntityPersister;
@@ -37,7 +39,16 @@ import org.hibernate.type.Type;
  * @author Steve Ebersole
  */
 public class EntityDefinitionImpl implements EntityDefinition {
+	/**
+	 * The attribute number of attributes making up the entity's identifier, which are not persister properties.
+	 */
+	public static final int IDENTIFIER_ATTRIBUTE_NUMBER = -1;
+
+	private static final AttributeDefinition[] NO_ATTRIBUTES = new AttributeDefinition[0];
+
 	private final OuterJoinLoadable persister;
+	private volatile AttributeDefinition[] attributeDefinitions;
+	private volatile AttributeDefinition[] identifierAttributeDefinitions;
 
 	public EntityDefinitionImpl(EntityPersister persister) {
 		this.persister = (OuterJoinLoadable) persister;
@@ -49,61 +60,50 @@ public class EntityDefinitionImpl implements EntityDefinition {
 
 	@Override
 	public Iterable<AttributeDefinition> getAttributes() {
-		return new Iterable<AttributeDefinition>() {
-			@Override
-			public Iterator<AttributeDefinition> iterator() {
-				return new Iterator<AttributeDefinition>() {
-					private final int numberOfAttributes = persister.countSubclassProperties();
-					private int currentAttributeNumber = 0;
-
-					@Override
-					public boolean hasNext() {
-						return currentAttributeNumber < numberOfAttributes;
-					}
-
-					@Override
-					public AttributeDefinition next() {
-						final int attributeNumber = currentAttributeNumber;
-						currentAttributeNumber++;
-						final Type attributeType = persister.getSubclassPropertyType( attributeNumber );
-						final String attributeName = persister.getSubclassPropertyName( attributeNumber );
-
-						if ( attributeType.isAssociationType() ) {
-							return new EntityBasedAssociationAttribute(
-									EntityDefinitionImpl.this,
-									persister.getFactory(),
-									attributeNumber,
-									attributeName,
-									(AssociationType) attributeType
-							);
-						}
-						else if ( attributeType.isComponentType() ) {
-							return new EntityBasedCompositeAttribute(
-									EntityDefinitionImpl.this,
-									persister.getFactory(),
-									attributeNumber,
-									attributeName,
-									(CompositeType) attributeType
-							);
-						}
-						else {
-							return new EntityBasedBasicAttribute(
-									EntityDefinitionImpl.this,
-									persister.getFactory(),
-									attributeNumber,
-									attributeName,
-									attributeType
-							);
-						}
-					}
-
-					@Override
-					public void remove() {
-						throw new UnsupportedOperationException( "Remove operation not supported here" );
-					}
-				};
+		// the attribute definitions are immutable, so build them once and share them across walks
+		AttributeDefinition[] attributeDefinitions = this.attributeDefinitions;
+		if ( attributeDefinitions == null ) {
+			final int numberOfAttributes = persister.countSubclassProperties();
+			attributeDefinitions = new AttributeDefinition[ numberOfAttributes ];
+			for ( int i = 0; i < numberOfAttributes; i++ ) {
+				attributeDefinitions[i] = buildAttributeDefinition( i );
 			}
-		};
+			this.attributeDefinitions = attributeDefinitions;
+		}
+		return Collections.unmodifiableList( Arrays.asList( attributeDefinitions ) );
+	}
+
+	private AttributeDefinition buildAttributeDefinition(int attributeNumber) {
+		final Type attributeType = persister.getSubclassPropertyType( attributeNumber );
+		final String attributeName = persister.getSubclassPropertyName( attributeNumber );
+
+		if ( attributeType.isAssociationType() ) {
+			return new EntityBasedAssociationAttribute(
+					this,
+					persister.getFactory(),
+					attributeNumber,
+					attributeName,
+					(AssociationType) attributeType
+			);
+		}
+		else if ( attributeType.isComponentType() ) {
+			return new EntityBasedCompositeAttribute(
+					this,
+					persister.getFactory(),
+					attributeNumber,
+					attributeName,
+					(CompositeType) attributeType
+			);
+		}
+		else {
+			return new EntityBasedBasicAttribute(
+					this,
+					persister.getFactory(),
+					attributeNumber,
+					attributeName,
+					attributeType
+			);
+		}
 	}
 
 	@Override
@@ -113,49 +113,88 @@ public class EntityDefinitionImpl implements EntityDefinition {
 
 	@Override
 	public Iterable<AttributeDefinition> getEmbeddedCompositeIdentifierAttributes() {
-		final Type idType = persister.getIdentifierType();
-		if ( idType.isComponentType() ) {
-			final CompositeType cidType = (CompositeType) idType;
-			if ( cidType.isEmbedded() ) {
-				// we have an embedded composite identifier.  Most likely we need to process the composite
-				// properties separately, although there is an edge case where the identifier is really
-				// a simple identifier (single value) wrapped in a JPA @IdClass or even in the case of a
-				// a simple identifier (single value) wrapped in a Hibernate composite type.
-				//
-				// We really do not have a built-in method to determine that.  However, generally the
-				// persister would report that there is single, physical identifier property which is
-				// explicitly at odds with the notion of "embedded composite".  So we use that for now
-				if ( persister.getEntityMetamodel().getIdentifierProperty().isEmbedded() ) {
-					return new Iterable<AttributeDefinition>() {
-						@Override
-						public Iterator<AttributeDefinition> iterator() {
-							return new Iterator<AttributeDefinition>() {
-								private final int numberOfAttributes = persister.countSubclassProperties();
-								private int currentAttributeNumber = 0;
-
-								@Override
-								public boolean hasNext() {
-									return currentAttributeNumber < numberOfAttributes;
-								}
+		AttributeDefinition[] identifierAttributeDefinitions = this.identifierAttributeDefinitions;
+		if ( identifierAttributeDefinitions == null ) {
+			identifierAttributeDefinitions = buildEmbeddedCompositeIdentifierAttributes( this );
+			if ( identifierAttributeDefinitions == null ) {
+				identifierAttributeDefinitions = NO_ATTRIBUTES;
+			}
+			this.identifierAttributeDefinitions = identifierAttributeDefinitions;
+		}
+		return identifierAttributeDefinitions == NO_ATTRIBUTES
+				? null
+				: Collections.unmodifiableList( Arrays.asList( identifierAttributeDefinitions ) );
+	}
 
-								@Override
-								public AttributeDefinition next() {
-									// todo : implement
-									return null;  //To change body of implemented methods use File | Settings | File Templates.
-								}
+	/**
+	 * Build the definitions of the sub-properties of the given entity's embedded composite identifier, if it has one.
+	 *
+	 * @param entityDefinition The entity
+	 *
+	 * @return The identifier attribute definitions, or {@code null} if the entity has no embedded composite
+	 * identifier.
+	 */
+	public static AttributeDefinition[] buildEmbeddedCompositeIdentifierAttributes(EntityDefinition entityDefinition) {
+		final EntityPersister persister = entityDefinition.getEntityPersister();
+		final Type idType = persister.getIdentifierType();
+		if ( ! idType.isComponentType() ) {
+			return null;
+		}
+		final CompositeType cidType = (CompositeType) idType;
+		if ( ! cidType.isEmbedded() ) {
+			return null;
+		}
+		// we have an embedded composite identifier.  Most likely we need to process the composite
+		// properties separately, although there is an edge case where the identifier is really
+		// a simple identifier (single value) wrapped in a JPA @IdClass or even in the case of a
+		// a simple identifier (single value) wrapped in a Hibernate composite type.
+		//
+		// We really do not have a built-in method to determine that.  However, generally the
+		// persister would report that there is single, physical identifier property which is
+		// explicitly at odds with the notion of "embedded composite".  So we use that for now
+		if ( ! persister.getEntityMetamodel().getIdentifierProperty().isEmbedded() ) {
+			return null;
+		}
 
-								@Override
-								public void remove() {
-									throw new UnsupportedOperationException( "Remove operation not supported here" );
-								}
-							};
-						}
-					};
-				}
+		final SessionFactoryImplementor factory = persister.getFactory();
+		final String[] names = cidType.getPropertyNames();
+		final Type[] types = cidType.getSubtypes();
+		final AttributeDefinition[] attributeDefinitions = new AttributeDefinition[ types.length ];
+		int columnPosition = 0;
+		for ( int i = 0; i < types.length; i++ ) {
+			if ( types[i].isAssociationType() ) {
+				attributeDefinitions[i] = new EntityIdentifierAssociationAttribute(
+						entityDefinition,
+						factory,
+						cidType,
+						i,
+						columnPosition,
+						names[i],
+						(AssociationType) types[i]
+				);
 			}
+			else if ( types[i].isComponentType() ) {
+				attributeDefinitions[i] = new EntityBasedCompositeAttribute(
+						entityDefinition,
+						factory,
+						IDENTIFIER_ATTRIBUTE_NUMBER,
+						names[i],
+						(CompositeType) types[i],
+						columnPosition
+				);
+			}
+			else {
+				attributeDefinitions[i] = new EntityBasedBasicAttribute(
+						entityDefinition,
+						factory,
+						IDENTIFIER_ATTRIBUTE_NUMBER,
+						names[i],
+						types[i]
+				);
+			}
+			columnPosition += types[i].getColumnSpan( factory );
 		}
-
-		return null;
+		return attributeDefinitions;
 	}
 
 	@Override
@@ -0,0 +1,172 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.persister.walking.internal;
+
+import org.hibernate.engine.FetchStrategy;
+import org.hibernate.engine.FetchStyle;
+import org.hibernate.engine.spi.CascadeStyle;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.PropertyPath;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Joinable;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.hibernate.persister.walking.spi.AssociationAttributeDefinition;
+import org.hibernate.persister.walking.spi.AssociationKey;
+import org.hibernate.persister.walking.spi.CollectionDefinition;
+import org.hibernate.persister.walking.spi.EntityDefinition;
+import org.hibernate.type.AssociationType;
+import org.hibernate.type.CompositeType;
+import org.hibernate.type.ForeignKeyDirection;
+
+import static org.hibernate.engine.internal.JoinHelper.getLHSColumnNames;
+import static org.hibernate.engine.internal.JoinHelper.getLHSTableName;
+import static org.hibernate.engine.internal.JoinHelper.getRHSColumnNames;
+
+/**
+ * An association (a "key-many-to-one") which is part of an entity's embedded composite identifier.
+ * <p/>
+ * Such an association is not a persister property, so its {@link #attributeNumber()} is
+ * {@link EntityDefinitionImpl#IDENTIFIER_ATTRIBUTE_NUMBER} (the legacy JoinWalker convention for identifier
+ * columns); its metadata is instead taken from the composite identifier type, by its position within that type.
+ *
+ * @author Steve Ebersole
+ */
+public class EntityIdentifierAssociationAttribute
+		extends AbstractEntityBasedAttribute
+		implements AssociationAttributeDefinition {
+
+	private final CompositeType identifierType;
+	private final int identifierAttributeNumber;
+	private final int columnPosition;
+
+	private Joinable joinable;
+	private AssociationKey associationKey;
+
+	public EntityIdentifierAssociationAttribute(
+			EntityDefinition entityDefinition,
+			SessionFactoryImplementor sessionFactory,
+			CompositeType identifierType,
+			int identifierAttributeNumber,
+			int columnPosition,
+			String attributeName,
+			AssociationType attributeType) {
+		super(
+				entityDefinition,
+				sessionFactory,
+				EntityDefinitionImpl.IDENTIFIER_ATTRIBUTE_NUMBER,
+				attributeName,
+				attributeType
+		);
+		this.identifierType = identifierType;
+		this.identifierAttributeNumber = identifierAttributeNumber;
+		this.columnPosition = columnPosition;
+	}
+
+	@Override
+	public AssociationType getType() {
+		return (AssociationType) super.getType();
+	}
+
+	protected Joinable getJoinable() {
+		if ( joinable == null ) {
+			joinable = getType().getAssociatedJoinable( sessionFactory() );
+		}
+		return joinable;
+	}
+
+	@Override
+	public AssociationKey getAssociationKey() {
+		if ( associationKey == null ) {
+			associationKey = resolveAssociationKey();
+		}
+		return associationKey;
+	}
+
+	private AssociationKey resolveAssociationKey() {
+		final AssociationType type = getType();
+		if ( type.getForeignKeyDirection() == ForeignKeyDirection.FOREIGN_KEY_FROM_PARENT ) {
+			// the foreign key is a slice of the owner's identifier columns, starting at our column position
+			final OuterJoinLoadable owner = (OuterJoinLoadable) getSource().getEntityPersister();
+			return new AssociationKey(
+					getLHSTableName( type, attributeNumber(), owner ),
+					getLHSColumnNames( type, attributeNumber(), columnPosition, owner, sessionFactory() )
+			);
+		}
+		else {
+			return new AssociationKey( getJoinable().getTableName(), getRHSColumnNames( type, sessionFactory() ) );
+		}
+	}
+
+	@Override
+	public boolean isCollection() {
+		return getJoinable().isCollection();
+	}
+
+	@Override
+	public EntityDefinition toEntityDefinition() {
+		if ( isCollection() ) {
+			throw new IllegalStateException( "Cannot treat collection-valued attribute as entity type" );
+		}
+		return MetamodelGraph.forSessionFactory( sessionFactory() )
+				.getEntityDefinition( (EntityPersister) getJoinable() );
+	}
+
+	@Override
+	public CollectionDefinition toCollectionDefinition() {
+		if ( ! isCollection() ) {
+			throw new IllegalStateException( "Cannot treat entity-valued attribute as collection type" );
+		}
+		return MetamodelGraph.forSessionFactory( sessionFactory() )
+				.getCollectionDefinition( (CollectionPersister) getJoinable() );
+	}
+
+	@Override
+	public FetchStrategy determineFetchPlan(LoadQueryInfluencers loadQueryInfluencers, PropertyPath propertyPath) {
+		FetchStyle style = Helper.determineFetchStyleByProfile(
+				loadQueryInfluencers,
+				getSource().getEntityPersister(),
+				propertyPath,
+				getName()
+		);
+		if ( style == null ) {
+			style = Helper.determineFetchStyleByMetadata(
+					identifierType.getFetchMode( identifierAttributeNumber ),
+					getType(),
+					sessionFactory()
+			);
+		}
+
+		return new FetchStrategy(
+				Helper.determineFetchTiming( style, getType(), sessionFactory() ),
+				style
+		);
+	}
+
+	@Override
+	public CascadeStyle determineCascadeStyle() {
+		return identifierType.getCascadeStyle( identifierAttributeNumber );
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.persister.walking.internal;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.engine.SessionFactoryScopedState;
+import org.hibernate.engine.profile.Fetch;
+import org.hibernate.engine.profile.FetchProfile;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+/**
+ * Assigns dense ids to the fetch profiles of a SessionFactory so that a set of enabled profiles can be encoded as a
+ * bit set ({@link Key}), which is cheap to hash and compare when used as part of a cache key.  Also keeps the roles
+ * each profile join fetches.
+ * <p/>
+ * Ids are assigned as profiles are first seen, resolving them through the SessionFactory of the influencers enabling
+ * them.  One registry exists per SessionFactory (see {@link #forSessionFactory}), released when the SessionFactory
+ * is closed.
+ *
+ * @author Steve Ebersole
+ */
+public class FetchProfileRegistry {
+	private static final SessionFactoryScopedState<FetchProfileRegistry> REGISTRIES
+			= new SessionFactoryScopedState<FetchProfileRegistry>() {
+				@Override
+				protected FetchProfileRegistry create(SessionFactoryImplementor sessionFactory) {
+					return new FetchProfileRegistry();
+				}
+			};
+
+	/**
+	 * Access the registry for the given SessionFactory.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 *
+	 * @return The registry
+	 */
+	public static FetchProfileRegistry forSessionFactory(SessionFactoryImplementor sessionFactory) {
+		return REGISTRIES.get( sessionFactory );
+	}
+
+	private final ConcurrentMap<String,Integer> profileIds = new ConcurrentHashMap<String, Integer>();
+	private final List<String> profileNames = new ArrayList<String>();
+	private final List<Set<String>> joinFetchedRoles = new ArrayList<Set<String>>();
+
+	private FetchProfileRegistry() {
+	}
+
+	/**
+	 * Obtain the id of the named profile, assigning one if needed.
+	 *
+	 * @param sessionFactory The SessionFactory defining the profile
+	 * @param profileName The profile name
+	 *
+	 * @return The profile id
+	 */
+	public int getProfileId(SessionFactoryImplementor sessionFactory, String profileName) {
+		final Integer id = profileIds.get( profileName );
+		if ( id != null ) {
+			return id;
+		}
+		return registerProfile( sessionFactory, profileName );
+	}
+
+	private synchronized int registerProfile(SessionFactoryImplementor sessionFactory, String profileName) {
+		final Integer id = profileIds.get( profileName );
+		if ( id != null ) {
+			return id;
+		}
+
+		final Set<String> roles = new HashSet<String>();
+		final FetchProfile profile = sessionFactory.getFetchProfile( profileName );
+		if ( profile != null ) {
+			for ( Map.Entry<String,Fetch> entry : profile.getFetches().entrySet() ) {
+				if ( entry.getValue().getStyle() == Fetch.Style.JOIN ) {
+					roles.add( entry.getKey() );
+				}
+			}
+		}
+
+		final int newId = profileNames.size();
+		profileNames.add( profileName );
+		joinFetchedRoles.add( Collections.unmodifiableSet( roles ) );
+		profileIds.put( profileName, newId );
+		return newId;
+	}
+
+	public synchronized String getProfileName(int profileId) {
+		return profileNames.get( profileId );
+	}
+
+	/**
+	 * The roles ({@code entityName.propertyName}) the given profile join fetches.
+	 *
+	 * @param profileId The profile id
+	 *
+	 * @return The join fetched roles
+	 */
+	public synchronized Set<String> getJoinFetchedRoles(int profileId) {
+		return joinFetchedRoles.get( profileId );
+	}
+
+	/**
+	 * The roles join fetched by any of the profiles in the given key.
+	 *
+	 * @param key The key
+	 *
+	 * @return The join fetched roles
+	 */
+	public Set<String> getJoinFetchedRoles(Key key) {
+		if ( key.isEmpty() ) {
+			return Collections.emptySet();
+		}
+		final Set<String> roles = new HashSet<String>();
+		for ( int id = key.nextProfileId( 0 ); id >= 0; id = key.nextProfileId( id + 1 ) ) {
+			roles.addAll( getJoinFetchedRoles( id ) );
+		}
+		return roles;
+	}
+
+	/**
+	 * Encode the profiles enabled in the given influencers.
+	 *
+	 * @param loadQueryInfluencers The influencers
+	 *
+	 * @return The key
+	 */
+	public Key keyFor(LoadQueryInfluencers loadQueryInfluencers) {
+		if ( loadQueryInfluencers == null || ! loadQueryInfluencers.hasEnabledFetchProfiles() ) {
+			return Key.EMPTY;
+		}
+		final BitSet bits = new BitSet();
+		for ( String profileName : loadQueryInfluencers.getEnabledFetchProfileNames() ) {
+			bits.set( getProfileId( loadQueryInfluencers.getSessionFactory(), profileName ) );
+		}
+		return new Key( bits );
+	}
+
+	/**
+	 * An immutable set of fetch profile ids.
+	 */
+	public static final class Key {
+		public static final Key EMPTY = new Key( new BitSet() );
+
+		private final BitSet bits;
+		private final int hashCode;
+
+		private Key(BitSet bits) {
+			this.bits = bits;
+			this.hashCode = bits.hashCode();
+		}
+
+		public boolean isEmpty() {
+			return bits.isEmpty();
+		}
+
+		public boolean contains(int profileId) {
+			return bits.get( profileId );
+		}
+
+		/**
+		 * The first profile id in this key at or after the given one.
+		 *
+		 * @param fromProfileId The id to start from
+		 *
+		 * @return The profile id, or -1 if there is none
+		 */
+		public int nextProfileId(int fromProfileId) {
+			return bits.nextSetBit( fromProfileId );
+		}
+
+		/**
+		 * Build the key containing the given profile ids.
+		 *
+		 * @param profileIds The profile ids
+		 *
+		 * @return The key
+		 */
+		public static Key of(BitSet profileIds) {
+			return profileIds.isEmpty() ? EMPTY : new Key( (BitSet) profileIds.clone() );
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if ( this == o ) {
+				return true;
+			}
+			if ( o == null || getClass() != o.getClass() ) {
+				return false;
+			}
+			return hashCode == ( (Key) o ).hashCode && bits.equals( ( (Key) o ).bits );
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public String toString() {
+			return "FetchProfileKey" + bits;
+		}
+	}
+}
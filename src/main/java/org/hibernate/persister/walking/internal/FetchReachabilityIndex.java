@@ -0,0 +1,198 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.persister.walking.internal;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.engine.FetchStrategy;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.SessionFactoryScopedState;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.hibernate.persister.walking.internal.FetchProfileRegistry.Key;
+import org.hibernate.type.CompositeType;
+import org.hibernate.type.Type;
+
+/**
+ * Answers, per node of the {@link MetamodelGraph}, whether walking it can produce any fetch for strategies driven by
+ * fetch timing (see {@link org.hibernate.persister.walking.spi.MetadataDrivenVisitationStrategy}).
+ * <p/>
+ * Such a walk only ever descends through {@link FetchTiming#IMMEDIATE} associations, so an entity can produce
+ * fetches only if one of its own associations is immediate (by mapping, or by an enabled fetch profile), or if it
+ * has composite attributes or an embedded composite identifier.  A collection can produce fetches only through its
+ * entity-valued element or index.
+ * <p/>
+ * One index exists per SessionFactory and set of enabled fetch profiles (see {@link #forInfluencers}); the indexes of
+ * a SessionFactory are released when it is closed.
+ *
+ * @author Steve Ebersole
+ */
+public class FetchReachabilityIndex {
+	private static final SessionFactoryScopedState<ConcurrentMap<Key,FetchReachabilityIndex>> INDEXES
+			= new SessionFactoryScopedState<ConcurrentMap<Key,FetchReachabilityIndex>>() {
+				@Override
+				protected ConcurrentMap<Key,FetchReachabilityIndex> create(SessionFactoryImplementor sessionFactory) {
+					return new ConcurrentHashMap<Key, FetchReachabilityIndex>();
+				}
+			};
+
+	/**
+	 * Access the index for the SessionFactory and fetch profiles of the given influencers, building it on first
+	 * access.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 * @param loadQueryInfluencers The influencers defining the enabled fetch profiles
+	 *
+	 * @return The index
+	 */
+	public static FetchReachabilityIndex forInfluencers(
+			SessionFactoryImplementor sessionFactory,
+			LoadQueryInfluencers loadQueryInfluencers) {
+		return forProfiles(
+				sessionFactory,
+				FetchProfileRegistry.forSessionFactory( sessionFactory ).keyFor( loadQueryInfluencers )
+		);
+	}
+
+	/**
+	 * Access the index for the SessionFactory and the given set of enabled fetch profiles, building it on first
+	 * access.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 * @param profiles The enabled fetch profiles
+	 *
+	 * @return The index
+	 */
+	public static FetchReachabilityIndex forProfiles(
+			SessionFactoryImplementor sessionFactory,
+			Key profiles) {
+		final ConcurrentMap<Key,FetchReachabilityIndex> indexes = INDEXES.get( sessionFactory );
+		FetchReachabilityIndex index = indexes.get( profiles );
+		if ( index == null ) {
+			index = new FetchReachabilityIndex(
+					sessionFactory,
+					FetchProfileRegistry.forSessionFactory( sessionFactory ).getJoinFetchedRoles( profiles )
+			);
+			final FetchReachabilityIndex existing = indexes.putIfAbsent( profiles, index );
+			if ( existing != null ) {
+				index = existing;
+			}
+		}
+		return index;
+	}
+
+	private final MetamodelGraph graph;
+	private final boolean[] producesFetches;
+
+	private FetchReachabilityIndex(SessionFactoryImplementor sessionFactory, Set<String> joinFetchedRoles) {
+		this.graph = MetamodelGraph.forSessionFactory( sessionFactory );
+		this.producesFetches = new boolean[ graph.getNodeCount() ];
+
+		for ( int i = 0; i < graph.getEntityNodeCount(); i++ ) {
+			producesFetches[i] = determineWhetherEntityProducesFetches( i, joinFetchedRoles );
+		}
+		for ( int i = graph.getEntityNodeCount(); i < graph.getNodeCount(); i++ ) {
+			final QueryableCollection persister =
+					(QueryableCollection) graph.getCollectionDefinition( i ).getCollectionPersister();
+			if ( persister.getElementType().isComponentType()
+					|| ( persister.hasIndex() && persister.getIndexType().isComponentType() ) ) {
+				producesFetches[i] = true;
+				continue;
+			}
+			for ( int edge = 0; edge < graph.getEdgeCount( i ); edge++ ) {
+				final int target = graph.getEdgeTarget( i, edge );
+				if ( target == MetamodelGraph.NONE || producesFetches[target] ) {
+					producesFetches[i] = true;
+					break;
+				}
+			}
+		}
+	}
+
+	private boolean determineWhetherEntityProducesFetches(int nodeId, Set<String> joinFetchedRoles) {
+		final OuterJoinLoadable persister =
+				(OuterJoinLoadable) graph.getEntityDefinition( nodeId ).getEntityPersister();
+
+		final Type identifierType = persister.getIdentifierType();
+		if ( identifierType.isComponentType() && ( (CompositeType) identifierType ).isEmbedded() ) {
+			return true;
+		}
+
+		for ( int i = 0; i < persister.countSubclassProperties(); i++ ) {
+			if ( persister.getSubclassPropertyType( i ).isComponentType() ) {
+				return true;
+			}
+		}
+
+		for ( int edge = 0; edge < graph.getEdgeCount( nodeId ); edge++ ) {
+			final FetchStrategy fetchStrategy = graph.getEdgeFetchStrategy( nodeId, edge );
+			if ( fetchStrategy == null || fetchStrategy.getTiming() == FetchTiming.IMMEDIATE ) {
+				// no precomputed strategy means an "any" association; be conservative
+				return true;
+			}
+			if ( !joinFetchedRoles.isEmpty() ) {
+				final String role = persister.getEntityName() + '.'
+						+ persister.getSubclassPropertyName( graph.getEdgeAttributeNumber( nodeId, edge ) );
+				if ( joinFetchedRoles.contains( role ) ) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Can walking the given node produce any fetch?
+	 *
+	 * @param nodeId The node
+	 *
+	 * @return {@code false} only if no fetch can possibly be reached from the node
+	 */
+	public boolean canProduceFetches(int nodeId) {
+		return producesFetches[nodeId];
+	}
+
+	/**
+	 * Can walking the given entity produce any fetch?  Persisters unknown to the underlying graph are assumed to.
+	 *
+	 * @param persister The entity persister
+	 *
+	 * @return {@code false} only if no fetch can possibly be reached from the entity
+	 */
+	public boolean canProduceFetches(EntityPersister persister) {
+		final int nodeId = graph.getNodeId( persister.getEntityName() );
+		if ( nodeId == MetamodelGraph.NONE
+				|| graph.isCollectionNode( nodeId )
+				|| graph.getEntityDefinition( nodeId ).getEntityPersister() != persister ) {
+			return true;
+		}
+		return producesFetches[nodeId];
+	}
+}
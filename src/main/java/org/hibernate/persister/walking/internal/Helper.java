@@ -66,9 +66,38 @@ public class Helper {
 			return null;
 		}
 
+		return determineFetchStyleByProfile(
+				loadQueryInfluencers,
+				persister,
+				path,
+				( (OuterJoinLoadable) persister ).getSubclassPropertyName( propertyNumber )
+		);
+	}
+
+	/**
+	 * Determine the fetch-style (if one) explicitly set for this association via fetch profiles, for associations
+	 * which are not identified by a persister property number (the sub-properties of an embedded composite
+	 * identifier, e.g.).
+	 *
+	 * @param loadQueryInfluencers The influencers, defining the enabled fetch profiles
+	 * @param persister The persister owning the association
+	 * @param path The path to the association
+	 * @param rootPropertyName The name of the association attribute, relative to the persister
+	 *
+	 * @return FetchStyle.JOIN or null
+	 */
+	public static FetchStyle determineFetchStyleByProfile(
+			LoadQueryInfluencers loadQueryInfluencers,
+			EntityPersister persister,
+			PropertyPath path,
+			String rootPropertyName) {
+		if ( !loadQueryInfluencers.hasEnabledFetchProfiles() ) {
+			// perf optimization
+			return null;
+		}
+
 		// ugh, this stuff has to be made easier...
 		final String fullPath = path.getFullPath();
-		final String rootPropertyName = ( (OuterJoinLoadable) persister ).getSubclassPropertyName( propertyNumber );
 		int pos = fullPath.lastIndexOf( rootPropertyName );
 		final String relativePropertyPath = pos >= 0
 				? fullPath.substring( pos )
@@ -0,0 +1,458 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.persister.walking.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jboss.logging.Logger;
+
+import org.hibernate.engine.FetchStrategy;
+import org.hibernate.engine.FetchStyle;
+import org.hibernate.engine.SessionFactoryScopedState;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.hibernate.persister.walking.spi.AssociationKey;
+import org.hibernate.persister.walking.spi.CollectionDefinition;
+import org.hibernate.persister.walking.spi.EntityDefinition;
+import org.hibernate.type.AssociationType;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.Type;
+
+/**
+ * An immutable, int-indexed view of the association graph of a SessionFactory, precomputed once so that walking
+ * does not have to repeatedly resolve joinables, cast persisters and query type flags.
+ * <p/>
+ * Every entity and collection role is assigned a dense node id; entities occupy ids {@code [0, entityNodeCount)}
+ * and collection roles the ids after that.  The associations leaving a node are its edges, kept in parallel arrays
+ * holding the target node, the kind of edge, the mapping defined fetch strategy and the {@link AssociationKey}.
+ * For entity nodes, edges correspond to association attributes (identified by their subclass property number);
+ * for collection nodes they correspond to an entity-valued element ({@link #ELEMENT}) or index ({@link #INDEX}).
+ * <p/>
+ * One graph exists per SessionFactory (see {@link #forSessionFactory}), released when the SessionFactory is closed.
+ *
+ * @author Steve Ebersole
+ */
+public class MetamodelGraph {
+	private static final Logger log = Logger.getLogger( MetamodelGraph.class );
+
+	/**
+	 * Returned for lookups which do not resolve to a node or edge.
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * The "attribute number" of a collection node's element edge.
+	 */
+	public static final int ELEMENT = -1;
+
+	/**
+	 * The "attribute number" of a collection node's index edge.
+	 */
+	public static final int INDEX = -2;
+
+	public static final byte ENTITY_EDGE = 1;
+	public static final byte COLLECTION_EDGE = 2;
+	public static final byte ANY_EDGE = 3;
+
+	private static final int[] NO_INTS = new int[0];
+	private static final byte[] NO_BYTES = new byte[0];
+	private static final FetchStrategy[] NO_FETCH_STRATEGIES = new FetchStrategy[0];
+	private static final AssociationKey[] NO_KEYS = new AssociationKey[0];
+
+	private static final SessionFactoryScopedState<MetamodelGraph> GRAPHS
+			= new SessionFactoryScopedState<MetamodelGraph>() {
+				@Override
+				protected MetamodelGraph create(SessionFactoryImplementor sessionFactory) {
+					return new MetamodelGraph( sessionFactory );
+				}
+			};
+
+	/**
+	 * Access the graph for the given SessionFactory, building it on first access.
+	 *
+	 * @param sessionFactory The SessionFactory
+	 *
+	 * @return The graph
+	 */
+	public static MetamodelGraph forSessionFactory(SessionFactoryImplementor sessionFactory) {
+		return GRAPHS.get( sessionFactory );
+	}
+
+	private final int entityNodeCount;
+	private final Map<String,Integer> nodeIdsByName = new HashMap<String, Integer>();
+
+	private final EntityDefinition[] entityDefinitions;
+	// entity nodes only : the definition used when the exact entity type is known (see ConcreteEntityDefinition),
+	// built on first use; racy initialization is benign as the definitions are immutable
+	private final EntityDefinition[] concreteEntityDefinitions;
+	private final CollectionDefinition[] collectionDefinitions;
+
+	private final int[][] edgeTargets;
+	private final int[][] edgeAttributeNumbers;
+	private final byte[][] edgeKinds;
+	private final FetchStrategy[][] edgeFetchStrategies;
+	private final AssociationKey[][] edgeAssociationKeys;
+
+	// entity nodes only : subclass property number -> edge index (or NONE)
+	private final int[][] attributeEdges;
+
+	private MetamodelGraph(SessionFactoryImplementor sessionFactory) {
+		final Map<String,EntityPersister> entityPersisters
+				= new TreeMap<String, EntityPersister>( sessionFactory.getEntityPersisters() );
+		final Map<String,CollectionPersister> collectionPersisters
+				= new TreeMap<String, CollectionPersister>( sessionFactory.getCollectionPersisters() );
+
+		this.entityNodeCount = entityPersisters.size();
+		final int nodeCount = entityNodeCount + collectionPersisters.size();
+
+		this.entityDefinitions = new EntityDefinition[ entityNodeCount ];
+		this.concreteEntityDefinitions = new EntityDefinition[ entityNodeCount ];
+		this.collectionDefinitions = new CollectionDefinition[ collectionPersisters.size() ];
+		this.edgeTargets = new int[ nodeCount ][];
+		this.edgeAttributeNumbers = new int[ nodeCount ][];
+		this.edgeKinds = new byte[ nodeCount ][];
+		this.edgeFetchStrategies = new FetchStrategy[ nodeCount ][];
+		this.edgeAssociationKeys = new AssociationKey[ nodeCount ][];
+		this.attributeEdges = new int[ entityNodeCount ][];
+
+		int nodeId = 0;
+		for ( Map.Entry<String,EntityPersister> entry : entityPersisters.entrySet() ) {
+			final EntityPersister persister = entry.getValue();
+			entityDefinitions[nodeId] = EntityDefinition.class.isInstance( persister )
+					? (EntityDefinition) persister
+					: new EntityDefinitionImpl( persister );
+			nodeIdsByName.put( entry.getKey(), nodeId );
+			nodeId++;
+		}
+		for ( Map.Entry<String,CollectionPersister> entry : collectionPersisters.entrySet() ) {
+			final CollectionPersister persister = entry.getValue();
+			collectionDefinitions[nodeId - entityNodeCount] = CollectionDefinition.class.isInstance( persister )
+					? (CollectionDefinition) persister
+					: new CollectionDefinitionImpl( persister );
+			nodeIdsByName.put( entry.getKey(), nodeId );
+			nodeId++;
+		}
+
+		for ( int i = 0; i < entityNodeCount; i++ ) {
+			buildEntityEdges( i, sessionFactory );
+		}
+		for ( int i = entityNodeCount; i < nodeCount; i++ ) {
+			buildCollectionEdges( i, sessionFactory );
+		}
+	}
+
+	private static EntityDefinition buildConcreteEntityDefinition(EntityDefinition entityDefinition) {
+		// without subclasses there is nothing to skip
+		return ( (OuterJoinLoadable) entityDefinition.getEntityPersister() ).hasSubclasses()
+				? new ConcreteEntityDefinitionImpl( entityDefinition )
+				: entityDefinition;
+	}
+
+	private void buildEntityEdges(int nodeId, SessionFactoryImplementor sessionFactory) {
+		final EntityDefinition entityDefinition = entityDefinitions[nodeId];
+		final OuterJoinLoadable persister = (OuterJoinLoadable) entityDefinition.getEntityPersister();
+		final int propertyCount = persister.countSubclassProperties();
+
+		final int[] edgeIndexes = new int[ propertyCount ];
+		final EdgeCollector edges = new EdgeCollector();
+		for ( int i = 0; i < propertyCount; i++ ) {
+			final Type type = persister.getSubclassPropertyType( i );
+			if ( !type.isAssociationType() ) {
+				edgeIndexes[i] = NONE;
+				continue;
+			}
+
+			edgeIndexes[i] = edges.size();
+			final AssociationType associationType = (AssociationType) type;
+			if ( associationType.isAnyType() ) {
+				edges.add( NONE, i, ANY_EDGE, null, null );
+				continue;
+			}
+
+			final EntityBasedAssociationAttribute attribute = new EntityBasedAssociationAttribute(
+					entityDefinition,
+					sessionFactory,
+					i,
+					persister.getSubclassPropertyName( i ),
+					associationType
+			);
+			final boolean collection = associationType.isCollectionType();
+			edges.add(
+					collection
+							? getNodeId( ( (CollectionType) associationType ).getRole() )
+							: getNodeId( associationType.getAssociatedEntityName( sessionFactory ) ),
+					i,
+					collection ? COLLECTION_EDGE : ENTITY_EDGE,
+					attribute.determineFetchPlanByMetadata(),
+					resolveAssociationKey( attribute )
+			);
+		}
+
+		attributeEdges[nodeId] = edgeIndexes;
+		edges.apply( nodeId );
+	}
+
+	private AssociationKey resolveAssociationKey(EntityBasedAssociationAttribute attribute) {
+		try {
+			return attribute.resolveAssociationKey();
+		}
+		catch (RuntimeException e) {
+			// leave it to the walk to resolve (and report) it if it is ever needed
+			log.debugf( "Unable to precompute association key for %s : %s", attribute, e.getMessage() );
+			return null;
+		}
+	}
+
+	private void buildCollectionEdges(int nodeId, SessionFactoryImplementor sessionFactory) {
+		final QueryableCollection persister =
+				(QueryableCollection) collectionDefinitions[nodeId - entityNodeCount].getCollectionPersister();
+
+		final EdgeCollector edges = new EdgeCollector();
+		if ( persister.hasIndex() && persister.getIndexType().isEntityType() ) {
+			edges.add(
+					getNodeId( ( (AssociationType) persister.getIndexType() ).getAssociatedEntityName( sessionFactory ) ),
+					INDEX,
+					ENTITY_EDGE,
+					null,
+					null
+			);
+		}
+		if ( persister.getElementType().isEntityType() ) {
+			edges.add( getNodeId( persister.getElementPersister().getEntityName() ), ELEMENT, ENTITY_EDGE, null, null );
+		}
+		edges.apply( nodeId );
+	}
+
+	private class EdgeCollector {
+		private final List<Integer> targets = new ArrayList<Integer>();
+		private final List<Integer> attributeNumbers = new ArrayList<Integer>();
+		private final List<Byte> kinds = new ArrayList<Byte>();
+		private final List<FetchStrategy> fetchStrategies = new ArrayList<FetchStrategy>();
+		private final List<AssociationKey> associationKeys = new ArrayList<AssociationKey>();
+
+		private int size() {
+			return targets.size();
+		}
+
+		private void add(int target, int attributeNumber, byte kind, FetchStrategy fetchStrategy, AssociationKey key) {
+			targets.add( target );
+			attributeNumbers.add( attributeNumber );
+			kinds.add( kind );
+			fetchStrategies.add( fetchStrategy );
+			associationKeys.add( key );
+		}
+
+		private void apply(int nodeId) {
+			final int size = size();
+			if ( size == 0 ) {
+				edgeTargets[nodeId] = NO_INTS;
+				edgeAttributeNumbers[nodeId] = NO_INTS;
+				edgeKinds[nodeId] = NO_BYTES;
+				edgeFetchStrategies[nodeId] = NO_FETCH_STRATEGIES;
+				edgeAssociationKeys[nodeId] = NO_KEYS;
+				return;
+			}
+
+			final int[] targetArray = new int[ size ];
+			final int[] attributeNumberArray = new int[ size ];
+			final byte[] kindArray = new byte[ size ];
+			for ( int i = 0; i < size; i++ ) {
+				targetArray[i] = targets.get( i );
+				attributeNumberArray[i] = attributeNumbers.get( i );
+				kindArray[i] = kinds.get( i );
+			}
+			edgeTargets[nodeId] = targetArray;
+			edgeAttributeNumbers[nodeId] = attributeNumberArray;
+			edgeKinds[nodeId] = kindArray;
+			edgeFetchStrategies[nodeId] = fetchStrategies.toArray( new FetchStrategy[ size ] );
+			edgeAssociationKeys[nodeId] = associationKeys.toArray( new AssociationKey[ size ] );
+		}
+	}
+
+
+	// node access ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	public int getNodeCount() {
+		return edgeTargets.length;
+	}
+
+	public int getEntityNodeCount() {
+		return entityNodeCount;
+	}
+
+	public boolean isCollectionNode(int nodeId) {
+		return nodeId >= entityNodeCount;
+	}
+
+	/**
+	 * Locate the node for the named entity or collection role.
+	 *
+	 * @param name The entity name or collection role
+	 *
+	 * @return The node id, or {@link #NONE}
+	 */
+	public int getNodeId(String name) {
+		final Integer nodeId = nodeIdsByName.get( name );
+		return nodeId == null ? NONE : nodeId;
+	}
+
+	public EntityDefinition getEntityDefinition(int nodeId) {
+		return entityDefinitions[nodeId];
+	}
+
+	public CollectionDefinition getCollectionDefinition(int nodeId) {
+		return collectionDefinitions[nodeId - entityNodeCount];
+	}
+
+	/**
+	 * Obtain the shared definition for the given persister, falling back to a new one for persisters not known to
+	 * this graph.
+	 *
+	 * @param persister The entity persister
+	 *
+	 * @return The entity definition
+	 */
+	public EntityDefinition getEntityDefinition(EntityPersister persister) {
+		final int nodeId = getNodeId( persister.getEntityName() );
+		if ( nodeId != NONE && !isCollectionNode( nodeId )
+				&& entityDefinitions[nodeId].getEntityPersister() == persister ) {
+			return entityDefinitions[nodeId];
+		}
+		return EntityDefinition.class.isInstance( persister )
+				? (EntityDefinition) persister
+				: new EntityDefinitionImpl( persister );
+	}
+
+	/**
+	 * Obtain the shared definition to walk when the loaded instances are known to be exactly of the given persister's
+	 * entity type.  Where the entity has subclasses this is a
+	 * {@link org.hibernate.persister.walking.spi.ConcreteEntityDefinition}.
+	 *
+	 * @param persister The entity persister
+	 *
+	 * @return The entity definition
+	 */
+	public EntityDefinition getConcreteEntityDefinition(EntityPersister persister) {
+		final int nodeId = getNodeId( persister.getEntityName() );
+		if ( nodeId != NONE && !isCollectionNode( nodeId )
+				&& entityDefinitions[nodeId].getEntityPersister() == persister ) {
+			EntityDefinition concreteEntityDefinition = concreteEntityDefinitions[nodeId];
+			if ( concreteEntityDefinition == null ) {
+				concreteEntityDefinition = buildConcreteEntityDefinition( entityDefinitions[nodeId] );
+				concreteEntityDefinitions[nodeId] = concreteEntityDefinition;
+			}
+			return concreteEntityDefinition;
+		}
+		return buildConcreteEntityDefinition( getEntityDefinition( persister ) );
+	}
+
+	/**
+	 * Obtain the shared definition for the given persister, falling back to a new one for persisters not known to
+	 * this graph.
+	 *
+	 * @param persister The collection persister
+	 *
+	 * @return The collection definition
+	 */
+	public CollectionDefinition getCollectionDefinition(CollectionPersister persister) {
+		final int nodeId = getNodeId( persister.getRole() );
+		if ( nodeId != NONE && isCollectionNode( nodeId )
+				&& collectionDefinitions[nodeId - entityNodeCount].getCollectionPersister() == persister ) {
+			return collectionDefinitions[nodeId - entityNodeCount];
+		}
+		return CollectionDefinition.class.isInstance( persister )
+				? (CollectionDefinition) persister
+				: new CollectionDefinitionImpl( persister );
+	}
+
+
+	// edge access ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+	public int getEdgeCount(int nodeId) {
+		return edgeTargets[nodeId].length;
+	}
+
+	/**
+	 * Locate the edge of an entity node for the given subclass property number.
+	 *
+	 * @param nodeId The entity node
+	 * @param attributeNumber The subclass property number
+	 *
+	 * @return The edge index, or {@link #NONE} if the attribute is not an association
+	 */
+	public int getAttributeEdge(int nodeId, int attributeNumber) {
+		final int[] edges = attributeEdges[nodeId];
+		return attributeNumber < edges.length ? edges[attributeNumber] : NONE;
+	}
+
+	/**
+	 * The node the edge leads to, or {@link #NONE} for {@link #ANY_EDGE any} associations.
+	 */
+	public int getEdgeTarget(int nodeId, int edge) {
+		return edgeTargets[nodeId][edge];
+	}
+
+	public int getEdgeAttributeNumber(int nodeId, int edge) {
+		return edgeAttributeNumbers[nodeId][edge];
+	}
+
+	public byte getEdgeKind(int nodeId, int edge) {
+		return edgeKinds[nodeId][edge];
+	}
+
+	/**
+	 * The fetch strategy defined by the mapping (not taking fetch profiles into account), or {@code null} for
+	 * edges of collection nodes and {@link #ANY_EDGE any} associations.
+	 */
+	public FetchStrategy getEdgeFetchStrategy(int nodeId, int edge) {
+		return edgeFetchStrategies[nodeId][edge];
+	}
+
+	/**
+	 * The association key of the edge, or {@code null} for edges of collection nodes, {@link #ANY_EDGE any}
+	 * associations and keys which could not be precomputed.
+	 */
+	public AssociationKey getEdgeAssociationKey(int nodeId, int edge) {
+		return edgeAssociationKeys[nodeId][edge];
+	}
+
+	/**
+	 * Whether the edge is fetched in the same SQL statement by its mapping, i.e. {@link FetchTiming#IMMEDIATE} and
+	 * {@link FetchStyle#JOIN}.
+	 */
+	public boolean isJoinFetchedByMetadata(int nodeId, int edge) {
+		final FetchStrategy fetchStrategy = edgeFetchStrategies[nodeId][edge];
+		return fetchStrategy != null
+				&& fetchStrategy.getTiming() == FetchTiming.IMMEDIATE
+				&& fetchStrategy.getStyle() == FetchStyle.JOIN;
+	}
+}
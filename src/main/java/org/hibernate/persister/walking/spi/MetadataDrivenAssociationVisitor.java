@@ -23,15 +23,18 @@
  */
 package org.hibernate.persister.walking.spi;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 import org.jboss.logging.Logger;
 
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.loader.PropertyPath;
-import org.hibernate.persister.walking.internal.CollectionDefinitionImpl;
-import org.hibernate.persister.walking.internal.EntityDefinitionImpl;
+import org.hibernate.persister.walking.internal.FetchReachabilityIndex;
+import org.hibernate.persister.walking.internal.MetamodelGraph;
 import org.hibernate.persister.collection.CollectionPersister;
 import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.type.Type;
@@ -45,11 +48,36 @@ public class MetadataDrivenAssociationVisitor {
 	private static final Logger log = Logger.getLogger( MetadataDrivenAssociationVisitor.class );
 
 	public static void visitEntity(AssociationVisitationStrategy strategy, EntityPersister persister) {
+		visitEntity(
+				strategy,
+				persister,
+				MetamodelGraph.forSessionFactory( persister.getFactory() ).getEntityDefinition( persister )
+		);
+	}
+
+	/**
+	 * Visit an entity whose instances are known to be exactly of the given persister's entity type; attributes
+	 * defined on its subclasses are not visited.
+	 *
+	 * @param strategy The visitation strategy
+	 * @param persister The persister for the exact entity type
+	 *
+	 * @see ConcreteEntityDefinition
+	 */
+	public static void visitConcreteEntity(AssociationVisitationStrategy strategy, EntityPersister persister) {
+		visitEntity(
+				strategy,
+				persister,
+				MetamodelGraph.forSessionFactory( persister.getFactory() ).getConcreteEntityDefinition( persister )
+		);
+	}
+
+	private static void visitEntity(
+			AssociationVisitationStrategy strategy,
+			EntityPersister persister,
+			EntityDefinition entityDefinition) {
 		strategy.start();
 		try {
-			final EntityDefinition entityDefinition = EntityDefinition.class.isInstance( persister )
-					? (EntityDefinition) persister
-					: new EntityDefinitionImpl( persister );
 			new MetadataDrivenAssociationVisitor( strategy, persister.getFactory() )
 					.visitEntityDefinition( entityDefinition );
 		}
@@ -61,9 +89,8 @@ public class MetadataDrivenAssociationVisitor {
 	public static void visitCollection(AssociationVisitationStrategy strategy, CollectionPersister persister) {
 		strategy.start();
 		try {
-			final CollectionDefinition collectionDefinition = CollectionDefinition.class.isInstance( persister )
-					? (CollectionDefinition) persister
-					: new CollectionDefinitionImpl( persister );
+			final CollectionDefinition collectionDefinition =
+					MetamodelGraph.forSessionFactory( persister.getFactory() ).getCollectionDefinition( persister );
 			new MetadataDrivenAssociationVisitor( strategy, persister.getFactory() )
 					.visitCollectionDefinition( collectionDefinition );
 		}
@@ -78,126 +105,346 @@ public class MetadataDrivenAssociationVisitor {
 	// todo : add a getDepth() method to PropertyPath
 	private PropertyPath currentPropertyPath = new PropertyPath();
 
+	// only available for strategies for which skipping entities that cannot produce fetches is safe
+	private final FetchReachabilityIndex reachabilityIndex;
+
 	public MetadataDrivenAssociationVisitor(AssociationVisitationStrategy strategy, SessionFactoryImplementor factory) {
 		this.strategy = strategy;
 		this.factory = factory;
+		this.reachabilityIndex = determineReachabilityIndex( strategy, factory );
+	}
+
+	private static FetchReachabilityIndex determineReachabilityIndex(
+			AssociationVisitationStrategy strategy,
+			SessionFactoryImplementor factory) {
+		if ( ! MetadataDrivenVisitationStrategy.class.isInstance( strategy ) ) {
+			return null;
+		}
+		final MetadataDrivenVisitationStrategy metadataDrivenStrategy = (MetadataDrivenVisitationStrategy) strategy;
+		if ( ! metadataDrivenStrategy.isFetchTimingDrivenByMetadata() ) {
+			return null;
+		}
+		return FetchReachabilityIndex.forInfluencers( factory, metadataDrivenStrategy.getLoadQueryInfluencers() );
 	}
 
+	// The walk is driven by an explicit stack of frames rather than by recursion so that arbitrarily deep graphs
+	// can be visited without exhausting the thread stack.  Each frame fires its "starting" callback when it is
+	// pushed, hands out its children one at a time and fires its "finishing" callback when it is popped, which
+	// reproduces the callback order of the recursive walk exactly.
+
+	private final ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+
 	private void visitEntityDefinition(EntityDefinition entityDefinition) {
-		strategy.startingEntity( entityDefinition );
+		walk( new EntityFrame( entityDefinition ) );
+	}
+
+	private void visitCollectionDefinition(CollectionDefinition collectionDefinition) {
+		walk( new CollectionFrame( collectionDefinition ) );
+	}
+
+	private void walk(Frame root) {
+		push( root );
+		boolean success = false;
 		try {
-			visitAttributes( entityDefinition );
-			optionallyVisitEmbeddedCompositeIdentifier( entityDefinition );
+			while ( !frames.isEmpty() ) {
+				final Frame current = frames.peek();
+				final Frame child = current.nextChild();
+				if ( child != null ) {
+					push( child );
+				}
+				else {
+					frames.pop();
+					current.finish();
+				}
+			}
+			success = true;
 		}
 		finally {
-			strategy.finishingEntity( entityDefinition );
+			if ( !success ) {
+				unwind();
+			}
 		}
 	}
 
-	private void optionallyVisitEmbeddedCompositeIdentifier(EntityDefinition entityDefinition) {
-		// if the entity has a composite identifier, see if we need to handle its sub-properties separately
-		final Iterable<AttributeDefinition> embeddedCompositeIdentifierAttributes =
-				entityDefinition.getEmbeddedCompositeIdentifierAttributes();
-		if ( embeddedCompositeIdentifierAttributes == null ) {
-			return;
-		}
+	private void push(Frame frame) {
+		// a frame is only pushed once its starting callback returned normally, mirroring the recursive
+		// walk where the matching finally block is only entered after the starting callback
+		frame.start();
+		frames.push( frame );
+	}
 
-		for ( AttributeDefinition attributeDefinition : embeddedCompositeIdentifierAttributes ) {
-			visitAttributeDefinition( attributeDefinition );
+	private void unwind() {
+		// the walk failed part way through; give the frames still on the stack the same chance to clean up that
+		// the finally blocks of the recursive walk gave them
+		while ( !frames.isEmpty() ) {
+			frames.pop().abort();
 		}
 	}
 
-	private void visitAttributes(AttributeSource attributeSource) {
-		for ( AttributeDefinition attributeDefinition : attributeSource.getAttributes() ) {
-			visitAttributeDefinition( attributeDefinition );
+	private abstract class Frame {
+		protected void start() {
+		}
+
+		/**
+		 * Obtain the next child frame to visit.
+		 *
+		 * @return The next child frame, or {@code null} once all children have been visited.
+		 */
+		protected abstract Frame nextChild();
+
+		protected void finish() {
+		}
+
+		protected void abort() {
+			finish();
 		}
 	}
 
-	private void visitAttributeDefinition(AttributeDefinition attributeDefinition) {
-		final PropertyPath subPath = currentPropertyPath.append( attributeDefinition.getName() );
-		log.debug( "Visiting attribute path : " + subPath.getFullPath() );
+	private abstract class AttributeSourceFrame extends Frame {
+		private Iterator<AttributeDefinition> attributes;
+
+		protected abstract Iterable<AttributeDefinition> firstAttributes();
+
+		protected Iterable<AttributeDefinition> additionalAttributes() {
+			return null;
+		}
 
-		final boolean continueWalk = strategy.startingAttribute( attributeDefinition );
-		if ( continueWalk ) {
-			final PropertyPath old = currentPropertyPath;
-			currentPropertyPath = subPath;
-			try {
-				if ( attributeDefinition.getType().isAssociationType() ) {
-					visitAssociation( (AssociationAttributeDefinition) attributeDefinition );
+		@Override
+		protected Frame nextChild() {
+			if ( attributes == null ) {
+				attributes = firstAttributes().iterator();
+			}
+			if ( !attributes.hasNext() ) {
+				final Iterable<AttributeDefinition> additional = additionalAttributes();
+				if ( additional == null ) {
+					return null;
 				}
-				else if ( attributeDefinition.getType().isComponentType() ) {
-					visitCompositeDefinition( (CompositeDefinition) attributeDefinition );
+				attributes = additional.iterator();
+				if ( !attributes.hasNext() ) {
+					return null;
 				}
 			}
-			finally {
-				currentPropertyPath = old;
+			return new AttributeFrame( attributes.next() );
+		}
+	}
+
+	private class EntityFrame extends AttributeSourceFrame {
+		private final EntityDefinition entityDefinition;
+		private final boolean pruned;
+		private boolean visitedIdentifier;
+
+		private EntityFrame(EntityDefinition entityDefinition) {
+			this.entityDefinition = entityDefinition;
+			this.pruned = reachabilityIndex != null
+					&& ! reachabilityIndex.canProduceFetches( entityDefinition.getEntityPersister() );
+		}
+
+		@Override
+		protected void start() {
+			strategy.startingEntity( entityDefinition );
+		}
+
+		@Override
+		protected Iterable<AttributeDefinition> firstAttributes() {
+			if ( pruned ) {
+				log.debug( "Skipping attributes of " + entityDefinition + "; no fetch can be reached from it" );
+				return Collections.emptyList();
+			}
+			return entityDefinition.getAttributes();
+		}
+
+		@Override
+		protected Iterable<AttributeDefinition> additionalAttributes() {
+			// if the entity has a composite identifier, see if we need to handle its sub-properties separately
+			if ( pruned || visitedIdentifier ) {
+				return null;
+			}
+			visitedIdentifier = true;
+			return entityDefinition.getEmbeddedCompositeIdentifierAttributes();
+		}
+
+		@Override
+		protected void finish() {
+			strategy.finishingEntity( entityDefinition );
+		}
+	}
+
+	private class CompositeFrame extends AttributeSourceFrame {
+		private final CompositeDefinition compositeDefinition;
+
+		private CompositeFrame(CompositeDefinition compositeDefinition) {
+			this.compositeDefinition = compositeDefinition;
+		}
+
+		@Override
+		protected void start() {
+			strategy.startingComposite( compositeDefinition );
+		}
+
+		@Override
+		protected Iterable<AttributeDefinition> firstAttributes() {
+			return compositeDefinition.getAttributes();
+		}
+
+		@Override
+		protected void finish() {
+			strategy.finishingComposite( compositeDefinition );
+		}
+	}
+
+	private class AttributeFrame extends Frame {
+		private final AttributeDefinition attributeDefinition;
+		private PropertyPath previousPropertyPath;
+		private boolean visitedValue;
+
+		private AttributeFrame(AttributeDefinition attributeDefinition) {
+			this.attributeDefinition = attributeDefinition;
+		}
+
+		@Override
+		protected void start() {
+			final PropertyPath subPath = currentPropertyPath.append( attributeDefinition.getName() );
+			log.debug( "Visiting attribute path : " + subPath.getFullPath() );
+
+			final boolean continueWalk = strategy.startingAttribute( attributeDefinition );
+			if ( continueWalk ) {
+				previousPropertyPath = currentPropertyPath;
+				currentPropertyPath = subPath;
+			}
+			else {
+				visitedValue = true;
+			}
+		}
+
+		@Override
+		protected Frame nextChild() {
+			if ( visitedValue ) {
+				return null;
+			}
+			visitedValue = true;
+
+			if ( attributeDefinition.getType().isAssociationType() ) {
+				return associationFrame( (AssociationAttributeDefinition) attributeDefinition );
+			}
+			else if ( attributeDefinition.getType().isComponentType() ) {
+				return new CompositeFrame( (CompositeDefinition) attributeDefinition );
+			}
+			return null;
+		}
+
+		@Override
+		protected void finish() {
+			restorePropertyPath();
+			strategy.finishingAttribute( attributeDefinition );
+		}
+
+		@Override
+		protected void abort() {
+			restorePropertyPath();
+		}
+
+		private void restorePropertyPath() {
+			if ( previousPropertyPath != null ) {
+				currentPropertyPath = previousPropertyPath;
+				previousPropertyPath = null;
 			}
 		}
-		strategy.finishingAttribute( attributeDefinition );
 	}
 
-	private void visitAssociation(AssociationAttributeDefinition attribute) {
+	private Frame associationFrame(AssociationAttributeDefinition attribute) {
 		// todo : do "too deep" checks; but see note about adding depth to PropertyPath
 
 		if ( isDuplicateAssociation( attribute.getAssociationKey() ) ) {
 			log.debug( "Property path deemed to be circular : " + currentPropertyPath.getFullPath() );
-			return;
+			return null;
 		}
 
 		if ( attribute.isCollection() ) {
-			visitCollectionDefinition( attribute.toCollectionDefinition() );
+			return new CollectionFrame( attribute.toCollectionDefinition() );
 		}
 		else {
-			visitEntityDefinition( attribute.toEntityDefinition() );
+			return new EntityFrame( attribute.toEntityDefinition() );
 		}
 	}
 
-	private void visitCompositeDefinition(CompositeDefinition compositeDefinition) {
-		strategy.startingComposite( compositeDefinition );
-		try {
-			visitAttributes( compositeDefinition );
-		}
-		finally {
-			strategy.finishingComposite( compositeDefinition );
-		}
-	}
+	private class CollectionFrame extends Frame {
+		private final CollectionDefinition collectionDefinition;
+		private boolean visitedIndex;
+		private boolean visitedElement;
 
-	private void visitCollectionDefinition(CollectionDefinition collectionDefinition) {
-		strategy.startingCollection( collectionDefinition );
+		private CollectionFrame(CollectionDefinition collectionDefinition) {
+			this.collectionDefinition = collectionDefinition;
+		}
 
-		try {
-			visitCollectionIndex( collectionDefinition.getIndexDefinition() );
+		@Override
+		protected void start() {
+			strategy.startingCollection( collectionDefinition );
+		}
 
-			final CollectionElementDefinition elementDefinition = collectionDefinition.getElementDefinition();
-			if ( elementDefinition.getType().isComponentType() ) {
-				visitCompositeDefinition( elementDefinition.toCompositeDefinition() );
+		@Override
+		protected Frame nextChild() {
+			if ( !visitedIndex ) {
+				visitedIndex = true;
+				final CollectionIndexDefinition indexDefinition = collectionDefinition.getIndexDefinition();
+				if ( indexDefinition != null ) {
+					return new CollectionIndexFrame( indexDefinition );
+				}
 			}
-			else {
-				visitEntityDefinition( elementDefinition.toEntityDefinition() );
+
+			if ( !visitedElement ) {
+				visitedElement = true;
+				final CollectionElementDefinition elementDefinition = collectionDefinition.getElementDefinition();
+				if ( elementDefinition.getType().isComponentType() ) {
+					return new CompositeFrame( elementDefinition.toCompositeDefinition() );
+				}
+				else if ( elementDefinition.getType().isEntityType() ) {
+					return new EntityFrame( elementDefinition.toEntityDefinition() );
+				}
+				// basic elements : nothing to walk
 			}
+
+			return null;
 		}
-		finally {
+
+		@Override
+		protected void finish() {
 			strategy.finishingCollection( collectionDefinition );
 		}
 	}
 
-	private void visitCollectionIndex(CollectionIndexDefinition collectionIndexDefinition) {
-		if ( collectionIndexDefinition == null ) {
-			return;
+	private class CollectionIndexFrame extends Frame {
+		private final CollectionIndexDefinition collectionIndexDefinition;
+		private boolean visitedValue;
+
+		private CollectionIndexFrame(CollectionIndexDefinition collectionIndexDefinition) {
+			this.collectionIndexDefinition = collectionIndexDefinition;
 		}
 
-		log.debug( "Visiting collection index :  " + currentPropertyPath.getFullPath() );
-		currentPropertyPath = currentPropertyPath.append( "<key>" );
-		try {
+		@Override
+		protected void start() {
+			log.debug( "Visiting collection index :  " + currentPropertyPath.getFullPath() );
+			currentPropertyPath = currentPropertyPath.append( "<key>" );
+		}
+
+		@Override
+		protected Frame nextChild() {
+			if ( visitedValue ) {
+				return null;
+			}
+			visitedValue = true;
+
 			final Type collectionIndexType = collectionIndexDefinition.getType();
 			if ( collectionIndexType.isComponentType() ) {
-				visitCompositeDefinition( collectionIndexDefinition.toCompositeDefinition() );
+				return new CompositeFrame( collectionIndexDefinition.toCompositeDefinition() );
 			}
 			else if ( collectionIndexType.isAssociationType() ) {
-				visitEntityDefinition( collectionIndexDefinition.toEntityDefinition() );
+				return new EntityFrame( collectionIndexDefinition.toEntityDefinition() );
 			}
+			return null;
 		}
-		finally {
+
+		@Override
+		protected void finish() {
 			currentPropertyPath = currentPropertyPath.getParent();
 		}
 	}
@@ -0,0 +1,53 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.persister.walking.spi;
+
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+
+/**
+ * Specialized {@link AssociationVisitationStrategy} for strategies whose walk is driven purely by fetch timing: they
+ * only descend into associations which the mapping (or an enabled fetch profile) defines as
+ * {@link org.hibernate.engine.FetchTiming#IMMEDIATE}, and nothing they do depends on visiting basic attributes.
+ * <p/>
+ * For such strategies the {@link MetadataDrivenAssociationVisitor} skips the attributes of entities from which no
+ * fetch can be reached.
+ *
+ * @author Steve Ebersole
+ */
+public interface MetadataDrivenVisitationStrategy extends AssociationVisitationStrategy {
+	/**
+	 * Does this strategy honor the contract described above?  Strategies which may descend into associations
+	 * regardless of their fetch timing should return {@code false}.
+	 *
+	 * @return {@code true} if attributes of entities from which no fetch can be reached may be skipped
+	 */
+	public boolean isFetchTimingDrivenByMetadata();
+
+	/**
+	 * The influencers (namely the enabled fetch profiles) in effect for the walk.
+	 *
+	 * @return The influencers
+	 */
+	public LoadQueryInfluencers getLoadQueryInfluencers();
+}
@@ -0,0 +1,247 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.ElementCollection;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.MapKeyColumn;
+import javax.persistence.OrderColumn;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.CollectionFetch;
+import org.hibernate.loader.plan.spi.EntityReturn;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.persister.collection.CollectionPersister;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class CompositeElementReaderTest extends BaseCoreFunctionalTestCase {
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Guide.class, Tour.class };
+	}
+
+	@Test
+	public void testSupportedCollections() {
+		final LoadPlan loadPlan = buildTourLoadPlan();
+		final Fetch[] fetches = ( (EntityReturn) loadPlan.getReturns().get( 0 ) ).getFetches();
+		assertEquals( 4, fetches.length );
+		for ( Fetch fetch : fetches ) {
+			final CollectionFetch collectionFetch = (CollectionFetch) fetch;
+			final CollectionPersister persister = collectionFetch.getCollectionPersister();
+			// a bag may hold equal elements, which cannot be told apart from a repeated row
+			assertEquals(
+					persister.getRole(),
+					! persister.getRole().endsWith( ".remarks" ),
+					CompositeElementReader.isSupported( persister, collectionFetch.getCollectionAliases() )
+			);
+		}
+	}
+
+	@Test
+	public void testJoinFetchedCompositeElements() {
+		Session session = openSession();
+		session.beginTransaction();
+		final Guide guide = new Guide( 1, "steve" );
+		session.save( guide );
+		final Tour tour = new Tour( 1 );
+		tour.stops.add( new Stop( "gate", 5, guide ) );
+		tour.stops.add( new Stop( "gate", 5, guide ) );
+		tour.stops.add( new Stop( "lobby", 10, null ) );
+		tour.stopsByName.put( "first", new Stop( "gate", 5, guide ) );
+		tour.stopsByName.put( "last", new Stop( "lobby", 10, null ) );
+		tour.alternatives.add( new Stop( "roof", 15, guide ) );
+		tour.alternatives.add( new Stop( "cellar", 20, null ) );
+		tour.remarks.add( new Stop( "gate", 5, null ) );
+		tour.remarks.add( new Stop( "gate", 5, null ) );
+		session.save( tour );
+		session.getTransaction().commit();
+		session.close();
+
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader( buildTourLoadPlan(), sessionFactory() );
+
+		session = openSession();
+		session.beginTransaction();
+		final Tour loaded = (Tour) loader.load( 1, (SessionImplementor) session );
+		assertTrue( Hibernate.isInitialized( loaded.stops ) );
+		assertTrue( Hibernate.isInitialized( loaded.stopsByName ) );
+		assertTrue( Hibernate.isInitialized( loaded.alternatives ) );
+		assertTrue( Hibernate.isInitialized( loaded.remarks ) );
+
+		// list : equal elements at distinct positions are distinct instances
+		assertEquals( 3, loaded.stops.size() );
+		assertStop( "gate", 5, loaded.stops.get( 0 ) );
+		assertStop( "gate", 5, loaded.stops.get( 1 ) );
+		assertStop( "lobby", 10, loaded.stops.get( 2 ) );
+		assertNotSame( loaded.stops.get( 0 ), loaded.stops.get( 1 ) );
+		assertSame( loaded.stops.get( 0 ).guide, loaded.stops.get( 1 ).guide );
+		assertEquals( "steve", loaded.stops.get( 0 ).guide.name );
+
+		// map
+		assertEquals( 2, loaded.stopsByName.size() );
+		assertStop( "gate", 5, loaded.stopsByName.get( "first" ) );
+		assertStop( "lobby", 10, loaded.stopsByName.get( "last" ) );
+		assertNotSame( loaded.stops.get( 0 ), loaded.stopsByName.get( "first" ) );
+
+		// set : Stop does not implement equals, so each repeated row read would have added another instance
+		assertEquals( 2, loaded.alternatives.size() );
+		final Set<String> names = new HashSet<String>();
+		for ( Stop stop : loaded.alternatives ) {
+			names.add( stop.name );
+		}
+		assertEquals( 2, names.size() );
+		assertTrue( names.contains( "roof" ) );
+		assertTrue( names.contains( "cellar" ) );
+
+		// the bag is read as before : once for every row repeating its elements
+		assertFalse( loaded.remarks.isEmpty() );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	private LoadPlan buildTourLoadPlan() {
+		return LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "t", 0 ),
+				sessionFactory().getEntityPersister( Tour.class.getName() )
+		);
+	}
+
+	private static void assertStop(String name, int minutes, Stop stop) {
+		assertEquals( name, stop.name );
+		assertEquals( Integer.valueOf( minutes ), stop.minutes );
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		for ( Object tour : session.createQuery( "from Tour" ).list() ) {
+			session.delete( tour );
+		}
+		session.flush();
+		session.createQuery( "delete Guide" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Entity( name = "Guide" )
+	public static class Guide {
+		@Id
+		private Integer id;
+		private String name;
+
+		public Guide() {
+		}
+
+		public Guide(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	@Entity( name = "Tour" )
+	public static class Tour {
+		@Id
+		private Integer id;
+		@ElementCollection( fetch = FetchType.EAGER )
+		@CollectionTable( name = "tour_stops" )
+		@OrderColumn
+		@org.hibernate.annotations.Fetch( FetchMode.JOIN )
+		private List<Stop> stops = new ArrayList<Stop>();
+		@ElementCollection( fetch = FetchType.EAGER )
+		@CollectionTable( name = "tour_stops_by_name" )
+		@MapKeyColumn( name = "stop_key" )
+		@org.hibernate.annotations.Fetch( FetchMode.JOIN )
+		private Map<String,Stop> stopsByName = new HashMap<String, Stop>();
+		@ElementCollection( fetch = FetchType.EAGER )
+		@CollectionTable( name = "tour_alternatives" )
+		@org.hibernate.annotations.Fetch( FetchMode.JOIN )
+		private Set<Stop> alternatives = new HashSet<Stop>();
+		@ElementCollection( fetch = FetchType.EAGER )
+		@CollectionTable( name = "tour_remarks" )
+		@org.hibernate.annotations.Fetch( FetchMode.JOIN )
+		private List<Stop> remarks = new ArrayList<Stop>();
+
+		public Tour() {
+		}
+
+		public Tour(Integer id) {
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Deliberately not implementing equals/hashCode.
+	 */
+	@Embeddable
+	public static class Stop {
+		private String name;
+		private Integer minutes;
+		@ManyToOne
+		private Guide guide;
+
+		public Stop() {
+		}
+
+		public Stop(String name, Integer minutes, Guide guide) {
+			this.name = name;
+			this.minutes = minutes;
+			this.guide = guide;
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class CompositeKeyReaderTest extends BaseCoreFunctionalTestCase {
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Voter.class, Vote.class };
+	}
+
+	@Test
+	public void testReadEntityKey() {
+		createVotes();
+
+		final OuterJoinLoadable persister = (OuterJoinLoadable) sessionFactory().getEntityPersister(
+				Vote.class.getName()
+		);
+		final String[] idColumns = persister.getIdentifierColumnNames();
+		final String[] idAliases = new String[ idColumns.length ];
+		final StringBuilder selection = new StringBuilder();
+		for ( int i = 0; i < idColumns.length; i++ ) {
+			idAliases[i] = "key" + i + '_';
+			selection.append( i == 0 ? "" : ", " ).append( idColumns[i] ).append( " as " ).append( idAliases[i] );
+		}
+		// every key twice, as when a collection of two elements is join fetched
+		final String sql = "select " + selection + " from " + persister.getTableName()
+				+ " union all select " + selection + " from " + persister.getTableName() + " order by 1, 2";
+
+		final Session session = openSession();
+		session.beginTransaction();
+		final CompositeKeyReader keyReader = new CompositeKeyReader( persister, idAliases );
+		final Map<String,Integer> columnReads = new HashMap<String, Integer>();
+		final List<EntityKey> keys = session.doReturningWork(
+				new ReturningWork<List<EntityKey>>() {
+					@Override
+					public List<EntityKey> execute(Connection connection) throws SQLException {
+						final PreparedStatement statement = connection.prepareStatement( sql );
+						try {
+							final ResultSet resultSet = countingColumnReads( statement.executeQuery(), columnReads );
+							final List<EntityKey> keys = new ArrayList<EntityKey>();
+							while ( resultSet.next() ) {
+								keys.add( keyReader.readEntityKey( resultSet, (SessionImplementor) session ) );
+							}
+							return keys;
+						}
+						finally {
+							statement.close();
+						}
+					}
+				}
+		);
+
+		assertEquals( 4, keys.size() );
+		assertSame( keys.get( 0 ), keys.get( 1 ) );
+		assertSame( keys.get( 2 ), keys.get( 3 ) );
+		assertNotSame( keys.get( 0 ), keys.get( 2 ) );
+		for ( int i = 0; i < keys.size(); i++ ) {
+			final Vote id = (Vote) keys.get( i ).getIdentifier();
+			assertEquals( 1, session.getIdentifier( id.voter ) );
+			assertEquals( Integer.valueOf( i < 2 ? 1 : 2 ), id.period );
+		}
+		// each key column read once per row, including the rows whose key was seen before
+		for ( String idAlias : idAliases ) {
+			assertEquals( idAlias, Integer.valueOf( 4 ), columnReads.get( idAlias ) );
+		}
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testLoadWithCompositeIdentifier() {
+		createVotes();
+
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader(
+				LoadPlanBuilder.buildRootEntityLoadPlan(
+						new SingleRootReturnLoadPlanBuilderStrategy(
+								sessionFactory(),
+								LoadQueryInfluencers.NONE,
+								"v",
+								0
+						),
+						sessionFactory().getEntityPersister( Vote.class.getName() )
+				),
+				sessionFactory()
+		);
+
+		final Session session = openSession();
+		session.beginTransaction();
+		final Voter voter = (Voter) session.get( Voter.class, 1 );
+		final Vote vote = (Vote) loader.load( new Vote( voter, 2, null ), (SessionImplementor) session );
+		assertNotNull( vote );
+		assertSame( voter, vote.voter );
+		assertEquals( Integer.valueOf( 2 ), vote.period );
+		assertEquals( "no", vote.choice );
+		assertTrue( Hibernate.isInitialized( vote.comments ) );
+		assertEquals( 2, vote.comments.size() );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	/**
+	 * @return A ResultSet counting, per column alias, the calls reading a column
+	 */
+	private static ResultSet countingColumnReads(final ResultSet resultSet, final Map<String,Integer> columnReads) {
+		return (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(),
+				new Class[] { ResultSet.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ( method.getName().startsWith( "get" ) && args != null && args[0] instanceof String ) {
+							final Integer reads = columnReads.get( args[0] );
+							columnReads.put( (String) args[0], reads == null ? 1 : reads + 1 );
+						}
+						try {
+							return method.invoke( resultSet, args );
+						}
+						catch (InvocationTargetException e) {
+							throw e.getTargetException();
+						}
+					}
+				}
+		);
+	}
+
+	private void createVotes() {
+		Session session = openSession();
+		session.beginTransaction();
+		final Voter voter = new Voter( 1, "steve" );
+		session.save( voter );
+		session.save( new Vote( voter, 1, "yes" ) );
+		final Vote vote = new Vote( voter, 2, "no" );
+		vote.comments.add( "changed my mind" );
+		vote.comments.add( "twice" );
+		session.save( vote );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		for ( Object vote : session.createQuery( "from Vote" ).list() ) {
+			session.delete( vote );
+		}
+		session.flush();
+		session.createQuery( "delete Voter" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Entity( name = "Voter" )
+	public static class Voter {
+		@Id
+		private Integer id;
+		private String name;
+
+		public Voter() {
+		}
+
+		public Voter(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	@Entity( name = "Vote" )
+	public static class Vote implements Serializable {
+		@Id
+		@ManyToOne
+		@JoinColumn
+		private Voter voter;
+		@Id
+		private Integer period;
+		private String choice;
+		@ElementCollection( fetch = FetchType.EAGER )
+		@Fetch( FetchMode.JOIN )
+		private Set<String> comments = new HashSet<String>();
+
+		public Vote() {
+		}
+
+		public Vote(Voter voter, Integer period, String choice) {
+			this.voter = voter;
+			this.period = period;
+			this.choice = choice;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if ( this == o ) {
+				return true;
+			}
+			if ( !( o instanceof Vote ) ) {
+				return false;
+			}
+			final Vote that = (Vote) o;
+			return voter.id.equals( that.voter.id ) && period.equals( that.period );
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * voter.id.hashCode() + period.hashCode();
+		}
+	}
+}
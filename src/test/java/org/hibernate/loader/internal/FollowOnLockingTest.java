@@ -0,0 +1,212 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.Inheritance;
+import javax.persistence.InheritanceType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.Version;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.FollowOnLockingPlan;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.persister.entity.EntityPersister;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class FollowOnLockingTest extends BaseCoreFunctionalTestCase {
+	@Override
+	protected void configure(Configuration configuration) {
+		super.configure( configuration );
+		configuration.setProperty( Environment.DIALECT, FollowOnLockingH2Dialect.class.getName() );
+		configuration.setProperty( Environment.GENERATE_STATISTICS, "true" );
+	}
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Keeper.class, Animal.class, Dog.class, Cat.class };
+	}
+
+	@Test
+	public void testOneLockStatementPerHierarchy() {
+		Session session = openSession();
+		session.beginTransaction();
+		final Keeper keeper = new Keeper( 1, "steve" );
+		session.save( keeper );
+		session.save( new Dog( 1, "rex", keeper ) );
+		session.save( new Dog( 2, "fido", keeper ) );
+		session.save( new Cat( 3, "tom", keeper ) );
+		session.getTransaction().commit();
+		session.close();
+
+		final LoadPlan loadPlan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy(
+						sessionFactory(),
+						LoadQueryInfluencers.NONE,
+						"k",
+						0,
+						new LockOptions( LockMode.PESSIMISTIC_WRITE ).setScope( true )
+				),
+				(EntityPersister) sessionFactory().getClassMetadata( Keeper.class )
+		);
+		final FollowOnLockingPlan followOnLockingPlan = loadPlan.getFollowOnLockingPlan();
+		assertNotNull( followOnLockingPlan );
+		assertTrue( followOnLockingPlan.isRequired( sessionFactory().getDialect() ) );
+		// dogs and cats share the Animal hierarchy
+		assertEquals( 2, followOnLockingPlan.getLockTargets().size() );
+
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader( loadPlan, sessionFactory() );
+		assertFalse( loader.getSqlString(), loader.getSqlString().toLowerCase().contains( " for update" ) );
+
+		session = openSession();
+		session.beginTransaction();
+		sessionFactory().getStatistics().clear();
+		final Keeper loaded = (Keeper) loader.load( 1, (SessionImplementor) session );
+		assertTrue( Hibernate.isInitialized( loaded.animals ) );
+		assertEquals( 3, loaded.animals.size() );
+		// the load itself, then one lock statement for the Keeper and one for the Animal hierarchy
+		assertEquals( 3, sessionFactory().getStatistics().getPrepareStatementCount() );
+
+		assertEquals( LockMode.PESSIMISTIC_WRITE, session.getCurrentLockMode( loaded ) );
+		for ( Animal animal : loaded.animals ) {
+			assertEquals( LockMode.PESSIMISTIC_WRITE, session.getCurrentLockMode( animal ) );
+		}
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		session.createQuery( "delete Animal" ).executeUpdate();
+		session.createQuery( "delete Keeper" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	/**
+	 * H2, as if it could not lock outer-joined rows.
+	 */
+	public static class FollowOnLockingH2Dialect extends H2Dialect {
+		@Override
+		public boolean useFollowOnLocking() {
+			return true;
+		}
+	}
+
+	@Entity( name = "Keeper" )
+	public static class Keeper {
+		@Id
+		private Integer id;
+		private String name;
+		@OneToMany( mappedBy = "keeper", fetch = FetchType.EAGER )
+		@Fetch( FetchMode.JOIN )
+		private Set<Animal> animals = new HashSet<Animal>();
+
+		public Keeper() {
+		}
+
+		public Keeper(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	@Entity( name = "Animal" )
+	@Inheritance( strategy = InheritanceType.JOINED )
+	public static abstract class Animal {
+		@Id
+		private Integer id;
+		@Version
+		private Integer version;
+		private String name;
+		@ManyToOne( fetch = FetchType.LAZY )
+		@JoinColumn
+		private Keeper keeper;
+
+		public Animal() {
+		}
+
+		public Animal(Integer id, String name, Keeper keeper) {
+			this.id = id;
+			this.name = name;
+			this.keeper = keeper;
+		}
+	}
+
+	@Entity( name = "Dog" )
+	public static class Dog extends Animal {
+		public Dog() {
+		}
+
+		public Dog(Integer id, String name, Keeper keeper) {
+			super( id, name, keeper );
+		}
+	}
+
+	@Entity( name = "Cat" )
+	public static class Cat extends Animal {
+		public Cat() {
+		}
+
+		public Cat(Integer id, String name, Keeper keeper) {
+			super( id, name, keeper );
+		}
+	}
+}
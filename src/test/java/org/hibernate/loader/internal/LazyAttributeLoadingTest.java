@@ -0,0 +1,228 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.Basic;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.Transient;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.bytecode.internal.javassist.FieldHandled;
+import org.hibernate.bytecode.internal.javassist.FieldHandler;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.internal.FetchGraphLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.FetchGraph;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.persister.entity.EntityPersister;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class LazyAttributeLoadingTest extends BaseCoreFunctionalTestCase {
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Document.class };
+	}
+
+	@Test
+	public void testStandardGroup() {
+		saveDocument();
+
+		final LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				persister()
+		);
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader( plan, sessionFactory() );
+		final String sql = loader.getSqlString().toLowerCase();
+		assertTrue( sql, sql.contains( ".title" ) );
+		assertFalse( sql, sql.contains( ".summary" ) );
+		assertFalse( sql, sql.contains( ".body" ) );
+
+		Session session = openSession();
+		session.beginTransaction();
+		final Document document = (Document) loader.load( 1, (SessionImplementor) session );
+		assertEquals( "title", document.getTitle() );
+		assertFalse( Hibernate.isPropertyInitialized( document, "summary" ) );
+		assertFalse( Hibernate.isPropertyInitialized( document, "body" ) );
+		assertEquals( "summary", document.getSummary() );
+		assertTrue( Hibernate.isPropertyInitialized( document, "summary" ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testGroupIncludingLazyAttribute() {
+		saveDocument();
+
+		final FetchGraph graph = new FetchGraph().addAttributeNode( "summary" );
+		final LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new FetchGraphLoadPlanBuilderStrategy(
+						sessionFactory(),
+						LoadQueryInfluencers.NONE,
+						"abc",
+						0,
+						graph,
+						FetchGraphLoadPlanBuilderStrategy.Semantic.FETCH
+				),
+				persister()
+		);
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader( plan, sessionFactory() );
+		final String sql = loader.getSqlString().toLowerCase();
+		assertTrue( sql, sql.contains( ".title" ) );
+		assertTrue( sql, sql.contains( ".summary" ) );
+		assertFalse( sql, sql.contains( ".body" ) );
+
+		Session session = openSession();
+		session.beginTransaction();
+		final Document document = (Document) loader.load( 1, (SessionImplementor) session );
+		assertTrue( Hibernate.isPropertyInitialized( document, "summary" ) );
+		assertFalse( Hibernate.isPropertyInitialized( document, "body" ) );
+		assertEquals( "summary", document.getSummary() );
+		// the attribute left out of the group is still lazily loadable
+		assertEquals( "body", document.getBody() );
+		assertTrue( Hibernate.isPropertyInitialized( document, "body" ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testGroupIncludingAllLazyAttributes() {
+		saveDocument();
+
+		final FetchGraph graph = new FetchGraph().addAttributeNode( "summary" ).addAttributeNode( "body" );
+		final LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new FetchGraphLoadPlanBuilderStrategy(
+						sessionFactory(),
+						LoadQueryInfluencers.NONE,
+						"abc",
+						0,
+						graph,
+						FetchGraphLoadPlanBuilderStrategy.Semantic.FETCH
+				),
+				persister()
+		);
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader( plan, sessionFactory() );
+		final String sql = loader.getSqlString().toLowerCase();
+		assertTrue( sql, sql.contains( ".summary" ) );
+		assertTrue( sql, sql.contains( ".body" ) );
+
+		Session session = openSession();
+		session.beginTransaction();
+		final Document document = (Document) loader.load( 1, (SessionImplementor) session );
+		assertTrue( Hibernate.isPropertyInitialized( document, "summary" ) );
+		assertTrue( Hibernate.isPropertyInitialized( document, "body" ) );
+		assertEquals( "summary", document.getSummary() );
+		assertEquals( "body", document.getBody() );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	private EntityPersister persister() {
+		return (EntityPersister) sessionFactory().getClassMetadata( Document.class );
+	}
+
+	private void saveDocument() {
+		Session session = openSession();
+		session.beginTransaction();
+		session.save( new Document( 1, "title", "summary", "body" ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		session.createQuery( "delete Document" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	/**
+	 * Instrumented by hand, the way the javassist enhancer would : lazy attribute reads go through the field handler.
+	 */
+	@Entity( name = "Document" )
+	public static class Document implements FieldHandled {
+		@Id
+		private Integer id;
+		private String title;
+		@Basic( fetch = FetchType.LAZY )
+		private String summary;
+		@Basic( fetch = FetchType.LAZY )
+		private String body;
+		@Transient
+		private FieldHandler fieldHandler;
+
+		public Document() {
+		}
+
+		public Document(Integer id, String title, String summary, String body) {
+			this.id = id;
+			this.title = title;
+			this.summary = summary;
+			this.body = body;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public String getSummary() {
+			return fieldHandler == null ? summary : (String) fieldHandler.readObject( this, "summary", summary );
+		}
+
+		public String getBody() {
+			return fieldHandler == null ? body : (String) fieldHandler.readObject( this, "body", body );
+		}
+
+		@Override
+		public void setFieldHandler(FieldHandler handler) {
+			this.fieldHandler = handler;
+		}
+
+		@Override
+		public FieldHandler getFieldHandler() {
+			return fieldHandler;
+		}
+	}
+}
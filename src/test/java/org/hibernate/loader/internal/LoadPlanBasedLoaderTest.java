@@ -0,0 +1,369 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.loader.spi.NoOpLoadPlanMonitor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class LoadPlanBasedLoaderTest extends BaseCoreFunctionalTestCase {
+	@Override
+	protected void configure(Configuration configuration) {
+		super.configure( configuration );
+		// no batch fetching, so the eager Board.topics is loaded by a subsequent select
+		configuration.setProperty( Environment.DEFAULT_BATCH_FETCH_SIZE, "0" );
+	}
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Poster.class, Message.class, Board.class, Topic.class };
+	}
+
+	@Test
+	public void testEntityLoad() {
+		createPosterData();
+
+		final RecordingMonitor monitor = new RecordingMonitor();
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader(
+				buildEntityLoadPlan( Message.class ),
+				sessionFactory(),
+				monitor
+		);
+
+		Session session = openSession();
+		session.beginTransaction();
+		Message message = (Message) loader.load( 1, (SessionImplementor) session );
+		assertNotNull( message );
+		assertEquals( "first", message.text );
+		assertTrue( Hibernate.isInitialized( message.poster ) );
+		assertEquals( "steve", message.poster.name );
+		assertEquals( 1, monitor.events.size() );
+		assertEquals( "processed(1 rows, 1 roots, 1 fetches)", monitor.events.get( 0 ) );
+
+		assertEquals( null, loader.load( 42, (SessionImplementor) session ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testCollectionInitializer() {
+		createPosterData();
+
+		final CollectionPersister collectionPersister = sessionFactory().getCollectionPersister(
+				Poster.class.getName() + ".messages"
+		);
+		final RecordingMonitor monitor = new RecordingMonitor();
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader(
+				LoadPlanBuilder.buildRootCollectionLoadPlan(
+						new SingleRootReturnLoadPlanBuilderStrategy(
+								sessionFactory(),
+								LoadQueryInfluencers.NONE,
+								"p",
+								0
+						),
+						collectionPersister
+				),
+				sessionFactory(),
+				monitor
+		);
+
+		Session session = openSession();
+		session.beginTransaction();
+		Poster poster = (Poster) session.get( Poster.class, 1 );
+		assertFalse( Hibernate.isInitialized( poster.messages ) );
+		loader.initializeCollection( 1, (SessionImplementor) session );
+		assertTrue( Hibernate.isInitialized( poster.messages ) );
+		assertEquals( 2, poster.messages.size() );
+		assertEquals( monitor.events.toString(), 2, monitor.events.size() );
+		assertEquals( "collection(" + collectionPersister.getRole() + " : 2)", monitor.events.get( 0 ) );
+		assertEquals( "processed(2 rows, 0 roots, 4 fetches)", monitor.events.get( 1 ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testFollowOnCollectionFetch() {
+		Session session = openSession();
+		session.beginTransaction();
+		Board board = new Board( 1, "hibernate" );
+		session.save( board );
+		session.save( new Topic( 1, "loaders", board ) );
+		session.save( new Topic( 2, "persisters", board ) );
+		session.getTransaction().commit();
+		session.close();
+
+		final RecordingMonitor monitor = new RecordingMonitor();
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader(
+				buildEntityLoadPlan( Board.class ),
+				sessionFactory(),
+				monitor
+		);
+
+		session = openSession();
+		session.beginTransaction();
+		board = (Board) loader.load( 1, (SessionImplementor) session );
+		assertTrue( Hibernate.isInitialized( board.topics ) );
+		assertTrue( ( (PersistentCollection) board.topics ).wasInitialized() );
+		assertEquals( 2, board.topics.size() );
+		assertEquals( monitor.events.toString(), 2, monitor.events.size() );
+		assertEquals( "followOn(" + Board.class.getName() + ".topics : 1)", monitor.events.get( 0 ) );
+		assertEquals( "processed(1 rows, 1 roots, 0 fetches)", monitor.events.get( 1 ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testPipelinedProcessing() {
+		createPosterData();
+		Session session = openSession();
+		session.beginTransaction();
+		Board board = new Board( 1, "hibernate" );
+		session.save( board );
+		session.save( new Topic( 1, "loaders", board ) );
+		session.save( new Topic( 2, "persisters", board ) );
+		session.getTransaction().commit();
+		session.close();
+
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		final LoadPlan messagePlan = buildEntityLoadPlan( Message.class );
+		final PipelinedResultSetProcessor messageProcessor = new PipelinedResultSetProcessor(
+				new ResultSetProcessorImpl( messagePlan ),
+				messagePlan,
+				executor
+		);
+		final LoadPlanBasedLoader messageLoader = new LoadPlanBasedLoader(
+				messagePlan,
+				sessionFactory(),
+				messageProcessor
+		);
+		final RecordingMonitor monitor = new RecordingMonitor();
+		final LoadPlan boardPlan = buildEntityLoadPlan( Board.class );
+		final PipelinedResultSetProcessor boardProcessor = new PipelinedResultSetProcessor(
+				new ResultSetProcessorImpl( boardPlan, monitor ),
+				boardPlan,
+				executor
+		);
+		final LoadPlanBasedLoader boardLoader = new LoadPlanBasedLoader(
+				boardPlan,
+				sessionFactory(),
+				boardProcessor
+		);
+		// the poster is join fetched, whereas assembling a board issues the select for its topics
+		assertTrue( messageProcessor.isPipelined( sessionFactory().getDialect() ) );
+		assertFalse( boardProcessor.isPipelined( sessionFactory().getDialect() ) );
+
+		session = openSession();
+		session.beginTransaction();
+		final Message message = (Message) messageLoader.load( 2, (SessionImplementor) session );
+		assertEquals( "second", message.text );
+		assertTrue( Hibernate.isInitialized( message.poster ) );
+		assertEquals( "steve", message.poster.name );
+
+		// the topics are fetched by a subsequent select, the board's rows being read by the calling thread
+		board = (Board) boardLoader.load( 1, (SessionImplementor) session );
+		assertEquals( "hibernate", board.name );
+		assertTrue( ( (PersistentCollection) board.topics ).wasInitialized() );
+		assertEquals( 2, board.topics.size() );
+		assertEquals( monitor.events.toString(), 2, monitor.events.size() );
+		assertEquals( "followOn(" + Board.class.getName() + ".topics : 1)", monitor.events.get( 0 ) );
+		assertEquals( "processed(1 rows, 1 roots, 0 fetches)", monitor.events.get( 1 ) );
+		session.getTransaction().commit();
+		session.close();
+		executor.shutdown();
+	}
+
+	private LoadPlan buildEntityLoadPlan(Class entityClass) {
+		return LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				(EntityPersister) sessionFactory().getClassMetadata( entityClass )
+		);
+	}
+
+	private void createPosterData() {
+		Session session = openSession();
+		session.beginTransaction();
+		Poster poster = new Poster( 1, "steve" );
+		session.save( poster );
+		session.save( new Message( 1, "first", poster ) );
+		session.save( new Message( 2, "second", poster ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		session.createQuery( "delete Message" ).executeUpdate();
+		session.createQuery( "delete Topic" ).executeUpdate();
+		session.createQuery( "delete Poster" ).executeUpdate();
+		session.createQuery( "delete Board" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	public static class RecordingMonitor extends NoOpLoadPlanMonitor {
+		final List<String> events = new ArrayList<String>();
+
+		@Override
+		public boolean isEnabled() {
+			return true;
+		}
+
+		@Override
+		public void resultSetProcessed(
+				LoadPlan loadPlan,
+				int rowCount,
+				int rootCount,
+				int fetchCount,
+				long durationNanos) {
+			events.add( "processed(" + rowCount + " rows, " + rootCount + " roots, " + fetchCount + " fetches)" );
+		}
+
+		@Override
+		public void followOnFetchPerformed(String role, int keyCount, long durationNanos) {
+			events.add( "followOn(" + role + " : " + keyCount + ")" );
+		}
+
+		@Override
+		public void collectionLoaded(String role, int size) {
+			events.add( "collection(" + role + " : " + size + ")" );
+		}
+	}
+
+	@Entity( name = "Poster" )
+	public static class Poster {
+		@Id
+		private Integer id;
+		private String name;
+		@OneToMany( mappedBy = "poster" )
+		private List<Message> messages;
+
+		public Poster() {
+		}
+
+		public Poster(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	@Entity( name = "Message" )
+	public static class Message {
+		@Id
+		private Integer id;
+		private String text;
+		@ManyToOne
+		@JoinColumn
+		private Poster poster;
+
+		public Message() {
+		}
+
+		public Message(Integer id, String text, Poster poster) {
+			this.id = id;
+			this.text = text;
+			this.poster = poster;
+		}
+	}
+
+	@Entity( name = "Board" )
+	public static class Board {
+		@Id
+		private Integer id;
+		private String name;
+		@OneToMany( mappedBy = "board", fetch = FetchType.EAGER )
+		@Fetch( FetchMode.SELECT )
+		private Set<Topic> topics = new HashSet<Topic>();
+
+		public Board() {
+		}
+
+		public Board(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	@Entity( name = "Topic" )
+	public static class Topic {
+		@Id
+		private Integer id;
+		private String title;
+		@ManyToOne( fetch = FetchType.LAZY )
+		@JoinColumn
+		private Board board;
+
+		public Topic() {
+		}
+
+		public Topic(Integer id, String title, Board board) {
+			this.id = id;
+			this.title = title;
+			this.board = board;
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQL5Dialect;
+import org.hibernate.dialect.PostgreSQL82Dialect;
+import org.hibernate.dialect.SQLServer2008Dialect;
+import org.hibernate.dialect.SybaseASE15Dialect;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.loader.plan.spi.MultipleResultSetPlan;
+import org.hibernate.persister.entity.EntityPersister;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * H2 cannot return multiple results from a single statement, so loads here execute a statement per result; the single
+ * statement execution is covered through its SQL and parameter binding.
+ *
+ * @author Steve Ebersole
+ */
+public class MultipleResultSetProcessorTest extends BaseCoreFunctionalTestCase {
+	private static final String PLAYERS_ROLE = Team.class.getName() + ".players";
+	private static final String NICKNAMES_ROLE = Team.class.getName() + ".nicknames";
+
+	@Override
+	protected void configure(Configuration configuration) {
+		super.configure( configuration );
+		configuration.setProperty( Environment.GENERATE_STATISTICS, "true" );
+	}
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Team.class, Player.class };
+	}
+
+	@Test
+	public void testCollectionsStitchedToOwner() {
+		Session session = openSession();
+		session.beginTransaction();
+		Team team = new Team( 1, "red" );
+		team.nicknames.add( "reds" );
+		team.nicknames.add( "crimson" );
+		team.nicknames.add( "scarlet" );
+		session.save( team );
+		session.save( new Player( 1, "steve", team ) );
+		session.save( new Player( 2, "gail", team ) );
+		session.save( new Player( 3, "emmanuel", team ) );
+		// rows of another owner, which must not end up in the loaded collections
+		Team other = new Team( 2, "blue" );
+		other.nicknames.add( "blues" );
+		session.save( other );
+		session.save( new Player( 4, "hardy", other ) );
+		session.getTransaction().commit();
+		session.close();
+
+		final MultipleResultSetPlan plan = buildTeamPlan();
+		assertEquals( 3, plan.getResultSetCount() );
+		final LoadPlanBasedLoaderTest.RecordingMonitor monitor = new LoadPlanBasedLoaderTest.RecordingMonitor();
+
+		session = openSession();
+		session.beginTransaction();
+		team = (Team) load( plan, monitor, 1, session );
+		assertEquals( "red", team.name );
+		assertTrue( Hibernate.isInitialized( team.players ) );
+		assertEquals( 3, team.players.size() );
+		for ( Player player : team.players ) {
+			assertTrue( player.name, player.id < 4 );
+			assertTrue( team == player.team );
+		}
+		assertTrue( Hibernate.isInitialized( team.nicknames ) );
+		assertEquals( 3, team.nicknames.size() );
+		assertTrue( team.nicknames.contains( "crimson" ) );
+		assertFalse( team.nicknames.contains( "blues" ) );
+		assertTrue( monitor.events.toString(), monitor.events.contains( "collection(" + PLAYERS_ROLE + " : 3)" ) );
+		assertTrue( monitor.events.toString(), monitor.events.contains( "collection(" + NICKNAMES_ROLE + " : 3)" ) );
+		// 1 root row plus 3 rows per collection, rather than 9 joined rows
+		assertEquals( "processed(7 rows, 1 roots, 9 fetches)", monitor.events.get( monitor.events.size() - 1 ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testOwnerWithoutCollectionRows() {
+		Session session = openSession();
+		session.beginTransaction();
+		session.save( new Team( 1, "red" ) );
+		session.getTransaction().commit();
+		session.close();
+
+		session = openSession();
+		session.beginTransaction();
+		final Team team = (Team) load(
+				buildTeamPlan(),
+				new LoadPlanBasedLoaderTest.RecordingMonitor(),
+				1,
+				session
+		);
+		assertTrue( Hibernate.isInitialized( team.players ) );
+		assertTrue( team.players.isEmpty() );
+		assertTrue( Hibernate.isInitialized( team.nicknames ) );
+		assertTrue( team.nicknames.isEmpty() );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testStatementPerResult() {
+		Session session = openSession();
+		session.beginTransaction();
+		final Team team = new Team( 1, "red" );
+		team.nicknames.add( "reds" );
+		session.save( team );
+		session.save( new Player( 1, "steve", team ) );
+		session.getTransaction().commit();
+		session.close();
+
+		final MultipleResultSetPlan plan = buildTeamPlan();
+		final MultipleResultSetExecutor executor = new MultipleResultSetExecutor( plan, sessionFactory() );
+		assertFalse( executor.isSingleStatement() );
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader(
+				plan,
+				sessionFactory(),
+				new LoadPlanBasedLoaderTest.RecordingMonitor()
+		);
+		assertEquals( executor.getResultSqlStrings()[0], loader.getSqlString() );
+
+		session = openSession();
+		session.beginTransaction();
+		sessionFactory().getStatistics().clear();
+		final Team loaded = (Team) loader.load( 1, (SessionImplementor) session );
+		assertEquals( 1, loaded.players.size() );
+		assertEquals( 1, loaded.nicknames.size() );
+		assertEquals( 3, sessionFactory().getStatistics().getPrepareStatementCount() );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testSingleStatement() {
+		assertTrue( MultipleResultSetExecutor.supportsMultipleResults( new SQLServer2008Dialect() ) );
+		assertTrue( MultipleResultSetExecutor.supportsMultipleResults( new SybaseASE15Dialect() ) );
+		assertTrue( MultipleResultSetExecutor.supportsMultipleResults( new PostgreSQL82Dialect() ) );
+		assertFalse( MultipleResultSetExecutor.supportsMultipleResults( new H2Dialect() ) );
+		assertFalse( MultipleResultSetExecutor.supportsMultipleResults( new MySQL5Dialect() ) );
+
+		final MultipleResultSetExecutor executor = new MultipleResultSetExecutor(
+				buildTeamPlan(),
+				sessionFactory(),
+				true
+		);
+		assertTrue( executor.isSingleStatement() );
+		final String[] resultSql = executor.getResultSqlStrings();
+		assertEquals( 3, resultSql.length );
+		assertEquals( resultSql[0] + "; " + resultSql[1] + "; " + resultSql[2], executor.getSqlString() );
+
+		// the key restriction of each SELECT is bound in turn; checked against a statement with as many parameters
+		final Session session = openSession();
+		final List<Integer> bound = session.doReturningWork(
+				new ReturningWork<List<Integer>>() {
+					@Override
+					public List<Integer> execute(Connection connection) throws SQLException {
+						final PreparedStatement statement = connection.prepareStatement( "select ?, ?, ?" );
+						try {
+							assertEquals( 4, executor.bind( statement, 7, 1, (SessionImplementor) session ) );
+							final ResultSet resultSet = statement.executeQuery();
+							resultSet.next();
+							final List<Integer> values = new ArrayList<Integer>();
+							for ( int i = 1; i <= 3; i++ ) {
+								values.add( resultSet.getInt( i ) );
+							}
+							return values;
+						}
+						finally {
+							statement.close();
+						}
+					}
+				}
+		);
+		session.close();
+		assertEquals( Arrays.asList( 7, 7, 7 ), bound );
+	}
+
+	private MultipleResultSetPlan buildTeamPlan() {
+		return MultipleResultSetPlan.forLoadPlan(
+				LoadPlanBuilder.buildRootEntityLoadPlan(
+						new SingleRootReturnLoadPlanBuilderStrategy(
+								sessionFactory(),
+								LoadQueryInfluencers.NONE,
+								"t",
+								0
+						),
+						(EntityPersister) sessionFactory().getClassMetadata( Team.class )
+				)
+		);
+	}
+
+	private Object load(
+			MultipleResultSetPlan plan,
+			LoadPlanBasedLoaderTest.RecordingMonitor monitor,
+			Integer id,
+			Session session) {
+		return new LoadPlanBasedLoader( plan, sessionFactory(), monitor ).load( id, (SessionImplementor) session );
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		session.createQuery( "delete Player" ).executeUpdate();
+		for ( Object team : session.createQuery( "from Team" ).list() ) {
+			session.delete( team );
+		}
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Entity( name = "Team" )
+	public static class Team {
+		@Id
+		private Integer id;
+		private String name;
+		@OneToMany( mappedBy = "team", fetch = FetchType.EAGER )
+		@Fetch( FetchMode.JOIN )
+		private Set<Player> players = new HashSet<Player>();
+		@ElementCollection( fetch = FetchType.EAGER )
+		@Fetch( FetchMode.JOIN )
+		private Set<String> nicknames = new HashSet<String>();
+
+		public Team() {
+		}
+
+		public Team(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	@Entity( name = "Player" )
+	public static class Player {
+		@Id
+		private Integer id;
+		private String name;
+		@ManyToOne( fetch = FetchType.LAZY )
+		@JoinColumn
+		private Team team;
+
+		public Player() {
+		}
+
+		public Player(Integer id, String name, Team team) {
+			this.id = id;
+			this.name = name;
+			this.team = team;
+		}
+	}
+}
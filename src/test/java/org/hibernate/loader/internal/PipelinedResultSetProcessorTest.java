@@ -0,0 +1,303 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.OneToMany;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.Session;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.loader.spi.ResultSetProcessor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.transform.ResultTransformer;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class PipelinedResultSetProcessorTest extends BaseCoreFunctionalTestCase {
+	private static final int TRACK_COUNT = 50;
+	private static final int RING_SIZE = 2;
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Album.class, Track.class };
+	}
+
+	@Test
+	public void testReadStageOverlapsAssembly() {
+		Session session = openSession();
+		session.beginTransaction();
+		final Album album = new Album( 1, "sides" );
+		session.save( album );
+		for ( int i = 1; i <= TRACK_COUNT; i++ ) {
+			final Track track = new Track( i, "track " + i );
+			session.save( track );
+			album.tracks.add( track );
+		}
+		session.getTransaction().commit();
+		session.close();
+
+		final LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				(EntityPersister) sessionFactory().getClassMetadata( Album.class )
+		);
+		final ReadRecorder recorder = new ReadRecorder();
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final PipelinedResultSetProcessor processor = new PipelinedResultSetProcessor(
+					new AssemblyRecordingProcessor( new ResultSetProcessorImpl( plan ), recorder ),
+					plan,
+					executor,
+					RING_SIZE
+			);
+			assertTrue( processor.isPipelined( sessionFactory().getDialect() ) );
+			final LoadPlanBasedLoader loader = new LoadPlanBasedLoader(
+					plan,
+					sessionFactory(),
+					new JdbcReadRecordingProcessor( processor, recorder )
+			);
+
+			session = openSession();
+			session.beginTransaction();
+			final Album loaded = (Album) loader.load( 1, (SessionImplementor) session );
+			assertEquals( "sides", loaded.title );
+			assertEquals( TRACK_COUNT, loaded.tracks.size() );
+			session.getTransaction().commit();
+			session.close();
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		// one next() per row plus the one reporting the end of the ResultSet, on both sides
+		assertEquals( TRACK_COUNT + 1, recorder.jdbcReads.get() );
+		assertEquals( TRACK_COUNT + 1, recorder.assemblyReads.get() );
+		assertFalse( recorder.jdbcReadOnCallingThread );
+		// the JDBC ResultSet was still being read once assembly started...
+		assertTrue( recorder.jdbcReadsBeforeAssembly < TRACK_COUNT );
+		// ... and never ran further ahead of assembly than the ring allows
+		assertTrue(
+				"read ahead : " + recorder.maximumReadAhead,
+				recorder.maximumReadAhead <= RING_SIZE + 1
+		);
+	}
+
+	private static class ReadRecorder {
+		private final Thread callingThread = Thread.currentThread();
+		private final AtomicInteger jdbcReads = new AtomicInteger();
+		private final AtomicInteger assemblyReads = new AtomicInteger();
+
+		private volatile boolean jdbcReadOnCallingThread;
+		private volatile int jdbcReadsBeforeAssembly = -1;
+		private volatile int maximumReadAhead;
+
+		private void jdbcRead() {
+			if ( Thread.currentThread() == callingThread ) {
+				jdbcReadOnCallingThread = true;
+			}
+			final int readAhead = jdbcReads.incrementAndGet() - assemblyReads.get();
+			if ( readAhead > maximumReadAhead ) {
+				maximumReadAhead = readAhead;
+			}
+		}
+
+		private void assemblyRead() {
+			if ( assemblyReads.getAndIncrement() == 0 ) {
+				jdbcReadsBeforeAssembly = jdbcReads.get();
+			}
+		}
+	}
+
+	private static ResultSet recordNext(final ResultSet resultSet, final Runnable onNext) {
+		return (ResultSet) Proxy.newProxyInstance(
+				ResultSet.class.getClassLoader(),
+				new Class[] { ResultSet.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if ( "next".equals( method.getName() ) ) {
+							onNext.run();
+						}
+						try {
+							return method.invoke( resultSet, args );
+						}
+						catch (InvocationTargetException e) {
+							throw e.getTargetException();
+						}
+					}
+				}
+		);
+	}
+
+	private static class JdbcReadRecordingProcessor implements ResultSetProcessor {
+		private final ResultSetProcessor delegate;
+		private final ReadRecorder recorder;
+
+		private JdbcReadRecordingProcessor(ResultSetProcessor delegate, ReadRecorder recorder) {
+			this.delegate = delegate;
+			this.recorder = recorder;
+		}
+
+		@Override
+		public List extractResults(
+				ResultSet resultSet,
+				SessionImplementor session,
+				QueryParameters queryParameters,
+				boolean returnProxies,
+				ResultTransformer forcedResultTransformer) throws SQLException {
+			final ResultSet recorded = recordNext(
+					resultSet,
+					new Runnable() {
+						@Override
+						public void run() {
+							recorder.jdbcRead();
+						}
+					}
+			);
+			return delegate.extractResults(
+					recorded,
+					session,
+					queryParameters,
+					returnProxies,
+					forcedResultTransformer
+			);
+		}
+	}
+
+	private static class AssemblyRecordingProcessor implements ResultSetProcessor {
+		private final ResultSetProcessor delegate;
+		private final ReadRecorder recorder;
+
+		private AssemblyRecordingProcessor(ResultSetProcessor delegate, ReadRecorder recorder) {
+			this.delegate = delegate;
+			this.recorder = recorder;
+		}
+
+		@Override
+		public List extractResults(
+				ResultSet resultSet,
+				SessionImplementor session,
+				QueryParameters queryParameters,
+				boolean returnProxies,
+				ResultTransformer forcedResultTransformer) throws SQLException {
+			final ResultSet recorded = recordNext(
+					resultSet,
+					new Runnable() {
+						@Override
+						public void run() {
+							recorder.assemblyRead();
+						}
+					}
+			);
+			return delegate.extractResults(
+					recorded,
+					session,
+					queryParameters,
+					returnProxies,
+					forcedResultTransformer
+			);
+		}
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		for ( Object album : session.createQuery( "from Album" ).list() ) {
+			session.delete( album );
+		}
+		session.createQuery( "delete Track" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Entity( name = "Album" )
+	public static class Album {
+		@Id
+		private Integer id;
+		private String title;
+		@OneToMany( fetch = FetchType.EAGER )
+		@JoinColumn( name = "album_id" )
+		@Fetch( FetchMode.JOIN )
+		private Set<Track> tracks = new HashSet<Track>();
+
+		public Album() {
+		}
+
+		public Album(Integer id, String title) {
+			this.id = id;
+			this.title = title;
+		}
+	}
+
+	@Entity( name = "Track" )
+	public static class Track {
+		@Id
+		private Integer id;
+		private String title;
+
+		public Track() {
+		}
+
+		public Track(Integer id, String title) {
+			this.id = id;
+			this.title = title;
+		}
+	}
+}
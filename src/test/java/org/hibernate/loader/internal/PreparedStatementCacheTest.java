@@ -0,0 +1,128 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.hibernate.Session;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class PreparedStatementCacheTest extends BaseCoreFunctionalTestCase {
+	private static final String SELECT_ONE = "select id from Item where id = ?";
+	private static final String SELECT_TWO = "select name from Item where id = ?";
+	private static final String SELECT_THREE = "select id, name from Item where id = ?";
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Item.class };
+	}
+
+	@Test
+	public void testStatementReuse() throws SQLException {
+		Session session = openSession();
+		session.beginTransaction();
+		final PreparedStatementCache cache = new PreparedStatementCache( (SessionImplementor) session, 2 );
+		final PreparedStatement statement = cache.acquire( SELECT_ONE );
+		assertSame( statement, cache.acquire( SELECT_ONE ) );
+		assertEquals( 1, cache.size() );
+
+		// the least recently used statement is released once the maximum is exceeded
+		cache.acquire( SELECT_TWO );
+		cache.acquire( SELECT_THREE );
+		assertEquals( 2, cache.size() );
+		assertTrue( statement.isClosed() );
+		assertNotSame( statement, cache.acquire( SELECT_ONE ) );
+
+		cache.releaseAll();
+		assertEquals( 0, cache.size() );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testClosedStatementPreparedAgain() throws SQLException {
+		Session session = openSession();
+		session.beginTransaction();
+		final PreparedStatementCache cache = new PreparedStatementCache( (SessionImplementor) session );
+		final PreparedStatement statement = cache.acquire( SELECT_ONE );
+		// as the coordinator does when releasing its resources
+		jdbcCoordinator( session ).release( statement );
+		assertTrue( statement.isClosed() );
+
+		final PreparedStatement prepared = cache.acquire( SELECT_ONE );
+		assertNotSame( statement, prepared );
+		assertFalse( prepared.isClosed() );
+		assertEquals( 1, cache.size() );
+		prepared.setInt( 1, 1 );
+		assertFalse( prepared.executeQuery().next() );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testClearedOnConnectionRelease() throws SQLException {
+		Session session = openSession();
+		final PreparedStatementCache cache = new PreparedStatementCache( (SessionImplementor) session );
+		final PreparedStatement statement = cache.acquire( SELECT_ONE );
+		assertEquals( 1, cache.size() );
+		session.disconnect();
+		assertEquals( 0, cache.size() );
+
+		// a new physical connection is obtained as needed
+		final PreparedStatement prepared = cache.acquire( SELECT_ONE );
+		assertNotSame( statement, prepared );
+		assertFalse( prepared.isClosed() );
+		assertEquals( 1, cache.size() );
+		session.close();
+		assertEquals( 0, cache.size() );
+	}
+
+	private static JdbcCoordinator jdbcCoordinator(Session session) {
+		return ( (SessionImplementor) session ).getTransactionCoordinator().getJdbcCoordinator();
+	}
+
+	@Entity( name = "Item" )
+	public static class Item {
+		@Id
+		private Integer id;
+		private String name;
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.IntegerType;
+import org.hibernate.type.Type;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class RowSnapshotCacheTest extends BaseCoreFunctionalTestCase {
+	@Override
+	protected void configure(Configuration configuration) {
+		super.configure( configuration );
+		// snapshots are validated by the update timestamps of the query cache
+		configuration.setProperty( Environment.USE_SECOND_LEVEL_CACHE, "true" );
+		configuration.setProperty( Environment.USE_QUERY_CACHE, "true" );
+	}
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Note.class, Author.class, Tag.class };
+	}
+
+	@Test
+	public void testSizeEviction() throws SQLException {
+		createData();
+		final LoadPlan plan = buildNotePlan();
+
+		final RowSnapshotCache unbounded = new RowSnapshotCache( sessionFactory(), Long.MAX_VALUE );
+		capture( plan, unbounded, 1 );
+		final long snapshotSize = unbounded.getCurrentSize();
+		// trimmed to the captured bytes, rather than the capacity the capture started with
+		assertTrue( snapshotSize > 0 );
+		assertTrue( snapshotSize < CapturingResultSetProcessor.DEFAULT_INITIAL_CAPACITY );
+
+		final long maximumSize = 2 * snapshotSize + snapshotSize / 2;
+		final RowSnapshotCache cache = new RowSnapshotCache( sessionFactory(), maximumSize );
+		capture( plan, cache, 1 );
+		capture( plan, cache, 2 );
+		assertNotNull( replay( plan, cache, 1 ) );
+		capture( plan, cache, 3 );
+		assertEquals( 2, cache.size() );
+		assertTrue( cache.getCurrentSize() <= maximumSize );
+
+		// the least recently used snapshot was evicted
+		assertNull( replay( plan, cache, 2 ) );
+		assertEquals( "note 1", replay( plan, cache, 1 ).text );
+		final Note note = replay( plan, cache, 3 );
+		assertEquals( "note 3", note.text );
+		assertTrue( Hibernate.isInitialized( note.author ) );
+		assertEquals( "steve", note.author.name );
+	}
+
+	@Test
+	public void testInvalidation() throws SQLException {
+		createData();
+		final LoadPlan plan = buildNotePlan();
+		final RowSnapshotCache cache = new RowSnapshotCache( sessionFactory(), Long.MAX_VALUE );
+		capture( plan, cache, 1 );
+		assertEquals( "note 1", replay( plan, cache, 1 ).text );
+
+		// tables not read by the plan do not invalidate its snapshots
+		Session session = openSession();
+		session.beginTransaction();
+		( (Tag) session.get( Tag.class, 1 ) ).label = "changed";
+		session.getTransaction().commit();
+		session.close();
+		assertEquals( "note 1", replay( plan, cache, 1 ).text );
+
+		// those of the joined fetches do
+		session = openSession();
+		session.beginTransaction();
+		( (Author) session.get( Author.class, 1 ) ).name = "gail";
+		session.getTransaction().commit();
+		session.close();
+		assertNull( replay( plan, cache, 1 ) );
+		assertEquals( 0, cache.size() );
+		assertEquals( 0, cache.getCurrentSize() );
+
+		capture( plan, cache, 1 );
+		assertEquals( "gail", replay( plan, cache, 1 ).author.name );
+		session = openSession();
+		session.beginTransaction();
+		( (Note) session.get( Note.class, 1 ) ).text = "updated";
+		session.getTransaction().commit();
+		session.close();
+		assertNull( replay( plan, cache, 1 ) );
+
+		capture( plan, cache, 1 );
+		assertEquals( "updated", replay( plan, cache, 1 ).text );
+	}
+
+	private LoadPlan buildNotePlan() {
+		return LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "n", 0 ),
+				(EntityPersister) sessionFactory().getClassMetadata( Note.class )
+		);
+	}
+
+	private void capture(LoadPlan plan, RowSnapshotCache cache, Integer id) {
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader(
+				plan,
+				sessionFactory(),
+				new CapturingResultSetProcessor( new ResultSetProcessorImpl( plan ), plan, cache )
+		);
+		Session session = openSession();
+		session.beginTransaction();
+		assertNotNull( loader.load( id, (SessionImplementor) session ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	private Note replay(LoadPlan plan, RowSnapshotCache cache, Integer id) throws SQLException {
+		final CapturingResultSetProcessor processor = new CapturingResultSetProcessor(
+				new ResultSetProcessorImpl( plan ),
+				plan,
+				cache
+		);
+		Session session = openSession();
+		session.beginTransaction();
+		try {
+			final List results = processor.replayResults(
+					(SessionImplementor) session,
+					new QueryParameters( new Type[] { IntegerType.INSTANCE }, new Object[] { id } ),
+					false,
+					null
+			);
+			return results == null ? null : (Note) results.get( 0 );
+		}
+		finally {
+			session.getTransaction().commit();
+			session.close();
+		}
+	}
+
+	private void createData() {
+		Session session = openSession();
+		session.beginTransaction();
+		final Author author = new Author( 1, "steve" );
+		session.save( author );
+		for ( int i = 1; i <= 3; i++ ) {
+			session.save( new Note( i, "note " + i, author ) );
+		}
+		session.save( new Tag( 1, "loaders" ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		session.createQuery( "delete Note" ).executeUpdate();
+		session.createQuery( "delete Author" ).executeUpdate();
+		session.createQuery( "delete Tag" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Entity( name = "Note" )
+	public static class Note {
+		@Id
+		private Integer id;
+		private String text;
+		@ManyToOne
+		@JoinColumn
+		private Author author;
+
+		public Note() {
+		}
+
+		public Note(Integer id, String text, Author author) {
+			this.id = id;
+			this.text = text;
+			this.author = author;
+		}
+	}
+
+	@Entity( name = "Author" )
+	public static class Author {
+		@Id
+		private Integer id;
+		private String name;
+
+		public Author() {
+		}
+
+		public Author(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	@Entity( name = "Tag" )
+	public static class Tag {
+		@Id
+		private Integer id;
+		private String label;
+
+		public Tag() {
+		}
+
+		public Tag(Integer id, String label) {
+			this.id = id;
+			this.label = label;
+		}
+	}
+}
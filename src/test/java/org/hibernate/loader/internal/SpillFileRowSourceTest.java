@@ -0,0 +1,186 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseUnitTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class SpillFileRowSourceTest extends BaseUnitTestCase {
+	private static final int ROW_COUNT = 500;
+	// small enough for the rows to span many windows
+	private static final int WINDOW_SIZE = 4 * 1024;
+	private static final RowLayout LAYOUT = new RowLayout( new String[] { "id_", "text_", "notes_" } );
+
+	private Connection connection;
+	private Statement statement;
+	private File spillDirectory;
+
+	@Before
+	public void createRows() throws Exception {
+		Class.forName( "org.h2.Driver" );
+		connection = DriverManager.getConnection( "jdbc:h2:mem:spill", "sa", "" );
+		final Statement ddl = connection.createStatement();
+		ddl.execute( "create table spill_rows ( id integer primary key, text varchar(255), notes clob )" );
+		ddl.close();
+		final PreparedStatement insert = connection.prepareStatement( "insert into spill_rows values ( ?, ?, ? )" );
+		for ( int i = 1; i <= ROW_COUNT; i++ ) {
+			insert.setInt( 1, i );
+			insert.setString( 2, text( i ) );
+			insert.setString( 3, "notes of " + i );
+			insert.executeUpdate();
+		}
+		insert.close();
+
+		spillDirectory = File.createTempFile( "spill", "test" );
+		assertTrue( spillDirectory.delete() );
+		assertTrue( spillDirectory.mkdir() );
+	}
+
+	@After
+	public void dropRows() throws Exception {
+		if ( statement != null ) {
+			statement.close();
+		}
+		final Statement ddl = connection.createStatement();
+		ddl.execute( "drop table spill_rows" );
+		ddl.close();
+		connection.close();
+		for ( File file : spillDirectory.listFiles() ) {
+			file.delete();
+		}
+		spillDirectory.delete();
+	}
+
+	@Test
+	public void testSpillAndReadBack() throws SQLException, IOException {
+		final ResultSet resultSet = selectRows();
+		final SpillFileRowSource rowSource = new SpillFileRowSource( resultSet, LAYOUT, spillDirectory, WINDOW_SIZE );
+		assertEquals( 1, spillDirectory.listFiles().length );
+
+		// the JDBC ResultSet is only read as far as needed
+		assertRow( 10, rowSource.getRow( 10 ) );
+		assertEquals( 10, resultSet.getRow() );
+
+		for ( int i = 1; i <= ROW_COUNT; i++ ) {
+			assertRow( i, rowSource.nextRow() );
+		}
+		assertNull( rowSource.nextRow() );
+		assertEquals( ROW_COUNT, rowSource.getRowCount() );
+		// most rows were flushed to the file by now
+		assertTrue( spillDirectory.listFiles()[0].length() > ROW_COUNT * 100L );
+
+		// backwards, through the mapped windows
+		for ( int i = ROW_COUNT; i >= 1; i-- ) {
+			assertRow( i, rowSource.getRow( i ) );
+		}
+		assertNull( rowSource.getRow( 0 ) );
+		assertNull( rowSource.getRow( ROW_COUNT + 1 ) );
+
+		rowSource.close();
+		assertEquals( 0, spillDirectory.listFiles().length );
+		// the JDBC ResultSet is left to its owner
+		assertFalse( resultSet.isClosed() );
+	}
+
+	@Test
+	public void testScrolling() throws SQLException {
+		final ResultSet scrollable = BufferedRowResultSet.generateProxy(
+				LAYOUT,
+				new SpillFileRowSource( selectRows(), LAYOUT, spillDirectory, WINDOW_SIZE )
+		);
+		assertTrue( scrollable.isBeforeFirst() );
+		assertTrue( scrollable.next() );
+		assertScrolledRow( 1, scrollable );
+
+		assertTrue( scrollable.last() );
+		assertTrue( scrollable.isLast() );
+		assertScrolledRow( ROW_COUNT, scrollable );
+		for ( int i = ROW_COUNT - 1; i >= 1; i-- ) {
+			assertTrue( scrollable.previous() );
+			assertScrolledRow( i, scrollable );
+		}
+		assertTrue( scrollable.isFirst() );
+		assertFalse( scrollable.previous() );
+		assertTrue( scrollable.isBeforeFirst() );
+
+		assertTrue( scrollable.absolute( 250 ) );
+		assertScrolledRow( 250, scrollable );
+		assertTrue( scrollable.relative( -100 ) );
+		assertScrolledRow( 150, scrollable );
+		assertTrue( scrollable.absolute( -1 ) );
+		assertScrolledRow( ROW_COUNT, scrollable );
+		assertFalse( scrollable.next() );
+		assertTrue( scrollable.isAfterLast() );
+
+		scrollable.close();
+		assertEquals( 0, spillDirectory.listFiles().length );
+	}
+
+	private ResultSet selectRows() throws SQLException {
+		statement = connection.createStatement();
+		return statement.executeQuery( "select id as id_, text as text_, notes as notes_ from spill_rows order by id" );
+	}
+
+	private static String text(int i) {
+		final StringBuilder text = new StringBuilder( "row " ).append( i );
+		while ( text.length() < 200 ) {
+			text.append( ' ' ).append( i );
+		}
+		return text.toString();
+	}
+
+	private static void assertRow(int i, RowBuffer row) {
+		assertEquals( i, ( (Number) row.getValue( 0 ) ).intValue() );
+		assertEquals( text( i ), row.getValue( 1 ) );
+		// LOBs are materialized as they are spilled
+		assertEquals( "notes of " + i, row.getValue( 2 ) );
+	}
+
+	private static void assertScrolledRow(int i, ResultSet resultSet) throws SQLException {
+		assertEquals( i, resultSet.getRow() );
+		assertEquals( i, resultSet.getInt( "id_" ) );
+		assertEquals( text( i ), resultSet.getString( "text_" ) );
+		assertEquals( "notes of " + i, resultSet.getString( "notes_" ) );
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.internal;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.loader.spi.ProcedureResult;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.transform.ToListResultTransformer;
+import org.hibernate.type.IntegerType;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Executes an H2 Java function returning the ResultSet of an Account load plan query.
+ *
+ * @author Steve Ebersole
+ */
+public class StandardCallableStatementExecutorTest extends BaseCoreFunctionalTestCase {
+	private static volatile String accountSql;
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Account.class, Customer.class };
+	}
+
+	/**
+	 * The function called through the procedure call.
+	 */
+	public static ResultSet findAccount(Connection connection, Integer id) throws SQLException {
+		final PreparedStatement statement = connection.prepareStatement( accountSql );
+		statement.setInt( 1, id == null ? -1 : id );
+		return statement.executeQuery();
+	}
+
+	@Test
+	public void testReturnedResultSetProcessing() throws SQLException {
+		createAccountData();
+
+		Session session = openSession();
+		session.beginTransaction();
+		final SessionImplementor sessionImplementor = (SessionImplementor) session;
+		final CallableStatement statement = StandardCallableStatementExecutor.INSTANCE.prepareCall(
+				"{call find_account(?)}",
+				sessionImplementor
+		);
+		statement.setInt( 1, 1 );
+		final List<List> results = StandardCallableStatementExecutor.INSTANCE.execute(
+				statement,
+				Collections.singletonList(
+						ProcedureResult.returnedResultSet(
+								new ResultSetProcessorImpl( buildAccountLoadPlan() ),
+								ToListResultTransformer.INSTANCE
+						)
+				),
+				sessionImplementor,
+				new QueryParameters( IntegerType.INSTANCE, 1 ),
+				false
+		);
+		assertTrue( statement.isClosed() );
+
+		assertEquals( 1, results.size() );
+		assertEquals( 1, results.get( 0 ).size() );
+		// the forced transformer was applied to the processed rows
+		final List row = (List) results.get( 0 ).get( 0 );
+		final Account account = (Account) row.get( 0 );
+		assertEquals( "checking", account.name );
+		assertTrue( Hibernate.isInitialized( account.customer ) );
+		assertEquals( "steve", account.customer.name );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testMissingReturnedResultSet() throws SQLException {
+		createAccountData();
+
+		Session session = openSession();
+		session.beginTransaction();
+		final SessionImplementor sessionImplementor = (SessionImplementor) session;
+		final CallableStatement statement = StandardCallableStatementExecutor.INSTANCE.prepareCall(
+				"{call find_account(?)}",
+				sessionImplementor
+		);
+		statement.setInt( 1, 1 );
+		final ResultSetProcessorImpl processor = new ResultSetProcessorImpl( buildAccountLoadPlan() );
+		try {
+			StandardCallableStatementExecutor.INSTANCE.execute(
+					statement,
+					Arrays.asList(
+							ProcedureResult.returnedResultSet( processor, null ),
+							ProcedureResult.returnedResultSet( processor, null )
+					),
+					sessionImplementor,
+					new QueryParameters( IntegerType.INSTANCE, 1 ),
+					false
+			);
+			fail( "Expecting the call to be short of a ResultSet" );
+		}
+		catch (SQLException expected) {
+			assertTrue( expected.getMessage(), expected.getMessage().contains( "fewer ResultSets" ) );
+		}
+		// released nonetheless
+		assertTrue( statement.isClosed() );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testRefCursorPositionValidation() {
+		ProcedureResult.refCursor( 0, new ResultSetProcessorImpl( buildAccountLoadPlan() ), null );
+	}
+
+	private LoadPlan buildAccountLoadPlan() {
+		return LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "a", 0 ),
+				(EntityPersister) sessionFactory().getClassMetadata( Account.class )
+		);
+	}
+
+	private void createAccountData() {
+		accountSql = LoadQueryBuilder.generateSql( buildAccountLoadPlan(), sessionFactory() );
+
+		Session session = openSession();
+		session.beginTransaction();
+		session.doWork(
+				new Work() {
+					@Override
+					public void execute(Connection connection) throws SQLException {
+						final Statement statement = connection.createStatement();
+						try {
+							statement.execute(
+									"create alias if not exists find_account for \""
+											+ StandardCallableStatementExecutorTest.class.getName() + ".findAccount\""
+							);
+						}
+						finally {
+							statement.close();
+						}
+					}
+				}
+		);
+		final Customer customer = new Customer( 1, "steve" );
+		session.save( customer );
+		session.save( new Account( 1, "checking", customer ) );
+		session.save( new Account( 2, "savings", customer ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		session.createQuery( "delete Account" ).executeUpdate();
+		session.createQuery( "delete Customer" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Entity( name = "Account" )
+	public static class Account {
+		@Id
+		private Integer id;
+		private String name;
+		@ManyToOne
+		@JoinColumn
+		private Customer customer;
+
+		public Account() {
+		}
+
+		public Account(Integer id, String name, Customer customer) {
+			this.id = id;
+			this.name = name;
+			this.customer = customer;
+		}
+	}
+
+	@Entity( name = "Customer" )
+	public static class Customer {
+		@Id
+		private Integer id;
+		private String name;
+
+		public Customer() {
+		}
+
+		public Customer(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+}
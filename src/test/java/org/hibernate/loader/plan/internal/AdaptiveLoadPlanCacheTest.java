@@ -0,0 +1,242 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.engine.FetchStyle;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.loader.internal.LoadPlanBasedLoader;
+import org.hibernate.loader.plan.spi.EntityReturn;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.persister.entity.EntityPersister;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class AdaptiveLoadPlanCacheTest extends BaseCoreFunctionalTestCase {
+	private static final String PRODUCTS_ROLE = Catalog.class.getName() + ".products";
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Catalog.class, Product.class };
+	}
+
+	@Test
+	public void testObservation() {
+		createCatalog( 6 );
+
+		final ObservedCardinalities observations = newObservations();
+		final AdaptiveLoadPlanCache cache = new AdaptiveLoadPlanCache( sessionFactory(), observations, "c", 4 );
+		final LoadPlanBasedLoader loader = cache.resolveEntityLoader( catalogPersister() );
+		assertEquals( 1, observations.getExpectedCollectionSize( PRODUCTS_ROLE ) );
+
+		Session session = openSession();
+		session.beginTransaction();
+		final Catalog catalog = (Catalog) loader.load( 1, (SessionImplementor) session );
+		assertTrue( Hibernate.isInitialized( catalog.products ) );
+		assertEquals( 6, catalog.products.size() );
+		session.getTransaction().commit();
+		session.close();
+
+		// 6 products, rounded up to a power of 2
+		assertEquals( 8, observations.getExpectedCollectionSize( PRODUCTS_ROLE ) );
+		// the products were join fetched : 6 rows for the single catalog
+		assertEquals( 6, observations.getObservedRowFanOut( loader.getLoadPlan() ) );
+	}
+
+	@Test
+	public void testObservationsTriggerRebuild() {
+		createCatalog( 6 );
+
+		final ObservedCardinalities observations = newObservations();
+		final AdaptiveLoadPlanCache cache = new AdaptiveLoadPlanCache( sessionFactory(), observations, "c", 4 );
+		final EntityPersister persister = catalogPersister();
+
+		final LoadPlan initialPlan = cache.resolveEntityLoadPlan( persister );
+		assertEquals( FetchStyle.JOIN, productsFetch( initialPlan ).getFetchStrategy().getStyle() );
+		assertSame( initialPlan, cache.resolveEntityLoadPlan( persister ) );
+
+		Session session = openSession();
+		session.beginTransaction();
+		cache.resolveEntityLoader( persister ).load( 1, (SessionImplementor) session );
+		session.getTransaction().commit();
+		session.close();
+		assertEquals( 6, observations.getObservedRowFanOut( initialPlan ) );
+
+		// joining 8 expected products duplicates more rows than a round trip is worth
+		final LoadPlan rebuiltPlan = cache.resolveEntityLoadPlan( persister );
+		assertNotSame( initialPlan, rebuiltPlan );
+		assertEquals( FetchStyle.SUBSELECT, productsFetch( rebuiltPlan ).getFetchStrategy().getStyle() );
+		assertSame( rebuiltPlan, cache.resolveEntityLoadPlan( persister ) );
+		assertEquals( -1, observations.getObservedRowFanOut( initialPlan ) );
+
+		session = openSession();
+		session.beginTransaction();
+		final LoadPlanBasedLoader loader = cache.resolveEntityLoader( persister );
+		assertSame( rebuiltPlan, loader.getLoadPlan() );
+		final Catalog catalog = (Catalog) loader.load( 1, (SessionImplementor) session );
+		assertTrue( Hibernate.isInitialized( catalog.products ) );
+		assertEquals( 6, catalog.products.size() );
+		session.getTransaction().commit();
+		session.close();
+		assertEquals( 1, observations.getObservedRowFanOut( rebuiltPlan ) );
+	}
+
+	@Test
+	public void testLostReplaceRace() {
+		final EntityPersister persister = catalogPersister();
+		final RacingObservations observations = new RacingObservations();
+		final AdaptiveLoadPlanCache cache = new AdaptiveLoadPlanCache( sessionFactory(), observations, "c", 4 );
+		observations.cache = cache;
+
+		final LoadPlan initialPlan = cache.resolveEntityLoadPlan( persister );
+		observations.collectionLoaded( PRODUCTS_ROLE, 6 );
+
+		// a competing rebuild replaces the stale plan while this one is being built
+		observations.racePending = true;
+		final LoadPlan resolvedPlan = cache.resolveEntityLoadPlan( persister );
+		assertNotSame( initialPlan, resolvedPlan );
+		assertSame( observations.winningPlan, resolvedPlan );
+		assertSame( resolvedPlan, cache.resolveEntityLoadPlan( persister ) );
+	}
+
+	private static ObservedCardinalities newObservations() {
+		return new ObservedCardinalities( new StandardCardinalityHints( 1 ), 16, 100 );
+	}
+
+	private EntityPersister catalogPersister() {
+		return sessionFactory().getEntityPersister( Catalog.class.getName() );
+	}
+
+	private static Fetch productsFetch(LoadPlan loadPlan) {
+		final Fetch[] fetches = ( (EntityReturn) loadPlan.getReturns().get( 0 ) ).getFetches();
+		assertEquals( 1, fetches.length );
+		return fetches[0];
+	}
+
+	private void createCatalog(int productCount) {
+		Session session = openSession();
+		session.beginTransaction();
+		final Catalog catalog = new Catalog( 1 );
+		session.save( catalog );
+		for ( int i = 1; i <= productCount; i++ ) {
+			session.save( new Product( i, "product " + i, catalog ) );
+		}
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		session.createQuery( "delete Product" ).executeUpdate();
+		session.createQuery( "delete Catalog" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	/**
+	 * Observations through which a rebuild of the plan triggers a competing rebuild, which wins.
+	 */
+	private class RacingObservations extends ObservedCardinalities {
+		private AdaptiveLoadPlanCache cache;
+		private boolean racePending;
+		private LoadPlan winningPlan;
+
+		private RacingObservations() {
+			super( new StandardCardinalityHints( 1 ), 16, 100 );
+		}
+
+		@Override
+		public int getExpectedCollectionSize(String role) {
+			if ( racePending ) {
+				racePending = false;
+				winningPlan = cache.resolveEntityLoadPlan( catalogPersister() );
+			}
+			return super.getExpectedCollectionSize( role );
+		}
+	}
+
+	@Entity( name = "Catalog" )
+	public static class Catalog {
+		@Id
+		private Integer id;
+		@OneToMany( mappedBy = "catalog", fetch = FetchType.EAGER )
+		@org.hibernate.annotations.Fetch( FetchMode.JOIN )
+		private Set<Product> products = new HashSet<Product>();
+
+		public Catalog() {
+		}
+
+		public Catalog(Integer id) {
+			this.id = id;
+		}
+	}
+
+	@Entity( name = "Product" )
+	public static class Product {
+		@Id
+		private Integer id;
+		private String name;
+		@ManyToOne( fetch = FetchType.LAZY )
+		@JoinColumn
+		private Catalog catalog;
+
+		public Product() {
+		}
+
+		public Product(Integer id, String name, Catalog catalog) {
+			this.id = id;
+			this.name = name;
+			this.catalog = catalog;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.loader.CollectionAliases;
+import org.hibernate.loader.EntityAliases;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.Loadable;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class AliasTableCacheTest extends BaseCoreFunctionalTestCase {
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Item.class };
+	}
+
+	@Test
+	public void testCachedPerSessionFactory() {
+		final AliasTableCache cache = AliasTableCache.forSessionFactory( sessionFactory() );
+		assertSame( cache, AliasTableCache.forSessionFactory( sessionFactory() ) );
+
+		final EntityAliases entityAliases = cache.getEntityAliases( itemPersister(), AliasTableCache.suffix( 0 ) );
+		assertSame( entityAliases, cache.getEntityAliases( itemPersister(), AliasTableCache.suffix( 0 ) ) );
+		assertNotSame( entityAliases, cache.getEntityAliases( itemPersister(), AliasTableCache.suffix( 1 ) ) );
+		assertEquals( "0_", entityAliases.getSuffix() );
+
+		final CollectionAliases collectionAliases = cache.getCollectionAliases(
+				tagsPersister(),
+				AliasTableCache.suffix( 2 )
+		);
+		assertSame( collectionAliases, cache.getCollectionAliases( tagsPersister(), AliasTableCache.suffix( 2 ) ) );
+		assertEquals( "2_", collectionAliases.getSuffix() );
+	}
+
+	@Test
+	public void testBounded() {
+		final AliasTableCache cache = new AliasTableCache( 4 );
+		for ( int i = 0; i < 50; i++ ) {
+			final String suffix = AliasTableCache.suffix( i );
+			assertEquals( suffix, cache.getEntityAliases( itemPersister(), suffix ).getSuffix() );
+			assertEquals( suffix, cache.getCollectionAliases( tagsPersister(), suffix ).getSuffix() );
+			assertTrue( cache.size() <= 8 );
+		}
+	}
+
+	@Test
+	public void testReleasedOnClose() {
+		final SessionFactoryImplementor other = (SessionFactoryImplementor) configuration().buildSessionFactory(
+				serviceRegistry()
+		);
+		final AliasTableCache cache;
+		try {
+			cache = AliasTableCache.forSessionFactory( other );
+			assertSame( cache, AliasTableCache.forSessionFactory( other ) );
+			assertNotSame( cache, AliasTableCache.forSessionFactory( sessionFactory() ) );
+		}
+		finally {
+			other.close();
+		}
+		// no longer held for the closed SessionFactory
+		assertNotSame( cache, AliasTableCache.forSessionFactory( other ) );
+		assertNotSame( AliasTableCache.forSessionFactory( other ), AliasTableCache.forSessionFactory( other ) );
+	}
+
+	private Loadable itemPersister() {
+		return (Loadable) sessionFactory().getEntityPersister( Item.class.getName() );
+	}
+
+	private CollectionPersister tagsPersister() {
+		return sessionFactory().getCollectionPersister( Item.class.getName() + ".tags" );
+	}
+
+	@Entity( name = "Item" )
+	public static class Item {
+		@Id
+		private Integer id;
+		private String name;
+		@ElementCollection
+		private Set<String> tags = new HashSet<String>();
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.internal;
+
+import javax.persistence.Cacheable;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+
+import org.hibernate.Session;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.FetchStyle;
+import org.hibernate.engine.FetchTiming;
+import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.loader.plan.spi.EntityFetch;
+import org.hibernate.loader.plan.spi.EntityReturn;
+import org.hibernate.loader.plan.spi.Fetch;
+import org.hibernate.loader.plan.spi.LoadPlan;
+import org.hibernate.loader.plan.spi.LoadPlanBuilder;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+import org.hibernate.testing.junit4.ExtraAssertions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Steve Ebersole
+ */
+public class CacheAwareLoadPlanBuilderStrategyTest extends BaseCoreFunctionalTestCase {
+	@Override
+	protected void configure(Configuration configuration) {
+		super.configure( configuration );
+		configuration.setProperty( Environment.USE_SECOND_LEVEL_CACHE, "true" );
+		configuration.setProperty( Environment.GENERATE_STATISTICS, "true" );
+	}
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Invoice.class, Currency.class, Country.class, Customer.class };
+	}
+
+	@Test
+	public void testJoinedWithoutEnoughRequests() {
+		createData();
+
+		final EntityReturn invoice = buildInvoicePlan();
+		// the fetches are joined as usual, and walked
+		final EntityFetch currency = locateFetch( invoice, "currency" );
+		assertEquals( FetchStyle.JOIN, currency.getFetchStrategy().getStyle() );
+		assertEquals( 1, currency.getFetches().length );
+		assertEquals( "country", currency.getFetches()[0].getOwnerPropertyName() );
+		assertEquals( FetchStyle.JOIN, locateFetch( invoice, "customer" ).getFetchStrategy().getStyle() );
+	}
+
+	@Test
+	public void testWellCachedTargetResolvedFromCache() {
+		createData();
+		for ( int i = 0; i < 20; i++ ) {
+			Session session = openSession();
+			session.beginTransaction();
+			session.get( Currency.class, "EUR" );
+			session.getTransaction().commit();
+			session.close();
+		}
+		assertTrue( currencyCacheStatistics().getHitCount() >= 10 );
+
+		final EntityReturn invoice = buildInvoicePlan();
+		// the currency is resolved from the cache by the foreign key : not joined, nor walked
+		final EntityFetch currency = locateFetch( invoice, "currency" );
+		assertEquals( FetchTiming.IMMEDIATE, currency.getFetchStrategy().getTiming() );
+		assertEquals( FetchStyle.BATCH, currency.getFetchStrategy().getStyle() );
+		assertEquals( 0, currency.getFetches().length );
+		// the customer is not cached, so it is still joined
+		assertEquals( FetchStyle.JOIN, locateFetch( invoice, "customer" ).getFetchStrategy().getStyle() );
+	}
+
+	@Test
+	public void testPoorlyCachedTargetJoined() {
+		createData();
+		for ( int i = 0; i < 20; i++ ) {
+			Session session = openSession();
+			session.beginTransaction();
+			assertNull( session.get( Currency.class, "X" + i ) );
+			session.getTransaction().commit();
+			session.close();
+		}
+		assertTrue( currencyCacheStatistics().getMissCount() >= 10 );
+
+		final EntityFetch currency = locateFetch( buildInvoicePlan(), "currency" );
+		assertEquals( FetchStyle.JOIN, currency.getFetchStrategy().getStyle() );
+		assertEquals( 1, currency.getFetches().length );
+	}
+
+	private EntityReturn buildInvoicePlan() {
+		final LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new CacheAwareLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "i", 0, 0.9, 10 ),
+				(EntityPersister) sessionFactory().getClassMetadata( Invoice.class )
+		);
+		return ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+	}
+
+	private SecondLevelCacheStatistics currencyCacheStatistics() {
+		final EntityPersister persister = sessionFactory().getEntityPersister( Currency.class.getName() );
+		return sessionFactory().getStatistics().getSecondLevelCacheStatistics(
+				persister.getCacheAccessStrategy().getRegion().getName()
+		);
+	}
+
+	private static EntityFetch locateFetch(EntityReturn entityReturn, String propertyName) {
+		for ( Fetch fetch : entityReturn.getFetches() ) {
+			if ( propertyName.equals( fetch.getOwnerPropertyName() ) ) {
+				return ExtraAssertions.assertTyping( EntityFetch.class, fetch );
+			}
+		}
+		fail( "No fetch of " + propertyName );
+		return null;
+	}
+
+	private void createData() {
+		Session session = openSession();
+		session.beginTransaction();
+		final Country country = new Country( "BE", "Belgium" );
+		session.save( country );
+		final Currency currency = new Currency( "EUR", country );
+		session.save( currency );
+		final Customer customer = new Customer( 1, "steve" );
+		session.save( customer );
+		session.save( new Invoice( 1, currency, customer ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Override
+	protected boolean isCleanupTestDataRequired() {
+		return true;
+	}
+
+	@Override
+	protected void cleanupTestData() throws Exception {
+		Session session = openSession();
+		session.beginTransaction();
+		session.createQuery( "delete Invoice" ).executeUpdate();
+		session.createQuery( "delete Customer" ).executeUpdate();
+		session.createQuery( "delete Currency" ).executeUpdate();
+		session.createQuery( "delete Country" ).executeUpdate();
+		session.getTransaction().commit();
+		session.close();
+		sessionFactory().getCache().evictEntityRegions();
+		sessionFactory().getStatistics().clear();
+	}
+
+	@Entity( name = "Invoice" )
+	public static class Invoice {
+		@Id
+		private Integer id;
+		@ManyToOne
+		@JoinColumn
+		private Currency currency;
+		@ManyToOne
+		@JoinColumn
+		private Customer customer;
+
+		public Invoice() {
+		}
+
+		public Invoice(Integer id, Currency currency, Customer customer) {
+			this.id = id;
+			this.currency = currency;
+			this.customer = customer;
+		}
+	}
+
+	@Entity( name = "Currency" )
+	@Cacheable
+	@Cache( usage = CacheConcurrencyStrategy.READ_WRITE )
+	public static class Currency {
+		@Id
+		private String code;
+		@ManyToOne( fetch = FetchType.EAGER )
+		@JoinColumn
+		private Country country;
+
+		public Currency() {
+		}
+
+		public Currency(String code, Country country) {
+			this.code = code;
+			this.country = country;
+		}
+	}
+
+	@Entity( name = "Country" )
+	public static class Country {
+		@Id
+		private String code;
+		private String name;
+
+		public Country() {
+		}
+
+		public Country(String code, String name) {
+			this.code = code;
+			this.name = name;
+		}
+	}
+
+	@Entity( name = "Customer" )
+	public static class Customer {
+		@Id
+		private Integer id;
+		private String name;
+
+		public Customer() {
+		}
+
+		public Customer(Integer id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+}
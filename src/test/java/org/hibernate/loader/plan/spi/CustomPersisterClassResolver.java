@@ -23,6 +23,7 @@
  */
 package org.hibernate.loader.plan.spi;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.hibernate.HibernateException;
@@ -50,6 +51,7 @@ import org.hibernate.mapping.PersistentClass;
 import org.hibernate.metamodel.binding.CollectionElementNature;
 import org.hibernate.metamodel.binding.EntityBinding;
 import org.hibernate.metamodel.binding.PluralAttributeBinding;
+import org.hibernate.persister.collection.BasicCollectionPersister;
 import org.hibernate.persister.collection.CollectionPersister;
 import org.hibernate.persister.collection.OneToManyPersister;
 import org.hibernate.persister.entity.EntityPersister;
@@ -101,7 +103,8 @@ public class CustomPersisterClassResolver extends StandardPersisterClassResolver
 	}
 
 	protected Class<? extends CollectionPersister> basicCollectionPersister() {
-		throw new NotYetImplementedException();
+		// walked through the standard CollectionDefinitionImpl
+		return BasicCollectionPersister.class;
 	}
 
 
@@ -134,49 +137,9 @@ public class CustomPersisterClassResolver extends StandardPersisterClassResolver
 
 		@Override
 		public Iterable<AttributeDefinition> getEmbeddedCompositeIdentifierAttributes() {
-			final Type idType = getIdentifierType();
-			if ( idType.isComponentType() ) {
-				final CompositeType cidType = (CompositeType) idType;
-				if ( cidType.isEmbedded() ) {
-					// we have an embedded composite identifier.  Most likely we need to process the composite
-					// properties separately, although there is an edge case where the identifier is really
-					// a simple identifier (single value) wrapped in a JPA @IdClass or even in the case of a
-					// a simple identifier (single value) wrapped in a Hibernate composite type.
-					//
-					// We really do not have a built-in method to determine that.  However, generally the
-					// persister would report that there is single, physical identifier property which is
-					// explicitly at odds with the notion of "embedded composite".  So we use that for now
-					if ( getEntityMetamodel().getIdentifierProperty().isEmbedded() ) {
-						return new Iterable<AttributeDefinition>() {
-							@Override
-							public Iterator<AttributeDefinition> iterator() {
-								return new Iterator<AttributeDefinition>() {
-									private final int numberOfAttributes = countSubclassProperties();
-									private int currentAttributeNumber = 0;
-
-									@Override
-									public boolean hasNext() {
-										return currentAttributeNumber < numberOfAttributes;
-									}
-
-									@Override
-									public AttributeDefinition next() {
-										// todo : implement
-										return null;  //To change body of implemented methods use File | Settings | File Templates.
-									}
-
-									@Override
-									public void remove() {
-										throw new UnsupportedOperationException( "Remove operation not supported here" );
-									}
-								};
-							}
-						};
-					}
-				}
-			}
-
-			return null;
+			final AttributeDefinition[] attributeDefinitions =
+					EntityDefinitionImpl.buildEmbeddedCompositeIdentifierAttributes( this );
+			return attributeDefinitions == null ? null : Arrays.asList( attributeDefinitions );
 		}
 
 		@Override
@@ -0,0 +1,113 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.loader.plan.spi;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import org.hibernate.persister.entity.EntityPersister;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Steve Ebersole
+ */
+public class FetchGroupTest extends BaseCoreFunctionalTestCase {
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Animal.class, Dog.class, Vehicle.class, Car.class };
+	}
+
+	@Test
+	public void testSameEntityGroupsAreEqual() {
+		final EntityPersister animalPersister = sessionFactory().getEntityPersister( Animal.class.getName() );
+
+		final FetchGroup group = exactTypeGroup( animalPersister );
+		final FetchGroup sameGroup = exactTypeGroup( animalPersister );
+		assertNotSame( group, sameGroup );
+		assertEquals( Animal.class.getName(), group.getEntityName() );
+		assertEquals( group, sameGroup );
+		assertEquals( group.hashCode(), sameGroup.hashCode() );
+
+		assertSame( FetchGroup.ALL, FetchGroup.standard( animalPersister ) );
+		assertNull( FetchGroup.ALL.getEntityName() );
+		assertFalse( FetchGroup.ALL.equals( group ) );
+	}
+
+	@Test
+	public void testGroupsOfDifferentEntitiesAreNotEqual() {
+		final EntityPersister animalPersister = sessionFactory().getEntityPersister( Animal.class.getName() );
+		final EntityPersister vehiclePersister = sessionFactory().getEntityPersister( Vehicle.class.getName() );
+
+		// both hierarchies have the same shape, so both groups leave out the same property numbers
+		final FetchGroup animalGroup = exactTypeGroup( animalPersister );
+		final FetchGroup vehicleGroup = exactTypeGroup( vehiclePersister );
+		assertTrue( animalGroup.isSubclassAttributesExcluded() );
+		assertTrue( vehicleGroup.isSubclassAttributesExcluded() );
+		for ( int i = 0; i < 2; i++ ) {
+			assertEquals( animalGroup.includes( i ), vehicleGroup.includes( i ) );
+		}
+
+		assertFalse( animalGroup.equals( vehicleGroup ) );
+		assertFalse( vehicleGroup.equals( animalGroup ) );
+		assertFalse( animalGroup.hashCode() == vehicleGroup.hashCode() );
+	}
+
+	private static FetchGroup exactTypeGroup(EntityPersister persister) {
+		return FetchGroup.standard( persister ).withoutSubclassAttributes( persister );
+	}
+
+	@Entity( name = "Animal" )
+	public static class Animal {
+		@Id
+		private Integer id;
+		private String name;
+	}
+
+	@Entity( name = "Dog" )
+	public static class Dog extends Animal {
+		private String bark;
+	}
+
+	@Entity( name = "Vehicle" )
+	public static class Vehicle {
+		@Id
+		private Integer id;
+		private String name;
+	}
+
+	@Entity( name = "Car" )
+	public static class Car extends Vehicle {
+		private Integer doors;
+	}
+}
@@ -24,21 +24,72 @@
 package org.hibernate.loader.plan.spi;
 
 import javax.persistence.CascadeType;
+import javax.persistence.ElementCollection;
+import javax.persistence.Embeddable;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import java.io.File;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.FetchProfile;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.FetchStyle;
 import org.hibernate.engine.spi.CascadingActions;
 import org.hibernate.engine.spi.LoadQueryInfluencers;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.loader.internal.FetchSizeCalculator;
+import org.hibernate.loader.internal.LoadPlanBasedLoader;
+import org.hibernate.loader.internal.LoadQueryBuilder;
+import org.hibernate.loader.internal.ResultSetProcessorImpl;
 import org.hibernate.loader.plan.internal.CascadeLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.internal.FetchGraphLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.internal.FetchGraphLoadPlanCache;
+import org.hibernate.loader.plan.internal.FetchProfileLoadPlanCache;
+import org.hibernate.loader.plan.internal.LoadPlanImpl;
+import org.hibernate.loader.plan.internal.MappingFingerprint;
+import org.hibernate.loader.plan.internal.PersistentLoadPlanCache;
 import org.hibernate.loader.plan.internal.SingleRootReturnLoadPlanBuilderStrategy;
+import org.hibernate.loader.plan.internal.StandardCardinalityHints;
+import org.hibernate.loader.plan.internal.SubtreeInterningTable;
+import org.hibernate.loader.spi.NoOpLoadPlanMonitor;
+import org.hibernate.loader.spi.ResultSetProcessor;
 import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.QueryableCollection;
 import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Loadable;
+import org.hibernate.persister.walking.internal.CollectionCompositeDefinition;
+import org.hibernate.persister.walking.internal.FetchReachabilityIndex;
+import org.hibernate.persister.walking.internal.MetamodelGraph;
+import org.hibernate.persister.walking.spi.AssociationAttributeDefinition;
+import org.hibernate.persister.walking.spi.AssociationKey;
+import org.hibernate.persister.walking.spi.AssociationVisitationStrategy;
+import org.hibernate.persister.walking.spi.AttributeDefinition;
+import org.hibernate.persister.walking.spi.CollectionDefinition;
+import org.hibernate.persister.walking.spi.CompositeDefinition;
+import org.hibernate.persister.walking.spi.EntityDefinition;
+import org.hibernate.persister.walking.spi.MetadataDrivenAssociationVisitor;
 import org.hibernate.persister.spi.PersisterClassResolver;
+import org.hibernate.transform.ResultTransformer;
 
 import org.junit.Test;
 
@@ -48,6 +99,10 @@ import org.hibernate.testing.junit4.ExtraAssertions;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Steve Ebersole
@@ -61,7 +116,7 @@ public class LoadPlanBuilderTest extends BaseCoreFunctionalTestCase {
 
 	@Override
 	protected Class<?>[] getAnnotatedClasses() {
-		return new Class[] { Message.class, Poster.class };
+		return new Class[] { Message.class, Poster.class, Notice.class, PinnedNotice.class, Rating.class, Venue.class, Booking.class };
 	}
 
 	@Test
@@ -87,6 +142,52 @@ public class LoadPlanBuilderTest extends BaseCoreFunctionalTestCase {
 		assertEquals( 0, entityFetch.getFetches().length );
 	}
 
+	@Test
+	public void testKeyParameterBinder() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata(Message.class);
+		SingleRootReturnLoadPlanBuilderStrategy strategy = new SingleRootReturnLoadPlanBuilderStrategy(
+				sessionFactory(),
+				LoadQueryInfluencers.NONE,
+				"abc",
+				0
+		);
+		LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan( strategy, ep );
+		final KeyParameterBinder keyBinder = plan.getKeyParameterBinder();
+		assertNotNull( keyBinder );
+		assertEquals( 1, keyBinder.getColumnSpan() );
+		assertSame( keyBinder, plan.getKeyParameterBinder() );
+
+		final Session session = openSession();
+		session.doWork(
+				new Work() {
+					@Override
+					public void execute(Connection connection) throws SQLException {
+						final PreparedStatement statement = connection.prepareStatement( "select ?, ?, ?, ?" );
+						try {
+							int position = keyBinder.bind( statement, 1, 1, (SessionImplementor) session );
+							assertEquals( 2, position );
+							position = keyBinder.bind(
+									statement,
+									new Object[] { 2, 3, 4 },
+									position,
+									(SessionImplementor) session
+							);
+							assertEquals( 5, position );
+							final ResultSet resultSet = statement.executeQuery();
+							assertTrue( resultSet.next() );
+							for ( int i = 1; i <= 4; i++ ) {
+								assertEquals( i, resultSet.getInt( i ) );
+							}
+						}
+						finally {
+							statement.close();
+						}
+					}
+				}
+		);
+		session.close();
+	}
+
 	@Test
 	public void testCascadeBasedBuild() {
 		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata(Message.class);
@@ -135,6 +236,623 @@ public class LoadPlanBuilderTest extends BaseCoreFunctionalTestCase {
 		assertEquals( 0, entityFetch.getFetches().length );
 	}
 
+	@Test
+	public void testCollectionInitializerEstimates() {
+		CollectionPersister cp = sessionFactory().getCollectionPersister( Poster.class.getName() + ".messages" );
+		SingleRootReturnLoadPlanBuilderStrategy strategy = new SingleRootReturnLoadPlanBuilderStrategy(
+				sessionFactory(),
+				LoadQueryInfluencers.NONE,
+				"abc",
+				0,
+				new StandardCardinalityHints().applyCollectionSize( cp.getRole(), 3 ),
+				Long.MAX_VALUE
+		);
+		LoadPlan plan = LoadPlanBuilder.buildRootCollectionLoadPlan( strategy, cp );
+		assertEquals( 3, plan.getEstimatedRowMultiplicity() );
+		assertTrue( plan.getEstimatedColumnWidth() > 0 );
+		String explain = plan.explain();
+		assertTrue( explain, explain.contains( "CollectionReturn(" + cp.getRole() + ")" ) );
+		assertTrue( explain, explain.contains( "EntityFetch(poster)" ) );
+	}
+
+	@Test
+	public void testDerivedFetchSize() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata( Message.class );
+		final LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				ep
+		);
+
+		FetchSizeCalculator calculator = new FetchSizeCalculator( 64 * 1024, 32, 10, 500 );
+		int derivedFetchSize = calculator.determineFetchSize( plan );
+		assertTrue( derivedFetchSize >= 10 && derivedFetchSize <= 500 );
+		assertEquals( derivedFetchSize, executeLoadCapturingFetchSize( plan, calculator ) );
+
+		calculator.applyRoleOverride( ep.getEntityName(), 7 );
+		assertEquals( 7, executeLoadCapturingFetchSize( plan, calculator ) );
+	}
+
+	private int executeLoadCapturingFetchSize(LoadPlan plan, FetchSizeCalculator calculator) {
+		final ResultSetProcessor delegate = new ResultSetProcessorImpl( plan );
+		final int[] fetchSize = new int[] { -1 };
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader(
+				plan,
+				sessionFactory(),
+				new ResultSetProcessor() {
+					@Override
+					public List extractResults(
+							ResultSet resultSet,
+							SessionImplementor session,
+							QueryParameters queryParameters,
+							boolean returnProxies,
+							ResultTransformer forcedResultTransformer) throws SQLException {
+						fetchSize[0] = resultSet.getStatement().getFetchSize();
+						return delegate.extractResults(
+								resultSet,
+								session,
+								queryParameters,
+								returnProxies,
+								forcedResultTransformer
+						);
+					}
+				},
+				calculator
+		);
+
+		Session session = openSession();
+		session.beginTransaction();
+		assertNull( loader.load( 1, (SessionImplementor) session ) );
+		session.getTransaction().commit();
+		session.close();
+		return fetchSize[0];
+	}
+
+	@Test
+	public void testPersistentPlanCache() throws Exception {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata( Message.class );
+		SingleRootReturnLoadPlanBuilderStrategy strategy = new SingleRootReturnLoadPlanBuilderStrategy(
+				sessionFactory(),
+				LoadQueryInfluencers.NONE,
+				"abc",
+				0
+		);
+		LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan( strategy, ep );
+		CollectionPersister cp = sessionFactory().getCollectionPersister( Poster.class.getName() + ".messages" );
+		LoadPlan collectionPlan = LoadPlanBuilder.buildRootCollectionLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy(
+						sessionFactory(),
+						LoadQueryInfluencers.NONE,
+						"abc",
+						0,
+						new StandardCardinalityHints().applyCollectionSize( cp.getRole(), 3 ),
+						Long.MAX_VALUE
+				),
+				cp
+		);
+
+		File file = File.createTempFile( "load-plans", ".cache" );
+		try {
+			PersistentLoadPlanCache cache = new PersistentLoadPlanCache( sessionFactory(), file );
+			cache.put( ep.getEntityName(), plan );
+			cache.save();
+			// replacing the existing file
+			cache.put( cp.getRole(), collectionPlan );
+			cache.save();
+			assertFalse( new File( file.getPath() + ".tmp" ).exists() );
+			assertFalse( new File( file.getPath() + ".bak" ).exists() );
+
+			PersistentLoadPlanCache reloaded = new PersistentLoadPlanCache( sessionFactory(), file );
+			assertEquals( cache.getFingerprint(), reloaded.getFingerprint() );
+			assertEquals( 2, reloaded.load() );
+			LoadPlan recreated = reloaded.get( ep.getEntityName() );
+			assertNotNull( recreated );
+			assertEquals( plan.explain(), recreated.explain() );
+
+			// the cardinality hints survive, along with the estimates derived from them
+			LoadPlan recreatedCollectionPlan = reloaded.get( cp.getRole() );
+			assertNotNull( recreatedCollectionPlan );
+			assertEquals( 3, recreatedCollectionPlan.getCardinalityHints().getExpectedCollectionSize( cp.getRole() ) );
+			assertEquals( 3, recreatedCollectionPlan.getEstimatedRowMultiplicity() );
+			assertEquals( collectionPlan.explain(), recreatedCollectionPlan.explain() );
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testMappingFingerprintSettings() {
+		String fingerprint = MappingFingerprint.compute( sessionFactory() );
+		assertEquals( fingerprint, MappingFingerprint.compute( sessionFactory() ) );
+
+		// same mappings, but plans would be built with a different batch size
+		configuration().setProperty( AvailableSettings.DEFAULT_BATCH_FETCH_SIZE, "25" );
+		SessionFactoryImplementor other = (SessionFactoryImplementor) configuration().buildSessionFactory(
+				serviceRegistry()
+		);
+		try {
+			assertEquals( 25, other.getSettings().getDefaultBatchFetchSize() );
+			assertFalse( fingerprint.equals( MappingFingerprint.compute( other ) ) );
+		}
+		finally {
+			other.close();
+		}
+	}
+
+	@Test
+	public void testSubtreeInterning() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata( Message.class );
+		LoadPlan plan1 = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				ep
+		);
+		LoadPlan plan2 = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "xyz", 10 ),
+				ep
+		);
+
+		SubtreeInterningTable interningTable = new SubtreeInterningTable( 16 );
+		SubtreeShape shape1 = interningTable.intern( plan1 ).get( 0 );
+		SubtreeShape shape2 = interningTable.intern( plan2 ).get( 0 );
+		assertSame( shape1, shape2 );
+		assertEquals(
+				SubtreeShape.of( (FetchOwner) plan1.getReturns().get( 0 ) ).getFingerprint(),
+				shape1.getFingerprint()
+		);
+		assertEquals( 2, interningTable.size() );
+
+		// the builder interns the plans it builds in the SessionFactory's table, sharing their column width
+		List<SubtreeShape> returnShapes = ( (LoadPlanImpl) plan1 ).getReturnShapes();
+		assertNotNull( returnShapes );
+		assertSame( returnShapes.get( 0 ), ( (LoadPlanImpl) plan2 ).getReturnShapes().get( 0 ) );
+		assertSame(
+				returnShapes.get( 0 ),
+				SubtreeInterningTable.forSessionFactory( sessionFactory() ).intern( plan1 ).get( 0 )
+		);
+		assertEquals( LoadPlanEstimator.estimateColumnWidth( plan1 ), plan1.getEstimatedColumnWidth() );
+		assertEquals( plan1.getEstimatedColumnWidth(), plan2.getEstimatedColumnWidth() );
+
+		// a plan with a different shape
+		LoadPlan posterPlan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				(EntityPersister) sessionFactory().getClassMetadata( Poster.class )
+		);
+		assertFalse( returnShapes.get( 0 ).equals( ( (LoadPlanImpl) posterPlan ).getReturnShapes().get( 0 ) ) );
+	}
+
+	@Test
+	public void testSubtreeInterningBounded() {
+		SubtreeInterningTable interningTable = new SubtreeInterningTable( 4 );
+		for ( String entityName : sessionFactory().getEntityPersisters().keySet() ) {
+			LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+					new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+					sessionFactory().getEntityPersister( entityName )
+			);
+			SubtreeShape shape = interningTable.intern( plan ).get( 0 );
+			// always structurally equal to the plan's own shape, whether or not it was evicted since
+			assertEquals( shape, interningTable.intern( plan ).get( 0 ) );
+			assertTrue( interningTable.size() <= 4 );
+		}
+	}
+
+	@Test
+	public void testMetamodelGraph() {
+		MetamodelGraph graph = MetamodelGraph.forSessionFactory( sessionFactory() );
+		assertSame( graph, MetamodelGraph.forSessionFactory( sessionFactory() ) );
+		assertEquals( sessionFactory().getEntityPersisters().size(), graph.getEntityNodeCount() );
+		assertEquals(
+				graph.getEntityNodeCount() + sessionFactory().getCollectionPersisters().size(),
+				graph.getNodeCount()
+		);
+		for ( String entityName : sessionFactory().getEntityPersisters().keySet() ) {
+			assertFalse( graph.isCollectionNode( graph.getNodeId( entityName ) ) );
+		}
+
+		// collections of basic or composite elements lead nowhere
+		int addressesNode = graph.getNodeId( Venue.class.getName() + ".addresses" );
+		assertTrue( graph.isCollectionNode( addressesNode ) );
+		assertEquals( 0, graph.getEdgeCount( addressesNode ) );
+		assertEquals( MetamodelGraph.NONE, graph.getNodeId( Venue.class.getName() + ".unknown" ) );
+
+		int messageNode = graph.getNodeId( Message.class.getName() );
+		int posterNode = graph.getNodeId( Poster.class.getName() );
+		assertEquals( 1, graph.getEdgeCount( messageNode ) );
+		assertEquals( MetamodelGraph.ENTITY_EDGE, graph.getEdgeKind( messageNode, 0 ) );
+		assertEquals( posterNode, graph.getEdgeTarget( messageNode, 0 ) );
+		assertTrue( graph.isJoinFetchedByMetadata( messageNode, 0 ) );
+		assertNotNull( graph.getEdgeAssociationKey( messageNode, 0 ) );
+
+		assertEquals( MetamodelGraph.COLLECTION_EDGE, graph.getEdgeKind( posterNode, 0 ) );
+		int messagesNode = graph.getEdgeTarget( posterNode, 0 );
+		assertTrue( graph.isCollectionNode( messagesNode ) );
+		assertEquals( messageNode, graph.getEdgeTarget( messagesNode, 0 ) );
+	}
+
+	@Test
+	public void testFetchReachability() {
+		FetchReachabilityIndex index = FetchReachabilityIndex.forInfluencers( sessionFactory(), LoadQueryInfluencers.NONE );
+		assertSame( index, FetchReachabilityIndex.forInfluencers( sessionFactory(), LoadQueryInfluencers.NONE ) );
+		EntityPersister messagePersister = (EntityPersister) sessionFactory().getClassMetadata( Message.class );
+		EntityPersister posterPersister = (EntityPersister) sessionFactory().getClassMetadata( Poster.class );
+		assertTrue( index.canProduceFetches( messagePersister ) );
+		assertFalse( index.canProduceFetches( posterPersister ) );
+
+		LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				posterPersister
+		);
+		EntityReturn entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( 0, entityReturn.getFetches().length );
+	}
+
+	@Test
+	public void testFetchProfileVariants() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata( Message.class );
+		FetchProfileLoadPlanCache cache = new FetchProfileLoadPlanCache( sessionFactory(), "abc" );
+		LoadPlan plan = cache.resolveEntityLoadPlan( ep, LoadQueryInfluencers.NONE );
+		assertSame( plan, cache.resolveEntityLoadPlan( ep, new LoadQueryInfluencers( sessionFactory() ) ) );
+		assertEquals( 1, cache.size() );
+		assertTrue( cache.determineEffectiveProfiles( ep.getEntityName(), LoadQueryInfluencers.NONE ).isEmpty() );
+
+		// a profile which cannot affect Message plans resolves to the base plan
+		LoadQueryInfluencers venueProfile = new LoadQueryInfluencers( sessionFactory() );
+		venueProfile.enableFetchProfile( "venue-addresses" );
+		assertTrue( cache.determineEffectiveProfiles( ep.getEntityName(), venueProfile ).isEmpty() );
+		assertSame( plan, cache.resolveEntityLoadPlan( ep, venueProfile ) );
+
+		// whereas join fetching the messages of the (join fetched) poster changes the plan
+		LoadQueryInfluencers posterProfile = new LoadQueryInfluencers( sessionFactory() );
+		posterProfile.enableFetchProfile( "poster-messages" );
+		assertFalse( cache.determineEffectiveProfiles( ep.getEntityName(), posterProfile ).isEmpty() );
+		LoadPlan variant = cache.resolveEntityLoadPlan( ep, posterProfile );
+		assertNotSame( plan, variant );
+		assertSame( variant, cache.resolveEntityLoadPlan( ep, posterProfile ) );
+		assertEquals( 2, cache.size() );
+
+		posterProfile.enableFetchProfile( "venue-addresses" );
+		assertSame( variant, cache.resolveEntityLoadPlan( ep, posterProfile ) );
+		assertEquals( 2, cache.size() );
+
+		EntityReturn baseReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		EntityFetch basePosterFetch = ExtraAssertions.assertTyping( EntityFetch.class, baseReturn.getFetches()[0] );
+		assertEquals( 0, basePosterFetch.getFetches().length );
+
+		EntityReturn variantReturn = ExtraAssertions.assertTyping( EntityReturn.class, variant.getReturns().get( 0 ) );
+		EntityFetch posterFetch = ExtraAssertions.assertTyping( EntityFetch.class, variantReturn.getFetches()[0] );
+		assertEquals( 1, posterFetch.getFetches().length );
+		CollectionFetch messagesFetch = ExtraAssertions.assertTyping(
+				CollectionFetch.class,
+				posterFetch.getFetches()[0]
+		);
+		assertEquals( "messages", messagesFetch.getOwnerPropertyName() );
+		assertEquals( FetchStyle.JOIN, messagesFetch.getFetchStrategy().getStyle() );
+	}
+
+	@Test
+	public void testLockModes() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata( Message.class );
+		LockOptions lockOptions = new LockOptions( LockMode.PESSIMISTIC_WRITE );
+		lockOptions.setAliasSpecificLockMode( "poster", LockMode.PESSIMISTIC_READ );
+		LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0, lockOptions ),
+				ep
+		);
+		EntityReturn entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( LockMode.PESSIMISTIC_WRITE, entityReturn.getLockMode() );
+		EntityFetch entityFetch = ExtraAssertions.assertTyping( EntityFetch.class, entityReturn.getFetches()[0] );
+		assertEquals( LockMode.PESSIMISTIC_READ, entityFetch.getLockMode() );
+
+		FollowOnLockingPlan followOnLockingPlan = plan.getFollowOnLockingPlan();
+		assertNotNull( followOnLockingPlan );
+		assertEquals( 2, followOnLockingPlan.getLockTargets().size() );
+		assertSame( followOnLockingPlan.getLockTargets().get( 1 ), followOnLockingPlan.locateLockTarget( entityFetch ) );
+	}
+
+	@Test
+	public void testFetchGraphBasedBuild() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata(Poster.class);
+		FetchGraphLoadPlanCache cache = new FetchGraphLoadPlanCache( sessionFactory(), "abc" );
+
+		FetchGraph graph = new FetchGraph();
+		graph.addSubgraph( "messages" ).addAttributeNode( "poster" );
+		LoadPlan plan = cache.resolveEntityLoadPlan( ep, graph, FetchGraphLoadPlanBuilderStrategy.Semantic.FETCH );
+		EntityReturn entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( 1, entityReturn.getFetches().length );
+		CollectionFetch collectionFetch = ExtraAssertions.assertTyping(
+				CollectionFetch.class,
+				entityReturn.getFetches()[0]
+		);
+		assertEquals( FetchStyle.JOIN, collectionFetch.getFetchStrategy().getStyle() );
+
+		// an equal, but separately built, graph should share the plan
+		FetchGraph equalGraph = new FetchGraph();
+		equalGraph.addSubgraph( "messages" ).addAttributeNode( "poster" );
+		assertSame(
+				plan,
+				cache.resolveEntityLoadPlan( ep, equalGraph, FetchGraphLoadPlanBuilderStrategy.Semantic.FETCH )
+		);
+		assertEquals( 1, cache.size() );
+
+		// fetch graph semantic : the (eager) poster is not fetched if not named
+		EntityPersister messagePersister = (EntityPersister) sessionFactory().getClassMetadata(Message.class);
+		plan = cache.resolveEntityLoadPlan(
+				messagePersister,
+				FetchGraph.EMPTY,
+				FetchGraphLoadPlanBuilderStrategy.Semantic.FETCH
+		);
+		entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( 0, entityReturn.getFetches().length );
+
+		// load graph semantic : the (eager) poster is fetched according to its mapping
+		plan = cache.resolveEntityLoadPlan(
+				messagePersister,
+				FetchGraph.EMPTY,
+				FetchGraphLoadPlanBuilderStrategy.Semantic.LOAD
+		);
+		entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( 1, entityReturn.getFetches().length );
+	}
+
+	@Test
+	public void testMonitoredBuild() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata(Message.class);
+		SingleRootReturnLoadPlanBuilderStrategy strategy = new SingleRootReturnLoadPlanBuilderStrategy(
+				sessionFactory(),
+				LoadQueryInfluencers.NONE,
+				"abc",
+				0
+		);
+		final List<Integer> nodeCounts = new ArrayList<Integer>();
+		LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				strategy,
+				ep,
+				new NoOpLoadPlanMonitor() {
+					@Override
+					public boolean isEnabled() {
+						return true;
+					}
+
+					@Override
+					public void loadPlanBuilt(
+							LoadPlan loadPlan,
+							String rootRole,
+							LoadPlanBuilderStrategy strategy,
+							int nodeCount,
+							long durationNanos) {
+						assertEquals( Message.class.getName(), rootRole );
+						nodeCounts.add( nodeCount );
+					}
+				}
+		);
+		assertNotNull( plan );
+		assertEquals( 1, nodeCounts.size() );
+		assertEquals( 2, nodeCounts.get( 0 ).intValue() );
+	}
+
+	@Test
+	public void testConcreteEntityPlan() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata( Notice.class );
+		LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				ep
+		);
+		EntityReturn entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( 1, entityReturn.getFetches().length );
+		assertTrue( entityReturn.getFetchGroup().isAll() );
+		final String sql = LoadQueryBuilder.generateSql( plan, sessionFactory() ).toLowerCase();
+		assertTrue( sql, sql.contains( ".pinnedby_id" ) );
+
+		// known to be exactly a Notice : the subclass' pinnedBy association is neither walked nor read
+		plan = LoadPlanBuilder.buildConcreteEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				ep
+		);
+		entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( 0, entityReturn.getFetches().length );
+		assertTrue( entityReturn.getFetchGroup().isSubclassAttributesExcluded() );
+		final List<String> concreteAliases = Arrays.asList(
+				entityReturn.getFetchGroup().resolveColumnAliases( (Loadable) ep, entityReturn.getEntityAliases() )
+		);
+		final List<String> allAliases = Arrays.asList(
+				FetchGroup.ALL.resolveColumnAliases( (Loadable) ep, entityReturn.getEntityAliases() )
+		);
+		// the pinnedBy column is only read when PinnedNotice instances can be loaded
+		assertEquals( allAliases.size() - 1, concreteAliases.size() );
+		assertTrue( allAliases.containsAll( concreteAliases ) );
+		// ... nor selected
+		final String concreteSql = LoadQueryBuilder.generateSql( plan, sessionFactory() ).toLowerCase();
+		assertTrue( concreteSql, concreteSql.contains( ".text" ) );
+		assertFalse( concreteSql, concreteSql.contains( ".pinnedby_id" ) );
+		final LoadPlanBasedLoader loader = new LoadPlanBasedLoader( plan, sessionFactory() );
+		assertEquals( concreteSql, loader.getSqlString().toLowerCase() );
+
+		Session session = openSession();
+		session.beginTransaction();
+		assertNull( loader.load( 1, (SessionImplementor) session ) );
+		session.getTransaction().commit();
+		session.close();
+	}
+
+	@Test
+	public void testEmbeddedCompositeIdentifierPlan() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata( Rating.class );
+		LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				ep
+		);
+		EntityReturn entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( 1, entityReturn.getFetches().length );
+		EntityFetch entityFetch = ExtraAssertions.assertTyping( EntityFetch.class, entityReturn.getFetches()[0] );
+		assertEquals( "poster", entityFetch.getOwnerPropertyName() );
+		assertEquals( Poster.class.getName(), entityFetch.getEntityPersister().getEntityName() );
+	}
+
+	@Test
+	public void testCompositeElementCollectionPlan() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata( Venue.class );
+		LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				ep
+		);
+		EntityReturn entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( 1, entityReturn.getFetches().length );
+		CollectionFetch collectionFetch = ExtraAssertions.assertTyping(
+				CollectionFetch.class,
+				entityReturn.getFetches()[0]
+		);
+		assertEquals( 2, collectionFetch.getCollectionAliases().getSuffixedElementAliases().length );
+	}
+
+	@Test
+	public void testCompositeElementAndIndexWalk() {
+		final CollectionPersister cp = sessionFactory().getCollectionPersister( Venue.class.getName() + ".slots" );
+		final CollectionDefinition collectionDefinition =
+				MetamodelGraph.forSessionFactory( sessionFactory() ).getCollectionDefinition( cp );
+
+		final CollectionCompositeDefinition index = ExtraAssertions.assertTyping(
+				CollectionCompositeDefinition.class,
+				collectionDefinition.getIndexDefinition().toCompositeDefinition()
+		);
+		assertTrue( index.isIndex() );
+		assertEquals( "indices", index.getName() );
+		assertEquals( Arrays.asList( "city", "street" ), attributeNames( index ) );
+
+		final CollectionCompositeDefinition element = ExtraAssertions.assertTyping(
+				CollectionCompositeDefinition.class,
+				collectionDefinition.getElementDefinition().toCompositeDefinition()
+		);
+		assertFalse( element.isIndex() );
+		assertEquals( "elements", element.getName() );
+		assertEquals( Arrays.asList( "capacity", "organizer" ), attributeNames( element ) );
+		AssociationAttributeDefinition organizer = null;
+		for ( AttributeDefinition attributeDefinition : element.getAttributes() ) {
+			if ( attributeDefinition.getType().isAssociationType() ) {
+				organizer = (AssociationAttributeDefinition) attributeDefinition;
+			}
+		}
+		assertNotNull( organizer );
+		assertFalse( organizer.isCollection() );
+		// the foreign key is the organizer column of the collection table
+		assertEquals(
+				new AssociationKey( ( (QueryableCollection) cp ).getTableName(), new String[] { "organizer_id" } ),
+				organizer.getAssociationKey()
+		);
+		assertEquals( Poster.class.getName(), organizer.toEntityDefinition().getEntityPersister().getEntityName() );
+
+		// the index is walked before the elements; the organizer association is reached, but not walked into
+		final WalkRecorder recorder = new WalkRecorder();
+		MetadataDrivenAssociationVisitor.visitCollection( recorder, cp );
+		assertEquals(
+				Arrays.asList(
+						"startingCollection " + cp.getRole(),
+						"startingComposite " + index,
+						"attribute city",
+						"attribute street",
+						"finishingComposite " + index,
+						"startingComposite " + element,
+						"attribute capacity",
+						"attribute organizer",
+						"finishingComposite " + element,
+						"finishingCollection " + cp.getRole()
+				),
+				recorder.events
+		);
+
+		// associations within composite elements are resolved as the elements are read, not fetched
+		final LoadPlan plan = LoadPlanBuilder.buildRootCollectionLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				cp
+		);
+		final CollectionReturn collectionReturn = ExtraAssertions.assertTyping(
+				CollectionReturn.class,
+				plan.getReturns().get( 0 )
+		);
+		assertEquals( 0, collectionReturn.getFetches().length );
+		assertEquals( 2, collectionReturn.getCollectionAliases().getSuffixedIndexAliases().length );
+		assertEquals( 2, collectionReturn.getCollectionAliases().getSuffixedElementAliases().length );
+	}
+
+	private static List<String> attributeNames(CompositeDefinition compositeDefinition) {
+		final List<String> names = new ArrayList<String>();
+		for ( AttributeDefinition attributeDefinition : compositeDefinition.getAttributes() ) {
+			names.add( attributeDefinition.getName() );
+		}
+		return names;
+	}
+
+	/**
+	 * Records the collections, composites and attributes walked, without walking into associations.
+	 */
+	private static class WalkRecorder implements AssociationVisitationStrategy {
+		private final List<String> events = new ArrayList<String>();
+
+		@Override
+		public void start() {
+		}
+
+		@Override
+		public void finish() {
+		}
+
+		@Override
+		public void startingEntity(EntityDefinition entityDefinition) {
+			events.add( "startingEntity " + entityDefinition.getEntityPersister().getEntityName() );
+		}
+
+		@Override
+		public void finishingEntity(EntityDefinition entityDefinition) {
+			events.add( "finishingEntity " + entityDefinition.getEntityPersister().getEntityName() );
+		}
+
+		@Override
+		public void startingCollection(CollectionDefinition collectionDefinition) {
+			events.add( "startingCollection " + collectionDefinition.getCollectionPersister().getRole() );
+		}
+
+		@Override
+		public void finishingCollection(CollectionDefinition collectionDefinition) {
+			events.add( "finishingCollection " + collectionDefinition.getCollectionPersister().getRole() );
+		}
+
+		@Override
+		public void startingComposite(CompositeDefinition compositeDefinition) {
+			events.add( "startingComposite " + compositeDefinition );
+		}
+
+		@Override
+		public void finishingComposite(CompositeDefinition compositeDefinition) {
+			events.add( "finishingComposite " + compositeDefinition );
+		}
+
+		@Override
+		public boolean startingAttribute(AttributeDefinition attributeDefinition) {
+			events.add( "attribute " + attributeDefinition.getName() );
+			return ! attributeDefinition.getType().isAssociationType();
+		}
+
+		@Override
+		public void finishingAttribute(AttributeDefinition attributeDefinition) {
+		}
+	}
+
+	@Test
+	public void testCompositeOwnedAssociationPlan() {
+		EntityPersister ep = (EntityPersister) sessionFactory().getClassMetadata( Booking.class );
+		LoadPlan plan = LoadPlanBuilder.buildRootEntityLoadPlan(
+				new SingleRootReturnLoadPlanBuilderStrategy( sessionFactory(), LoadQueryInfluencers.NONE, "abc", 0 ),
+				ep
+		);
+		EntityReturn entityReturn = ExtraAssertions.assertTyping( EntityReturn.class, plan.getReturns().get( 0 ) );
+		assertEquals( 1, entityReturn.getFetches().length );
+		CompositeFetch compositeFetch = ExtraAssertions.assertTyping(
+				CompositeFetch.class,
+				entityReturn.getFetches()[0]
+		);
+		assertEquals( 1, compositeFetch.getFetches().length );
+		EntityFetch entityFetch = ExtraAssertions.assertTyping( EntityFetch.class, compositeFetch.getFetches()[0] );
+		assertEquals( Poster.class.getName(), entityFetch.getEntityPersister().getEntityName() );
+	}
+
 	@Entity( name = "Message" )
 	public static class Message {
 		@Id
@@ -146,6 +864,14 @@ public class LoadPlanBuilderTest extends BaseCoreFunctionalTestCase {
 	}
 
 	@Entity( name = "Poster" )
+	@FetchProfile(
+			name = "poster-messages",
+			fetchOverrides = @FetchProfile.FetchOverride(
+					entity = Poster.class,
+					association = "messages",
+					mode = FetchMode.JOIN
+			)
+	)
 	public static class Poster {
 		@Id
 		private Integer id;
@@ -154,4 +880,74 @@ public class LoadPlanBuilderTest extends BaseCoreFunctionalTestCase {
 		private List<Message> messages;
 	}
 
-}
\ No newline at end of file
+	@Entity( name = "Notice" )
+	public static class Notice {
+		@Id
+		private Integer id;
+		private String text;
+	}
+
+	@Entity( name = "PinnedNotice" )
+	public static class PinnedNotice extends Notice {
+		@ManyToOne
+		@JoinColumn
+		private Poster pinnedBy;
+	}
+
+	@Entity( name = "Rating" )
+	public static class Rating implements Serializable {
+		@Id
+		@ManyToOne
+		@JoinColumn
+		private Poster poster;
+		@Id
+		private Integer period;
+		private Integer score;
+	}
+
+	@Entity( name = "Venue" )
+	@FetchProfile(
+			name = "venue-addresses",
+			fetchOverrides = @FetchProfile.FetchOverride(
+					entity = Venue.class,
+					association = "addresses",
+					mode = FetchMode.JOIN
+			)
+	)
+	public static class Venue {
+		@Id
+		private Integer id;
+		@ElementCollection( fetch = FetchType.EAGER )
+		private List<Address> addresses;
+		@ElementCollection
+		private Map<Address,Slot> slots;
+	}
+
+	@Embeddable
+	public static class Address {
+		private String street;
+		private String city;
+	}
+
+	@Embeddable
+	public static class Slot {
+		private Integer capacity;
+		@ManyToOne
+		private Poster organizer;
+	}
+
+	@Entity( name = "Booking" )
+	public static class Booking {
+		@Id
+		private Integer id;
+		private Contact contact;
+	}
+
+	@Embeddable
+	public static class Contact {
+		private String phone;
+		@ManyToOne
+		@JoinColumn
+		private Poster owner;
+	}
+}
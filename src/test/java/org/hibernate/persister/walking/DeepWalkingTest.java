@@ -0,0 +1,482 @@
+/*
+ * jDocBook, processing of DocBook sources
+ *
+ * Copyright (c) 2013, Red Hat Inc. or third-party contributors as
+ * indicated by the @author tags or express copyright attribution
+ * statements applied by the authors.  All third-party contributions are
+ * distributed under license by Red Hat Inc.
+ *
+ * This copyrighted material is made available to anyone wishing to use, modify,
+ * copy, or redistribute it subject to the terms and conditions of the GNU
+ * Lesser General Public License, as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this distribution; if not, write to:
+ * Free Software Foundation, Inc.
+ * 51 Franklin Street, Fifth Floor
+ * Boston, MA  02110-1301  USA
+ */
+package org.hibernate.persister.walking;
+
+import javax.persistence.ElementCollection;
+import javax.persistence.Embeddable;
+import javax.persistence.Embedded;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OrderColumn;
+import java.io.ByteArrayInputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.walking.internal.MetamodelGraph;
+import org.hibernate.persister.walking.spi.AssociationAttributeDefinition;
+import org.hibernate.persister.walking.spi.AssociationKey;
+import org.hibernate.persister.walking.spi.AssociationVisitationStrategy;
+import org.hibernate.persister.walking.spi.AttributeDefinition;
+import org.hibernate.persister.walking.spi.CollectionDefinition;
+import org.hibernate.persister.walking.spi.CollectionElementDefinition;
+import org.hibernate.persister.walking.spi.CollectionIndexDefinition;
+import org.hibernate.persister.walking.spi.CompositeDefinition;
+import org.hibernate.persister.walking.spi.EntityDefinition;
+import org.hibernate.persister.walking.spi.MetadataDrivenAssociationVisitor;
+
+import org.junit.Test;
+
+import org.hibernate.testing.junit4.BaseCoreFunctionalTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the callbacks of {@link MetadataDrivenAssociationVisitor} with those of a recursive walk, as the visitor
+ * used to be implemented, and checks graphs too deep for the recursive walk can be visited.
+ *
+ * @author Steve Ebersole
+ */
+public class DeepWalkingTest extends BaseCoreFunctionalTestCase {
+	// the length of the chain of Node entities, each having a many-to-one to the next
+	private static final int DEPTH = 1000;
+	private static final long SMALL_STACK_SIZE = 128 * 1024;
+	private static final long LARGE_STACK_SIZE = 256 * 1024 * 1024;
+
+	@Override
+	protected Class<?>[] getAnnotatedClasses() {
+		return new Class[] { Order.class, Customer.class, OrderLine.class };
+	}
+
+	@Override
+	protected void configure(Configuration configuration) {
+		super.configure( configuration );
+		// keeps the (legacy) loaders of Node from joining its associations
+		configuration.setProperty( AvailableSettings.MAX_FETCH_DEPTH, "0" );
+	}
+
+	@Override
+	protected void addMappings(Configuration configuration) {
+		super.addMappings( configuration );
+		final StringBuilder mapping = new StringBuilder()
+				.append( "<?xml version=\"1.0\"?>\n" )
+				.append( "<!DOCTYPE hibernate-mapping PUBLIC \"-//Hibernate/Hibernate Mapping DTD 3.0//EN\" " )
+				.append( "\"http://www.hibernate.org/dtd/hibernate-mapping-3.0.dtd\">\n" )
+				.append( "<hibernate-mapping>\n" );
+		for ( int i = 0; i < DEPTH; i++ ) {
+			mapping.append( "<class entity-name=\"Node" ).append( i ).append( "\" table=\"deep_node" ).append( i )
+					.append( "\">\n<id name=\"id\" type=\"integer\"/>\n" );
+			if ( i + 1 < DEPTH ) {
+				mapping.append( "<many-to-one name=\"next\" entity-name=\"Node" ).append( i + 1 )
+						.append( "\" column=\"next\"/>\n" );
+			}
+			mapping.append( "</class>\n" );
+		}
+		mapping.append( "</hibernate-mapping>\n" );
+		try {
+			configuration.addInputStream( new ByteArrayInputStream( mapping.toString().getBytes( "UTF-8" ) ) );
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException( e );
+		}
+	}
+
+	@Test
+	public void testCallbackOrder() {
+		for ( Class entityClass : getAnnotatedClasses() ) {
+			final EntityPersister persister = sessionFactory().getEntityPersister( entityClass.getName() );
+
+			final RecordingStrategy visited = new RecordingStrategy( true );
+			MetadataDrivenAssociationVisitor.visitEntity( visited, persister );
+
+			final RecordingStrategy walked = new RecordingStrategy( true );
+			new RecursiveWalk( walked ).walk( entityDefinition( persister ) );
+
+			assertEquals( walked.events, visited.events );
+		}
+
+		// the order the recursive walk produced for Order : attributes in order, each one's subtree nested in it
+		final RecordingStrategy visited = new RecordingStrategy( true );
+		final String order = Order.class.getName();
+		final String customer = Customer.class.getName();
+		final String orderLine = OrderLine.class.getName();
+		MetadataDrivenAssociationVisitor.visitEntity( visited, sessionFactory().getEntityPersister( order ) );
+		assertEquals(
+				Arrays.asList(
+						"start",
+						"startingEntity EntityDefinition(" + order + ")",
+						"startingAttribute AttributeDefinition(addressesByLabel)",
+						"startingCollection " + order + ".addressesByLabel",
+						"startingComposite CollectionCompositeDefinition(" + order + ".addressesByLabel.elements)",
+						"startingAttribute AttributeDefinition(city)",
+						"finishingAttribute AttributeDefinition(city)",
+						"startingAttribute AttributeDefinition(street)",
+						"finishingAttribute AttributeDefinition(street)",
+						"finishingComposite CollectionCompositeDefinition(" + order + ".addressesByLabel.elements)",
+						"finishingCollection " + order + ".addressesByLabel",
+						"finishingAttribute AttributeDefinition(addressesByLabel)",
+						"startingAttribute AttributeDefinition(customer)",
+						"startingEntity EntityDefinition(" + customer + ")",
+						"startingAttribute AttributeDefinition(name)",
+						"finishingAttribute AttributeDefinition(name)",
+						// circular
+						"startingAttribute AttributeDefinition(orders)",
+						"finishingAttribute AttributeDefinition(orders)",
+						"finishingEntity EntityDefinition(" + customer + ")",
+						"finishingAttribute AttributeDefinition(customer)",
+						"startingAttribute AttributeDefinition(lines)",
+						"startingCollection " + order + ".lines",
+						"startingEntity EntityDefinition(" + orderLine + ")",
+						"startingAttribute AttributeDefinition(order)",
+						"finishingAttribute AttributeDefinition(order)",
+						"startingAttribute AttributeDefinition(quantity)",
+						"finishingAttribute AttributeDefinition(quantity)",
+						"finishingEntity EntityDefinition(" + orderLine + ")",
+						"finishingCollection " + order + ".lines",
+						"finishingAttribute AttributeDefinition(lines)",
+						"startingAttribute AttributeDefinition(shippingAddress)",
+						"startingComposite AttributeDefinition(shippingAddress)",
+						"startingAttribute AttributeDefinition(city)",
+						"finishingAttribute AttributeDefinition(city)",
+						"startingAttribute AttributeDefinition(street)",
+						"finishingAttribute AttributeDefinition(street)",
+						"finishingComposite AttributeDefinition(shippingAddress)",
+						"finishingAttribute AttributeDefinition(shippingAddress)",
+						"finishingEntity EntityDefinition(" + order + ")",
+						"finish"
+				),
+				visited.events
+		);
+	}
+
+	@Test
+	public void testDeepGraph() throws Exception {
+		final EntityPersister persister = sessionFactory().getEntityPersister( "Node0" );
+		final EntityDefinition entityDefinition = entityDefinition( persister );
+
+		// the recursive walk only manages with a large stack...
+		final RecordingStrategy walked = new RecordingStrategy( false );
+		assertNull( runWithStackSize( LARGE_STACK_SIZE, new RecursiveWalk( walked ), entityDefinition ) );
+		final RecordingStrategy overflowed = new RecordingStrategy( false );
+		final Throwable failure = runWithStackSize(
+				SMALL_STACK_SIZE,
+				new RecursiveWalk( overflowed ),
+				entityDefinition
+		);
+		assertTrue( String.valueOf( failure ), failure instanceof StackOverflowError );
+
+		// ... whereas the visitor is not bound by the stack size, and produces the same callbacks
+		final RecordingStrategy visited = new RecordingStrategy( false );
+		assertNull(
+				runWithStackSize(
+						SMALL_STACK_SIZE,
+						new Runnable() {
+							@Override
+							public void run() {
+								MetadataDrivenAssociationVisitor.visitEntity( visited, persister );
+							}
+						}
+				)
+		);
+		assertEquals( DEPTH, visited.maximumEntityDepth );
+		assertEquals( walked.count, visited.count );
+		assertEquals( walked.hash, visited.hash );
+	}
+
+	private EntityDefinition entityDefinition(EntityPersister persister) {
+		return MetamodelGraph.forSessionFactory( sessionFactory() ).getEntityDefinition( persister );
+	}
+
+	private static Throwable runWithStackSize(long stackSize, final RecursiveWalk walk, final EntityDefinition root)
+			throws InterruptedException {
+		return runWithStackSize(
+				stackSize,
+				new Runnable() {
+					@Override
+					public void run() {
+						walk.walk( root );
+					}
+				}
+		);
+	}
+
+	private static Throwable runWithStackSize(long stackSize, final Runnable runnable) throws InterruptedException {
+		final Throwable[] failure = new Throwable[1];
+		final Thread thread = new Thread(
+				null,
+				new Runnable() {
+					@Override
+					public void run() {
+						try {
+							runnable.run();
+						}
+						catch (Throwable t) {
+							failure[0] = t;
+						}
+					}
+				},
+				"walker",
+				stackSize
+		);
+		thread.start();
+		thread.join();
+		return failure[0];
+	}
+
+	/**
+	 * Records the callbacks, either as a list or (for large graphs) as a count and an order-sensitive hash.
+	 */
+	private static class RecordingStrategy implements AssociationVisitationStrategy {
+		private final boolean keepEvents;
+		private final List<String> events = new ArrayList<String>();
+		private long count;
+		private long hash;
+		private int entityDepth;
+		private int maximumEntityDepth;
+
+		private RecordingStrategy(boolean keepEvents) {
+			this.keepEvents = keepEvents;
+		}
+
+		private void record(String event) {
+			if ( keepEvents ) {
+				events.add( event );
+			}
+			count++;
+			hash = 31 * hash + event.hashCode();
+		}
+
+		@Override
+		public void start() {
+			record( "start" );
+		}
+
+		@Override
+		public void finish() {
+			record( "finish" );
+		}
+
+		@Override
+		public void startingEntity(EntityDefinition entityDefinition) {
+			maximumEntityDepth = Math.max( maximumEntityDepth, ++entityDepth );
+			record( "startingEntity " + entityDefinition );
+		}
+
+		@Override
+		public void finishingEntity(EntityDefinition entityDefinition) {
+			entityDepth--;
+			record( "finishingEntity " + entityDefinition );
+		}
+
+		@Override
+		public void startingCollection(CollectionDefinition collectionDefinition) {
+			record( "startingCollection " + collectionDefinition.getCollectionPersister().getRole() );
+		}
+
+		@Override
+		public void finishingCollection(CollectionDefinition collectionDefinition) {
+			record( "finishingCollection " + collectionDefinition.getCollectionPersister().getRole() );
+		}
+
+		@Override
+		public void startingComposite(CompositeDefinition compositeDefinition) {
+			record( "startingComposite " + compositeDefinition );
+		}
+
+		@Override
+		public void finishingComposite(CompositeDefinition compositeDefinition) {
+			record( "finishingComposite " + compositeDefinition );
+		}
+
+		@Override
+		public boolean startingAttribute(AttributeDefinition attributeDefinition) {
+			record( "startingAttribute " + attributeDefinition );
+			return true;
+		}
+
+		@Override
+		public void finishingAttribute(AttributeDefinition attributeDefinition) {
+			record( "finishingAttribute " + attributeDefinition );
+		}
+	}
+
+	/**
+	 * The recursive walk the visitor replaced.
+	 */
+	private static class RecursiveWalk {
+		private final AssociationVisitationStrategy strategy;
+		private final Set<AssociationKey> visitedAssociationKeys = new HashSet<AssociationKey>();
+
+		private RecursiveWalk(AssociationVisitationStrategy strategy) {
+			this.strategy = strategy;
+		}
+
+		private void walk(EntityDefinition entityDefinition) {
+			strategy.start();
+			try {
+				visitEntityDefinition( entityDefinition );
+			}
+			finally {
+				strategy.finish();
+			}
+		}
+
+		private void visitEntityDefinition(EntityDefinition entityDefinition) {
+			strategy.startingEntity( entityDefinition );
+			try {
+				visitAttributes( entityDefinition.getAttributes() );
+				final Iterable<AttributeDefinition> identifierAttributes =
+						entityDefinition.getEmbeddedCompositeIdentifierAttributes();
+				if ( identifierAttributes != null ) {
+					visitAttributes( identifierAttributes );
+				}
+			}
+			finally {
+				strategy.finishingEntity( entityDefinition );
+			}
+		}
+
+		private void visitAttributes(Iterable<AttributeDefinition> attributes) {
+			for ( AttributeDefinition attributeDefinition : attributes ) {
+				if ( strategy.startingAttribute( attributeDefinition ) ) {
+					if ( attributeDefinition.getType().isAssociationType() ) {
+						visitAssociation( (AssociationAttributeDefinition) attributeDefinition );
+					}
+					else if ( attributeDefinition.getType().isComponentType() ) {
+						visitCompositeDefinition( (CompositeDefinition) attributeDefinition );
+					}
+				}
+				strategy.finishingAttribute( attributeDefinition );
+			}
+		}
+
+		private void visitAssociation(AssociationAttributeDefinition attribute) {
+			if ( !visitedAssociationKeys.add( attribute.getAssociationKey() ) ) {
+				return;
+			}
+			if ( attribute.isCollection() ) {
+				visitCollectionDefinition( attribute.toCollectionDefinition() );
+			}
+			else {
+				visitEntityDefinition( attribute.toEntityDefinition() );
+			}
+		}
+
+		private void visitCompositeDefinition(CompositeDefinition compositeDefinition) {
+			strategy.startingComposite( compositeDefinition );
+			try {
+				visitAttributes( compositeDefinition.getAttributes() );
+			}
+			finally {
+				strategy.finishingComposite( compositeDefinition );
+			}
+		}
+
+		private void visitCollectionDefinition(CollectionDefinition collectionDefinition) {
+			strategy.startingCollection( collectionDefinition );
+			try {
+				final CollectionIndexDefinition indexDefinition = collectionDefinition.getIndexDefinition();
+				if ( indexDefinition != null ) {
+					if ( indexDefinition.getType().isComponentType() ) {
+						visitCompositeDefinition( indexDefinition.toCompositeDefinition() );
+					}
+					else if ( indexDefinition.getType().isAssociationType() ) {
+						visitEntityDefinition( indexDefinition.toEntityDefinition() );
+					}
+				}
+				final CollectionElementDefinition elementDefinition = collectionDefinition.getElementDefinition();
+				if ( elementDefinition.getType().isComponentType() ) {
+					visitCompositeDefinition( elementDefinition.toCompositeDefinition() );
+				}
+				else if ( elementDefinition.getType().isEntityType() ) {
+					visitEntityDefinition( elementDefinition.toEntityDefinition() );
+				}
+			}
+			finally {
+				strategy.finishingCollection( collectionDefinition );
+			}
+		}
+	}
+
+	@Entity( name = "Order" )
+	public static class Order {
+		@Id
+		private Integer id;
+		@ManyToOne
+		@JoinColumn
+		private Customer customer;
+		@Embedded
+		private Address shippingAddress;
+		@OneToMany( mappedBy = "order" )
+		@OrderColumn
+		private List<OrderLine> lines;
+		@ElementCollection
+		private Map<String,Address> addressesByLabel;
+	}
+
+	@Entity( name = "Customer" )
+	public static class Customer {
+		@Id
+		private Integer id;
+		private String name;
+		@OneToMany( mappedBy = "customer" )
+		private Set<Order> orders;
+	}
+
+	@Entity( name = "OrderLine" )
+	public static class OrderLine {
+		@EmbeddedId
+		private OrderLineId id;
+		@ManyToOne
+		@JoinColumn
+		private Order order;
+		private Integer quantity;
+	}
+
+	@Embeddable
+	public static class OrderLineId implements Serializable {
+		private Integer orderNumber;
+		private Integer lineNumber;
+	}
+
+	@Embeddable
+	public static class Address {
+		private String street;
+		private String city;
+	}
+}